@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -44,18 +45,17 @@ import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.Password;
 import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.exceptions.ErrorType;
-import us.kbase.auth2.lib.exceptions.IdentityLinkedException;
 import us.kbase.auth2.lib.exceptions.IdentityRetrievalException;
 import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.IllegalPasswordException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
-import us.kbase.auth2.lib.exceptions.UserExistsException;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.IdentityProviderConfig;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.providers.GlobusIdentityProviderFactory;
 import us.kbase.auth2.service.AuthBuilder;
 import us.kbase.auth2.service.AuthExternalConfig;
@@ -266,7 +266,7 @@ public class AuthCLI {
 			return 1;
 		}
 		final Client cli = ClientBuilder.newClient();
-		int success = 0;
+		final Map<UserName, RemoteIdentity> toImport = new LinkedHashMap<>();
 		for (final String user: users) {
 			out.println("Importing user " + user);
 			
@@ -297,12 +297,35 @@ public class AuthCLI {
 			out.println("\tUsername : " + ri.getDetails().getUsername());
 			out.println("\tFull name: " + ri.getDetails().getFullname());
 			out.println("\tEmail    : " + ri.getDetails().getEmail());
+			final UserName userName;
 			try {
-				auth.importUser(getGlobusUserName(ri), ri);
-				success++;
-			} catch (UserExistsException | IllegalParameterException | IdentityLinkedException |
-					AuthStorageException e) {
+				userName = getGlobusUserName(ri);
+			} catch (IllegalParameterException e) {
 				printError("\tError for user " + user, e, a);
+				continue;
+			}
+			if (toImport.containsKey(userName)) {
+				err.println("\tError for user " + user + ": user name " + userName.getName() +
+						" was already supplied by a previous entry");
+				continue;
+			}
+			toImport.put(userName, ri);
+		}
+		out.println(String.format("Importing %s users", toImport.size()));
+		final Map<UserName, CreateUserResult> results;
+		try {
+			results = auth.importUsers(toImport);
+		} catch (AuthStorageException e) {
+			printError("Error importing users", e, a);
+			return 1;
+		}
+		int success = 0;
+		for (final UserName userName: toImport.keySet()) {
+			final CreateUserResult res = results.get(userName);
+			if (CreateUserResult.CREATED.equals(res)) {
+				success++;
+			} else {
+				err.println("Error for user " + userName.getName() + ": " + res);
 			}
 		}
 		final Duration d = Duration.between(now, LocalDateTime.now());
@@ -0,0 +1,548 @@
+package us.kbase.auth2.client;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.AuthException;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+
+/** A client for the authentication service token and user APIs.
+ *
+ * Validated tokens are cached for the time the service specifies, or until the token expires
+ * if sooner. Concurrent requests to validate the same token result in a single request to the
+ * service. Tokens are cached by their hash, so the cache does not contain usable tokens.
+ *
+ * Connections are reused via the JVM's HTTP keep-alive cache, which holds at most
+ * <code>http.maxConnections</code> (default 5) idle connections per host. The number of
+ * concurrent requests is limited to the maximum number of connections provided to the
+ * builder.
+ *
+ * This class is thread safe.
+ */
+public class AuthClient {
+
+	private static final String TOKEN_PATH = "api/V2/token";
+	private static final String ME_PATH = "api/V2/me";
+	private static final String USERS_PATH = "api/V2/users";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final TypeReference<Map<String, Object>> MAP_TYPE =
+			new TypeReference<Map<String, Object>>() {};
+
+	private static final Map<String, TokenType> TOKEN_TYPES = new HashMap<>();
+	static {
+		for (final TokenType tt: TokenType.values()) {
+			TOKEN_TYPES.put(tt.getDescription(), tt);
+		}
+	}
+
+	private final URL url;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final int userBatchSize;
+	private final Semaphore connections;
+	private final Cache<String, CachedToken> tokenCache;
+
+	private AuthClient(
+			final URL url,
+			final int tokenCacheSize,
+			final int maxConnections,
+			final int connectTimeoutMillis,
+			final int readTimeoutMillis,
+			final int userBatchSize) {
+		this.url = url;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.userBatchSize = userBatchSize;
+		connections = new Semaphore(maxConnections);
+		tokenCache = CacheBuilder.newBuilder().maximumSize(tokenCacheSize).recordStats().build();
+	}
+
+	private static class CachedToken {
+
+		private final StoredToken token;
+		private final long expiresNanos;
+
+		private CachedToken(final StoredToken token, final long expiresNanos) {
+			this.token = token;
+			this.expiresNanos = expiresNanos;
+		}
+
+		private boolean isExpired() {
+			return System.nanoTime() - expiresNanos >= 0;
+		}
+	}
+
+	/** Get the root URL of the authentication service.
+	 * @return the URL.
+	 */
+	public URL getURL() {
+		return url;
+	}
+
+	/** Get statistics for the token cache. A load is counted for each request to the service.
+	 * Concurrent lookups of the same token are each counted as a miss, but share one load.
+	 * @return the cache statistics.
+	 */
+	public CacheStats getTokenCacheStats() {
+		return tokenCache.stats();
+	}
+
+	/** Remove all tokens from the token cache.
+	 */
+	public void clearTokenCache() {
+		tokenCache.invalidateAll();
+	}
+
+	/** Validate a token and get the token details from the service or the cache.
+	 *
+	 * Only the custom context is included in the token's creation context.
+	 * @param token the token to validate.
+	 * @return the token details.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws AuthException if the service returned any other error.
+	 * @throws IOException if the service could not be contacted or returned an unexpected
+	 * response.
+	 */
+	public StoredToken validateToken(final IncomingToken token)
+			throws AuthException, IOException {
+		nonNull(token, "token");
+		final String hash = token.getHashedToken().getTokenHash();
+		final CachedToken ct = getCachedToken(token, hash);
+		if (!ct.isExpired()) {
+			return ct.token;
+		}
+		// only remove the entry if another thread hasn't already replaced it
+		tokenCache.asMap().remove(hash, ct);
+		/* Don't check the expiration time again, as a token with a cache time of zero would
+		 * never be returned.
+		 */
+		return getCachedToken(token, hash).token;
+	}
+
+	private CachedToken getCachedToken(final IncomingToken token, final String hash)
+			throws AuthException, IOException {
+		try {
+			// concurrent calls for the same key wait for the first call to load the token
+			return tokenCache.get(hash, () -> fetchToken(token));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof AuthException) {
+				throw (AuthException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private CachedToken fetchToken(final IncomingToken token) throws AuthException, IOException {
+		final Map<String, Object> json = request(TOKEN_PATH, token);
+		final long now = System.nanoTime();
+		final StoredToken st = toToken(json);
+		final long cacheMillis;
+		try {
+			cacheMillis = Math.min(getLong(json, "cachefor"),
+					st.getExpirationDate().toEpochMilli() - Instant.now().toEpochMilli());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unexpected token from the authentication service: " +
+					e.getMessage(), e);
+		}
+		return new CachedToken(st, now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheMillis)));
+	}
+
+	/** Get the user associated with a token from the service. The user is not cached.
+	 *
+	 * The user's remote identities include only the user name at the identity provider.
+	 * @param token the user's token.
+	 * @return the user.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws AuthException if the service returned any other error, for example if the user
+	 * is disabled.
+	 * @throws IOException if the service could not be contacted or returned an unexpected
+	 * response.
+	 */
+	public AuthUser getMe(final IncomingToken token) throws AuthException, IOException {
+		nonNull(token, "token");
+		return toUser(request(ME_PATH, token));
+	}
+
+	/** Get the display names for a set of users. Users that do not exist are not included
+	 * in the returned map. Large sets of users are split into batches, each of which is one
+	 * request to the service.
+	 * @param token any valid token.
+	 * @param userNames the users for which to get display names.
+	 * @return a mapping of user name to display name.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws AuthException if the service returned any other error.
+	 * @throws IOException if the service could not be contacted or returned an unexpected
+	 * response.
+	 */
+	public Map<UserName, DisplayName> getDisplayNames(
+			final IncomingToken token,
+			final Set<UserName> userNames)
+			throws AuthException, IOException {
+		nonNull(token, "token");
+		nonNull(userNames, "userNames");
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		final List<String> batch = new ArrayList<>();
+		for (final UserName n: userNames) {
+			nonNull(n, "Null name in userNames");
+			batch.add(n.getName());
+			if (batch.size() >= userBatchSize) {
+				getDisplayNames(token, batch, ret);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			getDisplayNames(token, batch, ret);
+		}
+		return ret;
+	}
+
+	private void getDisplayNames(
+			final IncomingToken token,
+			final List<String> userNames,
+			final Map<UserName, DisplayName> ret)
+			throws AuthException, IOException {
+		final Map<String, Object> json = request(USERS_PATH + "?list=" +
+				URLEncoder.encode(String.join(",", userNames), "UTF-8"), token);
+		try {
+			for (final Entry<String, Object> e: json.entrySet()) {
+				ret.put(new UserName(e.getKey()), new DisplayName((String) e.getValue()));
+			}
+		} catch (MissingParameterException | IllegalParameterException | ClassCastException e) {
+			throw new IOException("Unexpected response from the authentication service: " +
+					e.getMessage(), e);
+		}
+	}
+
+	private Map<String, Object> request(final String path, final IncomingToken token)
+			throws AuthException, IOException {
+		final URL target;
+		try {
+			target = url.toURI().resolve(path).toURL();
+		} catch (URISyntaxException | MalformedURLException e) {
+			throw new RuntimeException("This should be impossible", e);
+		}
+		try {
+			connections.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a connection", e);
+		}
+		try {
+			final HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+			conn.setConnectTimeout(connectTimeoutMillis);
+			conn.setReadTimeout(readTimeoutMillis);
+			conn.setRequestProperty("authorization", token.getToken());
+			conn.setRequestProperty("accept", "application/json");
+			final int code = conn.getResponseCode();
+			// the response must be read fully for the connection to be reused
+			final byte[] body = readFully(code >= 400 ? conn.getErrorStream() :
+					conn.getInputStream());
+			final Map<String, Object> json;
+			try {
+				json = MAPPER.readValue(body, MAP_TYPE);
+			} catch (IOException e) {
+				throw new IOException(String.format(
+						"Unexpected response from the authentication service with code %s: %s",
+						code, new String(body, StandardCharsets.UTF_8)), e);
+			}
+			if (code >= 400) {
+				throwError(code, json);
+			}
+			return json;
+		} finally {
+			connections.release();
+		}
+	}
+
+	private static byte[] readFully(final InputStream is) throws IOException {
+		if (is == null) {
+			return new byte[0];
+		}
+		try (final InputStream in = is) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[8192];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static void throwError(final int code, final Map<String, Object> json)
+			throws AuthException, IOException {
+		final Object error = json.get("error");
+		if (!(error instanceof Map)) {
+			throw new IOException("Authentication service returned error code " + code);
+		}
+		final Map<?, ?> err = (Map<?, ?>) error;
+		final Object appcode = err.get("appcode");
+		final Object message = err.get("message");
+		if (!(appcode instanceof Integer)) {
+			throw new IOException(String.format(
+					"Authentication service returned error code %s: %s", code, message));
+		}
+		final ErrorType et;
+		try {
+			et = ErrorType.fromErrorCode((Integer) appcode);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(String.format(
+					"Authentication service returned unknown error code %s: %s",
+					appcode, message));
+		}
+		final String msg = stripErrorPrefix(et, message == null ? null : message.toString());
+		if (ErrorType.INVALID_TOKEN.equals(et)) {
+			throw new InvalidTokenException(msg);
+		}
+		throw new AuthException(et, msg);
+	}
+
+	// the service message includes the error code and type, which the exception will add again
+	private static String stripErrorPrefix(final ErrorType et, final String message) {
+		if (message == null) {
+			return null;
+		}
+		final String prefix = et.getErrorCode() + " " + et.getError();
+		if (message.startsWith(prefix + ": ")) {
+			return message.substring(prefix.length() + 2);
+		} else if (message.equals(prefix)) {
+			return null;
+		}
+		return message;
+	}
+
+	private static StoredToken toToken(final Map<String, Object> json) throws IOException {
+		try {
+			final TokenType type = TOKEN_TYPES.get(getString(json, "type"));
+			if (type == null) {
+				throw new IllegalArgumentException("Unknown token type: " + json.get("type"));
+			}
+			final TokenCreationContext.Builder ctx = TokenCreationContext.getBuilder();
+			final Object custom = json.get("custom");
+			if (custom != null) {
+				for (final Entry<?, ?> e: ((Map<?, ?>) custom).entrySet()) {
+					ctx.withCustomContext((String) e.getKey(), (String) e.getValue());
+				}
+			}
+			final String name = (String) json.get("name");
+			return StoredToken.getBuilder(type, UUID.fromString(getString(json, "id")),
+					new UserName(getString(json, "user")))
+					.withLifeTime(Instant.ofEpochMilli(getLong(json, "created")),
+							Instant.ofEpochMilli(getLong(json, "expires")))
+					.withNullableTokenName(name == null ? null : new TokenName(name))
+					.withContext(ctx.build())
+					.build();
+		} catch (MissingParameterException | IllegalParameterException |
+				IllegalArgumentException | ClassCastException e) {
+			throw new IOException("Unexpected token from the authentication service: " +
+					e.getMessage(), e);
+		}
+	}
+
+	private static AuthUser toUser(final Map<String, Object> json) throws IOException {
+		try {
+			final AuthUser.Builder b = AuthUser.getBuilder(
+					new UserName(getString(json, "user")),
+					new DisplayName(getString(json, "display")),
+					Instant.ofEpochMilli(getLong(json, "created")));
+			final String email = (String) json.get("email");
+			if (email != null) {
+				b.withEmailAddress(new EmailAddress(email));
+			}
+			if (json.get("lastlogin") != null) {
+				b.withLastLogin(Instant.ofEpochMilli(getLong(json, "lastlogin")));
+			}
+			for (final Map<String, Object> r: getList(json, "roles")) {
+				b.withRole(Role.getRole(getString(r, "id")));
+			}
+			for (final Object cr: (List<?>) json.get("customroles")) {
+				b.withCustomRole((String) cr);
+			}
+			for (final Map<String, Object> p: getList(json, "policyids")) {
+				b.withPolicyID(new PolicyID(getString(p, "id")),
+						Instant.ofEpochMilli(getLong(p, "agreedon")));
+			}
+			for (final Map<String, Object> i: getList(json, "idents")) {
+				b.withIdentity(new RemoteIdentity(
+						new RemoteIdentityID(getString(i, "provider"), getString(i, "id")),
+						new RemoteIdentityDetails(getString(i, "provusername"), null, null)));
+			}
+			return b.build();
+		} catch (MissingParameterException | IllegalParameterException |
+				IllegalArgumentException | IllegalStateException | ClassCastException |
+				NullPointerException e) {
+			throw new IOException("Unexpected user from the authentication service: " +
+					e.getMessage(), e);
+		}
+	}
+
+	private static String getString(final Map<String, Object> json, final String field) {
+		final Object value = json.get(field);
+		if (!(value instanceof String)) {
+			throw new IllegalArgumentException("Missing or invalid field: " + field);
+		}
+		return (String) value;
+	}
+
+	private static long getLong(final Map<String, Object> json, final String field) {
+		final Object value = json.get(field);
+		if (!(value instanceof Number)) {
+			throw new IllegalArgumentException("Missing or invalid field: " + field);
+		}
+		return ((Number) value).longValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> getList(
+			final Map<String, Object> json,
+			final String field) {
+		final Object value = json.get(field);
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		return (List<Map<String, Object>>) value;
+	}
+
+	/** Get a builder for an {@link AuthClient}.
+	 * @param url the root URL of the authentication service.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder(final URL url) {
+		return new Builder(url);
+	}
+
+	/** A builder for an {@link AuthClient}.
+	 */
+	public static class Builder {
+
+		private final URL url;
+		private int tokenCacheSize = 10000;
+		private int maxConnections = 10;
+		private int connectTimeoutMillis = 10000;
+		private int readTimeoutMillis = 30000;
+		private int userBatchSize = 100;
+
+		private Builder(final URL url) {
+			nonNull(url, "url");
+			if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+				throw new IllegalArgumentException("url must be an http or https URL");
+			}
+			// ensure relative paths resolve against the full URL
+			try {
+				this.url = url.toString().endsWith("/") ? url : new URL(url.toString() + "/");
+			} catch (MalformedURLException e) {
+				throw new RuntimeException("This should be impossible", e);
+			}
+		}
+
+		/** Set the maximum number of tokens to cache. The default is 10000.
+		 * @param size the maximum cache size. Zero disables caching.
+		 * @return this builder.
+		 */
+		public Builder withTokenCacheSize(final int size) {
+			if (size < 0) {
+				throw new IllegalArgumentException("size must be at least 0");
+			}
+			tokenCacheSize = size;
+			return this;
+		}
+
+		/** Set the maximum number of concurrent requests to the service. The default is 10.
+		 * @param maxConnections the maximum number of concurrent requests.
+		 * @return this builder.
+		 */
+		public Builder withMaxConnections(final int maxConnections) {
+			if (maxConnections < 1) {
+				throw new IllegalArgumentException("maxConnections must be at least 1");
+			}
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/** Set the connection and read timeouts. The defaults are 10 and 30 seconds.
+		 * @param connectTimeoutMillis the connection timeout in milliseconds.
+		 * @param readTimeoutMillis the read timeout in milliseconds.
+		 * @return this builder.
+		 */
+		public Builder withTimeouts(final int connectTimeoutMillis, final int readTimeoutMillis) {
+			if (connectTimeoutMillis < 1 || readTimeoutMillis < 1) {
+				throw new IllegalArgumentException("timeouts must be at least 1");
+			}
+			this.connectTimeoutMillis = connectTimeoutMillis;
+			this.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+
+		/** Set the maximum number of users to request from the service in one request when
+		 * getting display names. The default is 100.
+		 * @param batchSize the batch size.
+		 * @return this builder.
+		 */
+		public Builder withUserBatchSize(final int batchSize) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException("batchSize must be at least 1");
+			}
+			userBatchSize = batchSize;
+			return this;
+		}
+
+		/** Build the client.
+		 * @return the client.
+		 */
+		public AuthClient build() {
+			return new AuthClient(url, tokenCacheSize, maxConnections, connectTimeoutMillis,
+					readTimeoutMillis, userBatchSize);
+		}
+	}
+}
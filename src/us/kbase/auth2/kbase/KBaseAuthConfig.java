@@ -4,8 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.spec.InvalidKeySpecException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,6 +22,7 @@ import com.google.common.base.Optional;
 
 import us.kbase.auth2.lib.identity.IdentityProviderConfig;
 import us.kbase.auth2.lib.identity.IdentityProviderConfig.IdentityProviderConfigurationException;
+import us.kbase.auth2.lib.token.TokenSigner;
 import us.kbase.auth2.service.AuthStartupConfig;
 import us.kbase.auth2.service.SLF4JAutoLogger;
 import us.kbase.auth2.service.exceptions.AuthConfigurationException;
@@ -40,7 +44,13 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 	private static final String KEY_MONGO_DB = "mongo-db";
 	private static final String KEY_MONGO_USER = "mongo-user";
 	private static final String KEY_MONGO_PWD = "mongo-pwd";
+	private static final String KEY_MONGO_MAX_CONNECTIONS = "mongo-max-connections";
+	private static final String KEY_USER_AGENT_ANALYZERS = "user-agent-analyzers";
 	private static final String KEY_COOKIE_NAME = "token-cookie-name";
+	private static final String KEY_SIGNING_KEY_FILE = "token-signing-key-file";
+	private static final String KEY_SIGNING_LIFETIME = "token-signing-lifetime-sec";
+	private static final String KEY_TOKEN_SNAPSHOT_FILE = "token-snapshot-file";
+	private static final long DEFAULT_SIGNING_LIFETIME_SEC = 300;
 	private static final String KEY_ID_PROV = "identity-providers";
 	private static final String KEY_PREFIX_ID_PROVS = "identity-provider-";
 	private static final String KEY_SUFFIX_ID_PROVS_FACTORY = "-factory";
@@ -60,8 +70,12 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 	private final String mongoDB;
 	private final Optional<String> mongoUser;
 	private final Optional<char[]> mongoPwd;
+	private final Optional<Integer> mongoMaxConnections;
+	private final Optional<Integer> userAgentAnalyzers;
 	private final String cookieName;
 	private final Set<IdentityProviderConfig> providers;
+	private final Optional<TokenSigner> tokenSigner;
+	private final Optional<Path> tokenSnapshotFile;
 
 	public KBaseAuthConfig() throws AuthConfigurationException {
 		this(getConfigPathFromEnv(), false);
@@ -95,8 +109,14 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 			mongoPwd = mongop.isPresent() ?
 					Optional.of(mongop.get().toCharArray()) : Optional.absent();
 			mongop = null; //GC
+			mongoMaxConnections = getPositiveInteger(KEY_MONGO_MAX_CONNECTIONS, cfg);
+			userAgentAnalyzers = getPositiveInteger(KEY_USER_AGENT_ANALYZERS, cfg);
 			cookieName = getString(KEY_COOKIE_NAME, cfg, true);
 			providers = getProviders(cfg);
+			tokenSigner = getTokenSigner(cfg);
+			final String snapshot = getString(KEY_TOKEN_SNAPSHOT_FILE, cfg);
+			tokenSnapshotFile = snapshot == null ?
+					Optional.absent() : Optional.of(Paths.get(snapshot));
 		} catch (AuthConfigurationException e) {
 			if (!nullLogger) {
 				LoggerFactory.getLogger(getClass()).error(
@@ -142,6 +162,64 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 		return Collections.unmodifiableSet(ips);
 	}
 	
+	private Optional<Integer> getPositiveInteger(
+			final String paramName,
+			final Map<String, String> cfg)
+			throws AuthConfigurationException {
+		final String value = getString(paramName, cfg);
+		if (value == null) {
+			return Optional.absent();
+		}
+		final int i;
+		try {
+			i = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new AuthConfigurationException(String.format(
+					"Parameter %s in section %s of config file %s is not an integer: %s",
+					paramName, CFG_LOC, cfg.get(TEMP_KEY_CFG_FILE), value));
+		}
+		if (i < 1) {
+			throw new AuthConfigurationException(String.format(
+					"Parameter %s in section %s of config file %s must be at least 1",
+					paramName, CFG_LOC, cfg.get(TEMP_KEY_CFG_FILE)));
+		}
+		return Optional.of(i);
+	}
+	
+	private Optional<TokenSigner> getTokenSigner(final Map<String, String> cfg)
+			throws AuthConfigurationException {
+		final String keyFile = getString(KEY_SIGNING_KEY_FILE, cfg);
+		if (keyFile == null) {
+			return Optional.absent();
+		}
+		final String lifetime = getString(KEY_SIGNING_LIFETIME, cfg);
+		final long lifetimeSec;
+		try {
+			lifetimeSec = lifetime == null ? DEFAULT_SIGNING_LIFETIME_SEC :
+					Long.parseLong(lifetime);
+		} catch (NumberFormatException e) {
+			throw new AuthConfigurationException(String.format(
+					"Parameter %s in section %s of config file %s is not an integer: %s",
+					KEY_SIGNING_LIFETIME, CFG_LOC, cfg.get(TEMP_KEY_CFG_FILE), lifetime));
+		}
+		if (lifetimeSec < 1) {
+			throw new AuthConfigurationException(String.format(
+					"Parameter %s in section %s of config file %s must be at least 1",
+					KEY_SIGNING_LIFETIME, CFG_LOC, cfg.get(TEMP_KEY_CFG_FILE)));
+		}
+		try {
+			return Optional.of(TokenSigner.fromPEM(new String(
+					Files.readAllBytes(Paths.get(keyFile)), StandardCharsets.US_ASCII),
+					lifetimeSec));
+		} catch (IOException | InvalidKeySpecException | IllegalArgumentException e) {
+			throw new AuthConfigurationException(String.format(
+					"Could not load token signing key from file %s given by parameter %s " +
+					"in section %s of config file %s: %s",
+					keyFile, KEY_SIGNING_KEY_FILE, CFG_LOC, cfg.get(TEMP_KEY_CFG_FILE),
+					e.getMessage()), e);
+		}
+	}
+
 	private Map<String, String> getCustom(final String keyprefix, final Map<String, String> cfg) {
 		final Map<String, String> ret = new HashMap<>();
 		for (final String key: cfg.keySet()) {
@@ -292,8 +370,28 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 		return mongoPwd;
 	}
 	
+	@Override
+	public Optional<Integer> getMongoMaxConnections() {
+		return mongoMaxConnections;
+	}
+	
+	@Override
+	public Optional<Integer> getUserAgentAnalyzerCount() {
+		return userAgentAnalyzers;
+	}
+	
 	@Override
 	public String getTokenCookieName() {
 		return cookieName;
 	}
+
+	@Override
+	public Optional<TokenSigner> getTokenSigner() {
+		return tokenSigner;
+	}
+
+	@Override
+	public Optional<Path> getTokenSnapshotFile() {
+		return tokenSnapshotFile;
+	}
 }
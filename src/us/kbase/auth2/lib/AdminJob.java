@@ -0,0 +1,287 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.google.common.base.Optional;
+
+/** An administrative job that updates or deletes records for many users, for example revoking
+ * all tokens. Jobs are processed in batches in the background and their progress is stored
+ * in the storage system, so that processing resumes where it left off if the server restarts.
+ */
+public class AdminJob {
+
+	private final UUID id;
+	private final AdminJobType type;
+	private final Optional<String> target;
+	private final UserName admin;
+	private final Instant created;
+	private final long matched;
+	private final long processed;
+	private final Optional<Instant> completed;
+
+	private AdminJob(
+			final UUID id,
+			final AdminJobType type,
+			final Optional<String> target,
+			final UserName admin,
+			final Instant created,
+			final long matched,
+			final long processed,
+			final Optional<Instant> completed) {
+		this.id = id;
+		this.type = type;
+		this.target = target;
+		this.admin = admin;
+		this.created = created;
+		this.matched = matched;
+		this.processed = processed;
+		this.completed = completed;
+	}
+
+	/** Get the job's ID.
+	 * @return the ID.
+	 */
+	public UUID getID() {
+		return id;
+	}
+
+	/** Get the type of the job.
+	 * @return the job type.
+	 */
+	public AdminJobType getType() {
+		return type;
+	}
+
+	/** Get the target of the job, if any - for example, the ID of the policy to remove from
+	 * users.
+	 * @return the target of the job.
+	 */
+	public Optional<String> getTarget() {
+		return target;
+	}
+
+	/** Get the name of the administrator that started the job.
+	 * @return the administrator's user name.
+	 */
+	public UserName getAdmin() {
+		return admin;
+	}
+
+	/** Get the date the job was created.
+	 * @return the creation date.
+	 */
+	public Instant getCreated() {
+		return created;
+	}
+
+	/** Get the number of records that the job has found to update or delete so far. Records
+	 * that were already in the target state, for example local users that were already required
+	 * to reset their password, are matched but not processed.
+	 * @return the number of matched records.
+	 */
+	public long getMatched() {
+		return matched;
+	}
+
+	/** Get the number of records that the job has updated or deleted so far.
+	 * @return the number of processed records.
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/** Get the date the job was completed, if it is complete.
+	 * @return the completion date.
+	 */
+	public Optional<Instant> getCompleted() {
+		return completed;
+	}
+
+	/** Check whether the job is complete.
+	 * @return true if the job is complete, false otherwise.
+	 */
+	public boolean isComplete() {
+		return completed.isPresent();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((admin == null) ? 0 : admin.hashCode());
+		result = prime * result + ((completed == null) ? 0 : completed.hashCode());
+		result = prime * result + ((created == null) ? 0 : created.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + (int) (matched ^ (matched >>> 32));
+		result = prime * result + (int) (processed ^ (processed >>> 32));
+		result = prime * result + ((target == null) ? 0 : target.hashCode());
+		result = prime * result + ((type == null) ? 0 : type.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		AdminJob other = (AdminJob) obj;
+		if (admin == null) {
+			if (other.admin != null) {
+				return false;
+			}
+		} else if (!admin.equals(other.admin)) {
+			return false;
+		}
+		if (completed == null) {
+			if (other.completed != null) {
+				return false;
+			}
+		} else if (!completed.equals(other.completed)) {
+			return false;
+		}
+		if (created == null) {
+			if (other.created != null) {
+				return false;
+			}
+		} else if (!created.equals(other.created)) {
+			return false;
+		}
+		if (id == null) {
+			if (other.id != null) {
+				return false;
+			}
+		} else if (!id.equals(other.id)) {
+			return false;
+		}
+		if (matched != other.matched) {
+			return false;
+		}
+		if (processed != other.processed) {
+			return false;
+		}
+		if (target == null) {
+			if (other.target != null) {
+				return false;
+			}
+		} else if (!target.equals(other.target)) {
+			return false;
+		}
+		if (type != other.type) {
+			return false;
+		}
+		return true;
+	}
+
+	/** Get a builder for an AdminJob.
+	 * @param id the job's ID.
+	 * @param type the type of the job.
+	 * @param admin the name of the administrator that started the job.
+	 * @param created the date the job was created.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder(
+			final UUID id,
+			final AdminJobType type,
+			final UserName admin,
+			final Instant created) {
+		return new Builder(id, type, admin, created);
+	}
+
+	/** A builder for an AdminJob.
+	 */
+	public static class Builder {
+
+		private final UUID id;
+		private final AdminJobType type;
+		private Optional<String> target = Optional.absent();
+		private final UserName admin;
+		private final Instant created;
+		private long matched = 0;
+		private long processed = 0;
+		private Optional<Instant> completed = Optional.absent();
+
+		private Builder(
+				final UUID id,
+				final AdminJobType type,
+				final UserName admin,
+				final Instant created) {
+			nonNull(id, "id");
+			nonNull(type, "type");
+			nonNull(admin, "admin");
+			nonNull(created, "created");
+			this.id = id;
+			this.type = type;
+			this.admin = admin;
+			this.created = created;
+		}
+
+		/** Set the target of the job.
+		 * @param target the target of the job.
+		 * @return this builder.
+		 */
+		public Builder withTarget(final String target) {
+			checkStringNoCheckedException(target, "target");
+			this.target = Optional.of(target);
+			return this;
+		}
+
+		/** Set the number of records the job has found to update or delete so far.
+		 * @param matched the number of matched records.
+		 * @return this builder.
+		 */
+		public Builder withMatched(final long matched) {
+			if (matched < 0) {
+				throw new IllegalArgumentException("matched must be >= 0");
+			}
+			this.matched = matched;
+			return this;
+		}
+
+		/** Set the number of records the job has updated or deleted so far.
+		 * @param processed the number of processed records.
+		 * @return this builder.
+		 */
+		public Builder withProcessed(final long processed) {
+			if (processed < 0) {
+				throw new IllegalArgumentException("processed must be >= 0");
+			}
+			this.processed = processed;
+			return this;
+		}
+
+		/** Set the date the job was completed.
+		 * @param completed the completion date.
+		 * @return this builder.
+		 */
+		public Builder withCompleted(final Instant completed) {
+			nonNull(completed, "completed");
+			this.completed = Optional.of(completed);
+			return this;
+		}
+
+		/** Build the job.
+		 * @return the new job.
+		 * @throws IllegalStateException if the job type requires a target and no target was
+		 * provided, or vice versa.
+		 */
+		public AdminJob build() {
+			if (type.requiresTarget() != target.isPresent()) {
+				throw new IllegalStateException(String.format("Job type %s %s a target",
+						type.getDescription(),
+						type.requiresTarget() ? "requires" : "does not accept"));
+			}
+			return new AdminJob(
+					id, type, target, admin, created, matched, processed, completed);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package us.kbase.auth2.lib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** An enumeration representing the type of an administrative job that updates or deletes
+ * records for many users.
+ */
+public enum AdminJobType {
+
+	/* first arg is ID, second arg is description, third arg is whether the job requires a
+	 * target. ID CANNOT change since that field is stored in the DB.
+	 */
+	/** Revoke all tokens for all users. */
+	REVOKE_ALL_TOKENS		("RevokeTokens", "Revoke all tokens", false),
+	/** Force a password reset for all local users. */
+	FORCE_RESET_PASSWORDS	("ResetPwds", "Force password reset for all local users", false),
+	/** Remove a deleted custom role from all users. The target is the role ID. */
+	DELETE_CUSTOM_ROLE		("DelCustRole", "Delete custom role", true),
+	/** Remove a policy ID from all users. The target is the policy ID. */
+	REMOVE_POLICY_ID		("RemPolicyID", "Remove policy ID", true);
+
+	private static final Map<String, AdminJobType> TYPE_MAP = new HashMap<>();
+	static {
+		for (final AdminJobType jt: AdminJobType.values()) {
+			TYPE_MAP.put(jt.getID(), jt);
+		}
+	}
+
+	private final String id;
+	private final String description;
+	private final boolean requiresTarget;
+
+	private AdminJobType(
+			final String id,
+			final String description,
+			final boolean requiresTarget) {
+		this.id = id;
+		this.description = description;
+		this.requiresTarget = requiresTarget;
+	}
+
+	/** Get the ID of this job type.
+	 * @return the ID.
+	 */
+	public String getID() {
+		return id;
+	}
+
+	/** Get the description of this job type.
+	 * @return the description.
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/** Check whether jobs of this type require a target, e.g. the ID of the role or policy
+	 * to be removed from users.
+	 * @return true if a target is required.
+	 */
+	public boolean requiresTarget() {
+		return requiresTarget;
+	}
+
+	/** Get a job type based on a supplied ID.
+	 * @param id the id.
+	 * @return a job type.
+	 * @throws IllegalArgumentException if there is no job type matching the ID.
+	 */
+	public static AdminJobType getType(final String id) {
+		if (!TYPE_MAP.containsKey(id)) {
+			throw new IllegalArgumentException("Invalid admin job type id: " + id);
+		}
+		return TYPE_MAP.get(id);
+	}
+}
@@ -0,0 +1,105 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/* Runs administrative jobs that update or delete records for many users in the background, so
+ * that the admin's request returns immediately and the database isn't tied up by a single huge
+ * update.
+ *
+ * Jobs are processed one batch at a time with a pause between batches to limit the load on the
+ * storage system. Progress is persisted by the storage system after each batch, so jobs that
+ * were running when the server went down, or that were started by another instance, are picked
+ * up by the periodic sweep and resume where they left off.
+ */
+class AdminJobWorker {
+
+	private final AuthStorage storage;
+	private final ScheduledExecutorService executor;
+	private final int batchSize;
+	private final long batchIntervalMillis;
+	// jobs that are being processed by this instance
+	private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+
+	/* The executor is used to process batches and to sweep for incomplete jobs immediately and
+	 * then every sweepIntervalMillis.
+	 */
+	AdminJobWorker(
+			final AuthStorage storage,
+			final ScheduledExecutorService executor,
+			final long sweepIntervalMillis,
+			final int batchSize,
+			final long batchIntervalMillis) {
+		nonNull(storage, "storage");
+		nonNull(executor, "executor");
+		this.storage = storage;
+		this.executor = executor;
+		this.batchSize = batchSize;
+		this.batchIntervalMillis = batchIntervalMillis;
+		executor.scheduleWithFixedDelay(() -> sweep(), 0, sweepIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/* Start processing a job that has been persisted in the storage system. If the job is
+	 * already being processed by this instance, does nothing.
+	 */
+	void start(final AdminJob job) {
+		nonNull(job, "job");
+		if (!job.isComplete() && running.add(job.getID())) {
+			try {
+				executor.execute(() -> processBatch(job));
+			} catch (RejectedExecutionException e) {
+				// shutting down. The job will be resumed on restart.
+				running.remove(job.getID());
+			}
+		}
+	}
+
+	void sweep() {
+		try {
+			for (final AdminJob job: storage.getAdminJobs(true)) {
+				start(job);
+			}
+		} catch (AuthStorageException | RuntimeException e) {
+			logError(e);
+		}
+	}
+
+	void processBatch(final AdminJob job) {
+		final AdminJob updated;
+		try {
+			updated = storage.processAdminJobBatch(job, batchSize);
+		} catch (AuthStorageException | RuntimeException e) {
+			// progress is persistent, so the next sweep will resume the job
+			logError(e);
+			running.remove(job.getID());
+			return;
+		}
+		if (updated.isComplete()) {
+			running.remove(job.getID());
+			return;
+		}
+		try {
+			executor.schedule(() -> processBatch(updated), batchIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			running.remove(job.getID());
+		}
+	}
+
+	private void logError(final Exception e) {
+		LoggerFactory.getLogger(getClass()).error(
+				"Admin job processing failed: " + e.getMessage(), e);
+	}
+}
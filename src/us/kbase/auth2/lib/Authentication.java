@@ -9,12 +9,12 @@ import static us.kbase.auth2.lib.Utils.noNulls;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -22,10 +22,22 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import org.slf4j.LoggerFactory;
+
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.cryptutils.PasswordCrypt;
@@ -65,17 +77,25 @@ import us.kbase.auth2.lib.exceptions.UnLinkFailedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.exceptions.UserExistsException;
 import us.kbase.auth2.lib.identity.IdentityProvider;
+import us.kbase.auth2.lib.identity.IdentityProviderStatus;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.AsyncAuthStorage;
 import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
 import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.token.TokenRevocationFeed;
 import us.kbase.auth2.lib.token.TokenSet;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.auth2.lib.token.IncomingToken;
@@ -152,11 +172,37 @@ public class Authentication {
 	// DO NOT modify this after construction, not thread safe
 	private final TreeMap<String, IdentityProvider> idProviderSet = new TreeMap<>(
 			String.CASE_INSENSITIVE_ORDER);
+	// outcomes of the most recent calls to each provider, keyed by provider name
+	private final Map<String, IdentityProviderStatus> idProviderStatus =
+			new ConcurrentHashMap<>();
 	private final RandomDataGenerator randGen;
 	private final PasswordCrypt pwdcrypt;
 	private final ConfigManager cfg;
 	private final Clock clock;
 	private final ExternalConfig defaultExternalConfig;
+	private final ScheduledExecutorService executor;
+	private final ThreadPoolExecutor storageReadExecutor;
+	private final AsyncAuthStorage asyncStorage;
+	private final TokenRevocationWorker tokenRevoker;
+	private final AdminJobWorker adminJobs;
+	private final TokenRevocationFeedWorker revocationFeed;
+	
+	private static final long TOKEN_REVOCATION_SWEEP_MILLIS = 60000;
+	private static final long REVOCATION_FEED_POLL_MILLIS = 1000;
+	private static final long REVOCATION_FEED_PRUNE_MILLIS = 60 * 60 * 1000;
+	// clients that fall further behind than this must reset their token caches
+	private static final long REVOCATION_FEED_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+	private static final int REVOCATION_FEED_MAX_LIMIT = 10000;
+	private static final long REVOCATION_FEED_MAX_WAIT_MILLIS = 60000;
+	private static final long ADMIN_JOB_SWEEP_MILLIS = 30000;
+	// admin jobs process at most this many records per batch interval
+	private static final int ADMIN_JOB_BATCH_SIZE = 1000;
+	private static final long ADMIN_JOB_BATCH_INTERVAL_MILLIS = 1000;
+	private static final long STORAGE_FLUSH_INTERVAL_MILLIS = 10000;
+	private static final long SHUTDOWN_WAIT_MILLIS = 30000;
+	// the maximum number of threads performing concurrent storage reads for requests
+	private static final int STORAGE_READ_THREADS = 32;
+	private static final long STORAGE_READ_THREAD_IDLE_MILLIS = 60000;
 	
 	// note that this value is supposed to be a constant, but is mutable for testing purposes.
 	// do not make it mutable for any other reason.
@@ -180,7 +226,13 @@ public class Authentication {
 				identityProviderSet,
 				defaultExternalConfig,
 				getDefaultRandomGenerator(),
-				Clock.systemDefaultZone()); // don't care about time zone, not using it
+				Clock.systemDefaultZone(), // don't care about time zone, not using it
+				// not Executors.newSingleThreadScheduledExecutor(), which hides the statistics
+				new ScheduledThreadPoolExecutor(1, r -> {
+					final Thread t = new Thread(r, "auth2-background");
+					t.setDaemon(true);
+					return t;
+				}));
 	}
 
 	private static RandomDataGenerator getDefaultRandomGenerator() {
@@ -197,10 +249,12 @@ public class Authentication {
 			final Set<IdentityProvider> identityProviderSet,
 			final ExternalConfig defaultExternalConfig,
 			final RandomDataGenerator randGen,
-			final Clock clock)
+			final Clock clock,
+			final ScheduledExecutorService executor)
 			throws StorageInitException {
 		this.clock = clock;
 		this.randGen = randGen;
+		this.executor = executor;
 		try {
 			pwdcrypt = new PasswordCrypt();
 		} catch (NoSuchAlgorithmException e) {
@@ -212,6 +266,21 @@ public class Authentication {
 		nonNull(defaultExternalConfig, "defaultExternalConfig");
 		this.defaultExternalConfig = defaultExternalConfig;
 		this.storage = storage;
+		/* Reads that a request can overlap with its own reads run here, as do the token
+		 * revocation feed reads for clients woken from a wait, which would otherwise block the
+		 * background executor's thread. When all the threads are busy the read runs on the
+		 * calling thread, so under heavy load reads fall back to running sequentially rather
+		 * than waiting in a queue.
+		 */
+		storageReadExecutor = new ThreadPoolExecutor(
+				0, STORAGE_READ_THREADS, STORAGE_READ_THREAD_IDLE_MILLIS, TimeUnit.MILLISECONDS,
+				new SynchronousQueue<>(), r -> {
+					final Thread t = new Thread(r, "auth2-storage-read");
+					t.setDaemon(true);
+					return t;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		asyncStorage = new AsyncAuthStorage(storage, storageReadExecutor);
 		for (final IdentityProvider idp: identityProviderSet) {
 			nonNull(idp.getProviderName(), "provider name");
 			if (idProviderSet.containsKey(idp.getProviderName())) { // case insensitive
@@ -220,7 +289,11 @@ public class Authentication {
 			}
 			idProviderSet.put(idp.getProviderName(), idp);
 		}
+		// checks the provider names
 		final AuthConfigUpdate<ExternalConfig> acu = buildDefaultConfig();
+		for (final String provider: idProviderSet.keySet()) {
+			idProviderStatus.put(provider, new IdentityProviderStatus(provider));
+		}
 		try {
 			storage.updateConfig(acu, false);
 		} catch (AuthStorageException e) {
@@ -233,6 +306,109 @@ public class Authentication {
 			throw new StorageInitException("Failed to initialize config manager: " +
 					e.getMessage(), e);
 		}
+		tokenRevoker = new TokenRevocationWorker(
+				storage, executor, TOKEN_REVOCATION_SWEEP_MILLIS);
+		adminJobs = new AdminJobWorker(storage, executor, ADMIN_JOB_SWEEP_MILLIS,
+				ADMIN_JOB_BATCH_SIZE, ADMIN_JOB_BATCH_INTERVAL_MILLIS);
+		revocationFeed = new TokenRevocationFeedWorker(storage, executor, clock,
+				REVOCATION_FEED_POLL_MILLIS, REVOCATION_FEED_PRUNE_MILLIS,
+				REVOCATION_FEED_MAX_AGE_MILLIS);
+		executor.scheduleWithFixedDelay(() -> flushStorage(), STORAGE_FLUSH_INTERVAL_MILLIS,
+				STORAGE_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	/** Write any buffered updates, such as last login dates, to the storage system. Buffered
+	 * updates are otherwise written periodically and on {@link #close()}.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public void flush() throws AuthStorageException {
+		storage.flush();
+	}
+	
+	/** Discard any data cached by the storage system. Only needed if the storage system has
+	 * been modified by other means and the changes must be visible immediately.
+	 */
+	public void clearCaches() {
+		storage.clearCaches();
+	}
+	
+	/** Get statistics for the caches held by the storage system.
+	 * @return a mapping of cache name to the statistics for the cache.
+	 */
+	public Map<String, CacheStats> getStorageCacheStats() {
+		return storage.getCacheStats();
+	}
+	
+	private void flushStorage() {
+		try {
+			flush();
+		} catch (AuthStorageException | RuntimeException e) {
+			// an exception would cancel the scheduled flush, and the updates remain buffered
+			// for the next attempt
+			LoggerFactory.getLogger(getClass()).error(
+					"Failed to flush buffered updates to storage: " + e.getMessage(), e);
+		}
+	}
+	
+	/** Check that the storage system is reachable and measure the round trip time.
+	 * @return the time taken to contact the storage system.
+	 * @throws AuthStorageException if the storage system could not be contacted.
+	 */
+	public Duration pingStorage() throws AuthStorageException {
+		final long start = System.nanoTime();
+		storage.ping();
+		return Duration.ofNanos(System.nanoTime() - start);
+	}
+	
+	/** Get the time the configuration was last loaded from the storage system. The
+	 * configuration is reloaded periodically so that changes made on other instances of the
+	 * service are picked up.
+	 * @return the time of the last configuration load.
+	 */
+	public Instant getConfigUpdateTime() {
+		return cfg.getLastUpdateTime();
+	}
+	
+	/** Get the outcomes of the most recent calls to each identity provider.
+	 * @return the status of each provider, ordered by provider name.
+	 */
+	public List<IdentityProviderStatus> getIdentityProviderStatus() {
+		return idProviderSet.keySet().stream().map(p -> idProviderStatus.get(p))
+				.collect(Collectors.toList());
+	}
+	
+	/** Get statistics for the executor that runs background tasks such as token revocation
+	 * and admin jobs.
+	 * @return a map of statistic name to value, or an empty map if the executor does not
+	 * provide statistics.
+	 */
+	public Map<String, Long> getBackgroundTaskStats() {
+		if (!(executor instanceof ThreadPoolExecutor)) {
+			return Collections.emptyMap();
+		}
+		final ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
+		return ImmutableMap.of(
+				"active", (long) tpe.getActiveCount(),
+				"queued", (long) tpe.getQueue().size(),
+				"completed", tpe.getCompletedTaskCount());
+	}
+	
+	/** Stop any background tasks and write any buffered updates to the storage system. Tasks in
+	 * progress are allowed to complete, but no new tasks will be started. Work that has not yet
+	 * started, such as queued token revocations and admin jobs, is persisted in the storage
+	 * system and will be processed by the next instance.
+	 * @throws AuthStorageException if the buffered updates could not be written.
+	 */
+	public void close() throws AuthStorageException {
+		storageReadExecutor.shutdown();
+		executor.shutdown();
+		try {
+			storageReadExecutor.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			executor.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
 	}
 	
 	// for test purposes. Resets the next update time to be the previous update + millis.
@@ -246,12 +422,31 @@ public class Authentication {
 	}
 	
 	/* Caches the configuration to avoid pulling the configuration from the storage system
-	 * on every request. Synchronized to prevent multiple storage accesses for one update.
+	 * on every request. Readers never block - the configuration, update time, and next update
+	 * time are published together as an immutable snapshot. When the snapshot is stale, one
+	 * reader reloads it from storage while any concurrent readers keep using the stale snapshot,
+	 * rather than queueing behind a monitor for the duration of a storage round trip.
 	 */
 	private class ConfigManager {
 	
-		private AuthConfigSet<CollectingExternalConfig> cfg;
-		private Instant nextConfigUpdate;
+		private class CachedConfig {
+			
+			private final AuthConfigSet<CollectingExternalConfig> cfg;
+			private final Instant lastUpdate;
+			private final Instant nextUpdate;
+			
+			private CachedConfig(
+					final AuthConfigSet<CollectingExternalConfig> cfg,
+					final Instant lastUpdate,
+					final Instant nextUpdate) {
+				this.cfg = cfg;
+				this.lastUpdate = lastUpdate;
+				this.nextUpdate = nextUpdate;
+			}
+		}
+		
+		private final ReentrantLock updateLock = new ReentrantLock();
+		private volatile CachedConfig current;
 		
 		public ConfigManager(final AuthStorage storage)
 				throws AuthStorageException {
@@ -259,34 +454,59 @@ public class Authentication {
 		}
 		
 		// for testing purposes.
-		public synchronized Instant getNextUpdateTime() {
-			return nextConfigUpdate;
+		public Instant getNextUpdateTime() {
+			return current.nextUpdate;
 		}
 		
 		// for testing purposes.
-		public synchronized void setNextUpdateTime(final Instant time) {
-			nextConfigUpdate = time;
+		public void setNextUpdateTime(final Instant time) {
+			updateLock.lock();
+			try {
+				current = new CachedConfig(current.cfg, current.lastUpdate, time);
+			} finally {
+				updateLock.unlock();
+			}
 		}
 		
-		public synchronized AuthConfigSet<CollectingExternalConfig> getConfig()
+		public AuthConfigSet<CollectingExternalConfig> getConfig()
 				throws AuthStorageException {
-			if (Instant.now().isAfter(nextConfigUpdate)) {
-				updateConfig();
+			final CachedConfig c = current;
+			if (Instant.now().isAfter(c.nextUpdate) && updateLock.tryLock()) {
+				try {
+					// another thread may have updated the config before the lock was acquired
+					if (current == c) {
+						updateConfig();
+					}
+				} finally {
+					updateLock.unlock();
+				}
+				return current.cfg;
 			}
-			return cfg;
+			return c.cfg;
 		}
 		
 		public AuthConfig getAppConfig() throws AuthStorageException {
 			return getConfig().getCfg();
 		}
+		
+		public Instant getLastUpdateTime() {
+			return current.lastUpdate;
+		}
 	
-		public synchronized void updateConfig() throws AuthStorageException {
+		public void updateConfig() throws AuthStorageException {
+			updateLock.lock();
 			try {
-				cfg = storage.getConfig(new CollectingExternalConfigMapper());
-			} catch (ExternalConfigMappingException e) {
-				throw new RuntimeException("This should be impossible", e);
+				final AuthConfigSet<CollectingExternalConfig> newcfg;
+				try {
+					newcfg = storage.getConfig(new CollectingExternalConfigMapper());
+				} catch (ExternalConfigMappingException e) {
+					throw new RuntimeException("This should be impossible", e);
+				}
+				final Instant now = Instant.now();
+				current = new CachedConfig(newcfg, now, now.plusMillis(cfgUpdateIntervalMillis));
+			} finally {
+				updateLock.unlock();
 			}
-			nextConfigUpdate = Instant.now().plusMillis(cfgUpdateIntervalMillis);
 		}
 	}
 
@@ -615,17 +835,60 @@ public class Authentication {
 		storage.forcePasswordReset(userName);
 	}
 
-	/** Force all local users to reset their password on their next login.
+	/** Force all local users to reset their password on their next login. The reset is
+	 * required as soon as this method returns, and the users are updated by a background job.
+	 * Other server instances require the reset within about a second.
 	 * @param token a token for a user with the administrator role.
+	 * @return the job that is updating the users.
 	 * @throws InvalidTokenException if the token is invalid.
 	 * @throws UnauthorizedException if the user account associated with the token does not
 	 * have the administrator role or the token is not a login token.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 * @see #getAdminJobs(IncomingToken)
+	 */
+	public AdminJob forceResetAllPasswords(final IncomingToken token)
+			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
+		// force admin
+		final AuthUser admin = getUser(token, set(TokenType.LOGIN), Role.CREATE_ADMIN, Role.ROOT);
+		return startAdminJob(admin, AdminJobType.FORCE_RESET_PASSWORDS, null);
+	}
+	
+	private AdminJob buildAdminJob(
+			final AuthUser admin,
+			final AdminJobType type,
+			final String target) {
+		final AdminJob.Builder b = AdminJob.getBuilder(
+				randGen.randomUUID(), type, admin.getUserName(), clock.instant());
+		if (target != null) {
+			b.withTarget(target);
+		}
+		return b.build();
+	}
+	
+	private AdminJob startAdminJob(
+			final AuthUser admin,
+			final AdminJobType type,
+			final String target)
+			throws AuthStorageException {
+		final AdminJob job = buildAdminJob(admin, type, target);
+		storage.storeAdminJob(job);
+		adminJobs.start(job);
+		return job;
+	}
+	
+	/** Get all administrative jobs, most recently created first.
+	 * @param token a token for a user with the administrator, create administrator, or root
+	 * role.
+	 * @return the jobs.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws UnauthorizedException if the user account associated with the token does not
+	 * have an appropriate role or the token is not a login token.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
 	 */
-	public void forceResetAllPasswords(final IncomingToken token)
+	public List<AdminJob> getAdminJobs(final IncomingToken token)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
-		getUser(token, set(TokenType.LOGIN), Role.CREATE_ADMIN, Role.ROOT); // force admin
-		storage.forcePasswordReset();
+		getUser(token, set(TokenType.LOGIN), Role.ADMIN, Role.CREATE_ADMIN, Role.ROOT);
+		return storage.getAdminJobs(false);
 	}
 	
 	private NewToken login(final UserName userName, final TokenCreationContext tokenCtx)
@@ -690,6 +953,45 @@ public class Authentication {
 		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // force admin
 		return storage.getTokens(userName);
 	}
+	
+	/** Get a page of the tokens associated with a user account associated with a possessed
+	 * token. The tokens do not include the custom token creation context.
+	 * @param token a user token for the account in question.
+	 * @param spec the types of tokens to list and the position and size of the page.
+	 * @return the page of tokens.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 * @throws UnauthorizedException if the token is not a login token.
+	 */
+	public TokenPage getTokens(final IncomingToken token, final TokenListSpec spec)
+			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
+		nonNull(spec, "spec");
+		final StoredToken ht = getToken(token, set(TokenType.LOGIN));
+		return storage.getTokens(ht.getUserName(), spec);
+	}
+	
+	/** Get a page of the tokens associated with an arbitrary user account. The tokens do not
+	 * include the custom token creation context.
+	 * 
+	 * @param token a token for a user with the administrator role.
+	 * @param userName the user name of the account.
+	 * @param spec the types of tokens to list and the position and size of the page.
+	 * @return the page of tokens.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws UnauthorizedException if the user account associated with the token does not
+	 * have the administrator role or the token is not a login token.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public TokenPage getTokens(
+			final IncomingToken token,
+			final UserName userName,
+			final TokenListSpec spec)
+			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(spec, "spec");
+		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // force admin
+		return storage.getTokens(userName, spec);
+	}
 
 	// converts a no such token exception into an invalid token exception.
 	/** Get details about a token.
@@ -830,7 +1132,7 @@ public class Authentication {
 		}
 		if (u.isDisabled()) {
 			// apparently this disabled user still has some tokens, so kill 'em all
-			storage.deleteTokens(ht.getUserName());
+			tokenRevoker.enqueue(ht.getUserName());
 			throw new DisabledUserException();
 		}
 		if (required.length > 0) {
@@ -859,12 +1161,13 @@ public class Authentication {
 			throws AuthStorageException, InvalidTokenException,
 			NoSuchUserException {
 		nonNull(user, "userName");
+		nonNull(token, "token");
 		final StoredToken ht = getToken(token);
 		final AuthUser u = storage.getUser(user);
 		final boolean sameUser = ht.getUserName().equals(u.getUserName());
 		if (u.isDisabled()) {
 			if (sameUser) {
-				storage.deleteTokens(u.getUserName());
+				tokenRevoker.enqueue(u.getUserName());
 			}
 			throw new NoSuchUserException(u.getUserName().getName());
 		}
@@ -888,8 +1191,13 @@ public class Authentication {
 			throws AuthStorageException, NoSuchUserException,
 			InvalidTokenException, UnauthorizedException {
 		nonNull(userName, "userName");
-		getUser(adminToken, set(TokenType.LOGIN), Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN);
-		return storage.getUser(userName);
+		final StoredToken ht = getToken(adminToken, set(TokenType.LOGIN));
+		/* the token is valid, so fetch the target user while checking the token's user has an
+		 * admin role. The target user is discarded if the check fails.
+		 */
+		final CompletableFuture<AuthUser> futureUser = asyncStorage.getUser(userName);
+		getUser(ht, Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN);
+		return AsyncAuthStorage.get(futureUser, NoSuchUserException.class);
 	}
 
 	/** Look up display names for a set of user names. A maximum of 10000 users may be looked up
@@ -908,15 +1216,17 @@ public class Authentication {
 			throws InvalidTokenException, AuthStorageException, IllegalParameterException {
 		nonNull(userNames, "userNames");
 		noNulls(userNames, "Null name in userNames");
-		getToken(token); // just check the token is valid
+		nonNull(token, "token");
 		if (userNames.isEmpty()) {
+			getToken(token); // just check the token is valid
 			return new HashMap<>();
 		}
 		if (userNames.size() > MAX_RETURNED_USERS) {
+			getToken(token); // an invalid token takes precedence
 			throw new IllegalParameterException(
 					"User count exceeds maximum of " + MAX_RETURNED_USERS);
 		}
-		
+		getToken(token); // just check the token is valid
 		final Map<UserName, DisplayName> displayNames = storage.getUserDisplayNames(userNames);
 		displayNames.remove(UserName.ROOT);
 		return displayNames;
@@ -1044,6 +1354,8 @@ public class Authentication {
 			NoSuchTokenException, InvalidTokenException, UnauthorizedException {
 		nonNull(tokenID, "tokenID");
 		final StoredToken ht = getToken(token, set(TokenType.LOGIN));
+		revocationFeed.publish(TokenRevocation.token(ht.getUserName(), tokenID,
+				storage.getTokenHash(ht.getUserName(), tokenID)));
 		storage.deleteToken(ht.getUserName(), tokenID);
 	}
 
@@ -1070,8 +1382,9 @@ public class Authentication {
 		nonNull(userName, "userName");
 		nonNull(tokenID, "tokenID");
 		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
+		revocationFeed.publish(TokenRevocation.token(userName, tokenID,
+				storage.getTokenHash(userName, tokenID)));
 		storage.deleteToken(userName, tokenID);
-		
 	}
 	
 	/** Revoke the current token. Returns an empty Optional if the token does not exist in the
@@ -1086,6 +1399,8 @@ public class Authentication {
 		StoredToken ht = null;
 		try {
 			ht = storage.getToken(token.getHashedToken());
+			revocationFeed.publish(TokenRevocation.token(ht.getUserName(), ht.getId(),
+					token.getHashedToken().getTokenHash()));
 			storage.deleteToken(ht.getUserName(), ht.getId());
 			return Optional.of(ht);
 		} catch (NoSuchTokenException e) {
@@ -1103,20 +1418,26 @@ public class Authentication {
 	public void revokeTokens(final IncomingToken token)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
 		final StoredToken ht = getToken(token, set(TokenType.LOGIN));
+		revocationFeed.publish(TokenRevocation.user(ht.getUserName()));
 		storage.deleteTokens(ht.getUserName());
 	}
 	
-	/** Revokes all tokens across all users, including the current user.
+	/** Revokes all tokens across all users, including the current user. The tokens are
+	 * invalid as soon as this method returns and are deleted by a background job. Other server
+	 * instances reject the tokens within about a second.
 	 * @param token a token for a user with the administrator role.
+	 * @return the job that is deleting the tokens.
 	 * @throws InvalidTokenException if the token is invalid.
 	 * @throws UnauthorizedException if the user account associated with the token does not have
 	 * the administrator role or the token is not a login token.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 * @see #getAdminJobs(IncomingToken)
 	 */
-	public void revokeAllTokens(final IncomingToken token)
+	public AdminJob revokeAllTokens(final IncomingToken token)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
-		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
-		storage.deleteTokens();
+		final AuthUser admin = getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
+		revocationFeed.publish(TokenRevocation.all());
+		return startAdminJob(admin, AdminJobType.REVOKE_ALL_TOKENS, null);
 	}
 	
 
@@ -1132,9 +1453,93 @@ public class Authentication {
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(userName, "userName");
 		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
+		revocationFeed.publish(TokenRevocation.user(userName));
 		storage.deleteTokens(userName);
 	}
 	
+	/** Get revocation events from the token revocation feed. Clients that cache tokens can use
+	 * the feed to remove revoked tokens from their caches without looking up each token.
+	 * 
+	 * Events for a single token include the token hash. Events for a user or for all users
+	 * revoke any token for the user, or any token, created before the time of the event.
+	 * 
+	 * The token and arguments are checked, and the feed read, before this method returns. If no
+	 * events are available, the returned future completes when a new event is available or
+	 * after maxWaitMillis, without holding the calling thread while waiting.
+	 * @param token any valid token.
+	 * @param afterSequence get events after this sequence number, as returned by
+	 * {@link TokenRevocationFeed#getSequence()} from the previous call. If negative, no events
+	 * are returned and the current sequence number is returned, which allows a client to start
+	 * following the feed.
+	 * @param limit the maximum number of events to return, at most 10000.
+	 * @param maxWaitMillis the maximum time to wait for an event, at most 60000.
+	 * @return the events. If the storage system cannot be accessed after waiting, the future
+	 * completes exceptionally with an {@link AuthStorageException}.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public CompletableFuture<TokenRevocationFeed> getTokenRevocations(
+			final IncomingToken token,
+			final long afterSequence,
+			final int limit,
+			final long maxWaitMillis)
+			throws InvalidTokenException, AuthStorageException {
+		if (limit < 1 || limit > REVOCATION_FEED_MAX_LIMIT) {
+			throw new IllegalArgumentException(
+					"limit must be between 1 and " + REVOCATION_FEED_MAX_LIMIT);
+		}
+		if (maxWaitMillis < 0 || maxWaitMillis > REVOCATION_FEED_MAX_WAIT_MILLIS) {
+			throw new IllegalArgumentException(
+					"maxWaitMillis must be between 0 and " + REVOCATION_FEED_MAX_WAIT_MILLIS);
+		}
+		getToken(token); // ensure valid token
+		if (afterSequence < 0) {
+			return CompletableFuture.completedFuture(new TokenRevocationFeed(
+					Collections.emptyList(), storage.getTokenRevocationSequence(), false));
+		}
+		final List<TokenRevocationEvent> events = storage.getTokenRevocationEvents(
+				afterSequence, limit);
+		if (!events.isEmpty() || maxWaitMillis == 0) {
+			return CompletableFuture.completedFuture(
+					toRevocationFeed(afterSequence, events));
+		}
+		// the wait completes on the background executor, so read the feed elsewhere
+		return revocationFeed.await(afterSequence, maxWaitMillis).thenApplyAsync(newEvents -> {
+			try {
+				return toRevocationFeed(afterSequence, newEvents ?
+						storage.getTokenRevocationEvents(afterSequence, limit) :
+						Collections.emptyList());
+			} catch (AuthStorageException e) {
+				throw new CompletionException(e);
+			}
+		}, storageReadExecutor);
+	}
+
+	private TokenRevocationFeed toRevocationFeed(
+			final long afterSequence,
+			final List<TokenRevocationEvent> events)
+			throws AuthStorageException {
+		if (events.isEmpty()) {
+			final long latest = storage.getTokenRevocationSequence();
+			// the feed was reset, which only happens if the storage system was wiped
+			return new TokenRevocationFeed(Collections.emptyList(),
+					Math.min(afterSequence, latest), afterSequence > latest);
+		}
+		// events that are missing from the feed have been deleted, and so the client must reset
+		final boolean reset = events.get(0).getSequence() != afterSequence + 1;
+		final List<TokenRevocationEvent> ret = new LinkedList<>();
+		long last = events.get(0).getSequence() - 1;
+		for (final TokenRevocationEvent e: events) {
+			// only return contiguous events so the client can't skip the missing events
+			if (e.getSequence() != last + 1) {
+				break;
+			}
+			ret.add(e);
+			last = e.getSequence();
+		}
+		return new TokenRevocationFeed(ret, last, reset);
+	}
+	
 	/** Remove roles from a user.
 	 * @param token the user's token.
 	 * @param removeRoles the roles to remove.
@@ -1240,9 +1645,10 @@ public class Authentication {
 		storage.setCustomRole(role);
 	}
 	
-	/** Delete a custom role. Deletes the role from all users.
+	/** Delete a custom role. The role is removed from all users by a background job.
 	 * @param token a token for a user account with the administrator privilege.
 	 * @param roleId the id of the role.
+	 * @return the job that is removing the role from users.
 	 * @throws InvalidTokenException if the token is invalid.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
 	 * @throws UnauthorizedException if the user account associated with the token does not have
@@ -1251,7 +1657,7 @@ public class Authentication {
 	 * @throws MissingParameterException if the role ID is missing.
 	 * @throws IllegalParameterException if the role ID is illegal.
 	 */
-	public void deleteCustomRole(
+	public AdminJob deleteCustomRole(
 			final IncomingToken token,
 			final String roleId)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException,
@@ -1259,8 +1665,11 @@ public class Authentication {
 		if (roleId == null || roleId.trim().isEmpty()) {
 			throw new MissingParameterException("roleId cannot be null or empty");
 		}
-		getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
-		storage.deleteCustomRole(roleId);
+		final AuthUser admin = getUser(token, set(TokenType.LOGIN), Role.ADMIN); // ensure admin
+		final AdminJob job = buildAdminJob(admin, AdminJobType.DELETE_CUSTOM_ROLE, roleId);
+		storage.deleteCustomRole(roleId, job);
+		adminJobs.start(job);
+		return job;
 	}
 
 	/* may need to restrict to a subset of users in the future */
@@ -1431,7 +1840,7 @@ public class Authentication {
 			throw new MissingParameterException("authorization code");
 		}
 		final IdentityProvider idp = getIdentityProvider(provider);
-		final Set<RemoteIdentity> ris = idp.getIdentities(authcode, false);
+		final Set<RemoteIdentity> ris = getIdentities(idp, authcode, false);
 		final LoginState lstate = getLoginState(ris, Instant.MIN);
 		final ProviderConfig pc = cfg.getAppConfig().getProviderConfig(idp.getProviderName());
 		final LoginToken token;
@@ -1502,12 +1911,12 @@ public class Authentication {
 		final String provider = ids.iterator().next().getRemoteID().getProviderName();
 		final LoginState.Builder builder = LoginState.getBuilder(provider,
 				cfg.getAppConfig().isLoginAllowed(), expires);
+		final Map<RemoteIdentity, AuthUser> users = storage.getUsers(ids);
 		for (final RemoteIdentity ri: ids) {
-			final Optional<AuthUser> u = storage.getUser(ri);
-			if (!u.isPresent()) {
+			if (!users.containsKey(ri)) {
 				builder.withIdentity(ri);
 			} else {
-				builder.withUser(u.get(), ri);
+				builder.withUser(users.get(ri), ri);
 			}
 		}
 		return builder.build();
@@ -1700,19 +2109,20 @@ public class Authentication {
 	}
 	
 	/** Remove a policy ID from all users. Primarily used to remove policy IDs that may have been
-	 * added in error.
+	 * added in error. The policy ID is removed by a background job.
 	 * @param token the user's token
 	 * @param policyID the policyID to remove.
+	 * @return the job that is removing the policy ID from users.
 	 * @throws InvalidTokenException if the token is invalid.
 	 * @throws UnauthorizedException if the user is not authorized to remove policy IDs or the
 	 * token is not a login token.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
 	 */
-	public void removePolicyID(final IncomingToken token, final PolicyID policyID)
+	public AdminJob removePolicyID(final IncomingToken token, final PolicyID policyID)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(policyID, "policyID");
-		getUser(token, set(TokenType.LOGIN), Role.ADMIN);
-		storage.removePolicyID(policyID);
+		final AuthUser admin = getUser(token, set(TokenType.LOGIN), Role.ADMIN);
+		return startAdminJob(admin, AdminJobType.REMOVE_POLICY_ID, policyID.getName());
 	}
 	
 	/** Continue the local portion of an OAuth2 link flow after redirection from a 3rd party
@@ -1802,11 +2212,30 @@ public class Authentication {
 		if (authcode == null || authcode.trim().isEmpty()) {
 			throw new MissingParameterException("authorization code");
 		}
-		final Set<RemoteIdentity> ris = idp.getIdentities(authcode, true);
+		final Set<RemoteIdentity> ris = getIdentities(idp, authcode, true);
 		filterLinkCandidates(ris);
 		return ris;
 	}
 	
+	// records the outcome of the call for health reporting
+	private Set<RemoteIdentity> getIdentities(
+			final IdentityProvider idp,
+			final String authcode,
+			final boolean link)
+			throws IdentityRetrievalException {
+		final Set<RemoteIdentity> ris;
+		try {
+			ris = idp.getIdentities(authcode, link);
+		} catch (IdentityRetrievalException | RuntimeException e) {
+			idProviderStatus.computeIfPresent(idp.getProviderName(),
+					(k, v) -> v.withFailure(Instant.now(), e.getMessage()));
+			throw e;
+		}
+		idProviderStatus.computeIfPresent(idp.getProviderName(),
+				(k, v) -> v.withSuccess(Instant.now()));
+		return ris;
+	}
+	
 	/** Continue the local portion of an OAuth2 link flow after redirection from a 3rd party
 	 * identity provider.
 	 * If the information returned from the identity provider allows the link to occur
@@ -1892,12 +2321,11 @@ public class Authentication {
 
 	private void filterLinkCandidates(final Set<? extends RemoteIdentity> rids)
 			throws AuthStorageException {
-		final Iterator<? extends RemoteIdentity> iter = rids.iterator();
-		while (iter.hasNext()) {
-			if (storage.getUser(iter.next()).isPresent()) {
-				iter.remove();
-			}
+		if (rids.isEmpty()) {
+			return;
 		}
+		final Set<RemoteIdentity> linked = storage.getUsers(new HashSet<>(rids)).keySet();
+		rids.removeAll(linked);
 	}
 	
 	/** Get the current state of a linking process associated with a temporary token.
@@ -2006,43 +2434,55 @@ public class Authentication {
 		link(au.getUserName(), identities);
 	}
 	
+	// assumes user is not local, and that the user exists
 	private void link(final UserName userName, final RemoteIdentity id)
 			throws AuthStorageException, IdentityLinkedException {
-		link(userName, new HashSet<>(Arrays.asList(id)), true);
+		try {
+			storage.link(userName, id);
+		} catch (NoSuchUserException e) {
+			throw userDisappeared(userName, e);
+		} catch (LinkFailedException e) {
+			throw linkedLocalUser(e);
+		}
 	}
 
+	// assumes user is not local, and that the user exists
 	private void link(final UserName userName, final Set<RemoteIdentity> identities)
 			throws AuthStorageException {
+		if (identities.isEmpty()) {
+			return;
+		}
 		try {
-			link(userName, identities, false);
+			storage.link(userName, identities);
+		} catch (NoSuchUserException e) {
+			throw userDisappeared(userName, e);
+		} catch (LinkFailedException e) {
+			throw linkedLocalUser(e);
 		} catch (IdentityLinkedException e) {
-			// don't care if we miss an identity in this context. This catch block is here simply
-			// to avoid having the checked exception in the throws clause
+			/* One or more identities were linked to another user since the link candidates
+			 * were filtered, so none were linked. Link the identities one at a time, since we
+			 * don't care if we miss an identity in this context.
+			 */
+			for (final RemoteIdentity ri: identities) {
+				try {
+					link(userName, ri);
+				} catch (IdentityLinkedException e2) {
+					// skip the identity
+				}
+			}
 		}
 	}
 	
-	// assumes user is not local, and that the user exists
-	private void link(
+	private AuthStorageException userDisappeared(
 			final UserName userName,
-			final Set<RemoteIdentity> identities,
-			final boolean throwExceptionIfIdentityLinked)
-			throws AuthStorageException, IdentityLinkedException {
-		for (final RemoteIdentity ri: identities) {
-			// could make a bulk op, but probably not necessary. Wait for now.
-			try {
-				storage.link(userName, ri);
-			} catch (NoSuchUserException e) {
-				throw new AuthStorageException("User magically disappeared from database: " +
-						userName.getName(), e);
-			} catch (IdentityLinkedException e) {
-				if (throwExceptionIfIdentityLinked) {
-					throw e;
-				}
-			} catch (LinkFailedException e) {
-				throw new RuntimeException(
-						"Programming error: this method should not be called on a local user", e);
-			}
-		}
+			final NoSuchUserException e) {
+		return new AuthStorageException("User magically disappeared from database: " +
+				userName.getName(), e);
+	}
+	
+	private RuntimeException linkedLocalUser(final LinkFailedException e) {
+		return new RuntimeException(
+				"Programming error: this method should not be called on a local user", e);
 	}
 
 	/** Remove a remote identity from a user account.
@@ -2138,15 +2578,15 @@ public class Authentication {
 		if (userName.isRoot() && !admin.isRoot()) {
 			throw new UnauthorizedException("Only the root user can disable the root account");
 		}
-		storage.deleteTokens(userName); //not really necessary but doesn't hurt
+		revocationFeed.publish(TokenRevocation.user(userName));
 		storage.disableAccount(userName, admin.getUserName(), reason);
 		/* there's a tiny chance a login could be in process right now and have have passed the
-		 * disabled check, and then have the token created after the next line, but that's
-		 * so improbable I'm not going to worry about it
-		 * The getUser method checks to see if a user is disabled and if so deletes their tokens
-		 * as well as a backup
+		 * disabled check, and then have the token created after the revocation is processed,
+		 * but that's so improbable I'm not going to worry about it
+		 * The getUser method checks to see if a user is disabled and if so queues their tokens
+		 * for revocation as well as a backup
 		 */
-		storage.deleteTokens(userName);
+		tokenRevoker.enqueue(userName);
 	}
 	
 	/** Enable an account.
@@ -2297,6 +2737,44 @@ public class Authentication {
 	 */
 	public void importUser(final UserName userName, final RemoteIdentity remoteIdentity)
 			throws UserExistsException, AuthStorageException, IdentityLinkedException {
+		try {
+			storage.createUser(toImportedUser(userName, remoteIdentity, clock.instant()));
+		} catch (NoSuchRoleException e) {
+			throw new RuntimeException("didn't supply any roles", e);
+		}
+	}
+	
+	/** Imports a set of users from an external service without requiring credentials.
+	 * 
+	 * Unlike {@link #importUser(UserName, RemoteIdentity)}, a conflict for one user does not
+	 * prevent the remaining users from being imported.
+	 * 
+	 * Do not expose this method in a public API.
+	 * 
+	 * @param users the users to import, as a mapping of user name to the remote identity to link
+	 * to the new user.
+	 * @return the result of the import for each user.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public Map<UserName, CreateUserResult> importUsers(final Map<UserName, RemoteIdentity> users)
+			throws AuthStorageException {
+		nonNull(users, "users");
+		final Instant now = clock.instant();
+		final List<NewUser> newUsers = new LinkedList<>();
+		for (final Entry<UserName, RemoteIdentity> e: users.entrySet()) {
+			newUsers.add(toImportedUser(e.getKey(), e.getValue(), now));
+		}
+		try {
+			return storage.createUsers(newUsers);
+		} catch (NoSuchRoleException e) {
+			throw new RuntimeException("didn't supply any roles", e);
+		}
+	}
+
+	private NewUser toImportedUser(
+			final UserName userName,
+			final RemoteIdentity remoteIdentity,
+			final Instant created) {
 		nonNull(userName, "userName");
 		nonNull(remoteIdentity, "remoteIdentity");
 		DisplayName dn;
@@ -2311,12 +2789,8 @@ public class Authentication {
 		} catch (IllegalParameterException | MissingParameterException e) {
 			email = EmailAddress.UNKNOWN;
 		}
-		try {
-			storage.createUser(NewUser.getBuilder(userName, dn, clock.instant(), remoteIdentity)
-					.withEmailAddress(email).build());
-		} catch (NoSuchRoleException e) {
-			throw new RuntimeException("didn't supply any roles", e);
-		}
+		return NewUser.getBuilder(userName, dn, created, remoteIdentity)
+				.withEmailAddress(email).build();
 	}
 	
 	@SafeVarargs
@@ -1,11 +1,11 @@
 package us.kbase.auth2.lib;
 
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /** A user role. Grant privileges within the Authentication instance.
  * @author gaprice@lbl.gov
@@ -27,9 +27,14 @@ public enum Role {
 	SERV_TOKEN		("ServToken", "Create server tokens");
 	
 	private static final Map<String, Role> ROLE_MAP = new HashMap<>();
+	// the included and grantable roles are checked on most requests, so build them once
+	private static final Map<Role, Set<Role>> INCLUDED = new EnumMap<>(Role.class);
+	private static final Map<Role, Set<Role>> CAN_GRANT = new EnumMap<>(Role.class);
 	static {
 		for (final Role r: Role.values()) {
 			ROLE_MAP.put(r.getID(), r);
+			INCLUDED.put(r, Collections.unmodifiableSet(r.buildIncluded()));
+			CAN_GRANT.put(r, Collections.unmodifiableSet(r.buildCanGrant()));
 		}
 	}
 	
@@ -78,33 +83,37 @@ public enum Role {
 	 * @return the included roles.
 	 */
 	public Set<Role> included() {
+		return INCLUDED.get(this);
+	}
+	
+	private EnumSet<Role> buildIncluded() {
 		if (Role.ADMIN.equals(this)) {
-			return set(Role.ADMIN, Role.SERV_TOKEN, Role.DEV_TOKEN);
+			return EnumSet.of(Role.ADMIN, Role.SERV_TOKEN, Role.DEV_TOKEN);
 		}
 		if (Role.SERV_TOKEN.equals(this)) {
-			return set(Role.SERV_TOKEN, Role.DEV_TOKEN);
+			return EnumSet.of(Role.SERV_TOKEN, Role.DEV_TOKEN);
 		}
-		return set(this);
-	}
-	
-	private Set<Role> set(Role...roles) {
-		return Arrays.stream(roles).collect(Collectors.toSet());
+		return EnumSet.of(this);
 	}
 	
 	/** Lists the roles that can be granted to another user by a user with this role.
 	 * @return the grantable roles.
 	 */
 	public Set<Role> canGrant() {
+		return CAN_GRANT.get(this);
+	}
+	
+	private EnumSet<Role> buildCanGrant() {
 		if (Role.ROOT.equals(this)) {
-			return set(Role.CREATE_ADMIN);
+			return EnumSet.of(Role.CREATE_ADMIN);
 		}
 		if (Role.CREATE_ADMIN.equals(this)) {
-			return set(Role.ADMIN);
+			return EnumSet.of(Role.ADMIN);
 		}
 		if (Role.ADMIN.equals(this)) {
-			return set(Role.SERV_TOKEN, Role.DEV_TOKEN);
+			return EnumSet.of(Role.SERV_TOKEN, Role.DEV_TOKEN);
 		}
-		return Collections.emptySet();
+		return EnumSet.noneOf(Role.class);
 	}
 	
 	/** Returns true if a set of roles contains one of the administrator roles (ROOT, CREATE_ADMIN,
@@ -126,9 +135,11 @@ public enum Role {
 	 * @return true if this role is included in one of the roles in the set.
 	 */
 	public boolean isSatisfiedBy(final Set<Role> possessed) {
-		final Set<Role> included = possessed.stream().flatMap(r -> r.included().stream())
-				.collect(Collectors.toSet());
-		return included.contains(this);
-		
+		for (final Role r: possessed) {
+			if (r.included().contains(this)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -0,0 +1,156 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.TokenRevocation;
+
+/* Publishes events to the token revocation feed and wakes up clients waiting for new events.
+ *
+ * The feed is persisted in the storage system so that clients see revocations made on any
+ * instance of the server. Rather than have every waiting client poll the storage system, the
+ * latest sequence number is polled in the background and immediately after an event is
+ * published by this instance, and waiting clients are notified when it changes. Waiting clients
+ * do not hold a thread; each wait is a future that is completed by the poll or by a timeout
+ * scheduled on the executor.
+ *
+ * Old events are deleted periodically. A client that has fallen behind the oldest remaining
+ * event is told to reset its cache.
+ */
+class TokenRevocationFeedWorker {
+
+	private final AuthStorage storage;
+	private final ScheduledExecutorService executor;
+	private final Clock clock;
+	private final long maxEventAgeMillis;
+
+	// guarded by this
+	private long latestSequence = 0;
+	// waiting clients and the sequence number they are waiting to pass, guarded by this
+	private final Map<CompletableFuture<Boolean>, Long> waiters = new HashMap<>();
+
+	/* The executor is used to poll the sequence number every pollIntervalMillis and to delete
+	 * events older than maxEventAgeMillis every pruneIntervalMillis.
+	 */
+	TokenRevocationFeedWorker(
+			final AuthStorage storage,
+			final ScheduledExecutorService executor,
+			final Clock clock,
+			final long pollIntervalMillis,
+			final long pruneIntervalMillis,
+			final long maxEventAgeMillis) {
+		nonNull(storage, "storage");
+		nonNull(executor, "executor");
+		nonNull(clock, "clock");
+		this.storage = storage;
+		this.executor = executor;
+		this.clock = clock;
+		this.maxEventAgeMillis = maxEventAgeMillis;
+		executor.scheduleWithFixedDelay(() -> poll(), pollIntervalMillis,
+				pollIntervalMillis, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(() -> prune(), pruneIntervalMillis,
+				pruneIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/* Add an event to the feed and wake up any clients waiting on this instance. Revocations are
+	 * rare, so the extra storage system access to poll the sequence number is cheap compared to
+	 * clients waiting for the next scheduled poll.
+	 *
+	 * This must be called before the revocation is made, and the revocation must not be made
+	 * if this method throws, so that no revocation is ever missing from the feed. A client may
+	 * see the event shortly before the revocation is made, or for a revocation that then
+	 * fails, in which case it rejects tokens that the caller asked to revoke.
+	 */
+	void publish(final TokenRevocation revocation) throws AuthStorageException {
+		nonNull(revocation, "revocation");
+		storage.addTokenRevocationEvent(revocation);
+		poll();
+	}
+
+	/* Wait until the feed has an event after the given sequence number, or the wait time has
+	 * elapsed. The future completes with true if there is a new event, and false on timeout.
+	 * The sequence number is only as fresh as the last poll, so callers should check the
+	 * storage system before waiting.
+	 *
+	 * The future is completed on the executor thread, so dependent actions that access the
+	 * storage system should run on another executor.
+	 */
+	CompletableFuture<Boolean> await(final long afterSequence, final long maxWaitMillis) {
+		final CompletableFuture<Boolean> ret = new CompletableFuture<>();
+		synchronized (this) {
+			if (latestSequence > afterSequence) {
+				ret.complete(true);
+				return ret;
+			}
+			waiters.put(ret, afterSequence);
+		}
+		final Runnable expire = () -> ret.complete(false);
+		final ScheduledFuture<?> timeout = executor.schedule(
+				expire, maxWaitMillis, TimeUnit.MILLISECONDS);
+		ret.whenComplete((r, e) -> {
+			// a no-op if the poll completed the future
+			timeout.cancel(false);
+			synchronized (this) {
+				waiters.remove(ret);
+			}
+		});
+		return ret;
+	}
+
+	private void poll() {
+		final long seq;
+		try {
+			seq = storage.getTokenRevocationSequence();
+		} catch (AuthStorageException | RuntimeException e) {
+			logError("Token revocation feed poll failed: ", e);
+			return;
+		}
+		final List<CompletableFuture<Boolean>> wake = new LinkedList<>();
+		synchronized (this) {
+			if (seq > latestSequence) {
+				latestSequence = seq;
+				final Iterator<Entry<CompletableFuture<Boolean>, Long>> i =
+						waiters.entrySet().iterator();
+				while (i.hasNext()) {
+					final Entry<CompletableFuture<Boolean>, Long> w = i.next();
+					if (w.getValue() < seq) {
+						wake.add(w.getKey());
+						i.remove();
+					}
+				}
+			}
+		}
+		// complete outside the lock, since completion runs the waiters' dependent actions
+		for (final CompletableFuture<Boolean> w: wake) {
+			w.complete(true);
+		}
+	}
+
+	private void prune() {
+		try {
+			storage.deleteTokenRevocationEvents(clock.instant().minusMillis(maxEventAgeMillis));
+		} catch (AuthStorageException | RuntimeException e) {
+			// the next prune will try again
+			logError("Token revocation feed cleanup failed: ", e);
+		}
+	}
+
+	private void logError(final String message, final Exception e) {
+		LoggerFactory.getLogger(getClass()).error(message + e.getMessage(), e);
+	}
+}
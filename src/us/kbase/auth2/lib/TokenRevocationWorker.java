@@ -0,0 +1,93 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/* Revokes the tokens of disabled users in the background so that the request that notices the
+ * disabled user doesn't have to wait for the token deletion. The queue of users is persisted in
+ * the storage system so that revocations are not lost if the server goes down before the
+ * revocation is processed, and so that any server instance can process the revocation. The
+ * storage system rejects the tokens of queued users, so the tokens are invalid as soon as the
+ * user is queued.
+ *
+ * Users queued by this instance are also tracked in memory so that repeated requests for the same
+ * disabled user don't write to the storage system every time.
+ */
+class TokenRevocationWorker {
+
+	private final AuthStorage storage;
+	private final ScheduledExecutorService executor;
+	private final Set<UserName> queued = ConcurrentHashMap.newKeySet();
+
+	/* The executor is used to process the queue whenever a user is added to it and every
+	 * sweepIntervalMillis to pick up revocations queued by other instances or left over from a
+	 * previous run.
+	 */
+	TokenRevocationWorker(
+			final AuthStorage storage,
+			final ScheduledExecutorService executor,
+			final long sweepIntervalMillis) {
+		nonNull(storage, "storage");
+		nonNull(executor, "executor");
+		this.storage = storage;
+		this.executor = executor;
+		executor.scheduleWithFixedDelay(() -> revokeQueued(), sweepIntervalMillis,
+				sweepIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/* Queue a user's tokens for revocation. Returns immediately after the revocation is
+	 * persisted; the tokens are deleted asynchronously. If the user is already queued by this
+	 * instance, does nothing.
+	 */
+	void enqueue(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		if (queued.add(userName)) {
+			try {
+				storage.addTokenRevocation(userName);
+			} catch (AuthStorageException | RuntimeException e) {
+				queued.remove(userName);
+				throw e;
+			}
+			executor.execute(() -> revokeQueued());
+		}
+	}
+
+	/* Synchronized so that the sweep and any revocations triggered by enqueue() don't process
+	 * the queue concurrently.
+	 */
+	synchronized void revokeQueued() {
+		final Set<UserName> revocations;
+		try {
+			revocations = storage.getTokenRevocations();
+		} catch (AuthStorageException | RuntimeException e) {
+			logError(e);
+			return;
+		}
+		// forget users whose revocations have already been processed by another instance
+		queued.retainAll(revocations);
+		for (final UserName userName: revocations) {
+			try {
+				storage.deleteTokens(userName);
+				storage.removeTokenRevocation(userName);
+				queued.remove(userName);
+			} catch (AuthStorageException | RuntimeException e) {
+				// the queue is persistent, so the next sweep will try again
+				logError(e);
+			}
+		}
+	}
+
+	private void logError(final Exception e) {
+		LoggerFactory.getLogger(getClass()).error(
+				"Token revocation failed: " + e.getMessage(), e);
+	}
+}
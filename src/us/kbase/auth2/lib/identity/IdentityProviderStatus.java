@@ -0,0 +1,157 @@
+package us.kbase.auth2.lib.identity;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+
+import com.google.common.base.Optional;
+
+/** The outcomes of the most recent calls to an identity provider. Used to report whether the
+ * provider is reachable without making extra calls to the provider.
+ */
+public class IdentityProviderStatus {
+
+	private final String providerName;
+	private final Optional<Instant> lastSuccess;
+	private final Optional<Instant> lastFailure;
+	private final Optional<String> lastError;
+	// calls may complete within the same clock tick, so record the outcome of the last call
+	private final boolean ok;
+
+	/** Create a status for a provider that has not yet been called.
+	 * @param providerName the name of the provider.
+	 */
+	public IdentityProviderStatus(final String providerName) {
+		this(providerName, Optional.absent(), Optional.absent(), Optional.absent(), true);
+		checkStringNoCheckedException(providerName, "providerName");
+	}
+
+	private IdentityProviderStatus(
+			final String providerName,
+			final Optional<Instant> lastSuccess,
+			final Optional<Instant> lastFailure,
+			final Optional<String> lastError,
+			final boolean ok) {
+		this.providerName = providerName;
+		this.lastSuccess = lastSuccess;
+		this.lastFailure = lastFailure;
+		this.lastError = lastError;
+		this.ok = ok;
+	}
+
+	/** Get the name of the provider.
+	 * @return the provider name.
+	 */
+	public String getProviderName() {
+		return providerName;
+	}
+
+	/** Get the time of the most recent successful call to the provider, if any.
+	 * @return the time of the last success.
+	 */
+	public Optional<Instant> getLastSuccess() {
+		return lastSuccess;
+	}
+
+	/** Get the time of the most recent failed call to the provider, if any.
+	 * @return the time of the last failure.
+	 */
+	public Optional<Instant> getLastFailure() {
+		return lastFailure;
+	}
+
+	/** Get the error message from the most recent failed call to the provider, if any.
+	 * @return the last error.
+	 */
+	public Optional<String> getLastError() {
+		return lastError;
+	}
+
+	/** Check whether the most recent call to the provider succeeded, or the provider has not
+	 * yet been called.
+	 * @return false if the most recent call failed, true otherwise.
+	 */
+	public boolean isOK() {
+		return ok;
+	}
+
+	/** Record a successful call to the provider.
+	 * @param time the time of the call.
+	 * @return a new status with the success recorded.
+	 */
+	public IdentityProviderStatus withSuccess(final Instant time) {
+		nonNull(time, "time");
+		return new IdentityProviderStatus(
+				providerName, Optional.of(time), lastFailure, lastError, true);
+	}
+
+	/** Record a failed call to the provider.
+	 * @param time the time of the call.
+	 * @param error the error message.
+	 * @return a new status with the failure recorded.
+	 */
+	public IdentityProviderStatus withFailure(final Instant time, final String error) {
+		nonNull(time, "time");
+		return new IdentityProviderStatus(providerName, lastSuccess, Optional.of(time),
+				Optional.fromNullable(error), false);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((lastError == null) ? 0 : lastError.hashCode());
+		result = prime * result + ((lastFailure == null) ? 0 : lastFailure.hashCode());
+		result = prime * result + ((lastSuccess == null) ? 0 : lastSuccess.hashCode());
+		result = prime * result + (ok ? 1231 : 1237);
+		result = prime * result + ((providerName == null) ? 0 : providerName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		IdentityProviderStatus other = (IdentityProviderStatus) obj;
+		if (lastError == null) {
+			if (other.lastError != null) {
+				return false;
+			}
+		} else if (!lastError.equals(other.lastError)) {
+			return false;
+		}
+		if (lastFailure == null) {
+			if (other.lastFailure != null) {
+				return false;
+			}
+		} else if (!lastFailure.equals(other.lastFailure)) {
+			return false;
+		}
+		if (lastSuccess == null) {
+			if (other.lastSuccess != null) {
+				return false;
+			}
+		} else if (!lastSuccess.equals(other.lastSuccess)) {
+			return false;
+		}
+		if (ok != other.ok) {
+			return false;
+		}
+		if (providerName == null) {
+			if (other.providerName != null) {
+				return false;
+			}
+		} else if (!providerName.equals(other.providerName)) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,121 @@
+package us.kbase.auth2.lib.storage;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.user.AuthUser;
+
+/** An asynchronous view of the read operations of an {@link AuthStorage} that a request can
+ * overlap with its other reads, such as fetching the user an administrator requested while
+ * checking the administrator's roles. Starting the reads asynchronously allows them to proceed
+ * concurrently rather than one after another.
+ *
+ * Each operation runs the corresponding {@link AuthStorage} method on the provided executor.
+ * If an operation fails, the future completes exceptionally with the same exception the
+ * {@link AuthStorage} method threw. Use {@link #get(CompletableFuture)} or
+ * {@link #get(CompletableFuture, Class)} to wait for a result and rethrow the original
+ * exception.
+ */
+public class AsyncAuthStorage {
+
+	private final AuthStorage storage;
+	private final Executor executor;
+
+	/** Create an asynchronous view of a storage system.
+	 * @param storage the storage system.
+	 * @param executor the executor on which to run storage operations. If the executor cannot
+	 * accept more tasks, it should run them on the calling thread rather than queueing them
+	 * behind other requests' operations, for example with
+	 * {@link java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy}.
+	 */
+	public AsyncAuthStorage(final AuthStorage storage, final Executor executor) {
+		nonNull(storage, "storage");
+		nonNull(executor, "executor");
+		this.storage = storage;
+		this.executor = executor;
+	}
+
+	private interface StorageCall<T> {
+		T call() throws Exception;
+	}
+
+	private <T> CompletableFuture<T> run(final StorageCall<T> call) {
+		final CompletableFuture<T> ret = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				ret.complete(call.call());
+			} catch (Throwable t) {
+				ret.completeExceptionally(t);
+			}
+		});
+		return ret;
+	}
+
+	/** Get a user. See {@link AuthStorage#getUser(UserName)}.
+	 * @param userName the user to get.
+	 * @return the user, or a {@link NoSuchUserException} or {@link AuthStorageException} if the
+	 * user could not be retrieved.
+	 */
+	public CompletableFuture<AuthUser> getUser(final UserName userName) {
+		nonNull(userName, "userName");
+		return run(() -> storage.getUser(userName));
+	}
+
+	/** Wait for the result of a storage operation that can only fail with an
+	 * {@link AuthStorageException}.
+	 * @param <T> the type of the result.
+	 * @param future the result of the operation.
+	 * @return the result.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurred.
+	 */
+	public static <T> T get(final CompletableFuture<T> future) throws AuthStorageException {
+		return get(future, AuthStorageException.class);
+	}
+
+	/** Wait for the result of a storage operation and rethrow the exception the operation
+	 * failed with, if any.
+	 * @param <T> the type of the result.
+	 * @param <E> the type of the checked exception, other than {@link AuthStorageException},
+	 * that the operation may throw.
+	 * @param future the result of the operation.
+	 * @param exceptionClass the class of the checked exception.
+	 * @return the result.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurred.
+	 * @throws E if the operation failed with the checked exception.
+	 */
+	public static <T, E extends Exception> T get(
+			final CompletableFuture<T> future,
+			final Class<E> exceptionClass)
+			throws AuthStorageException, E {
+		nonNull(future, "future");
+		nonNull(exceptionClass, "exceptionClass");
+		try {
+			return future.join();
+		} catch (CancellationException e) {
+			throw new RuntimeException("Storage operation was cancelled", e);
+		} catch (CompletionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof AuthStorageException) {
+				throw (AuthStorageException) cause;
+			}
+			if (exceptionClass.isInstance(cause)) {
+				throw exceptionClass.cast(cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException("Unexpected exception from storage operation: " +
+					cause.getMessage(), cause);
+		}
+	}
+}
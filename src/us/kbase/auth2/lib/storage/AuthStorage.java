@@ -1,12 +1,17 @@
 package us.kbase.auth2.lib.storage;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
@@ -38,7 +43,12 @@ import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TemporaryHashedToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
 import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
 
@@ -93,12 +103,6 @@ public interface AuthStorage {
 	 */
 	void forcePasswordReset(UserName name) throws NoSuchUserException, AuthStorageException;
 	
-	/** Force all local users to reset their passwords on the next login.
-	 * @throws AuthStorageException if a problem connecting with the storage
-	 * system occurs.
-	 */
-	void forcePasswordReset() throws AuthStorageException;
-	
 	/** Create a non-local account.
 	 * @param newUser the user to create.
 	 * @throws UserExistsException if the user already exists.
@@ -111,7 +115,19 @@ public interface AuthStorage {
 	void createUser(NewUser newUser)
 			throws UserExistsException, AuthStorageException, IdentityLinkedException,
 				NoSuchRoleException;
-	
+
+	/** Create multiple non-local accounts. Unlike {@link #createUser(NewUser)}, a conflict for one
+	 * user does not prevent the remaining users from being created.
+	 * @param newUsers the users to create. The user names must be unique within the collection.
+	 * @return the result of the creation attempt for each user, keyed by user name.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 * @throws NoSuchRoleException if a role provided with any of the users doesn't exist. In this
+	 * case no users are created.
+	 */
+	Map<UserName, CreateUserResult> createUsers(Collection<NewUser> newUsers)
+			throws AuthStorageException, NoSuchRoleException;
+
 	/** Disable a user account.
 	 * @param user the name of the account to be disabled.
 	 * @param admin the admin disabling the account.
@@ -153,6 +169,21 @@ public interface AuthStorage {
 	 */
 	Optional<AuthUser> getUser(RemoteIdentity remoteID) throws AuthStorageException;
 	
+	/** Gets the users linked to a set of remote identities. As for
+	 * {@link #getUser(RemoteIdentity)}, if the provider details of any identity are different,
+	 * the details are updated in the storage system.
+	 * 
+	 * Implementations should look up all the identities and apply all the updates in as few
+	 * storage system accesses as possible, as users may have many identities with a provider.
+	 * @param remoteIDs the remote identities.
+	 * @return a mapping of remote identity to the user linked to the identity. Identities that
+	 * are not linked to a user are not included.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	Map<RemoteIdentity, AuthUser> getUsers(Set<RemoteIdentity> remoteIDs)
+			throws AuthStorageException;
+	
 	/** Get the display names for a set of users. Any non-existent users are left out of the
 	 * returned map. Disabled users are never returned.
 	 * @param usernames the usernames for which to get display names.
@@ -201,6 +232,11 @@ public interface AuthStorage {
 			throws NoSuchUserException, AuthStorageException;
 	
 	/** Set the last login date for a user.
+	 * 
+	 * Implementations may buffer the update and write it to the storage system later, in which
+	 * case the update is discarded if the user does not exist and {@link NoSuchUserException} is
+	 * not thrown. Buffered updates must be visible when the user is retrieved from the same
+	 * storage instance. See {@link #flush()}.
 	 * @param userName the user to modify.
 	 * @param lastLogin the last login date for the user.
 	 * @throws NoSuchUserException if the user does not exist.
@@ -210,6 +246,31 @@ public interface AuthStorage {
 	void setLastLogin(UserName userName, Instant lastLogin)
 			throws NoSuchUserException, AuthStorageException;
 	
+	/** Write any buffered updates to the storage system. This method should be called
+	 * periodically and before the storage system is shut down.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs. Updates that could not be written remain buffered.
+	 */
+	void flush() throws AuthStorageException;
+	
+	/** Discard any cached data, such as user display names, so that subsequent reads reflect
+	 * the current state of the storage system. Cached data is otherwise refreshed periodically,
+	 * so this method is only needed when the storage system has been modified by means other
+	 * than this storage instance and the changes must be visible immediately.
+	 */
+	void clearCaches();
+	
+	/** Get statistics for the caches described in {@link #clearCaches()}.
+	 * @return a mapping of cache name to the statistics for the cache. Empty if nothing is
+	 * cached.
+	 */
+	Map<String, CacheStats> getCacheStats();
+	
+	/** Check that the storage system is reachable.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	void ping() throws AuthStorageException;
+	
 	/** Add policy IDs to the set of policy IDs already associated with a user.
 	 * @param userName the name of the user to modify.
 	 * @param policyIDs the policy IDs to add to the user.
@@ -220,13 +281,6 @@ public interface AuthStorage {
 	void addPolicyIDs(UserName userName, Set<PolicyID> policyIDs)
 			throws NoSuchUserException, AuthStorageException;
 	
-	/** Remove a policy ID from all users in the database.
-	 * @param policyID the policy ID to remove.
-	 * @throws AuthStorageException if a problem connecting with the storage
-	 * system occurs.
-	 */
-	void removePolicyID(PolicyID policyID) throws AuthStorageException;
-	
 	/** Store a token in the database. No checking is done on the validity
 	 * of the token - passing in tokens with bad data is a programming error.
 	 * @param token the token to store.
@@ -240,6 +294,10 @@ public interface AuthStorage {
 	void storeToken(StoredToken token, String hash) throws AuthStorageException;
 
 	/** Get a token from the database based on the hash of the token.
+	 * 
+	 * Getting a token records that the token was used. The returned token's last used date
+	 * does not include the current use. Implementations may buffer the update, as for
+	 * {@link #setLastLogin(UserName, Instant)}.
 	 * @param token the hashed token from which to retrieve details.
 	 * @return the token.
 	 * @throws NoSuchTokenException if no token matches the incoming token hash.
@@ -256,6 +314,27 @@ public interface AuthStorage {
 	 * system occurs.
 	 */
 	Set<StoredToken> getTokens(UserName userName) throws AuthStorageException;
+	
+	/** Get a page of the tokens for a user. The tokens do not include the custom token
+	 * creation context.
+	 * @param userName the user for which to retrieve tokens.
+	 * @param spec the types of tokens to retrieve and the position and size of the page.
+	 * @return the page of tokens.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	TokenPage getTokens(UserName userName, TokenListSpec spec) throws AuthStorageException;
+
+	/** Get the hash of a token.
+	 * @param userName the user that owns the token.
+	 * @param tokenId the ID of the token.
+	 * @return the token hash.
+	 * @throws NoSuchTokenException if the user does not possess a token with the given ID.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	String getTokenHash(UserName userName, UUID tokenId)
+			throws AuthStorageException, NoSuchTokenException;
 
 	/** Deletes a token from the database.
 	 * @param userName the user that owns the token.
@@ -274,11 +353,110 @@ public interface AuthStorage {
 	 */
 	void deleteTokens(UserName userName) throws AuthStorageException;
 	
-	/** Delete all tokens in the database.
+	/** Add a user to the queue of users whose tokens are to be revoked. Adding a user that is
+	 * already in the queue has no effect.
+	 * 
+	 * Once a user is added, the user's tokens are no longer returned by
+	 * {@link #getToken(IncomingHashedToken)}, even if they have not yet been deleted.
+	 * Implementations that share the storage system between multiple instances apply users
+	 * added by other instances within about a second.
+	 * @param userName the user whose tokens are to be revoked.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void addTokenRevocation(UserName userName) throws AuthStorageException;
+	
+	/** Get the users in the token revocation queue.
+	 * @return the users whose tokens are awaiting revocation.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	Set<UserName> getTokenRevocations() throws AuthStorageException;
+	
+	/** Remove a user from the token revocation queue. Removing a user that is not in the queue
+	 * has no effect.
+	 * @param userName the user to remove from the queue.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void removeTokenRevocation(UserName userName) throws AuthStorageException;
+	
+	/** Add an event to the token revocation feed. The event is given the next sequence number
+	 * in the feed and the current time.
+	 * 
+	 * Events must become visible to {@link #getTokenRevocationEvents(long, int)} in sequence
+	 * order, so that a reader never sees an event before all the events that precede it.
+	 * @param revocation the tokens that were revoked.
+	 * @return the event.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	TokenRevocationEvent addTokenRevocationEvent(TokenRevocation revocation)
+			throws AuthStorageException;
+	
+	/** Get events from the token revocation feed.
+	 * @param afterSequence get events with a sequence number greater than this value.
+	 * @param limit the maximum number of events to return.
+	 * @return the events in sequence order.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	List<TokenRevocationEvent> getTokenRevocationEvents(long afterSequence, int limit)
+			throws AuthStorageException;
+	
+	/** Get the sequence number of the most recent event in the token revocation feed.
+	 * @return the sequence number, or 0 if no events have been added.
 	 * @throws AuthStorageException if a problem connecting with the storage
 	 * system occurs.
 	 */
-	void deleteTokens() throws AuthStorageException;
+	long getTokenRevocationSequence() throws AuthStorageException;
+	
+	/** Delete events recorded before a given time from the token revocation feed. The most
+	 * recent event is never deleted, so that the sequence continues from its sequence number.
+	 * @param before delete events recorded before this time.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void deleteTokenRevocationEvents(Instant before) throws AuthStorageException;
+	
+	/** Store an administrative job. Jobs that delete custom roles must be stored via
+	 * {@link #deleteCustomRole(String, AdminJob)}.
+	 * 
+	 * Once a job that revokes all tokens is stored, tokens created on or before the job's
+	 * creation date are no longer returned by {@link #getToken(IncomingHashedToken)}, even if
+	 * the job has not yet deleted them. Similarly, once a job that forces password resets is
+	 * stored, local users whose password was last set on or before the job's creation date are
+	 * returned by {@link #getLocalUser(UserName)} as requiring a reset. Implementations that
+	 * share the storage system between multiple instances apply jobs stored by other instances
+	 * within about a second.
+	 * @param job the job to store.
+	 * @throws IllegalArgumentException if the job is a custom role deletion job.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void storeAdminJob(AdminJob job) throws AuthStorageException;
+	
+	/** Get administrative jobs, most recently created first.
+	 * @param incompleteOnly true to only return jobs that are not yet complete.
+	 * @return the jobs.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	List<AdminJob> getAdminJobs(boolean incompleteOnly) throws AuthStorageException;
+	
+	/** Process the next batch of records for an administrative job. The job's progress is
+	 * stored so that the next call processes the next batch, even from a different storage
+	 * instance. Processing the same batch more than once, or processing a complete job, has no
+	 * further effect.
+	 * 
+	 * The job is marked complete when there are no more records to process.
+	 * @param job the job to process.
+	 * @param batchSize the maximum number of records to process.
+	 * @return the job, updated with the results of processing the batch.
+	 * @throws AuthStorageException if the job does not exist or a problem connecting with the
+	 * storage system occurs.
+	 */
+	AdminJob processAdminJobBatch(AdminJob job, int batchSize) throws AuthStorageException;
 
 	/** Update roles for a user.
 	 * If a role is in addRoles and removeRoles it will be removed.
@@ -300,15 +478,21 @@ public interface AuthStorage {
 	 */
 	void setCustomRole(CustomRole role) throws AuthStorageException;
 	
-	/** Deletes a custom role from the database and removes it from all users.
+	/** Deletes a custom role from the database and stores a job that removes the role from
+	 * all users. Users' custom roles are checked against the database when fetched, and so
+	 * the role will not be returned for any user whether or not the job is complete.
 	 * @param roleId the ID of the role.
+	 * @param job the job that will remove the role from users. The job type must be
+	 * {@link AdminJobType#DELETE_CUSTOM_ROLE} and the job target must be the role ID.
+	 * @throws IllegalArgumentException if the job is not a deletion job for the role.
 	 * @throws NoSuchRoleException if there is no such role.
 	 * @throws AuthStorageException if a problem connecting with the storage
 	 * system occurs.
 	 * @throws IllegalParameterException if the roleId is illegal.
 	 * @throws MissingParameterException if the roleId is null or the empty string.
 	 */
-	void deleteCustomRole(String roleId) throws NoSuchRoleException, AuthStorageException,
+	void deleteCustomRole(String roleId, AdminJob job)
+			throws NoSuchRoleException, AuthStorageException,
 			MissingParameterException, IllegalParameterException;
 
 	/** Get all the custom roles in the database.
@@ -390,6 +574,23 @@ public interface AuthStorage {
 			throws NoSuchUserException, AuthStorageException,
 			LinkFailedException, IdentityLinkedException;
 
+	/** Link an account to a set of remote identities in one operation. The identities are
+	 * linked as for {@link #link(UserName, RemoteIdentity)}, but either all the identities are
+	 * linked or, if any of the identities is linked to another user, none are.
+	 *
+	 * Implementations should link the identities in as few storage system accesses as possible.
+	 * @param userName the user to which the remote identities will be linked.
+	 * @param remoteIDs the remote identities. No two identities may have the same identity ID.
+	 * @throws NoSuchUserException if the user does not exist.
+	 * @throws LinkFailedException if the user is a local user.
+	 * @throws IdentityLinkedException if an identity is already linked to another user.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void link(UserName userName, Set<RemoteIdentity> remoteIDs)
+			throws NoSuchUserException, AuthStorageException,
+			LinkFailedException, IdentityLinkedException;
+
 	/** Remove a remote identity from a user.
 	 * @param userName the user.
 	 * @param id the remote identity to remove from the user.
@@ -0,0 +1,12 @@
+package us.kbase.auth2.lib.storage.exceptions;
+
+/** 
+ * Thrown when the authorization storage system does not support an operation, for example a
+ * user lookup on a storage system that only validates tokens.
+ */
+public class UnsupportedStorageOperationException extends AuthStorageException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public UnsupportedStorageOperationException(String message) { super(message); }
+}
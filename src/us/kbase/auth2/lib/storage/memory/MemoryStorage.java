@@ -0,0 +1,1712 @@
+package us.kbase.auth2.lib.storage.memory;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+import static us.kbase.auth2.lib.Utils.noNulls;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.TemporaryIdentities;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserDisabledState;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.UserUpdate;
+import us.kbase.auth2.lib.config.AuthConfig;
+import us.kbase.auth2.lib.config.AuthConfig.ProviderConfig;
+import us.kbase.auth2.lib.config.AuthConfig.TokenLifetimeType;
+import us.kbase.auth2.lib.config.AuthConfigSet;
+import us.kbase.auth2.lib.config.AuthConfigUpdate;
+import us.kbase.auth2.lib.config.AuthConfigUpdate.ProviderUpdate;
+import us.kbase.auth2.lib.config.ConfigAction.Action;
+import us.kbase.auth2.lib.config.ConfigAction.State;
+import us.kbase.auth2.lib.config.ConfigItem;
+import us.kbase.auth2.lib.config.ExternalConfig;
+import us.kbase.auth2.lib.config.ExternalConfigMapper;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
+import us.kbase.auth2.lib.exceptions.IdentityLinkedException;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.LinkFailedException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+import us.kbase.auth2.lib.exceptions.NoSuchIdentityException;
+import us.kbase.auth2.lib.exceptions.NoSuchLocalUserException;
+import us.kbase.auth2.lib.exceptions.NoSuchRoleException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.exceptions.UnLinkFailedException;
+import us.kbase.auth2.lib.exceptions.UserExistsException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotSource;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotWriter;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TemporaryHashedToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+
+/** An in memory implementation of the authentication storage system. All data is lost when the
+ * instance is garbage collected, and the data cannot be shared between instances.
+ *
+ * Intended for tests and benchmarks that need a fully functional storage system without a
+ * database. Uniqueness guarantees are the same as for {@link
+ * us.kbase.auth2.lib.storage.mongo.MongoStorage}.
+ *
+ * Expired tokens and temporary tokens are never returned, and are removed from memory when
+ * {@link #flush()} is called. Tokens created before all tokens were revoked are never returned.
+ *
+ * @see AuthStorage
+ */
+public class MemoryStorage implements AuthStorage, TokenSnapshotSource {
+
+	/* Stored records are never modified after they're put in a map - updates replace the record
+	 * with a modified copy. Reads are therefore lock free and always see a consistent record.
+	 *
+	 * Writes that must update more than one map, like a user and the user's secondary indexes,
+	 * take the lock for the data type. Where more than one lock is needed, the job lock is always
+	 * taken first.
+	 *
+	 * Records are numbered in creation order so that admin jobs can walk the records in batches,
+	 * like MongoStorage walks records in _id order.
+	 */
+
+	private final Clock clock;
+	private final AtomicLong sequence = new AtomicLong();
+
+	private static class UserRecord {
+
+		private final long seq;
+		private final UserName userName;
+		private final boolean local;
+		private final Instant created;
+		private DisplayName displayName;
+		private EmailAddress email;
+		private Set<Role> roles;
+		private Set<Long> customRoles;
+		// identity ID -> identity
+		private Map<String, RemoteIdentity> identities;
+		private Map<PolicyID, Instant> policyIDs;
+		private Optional<Instant> lastLogin;
+		private UserDisabledState disabledState;
+		private boolean forceReset = false;
+		private Optional<Instant> lastReset = Optional.absent();
+		private byte[] passwordHash = null;
+		private byte[] salt = null;
+
+		private UserRecord(
+				final long seq,
+				final AuthUser user,
+				final Set<Long> customRoles) {
+			this.seq = seq;
+			userName = user.getUserName();
+			local = user.isLocal();
+			created = user.getCreated();
+			displayName = user.getDisplayName();
+			email = user.getEmail();
+			roles = new HashSet<>(user.getRoles());
+			this.customRoles = new HashSet<>(customRoles);
+			identities = new HashMap<>();
+			for (final RemoteIdentity ri: user.getIdentities()) {
+				identities.put(ri.getRemoteID().getID(), ri);
+			}
+			policyIDs = new HashMap<>(user.getPolicyIDs());
+			lastLogin = user.getLastLogin();
+			disabledState = user.getDisabledState();
+		}
+
+		private UserRecord(final UserRecord r) {
+			seq = r.seq;
+			userName = r.userName;
+			local = r.local;
+			created = r.created;
+			displayName = r.displayName;
+			email = r.email;
+			roles = new HashSet<>(r.roles);
+			customRoles = new HashSet<>(r.customRoles);
+			identities = new HashMap<>(r.identities);
+			policyIDs = new HashMap<>(r.policyIDs);
+			lastLogin = r.lastLogin;
+			disabledState = r.disabledState;
+			forceReset = r.forceReset;
+			lastReset = r.lastReset;
+			passwordHash = r.passwordHash;
+			salt = r.salt;
+		}
+
+		private UserRecord copy() {
+			return new UserRecord(this);
+		}
+	}
+
+	private static class TokenRecord {
+
+		private final long seq;
+		private final StoredToken token;
+		private final String hash;
+
+		private TokenRecord(final long seq, final StoredToken token, final String hash) {
+			this.seq = seq;
+			this.token = token;
+			this.hash = hash;
+		}
+	}
+
+	private static class TempTokenRecord {
+
+		private final TemporaryIdentities identities;
+		private final String hash;
+
+		private TempTokenRecord(final TemporaryIdentities identities, final String hash) {
+			this.identities = identities;
+			this.hash = hash;
+		}
+	}
+
+	private static class RoleRecord {
+
+		// the key stays the same if the role is updated, but not if it's deleted and recreated
+		private final long key;
+		private final CustomRole role;
+
+		private RoleRecord(final long key, final CustomRole role) {
+			this.key = key;
+			this.role = role;
+		}
+	}
+
+	private static class JobRecord {
+
+		private final AdminJob job;
+		// the key of the role for role deletion jobs
+		private final Optional<Long> role;
+		// the sequence number of the last record processed
+		private final long cursor;
+
+		private JobRecord(final AdminJob job, final Optional<Long> role, final long cursor) {
+			this.job = job;
+			this.role = role;
+			this.cursor = cursor;
+		}
+	}
+
+	private static class ProviderRecord {
+
+		private Boolean enabled = null;
+		private Boolean forceLoginChoice = null;
+		private Boolean forceLinkChoice = null;
+	}
+
+	// users and their secondary indexes
+	private final Lock userLock = new ReentrantLock();
+	private final Map<UserName, UserRecord> users = new ConcurrentHashMap<>();
+	private final NavigableMap<Long, UserName> usersBySeq = new ConcurrentSkipListMap<>();
+	// sorted for prefix searches
+	private final NavigableMap<String, UserName> userNames = new ConcurrentSkipListMap<>();
+	private final NavigableMap<String, Set<UserName>> displayNames =
+			new ConcurrentSkipListMap<>();
+	private final Map<String, UserName> identities = new ConcurrentHashMap<>();
+	private final Map<Role, Set<UserName>> roles = new ConcurrentHashMap<>();
+	private final Map<Long, Set<UserName>> customRoles = new ConcurrentHashMap<>();
+
+	// tokens and their secondary indexes
+	private final Lock tokenLock = new ReentrantLock();
+	private final Map<String, TokenRecord> tokens = new ConcurrentHashMap<>();
+	private final Map<UUID, TokenRecord> tokenIDs = new ConcurrentHashMap<>();
+	private final NavigableMap<Long, TokenRecord> tokensBySeq = new ConcurrentSkipListMap<>();
+	private final Map<UserName, Set<UUID>> userTokens = new ConcurrentHashMap<>();
+	private final Map<UUID, Instant> tokensLastUsed = new ConcurrentHashMap<>();
+	/* Tokens created on or before this date have been revoked by a revoke all tokens job, but
+	 * may not have been deleted yet.
+	 */
+	private final AtomicReference<Instant> tokensRevokedBefore =
+			new AtomicReference<>(Instant.EPOCH);
+
+	private final Lock tempTokenLock = new ReentrantLock();
+	private final Map<String, TempTokenRecord> tempTokens = new ConcurrentHashMap<>();
+	private final Map<UUID, TempTokenRecord> tempTokenIDs = new ConcurrentHashMap<>();
+
+	private final Set<UserName> tokenRevocations = ConcurrentHashMap.newKeySet();
+	
+	// guarded by revocationEvents
+	private final NavigableMap<Long, TokenRevocationEvent> revocationEvents = new TreeMap<>();
+	private long revocationSequence = 0;
+
+	private final Lock jobLock = new ReentrantLock();
+	private final Map<UUID, JobRecord> adminJobs = new ConcurrentHashMap<>();
+
+	private final Lock roleLock = new ReentrantLock();
+	private final Map<String, RoleRecord> rolesByID = new ConcurrentHashMap<>();
+	private final Map<Long, RoleRecord> rolesByKey = new ConcurrentHashMap<>();
+
+	private final Lock configLock = new ReentrantLock();
+	private final Map<String, Boolean> appConfigBoolean = new HashMap<>();
+	private final Map<TokenLifetimeType, Long> tokenLifetimes = new HashMap<>();
+	private final Map<String, ProviderRecord> providerConfig = new HashMap<>();
+	private final Map<String, String> externalConfig = new HashMap<>();
+
+	private static final String CONFIG_ALLOW_LOGIN = "allowlogin";
+
+	/** Create a new in memory authentication storage system. */
+	public MemoryStorage() {
+		this(Clock.systemDefaultZone()); //don't use timezone
+	}
+
+	// this should only be used for tests
+	private MemoryStorage(final Clock clock) {
+		nonNull(clock, "clock");
+		this.clock = clock;
+	}
+
+	/* ***** users ***** */
+
+	/* Add a record to the user maps, replacing the previous version of the record if provided.
+	 * Only index entries that change are touched, so that concurrent readers of the indexes never
+	 * miss a user that exists before and after the update.
+	 * Must be called with the user lock held.
+	 */
+	private void putUser(final Optional<UserRecord> old, final UserRecord user) {
+		final UserName name = user.userName;
+		final Set<String> oldIdentities = old.isPresent() ?
+				old.get().identities.keySet() : Collections.emptySet();
+		for (final String id: user.identities.keySet()) {
+			if (!oldIdentities.contains(id)) {
+				identities.put(id, name);
+			}
+		}
+		users.put(name, user);
+		for (final String id: oldIdentities) {
+			if (!user.identities.containsKey(id)) {
+				identities.remove(id, name);
+			}
+		}
+		if (!old.isPresent()) {
+			usersBySeq.put(user.seq, name);
+			userNames.put(name.getName(), name);
+		}
+		reindex(displayNames, old.isPresent() ?
+				getCanonicalDisplayName(old.get()) : Collections.emptySet(),
+				getCanonicalDisplayName(user), name);
+		reindex(roles, old.isPresent() ? old.get().roles : Collections.emptySet(),
+				user.roles, name);
+		reindex(customRoles, old.isPresent() ? old.get().customRoles : Collections.emptySet(),
+				user.customRoles, name);
+	}
+
+	private static Set<String> getCanonicalDisplayName(final UserRecord user) {
+		return new HashSet<>(user.displayName.getCanonicalDisplayName());
+	}
+
+	private static <T> void reindex(
+			final Map<T, Set<UserName>> index,
+			final Set<T> oldKeys,
+			final Set<T> newKeys,
+			final UserName user) {
+		for (final T key: newKeys) {
+			if (!oldKeys.contains(key)) {
+				index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(user);
+			}
+		}
+		for (final T key: oldKeys) {
+			if (!newKeys.contains(key)) {
+				index.computeIfPresent(key, (k, s) -> {
+					s.remove(user);
+					return s.isEmpty() ? null : s;
+				});
+			}
+		}
+	}
+
+	/* Check the uniqueness constraints for a new user and add the user.
+	 * Must be called with the user lock held.
+	 */
+	private Optional<CreateUserResult> addUser(final UserRecord user) {
+		if (users.containsKey(user.userName)) {
+			return Optional.of(CreateUserResult.USER_EXISTS);
+		}
+		for (final String id: user.identities.keySet()) {
+			if (identities.containsKey(id)) {
+				return Optional.of(CreateUserResult.IDENTITY_LINKED);
+			}
+		}
+		putUser(Optional.absent(), user);
+		return Optional.absent();
+	}
+
+	@Override
+	public void createLocalUser(final LocalUser local, final PasswordHashAndSalt creds)
+			throws UserExistsException, AuthStorageException, NoSuchRoleException {
+		nonNull(local, "local");
+		nonNull(creds, "creds");
+		final UserRecord u = new UserRecord(sequence.incrementAndGet(), local,
+				getCustomRoleKeys(local.getCustomRoles()));
+		u.forceReset = local.isPwdResetRequired();
+		u.lastReset = local.getLastPwdReset();
+		// the caller clears the credentials after storing them
+		u.passwordHash = Arrays.copyOf(creds.getPasswordHash(), creds.getPasswordHash().length);
+		u.salt = Arrays.copyOf(creds.getSalt(), creds.getSalt().length);
+		userLock.lock();
+		try {
+			if (addUser(u).isPresent()) {
+				throw new UserExistsException(local.getUserName().getName());
+			}
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	@Override
+	public void createUser(final NewUser newUser)
+			throws UserExistsException, AuthStorageException, IdentityLinkedException,
+			NoSuchRoleException {
+		nonNull(newUser, "newUser");
+		final UserRecord u = new UserRecord(sequence.incrementAndGet(), newUser,
+				getCustomRoleKeys(newUser.getCustomRoles()));
+		final Optional<CreateUserResult> conflict;
+		userLock.lock();
+		try {
+			conflict = addUser(u);
+		} finally {
+			userLock.unlock();
+		}
+		if (conflict.isPresent()) {
+			if (CreateUserResult.USER_EXISTS.equals(conflict.get())) {
+				throw new UserExistsException(newUser.getUserName().getName());
+			}
+			throw new IdentityLinkedException(newUser.getIdentity().getRemoteID().getID());
+		}
+	}
+
+	@Override
+	public Map<UserName, CreateUserResult> createUsers(final Collection<NewUser> newUsers)
+			throws AuthStorageException, NoSuchRoleException {
+		nonNull(newUsers, "newUsers");
+		noNulls(newUsers, "null item in newUsers");
+		final Map<UserName, CreateUserResult> ret = new HashMap<>();
+		final Set<String> allCustomRoles = new HashSet<>();
+		for (final NewUser nu: newUsers) {
+			if (ret.containsKey(nu.getUserName())) {
+				throw new IllegalArgumentException("Duplicate user name in newUsers: " +
+						nu.getUserName().getName());
+			}
+			ret.put(nu.getUserName(), CreateUserResult.CREATED);
+			allCustomRoles.addAll(nu.getCustomRoles());
+		}
+		// check all the roles exist before creating any users
+		final Map<String, Long> roleKeys = getCustomRoleKeyMap(allCustomRoles);
+		final List<UserRecord> records = new LinkedList<>();
+		for (final NewUser nu: newUsers) {
+			records.add(new UserRecord(sequence.incrementAndGet(), nu, nu.getCustomRoles()
+					.stream().map(r -> roleKeys.get(r)).collect(Collectors.toSet())));
+		}
+		userLock.lock();
+		try {
+			for (final UserRecord u: records) {
+				final Optional<CreateUserResult> conflict = addUser(u);
+				if (conflict.isPresent()) {
+					ret.put(u.userName, conflict.get());
+				}
+			}
+		} finally {
+			userLock.unlock();
+		}
+		return ret;
+	}
+
+	private UserRecord getUserRecord(final UserName userName, final boolean local)
+			throws NoSuchUserException {
+		nonNull(userName, "userName");
+		final UserRecord u = users.get(userName);
+		if (u == null) {
+			throw new NoSuchUserException(userName.getName());
+		}
+		if (local && !u.local) {
+			throw new NoSuchLocalUserException(userName.getName());
+		}
+		return u;
+	}
+
+	private interface UserUpdater {
+
+		void update(UserRecord user);
+	}
+
+	// apply an update to a copy of a user record and store the copy
+	private void updateUserRecord(
+			final UserName userName,
+			final boolean local,
+			final UserUpdater updater)
+			throws NoSuchUserException {
+		userLock.lock();
+		try {
+			final UserRecord old = getUserRecord(userName, local);
+			final UserRecord u = old.copy();
+			updater.update(u);
+			putUser(Optional.of(old), u);
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	private <T extends AuthUser.AbstractBuilder<T>> T addCommonFields(
+			final T b,
+			final UserRecord user) {
+		b.withEmailAddress(user.email).withUserDisabledState(user.disabledState);
+		for (final Role r: user.roles) {
+			b.withRole(r);
+		}
+		for (final Long key: user.customRoles) {
+			final RoleRecord role = rolesByKey.get(key);
+			// roles that have been deleted may not have been removed from the user yet
+			if (role != null) {
+				b.withCustomRole(role.role.getID());
+			}
+		}
+		for (final Entry<PolicyID, Instant> e: user.policyIDs.entrySet()) {
+			b.withPolicyID(e.getKey(), e.getValue());
+		}
+		if (user.lastLogin.isPresent()) {
+			b.withLastLogin(user.lastLogin.get());
+		}
+		return b;
+	}
+
+	private AuthUser toUser(final UserRecord user) {
+		final AuthUser.Builder b = addCommonFields(
+				AuthUser.getBuilder(user.userName, user.displayName, user.created), user);
+		for (final RemoteIdentity ri: user.identities.values()) {
+			b.withIdentity(ri);
+		}
+		return b.build();
+	}
+
+	@Override
+	public LocalUser getLocalUser(final UserName userName)
+			throws AuthStorageException, NoSuchLocalUserException {
+		final UserRecord u;
+		try {
+			u = getUserRecord(userName, true);
+		} catch (NoSuchUserException e) {
+			throw new NoSuchLocalUserException(userName.getName());
+		}
+		// the user may not have been reached yet by a force password reset job
+		final boolean resetByJob = adminJobs.values().stream().map(j -> j.job).anyMatch(
+				j -> AdminJobType.FORCE_RESET_PASSWORDS.equals(j.getType()) &&
+						!j.isComplete() && !passwordSetAfter(u, j.getCreated()));
+		final LocalUser.Builder b = addCommonFields(LocalUser.getLocalUserBuilder(
+				u.userName, u.displayName, u.created), u)
+				.withForceReset(u.forceReset || resetByJob);
+		if (u.lastReset.isPresent()) {
+			b.withLastReset(u.lastReset.get());
+		}
+		return b.build();
+	}
+	
+	private boolean passwordSetAfter(final UserRecord u, final Instant time) {
+		return u.lastReset.or(u.created).isAfter(time);
+	}
+
+	@Override
+	public PasswordHashAndSalt getPasswordHashAndSalt(final UserName userName)
+			throws AuthStorageException, NoSuchLocalUserException {
+		nonNull(userName, "userName");
+		final UserRecord u = users.get(userName);
+		if (u == null || !u.local) {
+			throw new NoSuchLocalUserException(userName.getName());
+		}
+		// the caller clears the returned arrays
+		return new PasswordHashAndSalt(Arrays.copyOf(u.passwordHash, u.passwordHash.length),
+				Arrays.copyOf(u.salt, u.salt.length));
+	}
+
+	@Override
+	public void changePassword(
+			final UserName name,
+			final PasswordHashAndSalt creds,
+			final boolean forceReset)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(creds, "creds");
+		final byte[] pwdhsh = Arrays.copyOf(creds.getPasswordHash(),
+				creds.getPasswordHash().length);
+		final byte[] salt = Arrays.copyOf(creds.getSalt(), creds.getSalt().length);
+		final Instant now = clock.instant();
+		updateUserRecord(name, true, u -> {
+			u.forceReset = forceReset;
+			u.lastReset = Optional.of(now);
+			u.passwordHash = pwdhsh;
+			u.salt = salt;
+		});
+	}
+
+	@Override
+	public void forcePasswordReset(final UserName name)
+			throws NoSuchUserException, AuthStorageException {
+		updateUserRecord(name, true, u -> u.forceReset = true);
+	}
+
+	@Override
+	public void disableAccount(final UserName user, final UserName admin, final String reason)
+			throws NoSuchUserException, AuthStorageException {
+		if (reason == null || reason.trim().isEmpty()) {
+			throw new IllegalArgumentException("reason cannot be null or empty");
+		}
+		toggleAccount(user, admin, reason);
+	}
+
+	@Override
+	public void enableAccount(final UserName user, final UserName admin)
+			throws NoSuchUserException, AuthStorageException {
+		toggleAccount(user, admin, null);
+	}
+
+	private void toggleAccount(final UserName user, final UserName admin, final String reason)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(admin, "admin");
+		final UserDisabledState state;
+		try {
+			state = UserDisabledState.create(Optional.fromNullable(reason), Optional.of(admin),
+					Optional.of(clock.instant()));
+		} catch (IllegalParameterException | MissingParameterException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		updateUserRecord(user, false, u -> u.disabledState = state);
+	}
+
+	@Override
+	public AuthUser getUser(final UserName userName)
+			throws AuthStorageException, NoSuchUserException {
+		return toUser(getUserRecord(userName, false));
+	}
+
+	@Override
+	public Optional<AuthUser> getUser(final RemoteIdentity remoteID) throws AuthStorageException {
+		nonNull(remoteID, "remoteID");
+		final String id = remoteID.getRemoteID().getID();
+		final UserName name = identities.get(id);
+		if (name == null) {
+			return Optional.absent();
+		}
+		final UserRecord u = users.get(name);
+		if (u == null || !u.identities.containsKey(id)) {
+			// the identity was just unlinked
+			return Optional.absent();
+		}
+		if (!u.identities.get(id).getDetails().equals(remoteID.getDetails())) {
+			updateIdentity(remoteID);
+			final UserRecord updated = u.copy();
+			updated.identities.put(id, remoteID);
+			return Optional.of(toUser(updated));
+		}
+		return Optional.of(toUser(u));
+	}
+
+	@Override
+	public Map<RemoteIdentity, AuthUser> getUsers(final Set<RemoteIdentity> remoteIDs)
+			throws AuthStorageException {
+		nonNull(remoteIDs, "remoteIDs");
+		noNulls(remoteIDs, "Null remote identity in set");
+		// in memory lookups are cheap, so there's no benefit in batching
+		final Map<RemoteIdentity, AuthUser> ret = new HashMap<>();
+		for (final RemoteIdentity ri: remoteIDs) {
+			final Optional<AuthUser> u = getUser(ri);
+			if (u.isPresent()) {
+				ret.put(ri, u.get());
+			}
+		}
+		return ret;
+	}
+
+	private void updateIdentity(final RemoteIdentity remoteID) {
+		final String id = remoteID.getRemoteID().getID();
+		userLock.lock();
+		try {
+			final UserName name = identities.get(id);
+			// the id might have been unlinked, in which case there's nothing to do
+			if (name != null) {
+				final UserRecord old = users.get(name);
+				final UserRecord u = old.copy();
+				u.identities.put(id, remoteID);
+				putUser(Optional.of(old), u);
+			}
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	@Override
+	public void updateUser(final UserName userName, final UserUpdate update)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(update, "update");
+		if (!update.hasUpdates()) {
+			return; //noop
+		}
+		updateUserRecord(userName, false, u -> {
+			if (update.getDisplayName().isPresent()) {
+				u.displayName = update.getDisplayName().get();
+			}
+			if (update.getEmail().isPresent()) {
+				u.email = update.getEmail().get();
+			}
+		});
+	}
+
+	@Override
+	public void setLastLogin(final UserName userName, final Instant lastLogin)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(lastLogin, "lastLogin");
+		updateUserRecord(userName, false, u -> {
+			if (!u.lastLogin.isPresent() || lastLogin.isAfter(u.lastLogin.get())) {
+				u.lastLogin = Optional.of(lastLogin);
+			}
+		});
+	}
+
+	@Override
+	public void addPolicyIDs(final UserName userName, final Set<PolicyID> policyIDs)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(policyIDs, "policyIDs");
+		noNulls(policyIDs, "null item in policyIDs");
+		final Instant now = clock.instant();
+		updateUserRecord(userName, false, u -> {
+			for (final PolicyID pid: policyIDs) {
+				// keep the original agreement date
+				u.policyIDs.putIfAbsent(pid, now);
+			}
+		});
+	}
+
+	@Override
+	public Map<UserName, DisplayName> getUserDisplayNames(final Set<UserName> users)
+			throws AuthStorageException {
+		nonNull(users, "users");
+		noNulls(users, "Null username in users set");
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (final UserName n: users) {
+			final UserRecord u = this.users.get(n);
+			if (u != null && !u.disabledState.isDisabled()) {
+				ret.put(n, u.displayName);
+			}
+		}
+		return ret;
+	}
+
+	private static final Map<UserSearchSpec.SearchField, Comparator<UserRecord>> SORT;
+	static {
+		final Map<UserSearchSpec.SearchField, Comparator<UserRecord>> m = new HashMap<>();
+		// sort arrays by their smallest element, as mongo does
+		m.put(UserSearchSpec.SearchField.USERNAME, Comparator.comparing(u -> u.userName));
+		m.put(UserSearchSpec.SearchField.DISPLAYNAME, Comparator.comparing(
+				u -> Collections.min(u.displayName.getCanonicalDisplayName())));
+		m.put(UserSearchSpec.SearchField.ROLE, Comparator.comparing(
+				u -> u.roles.stream().map(r -> r.getID()).min(String::compareTo).orElse("")));
+		m.put(UserSearchSpec.SearchField.CUSTOMROLE, Comparator.comparing(
+				u -> u.customRoles.stream().min(Long::compareTo).orElse(0L)));
+		SORT = Collections.unmodifiableMap(m);
+	}
+
+	@Override
+	public Map<UserName, DisplayName> getUserDisplayNames(
+			final UserSearchSpec spec,
+			final int limit)
+			throws AuthStorageException {
+		nonNull(spec, "spec");
+		final Optional<Pattern> regex;
+		final Optional<String> prefix;
+		if (spec.getSearchPrefix().isPresent() && spec.isRegex()) {
+			regex = Optional.of(Pattern.compile(spec.getSearchPrefix().get()));
+			prefix = Optional.absent();
+		} else {
+			regex = Optional.absent();
+			prefix = spec.getSearchPrefix().isPresent() ?
+					Optional.of(spec.getSearchPrefix().get().toLowerCase()) : Optional.absent();
+		}
+		final Set<Long> customRoleKeys = new HashSet<>();
+		if (spec.isCustomRoleSearch()) {
+			// as for mongo, roles that don't exist are ignored
+			for (final String role: spec.getSearchCustomRoles()) {
+				final RoleRecord r = rolesByID.get(role);
+				if (r != null) {
+					customRoleKeys.add(r.key);
+				}
+			}
+			if (customRoleKeys.isEmpty()) {
+				return new HashMap<>();
+			}
+		}
+		final List<UserRecord> found = new ArrayList<>();
+		for (final UserName name: getCandidates(spec, prefix, customRoleKeys)) {
+			final UserRecord u = users.get(name);
+			if (u != null && matches(u, spec, prefix, regex, customRoleKeys)) {
+				found.add(u);
+			}
+		}
+		if (limit > 0) {
+			found.sort(SORT.get(spec.orderBy()).thenComparing(u -> u.userName));
+		}
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (final UserRecord u: limit > 0 && found.size() > limit ?
+				found.subList(0, limit) : found) {
+			ret.put(u.userName, u.displayName);
+		}
+		return ret;
+	}
+
+	/* Use the indexes to get a set of users that includes at least all the users that match the
+	 * search. The users still need to be checked against the search.
+	 */
+	private Collection<UserName> getCandidates(
+			final UserSearchSpec spec,
+			final Optional<String> prefix,
+			final Set<Long> customRoleKeys) {
+		if (prefix.isPresent()) {
+			final Set<UserName> ret = new HashSet<>();
+			if (spec.isUserNameSearch()) {
+				ret.addAll(prefixMatch(userNames, prefix.get()).values());
+			}
+			if (spec.isDisplayNameSearch()) {
+				for (final Set<UserName> s: prefixMatch(displayNames, prefix.get()).values()) {
+					ret.addAll(s);
+				}
+			}
+			return ret;
+		}
+		if (spec.isCustomRoleSearch()) {
+			return smallest(customRoles, customRoleKeys);
+		}
+		if (spec.isRoleSearch()) {
+			return smallest(roles, spec.getSearchRoles());
+		}
+		return users.keySet();
+	}
+
+	private static <T> NavigableMap<String, T> prefixMatch(
+			final NavigableMap<String, T> map,
+			final String prefix) {
+		return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	private static <T> Set<UserName> smallest(
+			final Map<T, Set<UserName>> index,
+			final Set<T> keys) {
+		Set<UserName> ret = null;
+		for (final T key: keys) {
+			final Set<UserName> users = index.getOrDefault(key, Collections.emptySet());
+			if (ret == null || users.size() < ret.size()) {
+				ret = users;
+			}
+		}
+		return new HashSet<>(ret);
+	}
+
+	private boolean matches(
+			final UserRecord user,
+			final UserSearchSpec spec,
+			final Optional<String> prefix,
+			final Optional<Pattern> regex,
+			final Set<Long> customRoleKeys) {
+		if (prefix.isPresent() || regex.isPresent()) {
+			final Function<String, Boolean> match = s -> prefix.isPresent() ?
+					s.startsWith(prefix.get()) : regex.get().matcher(s).find();
+			boolean found = spec.isUserNameSearch() && match.apply(user.userName.getName());
+			if (!found && spec.isDisplayNameSearch()) {
+				for (final String dn: user.displayName.getCanonicalDisplayName()) {
+					found = found || match.apply(dn);
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		if (spec.isRoleSearch() && !user.roles.containsAll(spec.getSearchRoles())) {
+			return false;
+		}
+		if (spec.isCustomRoleSearch() && !user.customRoles.containsAll(customRoleKeys)) {
+			return false;
+		}
+		return spec.isDisabledIncluded() || !user.disabledState.isDisabled();
+	}
+
+	/* ***** roles ***** */
+
+	@Override
+	public void updateRoles(
+			final UserName userName,
+			final Set<Role> addRoles,
+			final Set<Role> removeRoles)
+			throws AuthStorageException, NoSuchUserException {
+		nonNull(addRoles, "addRoles");
+		nonNull(removeRoles, "removeRoles");
+		if (addRoles.contains(Role.ROOT) || removeRoles.contains(Role.ROOT)) {
+			// see the notes in MongoStorage
+			throw new IllegalArgumentException("Cannot change root role");
+		}
+		noNulls(addRoles, "Null role in addRoles");
+		noNulls(removeRoles, "Null role in removeRoles");
+		nonNull(userName, "userName");
+		if (addRoles.isEmpty() && removeRoles.isEmpty()) {
+			return;
+		}
+		updateUserRecord(userName, false, u -> {
+			u.roles.addAll(addRoles);
+			u.roles.removeAll(removeRoles);
+		});
+	}
+
+	@Override
+	public void setCustomRole(final CustomRole role) throws AuthStorageException {
+		nonNull(role, "role");
+		roleLock.lock();
+		try {
+			final RoleRecord old = rolesByID.get(role.getID());
+			final RoleRecord r = new RoleRecord(old == null ? sequence.incrementAndGet() : old.key,
+					role);
+			rolesByID.put(role.getID(), r);
+			rolesByKey.put(r.key, r);
+		} finally {
+			roleLock.unlock();
+		}
+	}
+
+	@Override
+	public void deleteCustomRole(final String roleId, final AdminJob job)
+			throws NoSuchRoleException, AuthStorageException,
+			MissingParameterException, IllegalParameterException {
+		CustomRole.checkValidRoleID(roleId);
+		nonNull(job, "job");
+		if (!AdminJobType.DELETE_CUSTOM_ROLE.equals(job.getType()) ||
+				!job.getTarget().get().equals(roleId)) {
+			throw new IllegalArgumentException("Job is not a deletion job for role " + roleId);
+		}
+		final RoleRecord r;
+		roleLock.lock();
+		try {
+			r = rolesByID.remove(roleId);
+			if (r == null) {
+				throw new NoSuchRoleException(roleId);
+			}
+			rolesByKey.remove(r.key);
+		} finally {
+			roleLock.unlock();
+		}
+		// users' roles are filtered against the existing roles, so the role disappears now
+		putJob(new JobRecord(job, Optional.of(r.key), 0));
+	}
+
+	@Override
+	public Set<CustomRole> getCustomRoles() throws AuthStorageException {
+		return rolesByID.values().stream().map(r -> r.role).collect(Collectors.toSet());
+	}
+
+	@Override
+	public void updateCustomRoles(
+			final UserName userName,
+			final Set<String> addRoles,
+			final Set<String> removeRoles)
+			throws NoSuchUserException, AuthStorageException, NoSuchRoleException {
+		nonNull(addRoles, "addRoles");
+		nonNull(removeRoles, "removeRoles");
+		noNulls(addRoles, "Null role in addRoles");
+		noNulls(removeRoles, "Null role in removeRoles");
+		final Set<String> allRoles = new HashSet<>(addRoles);
+		allRoles.addAll(removeRoles);
+		final Map<String, Long> keys = getCustomRoleKeyMap(allRoles);
+		nonNull(userName, "userName");
+		if (allRoles.isEmpty()) {
+			return;
+		}
+		updateUserRecord(userName, false, u -> {
+			u.customRoles.addAll(addRoles.stream().map(r -> keys.get(r))
+					.collect(Collectors.toSet()));
+			u.customRoles.removeAll(removeRoles.stream().map(r -> keys.get(r))
+					.collect(Collectors.toSet()));
+		});
+	}
+
+	private Set<Long> getCustomRoleKeys(final Set<String> roles) throws NoSuchRoleException {
+		return new HashSet<>(getCustomRoleKeyMap(roles).values());
+	}
+
+	private Map<String, Long> getCustomRoleKeyMap(final Set<String> roles)
+			throws NoSuchRoleException {
+		final Map<String, Long> ret = new HashMap<>();
+		for (final String role: roles) {
+			final RoleRecord r = rolesByID.get(role);
+			if (r == null) {
+				throw new NoSuchRoleException(role);
+			}
+			ret.put(role, r.key);
+		}
+		return ret;
+	}
+
+	/* ***** identities ***** */
+
+	@Override
+	public void link(final UserName userName, final RemoteIdentity remoteID)
+			throws NoSuchUserException, AuthStorageException, LinkFailedException,
+			IdentityLinkedException {
+		nonNull(remoteID, "remoteID");
+		final String id = remoteID.getRemoteID().getID();
+		userLock.lock();
+		try {
+			final UserRecord old = getUserRecord(userName, false);
+			if (old.local) {
+				throw new LinkFailedException("Cannot link identities to a local user");
+			}
+			final UserName linked = identities.get(id);
+			if (linked != null && !linked.equals(userName)) {
+				throw new IdentityLinkedException(id);
+			}
+			final UserRecord u = old.copy();
+			// if already linked, this just updates the identity details
+			u.identities.put(id, remoteID);
+			putUser(Optional.of(old), u);
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	@Override
+	public void link(final UserName userName, final Set<RemoteIdentity> remoteIDs)
+			throws NoSuchUserException, AuthStorageException, LinkFailedException,
+			IdentityLinkedException {
+		nonNull(remoteIDs, "remoteIDs");
+		noNulls(remoteIDs, "Null remote identity in set");
+		final Map<String, RemoteIdentity> ids = toIdentityIDMap(remoteIDs);
+		userLock.lock();
+		try {
+			final UserRecord old = getUserRecord(userName, false);
+			if (old.local) {
+				throw new LinkFailedException("Cannot link identities to a local user");
+			}
+			// check all the identities before changing anything so the link is all or nothing
+			for (final String id: ids.keySet()) {
+				final UserName linked = identities.get(id);
+				if (linked != null && !linked.equals(userName)) {
+					throw new IdentityLinkedException(id);
+				}
+			}
+			final UserRecord u = old.copy();
+			u.identities.putAll(ids);
+			putUser(Optional.of(old), u);
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	private static Map<String, RemoteIdentity> toIdentityIDMap(
+			final Set<RemoteIdentity> remoteIDs) {
+		final Map<String, RemoteIdentity> ret = new HashMap<>();
+		for (final RemoteIdentity ri: remoteIDs) {
+			final String id = ri.getRemoteID().getID();
+			if (ret.put(id, ri) != null) {
+				throw new IllegalArgumentException("Duplicate remote identity ID in set: " + id);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public void unlink(final UserName userName, final String id)
+			throws AuthStorageException, UnLinkFailedException, NoSuchUserException,
+			NoSuchIdentityException {
+		checkStringNoCheckedException(id, "id");
+		userLock.lock();
+		try {
+			final UserRecord old = getUserRecord(userName, false);
+			if (old.local) {
+				throw new UnLinkFailedException("Local users have no identities");
+			}
+			if (old.identities.size() < 2) {
+				throw new UnLinkFailedException("The user has only one associated identity");
+			}
+			if (!old.identities.containsKey(id)) {
+				throw new NoSuchIdentityException("The user is not linked to identity " + id);
+			}
+			final UserRecord u = old.copy();
+			u.identities.remove(id);
+			putUser(Optional.of(old), u);
+		} finally {
+			userLock.unlock();
+		}
+	}
+
+	/* ***** tokens ***** */
+
+	@Override
+	public void storeToken(final StoredToken token, final String hash)
+			throws AuthStorageException {
+		nonNull(token, "token");
+		checkStringNoCheckedException(hash, "hash");
+		final TokenRecord t = new TokenRecord(sequence.incrementAndGet(), token, hash);
+		tokenLock.lock();
+		try {
+			if (tokenIDs.containsKey(token.getId())) {
+				throw new IllegalArgumentException(String.format(
+						"Token ID %s already exists in the database", token.getId()));
+			}
+			if (tokens.containsKey(hash)) {
+				throw new IllegalArgumentException(String.format(
+						"Token hash for token ID %s already exists in the database",
+						token.getId()));
+			}
+			tokens.put(hash, t);
+			tokenIDs.put(token.getId(), t);
+			tokensBySeq.put(t.seq, t);
+			userTokens.computeIfAbsent(token.getUserName(), u -> ConcurrentHashMap.newKeySet())
+					.add(token.getId());
+		} finally {
+			tokenLock.unlock();
+		}
+	}
+
+	// must be called with the token lock held
+	private void removeToken(final TokenRecord t) {
+		tokens.remove(t.hash);
+		tokenIDs.remove(t.token.getId());
+		tokensBySeq.remove(t.seq);
+		tokensLastUsed.remove(t.token.getId());
+		userTokens.computeIfPresent(t.token.getUserName(), (k, s) -> {
+			s.remove(t.token.getId());
+			return s.isEmpty() ? null : s;
+		});
+	}
+
+	private StoredToken toToken(final TokenRecord t) {
+		return toToken(t, t.token.getContext());
+	}
+
+	// the token without the custom creation context, as returned in token lists
+	private StoredToken toTokenSummary(final TokenRecord t) {
+		final TokenCreationContext ctx = t.token.getContext();
+		return toToken(t, TokenCreationContext.getBuilder()
+				.withNullableIpAddress(ctx.getIpAddress().orNull())
+				.withNullableAgent(ctx.getAgent().orNull(), ctx.getAgentVersion().orNull())
+				.withNullableOS(ctx.getOS().orNull(), ctx.getOSVersion().orNull())
+				.withNullableDevice(ctx.getDevice().orNull())
+				.build());
+	}
+
+	private StoredToken toToken(final TokenRecord t, final TokenCreationContext context) {
+		final StoredToken st = t.token;
+		final Instant lastUsed = tokensLastUsed.get(st.getId());
+		final StoredToken.OptionalsStep b = StoredToken.getBuilder(
+				st.getTokenType(), st.getId(), st.getUserName())
+				.withLifeTime(st.getCreationDate(), st.getExpirationDate())
+				.withContext(context);
+		if (st.getTokenName().isPresent()) {
+			b.withTokenName(st.getTokenName().get());
+		}
+		if (lastUsed != null) {
+			b.withLastUsed(lastUsed);
+		}
+		return b.build();
+	}
+
+	@Override
+	public StoredToken getToken(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException {
+		nonNull(token, "token");
+		final TokenRecord t = tokens.get(token.getTokenHash());
+		final Instant now = clock.instant();
+		if (t == null || !isLive(t, now)) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		final StoredToken ret = toToken(t);
+		tokensLastUsed.merge(t.token.getId(), now, (i1, i2) -> i1.isAfter(i2) ? i1 : i2);
+		return ret;
+	}
+
+	private boolean isLive(final TokenRecord t, final Instant now) {
+		return !now.isAfter(t.token.getExpirationDate()) &&
+				/* the token may be waiting to be deleted by a revoke all tokens job or the
+				 * token revocation queue
+				 */
+				t.token.getCreationDate().isAfter(tokensRevokedBefore.get()) &&
+				!tokenRevocations.contains(t.token.getUserName());
+	}
+
+	@Override
+	public Set<StoredToken> getTokens(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		final Instant now = clock.instant();
+		final Set<StoredToken> ret = new HashSet<>();
+		for (final UUID id: userTokens.getOrDefault(userName, Collections.emptySet())) {
+			final TokenRecord t = tokenIDs.get(id);
+			if (t != null && isLive(t, now)) {
+				ret.add(toToken(t));
+			}
+		}
+		return ret;
+	}
+
+	// the same order as the mongo implementation, which sorts IDs as strings
+	private static final Comparator<StoredToken> TOKEN_LIST_ORDER =
+			Comparator.comparing((StoredToken t) -> t.getExpirationDate())
+					.thenComparing(t -> t.getId().toString());
+
+	@Override
+	public TokenPage getTokens(final UserName userName, final TokenListSpec spec)
+			throws AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(spec, "spec");
+		final Set<TokenType> types = spec.getTokenTypes();
+		final Instant now = clock.instant();
+		final List<StoredToken> ret = new ArrayList<>();
+		for (final UUID id: userTokens.getOrDefault(userName, Collections.emptySet())) {
+			final TokenRecord t = tokenIDs.get(id);
+			if (t != null && isLive(t, now) &&
+					(types.isEmpty() || types.contains(t.token.getTokenType())) &&
+					!spec.getExcludedID().equals(Optional.of(id)) &&
+					isAfterStart(t.token, spec)) {
+				ret.add(toTokenSummary(t));
+			}
+		}
+		ret.sort(TOKEN_LIST_ORDER);
+		final int limit = spec.getLimit().or(Integer.MAX_VALUE);
+		final boolean more = ret.size() > limit;
+		return new TokenPage(more ? ret.subList(0, limit) : ret, more);
+	}
+
+	private boolean isAfterStart(final StoredToken token, final TokenListSpec spec) {
+		if (!spec.getAfterExpiration().isPresent()) {
+			return true;
+		}
+		final int cmp = token.getExpirationDate().compareTo(spec.getAfterExpiration().get());
+		return cmp > 0 || (cmp == 0 &&
+				token.getId().toString().compareTo(spec.getAfterID().get().toString()) > 0);
+	}
+
+	@Override
+	public void exportTokens(final TokenSnapshotWriter writer) throws IOException {
+		nonNull(writer, "writer");
+		final Instant now = clock.instant();
+		for (final TokenRecord t: tokens.values()) {
+			if (isLive(t, now)) {
+				writer.add(t.token, t.hash);
+			}
+		}
+	}
+
+	@Override
+	public String getTokenHash(final UserName userName, final UUID tokenId)
+			throws NoSuchTokenException {
+		nonNull(userName, "userName");
+		nonNull(tokenId, "tokenId");
+		final TokenRecord t = tokenIDs.get(tokenId);
+		if (t == null || !t.token.getUserName().equals(userName)) {
+			throw new NoSuchTokenException(String.format("No token %s for user %s exists",
+					tokenId, userName.getName()));
+		}
+		return t.hash;
+	}
+
+	@Override
+	public void deleteToken(final UserName userName, final UUID tokenId)
+			throws AuthStorageException, NoSuchTokenException {
+		nonNull(userName, "userName");
+		nonNull(tokenId, "tokenId");
+		tokenLock.lock();
+		try {
+			final TokenRecord t = tokenIDs.get(tokenId);
+			if (t == null || !t.token.getUserName().equals(userName)) {
+				throw new NoSuchTokenException(String.format("No token %s for user %s exists",
+						tokenId, userName.getName()));
+			}
+			removeToken(t);
+		} finally {
+			tokenLock.unlock();
+		}
+	}
+
+	@Override
+	public void deleteTokens(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		tokenLock.lock();
+		try {
+			for (final UUID id: new HashSet<>(
+					userTokens.getOrDefault(userName, Collections.emptySet()))) {
+				removeToken(tokenIDs.get(id));
+			}
+		} finally {
+			tokenLock.unlock();
+		}
+	}
+
+	@Override
+	public void addTokenRevocation(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		tokenRevocations.add(userName);
+	}
+
+	@Override
+	public Set<UserName> getTokenRevocations() throws AuthStorageException {
+		return new HashSet<>(tokenRevocations);
+	}
+
+	@Override
+	public void removeTokenRevocation(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		tokenRevocations.remove(userName);
+	}
+
+	@Override
+	public TokenRevocationEvent addTokenRevocationEvent(final TokenRevocation revocation)
+			throws AuthStorageException {
+		nonNull(revocation, "revocation");
+		synchronized (revocationEvents) {
+			final TokenRevocationEvent e = new TokenRevocationEvent(
+					++revocationSequence, clock.instant(), revocation);
+			revocationEvents.put(e.getSequence(), e);
+			return e;
+		}
+	}
+
+	@Override
+	public List<TokenRevocationEvent> getTokenRevocationEvents(
+			final long afterSequence,
+			final int limit)
+			throws AuthStorageException {
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		synchronized (revocationEvents) {
+			return revocationEvents.tailMap(afterSequence, false).values().stream()
+					.limit(limit).collect(Collectors.toList());
+		}
+	}
+
+	@Override
+	public long getTokenRevocationSequence() throws AuthStorageException {
+		synchronized (revocationEvents) {
+			return revocationSequence;
+		}
+	}
+
+	@Override
+	public void deleteTokenRevocationEvents(final Instant before) throws AuthStorageException {
+		nonNull(before, "before");
+		synchronized (revocationEvents) {
+			revocationEvents.headMap(revocationSequence, false).values()
+					.removeIf(e -> e.getTime().isBefore(before));
+		}
+	}
+
+	/* ***** temporary tokens ***** */
+
+	@Override
+	public void storeErrorTemporarily(
+			final TemporaryHashedToken token,
+			final String error,
+			final ErrorType errorType)
+			throws AuthStorageException {
+		nonNull(token, "token");
+		checkStringNoCheckedException(error, "error");
+		nonNull(errorType, "errorType");
+		storeTemporaryToken(token, new TemporaryIdentities(token.getId(),
+				token.getCreationDate(), token.getExpirationDate(), error, errorType));
+	}
+
+	@Override
+	public void storeIdentitiesTemporarily(
+			final TemporaryHashedToken token,
+			final Set<RemoteIdentity> identitySet)
+			throws AuthStorageException {
+		nonNull(token, "token");
+		nonNull(identitySet, "identitySet");
+		// ok for the set to be empty
+		noNulls(identitySet, "Null value in identitySet");
+		storeTemporaryToken(token, new TemporaryIdentities(token.getId(),
+				token.getCreationDate(), token.getExpirationDate(), identitySet));
+	}
+
+	private void storeTemporaryToken(
+			final TemporaryHashedToken token,
+			final TemporaryIdentities ids) {
+		final TempTokenRecord t = new TempTokenRecord(ids, token.getTokenHash());
+		tempTokenLock.lock();
+		try {
+			if (tempTokenIDs.containsKey(token.getId())) {
+				throw new IllegalArgumentException(String.format(
+						"Temporary token ID %s already exists in the database", token.getId()));
+			}
+			if (tempTokens.containsKey(token.getTokenHash())) {
+				throw new IllegalArgumentException(String.format(
+						"Token hash for temporary token ID %s already exists in the database",
+						token.getId()));
+			}
+			tempTokens.put(t.hash, t);
+			tempTokenIDs.put(token.getId(), t);
+		} finally {
+			tempTokenLock.unlock();
+		}
+	}
+
+	@Override
+	public TemporaryIdentities getTemporaryIdentities(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException {
+		nonNull(token, "token");
+		final TempTokenRecord t = tempTokens.get(token.getTokenHash());
+		if (t == null || clock.instant().isAfter(t.identities.getExpires())) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		return t.identities;
+	}
+
+	@Override
+	public void deleteTemporaryIdentities(final IncomingHashedToken token)
+			throws AuthStorageException {
+		nonNull(token, "token");
+		tempTokenLock.lock();
+		try {
+			final TempTokenRecord t = tempTokens.remove(token.getTokenHash());
+			// if it's not there, fine. Job's done.
+			if (t != null) {
+				tempTokenIDs.remove(t.identities.getId());
+			}
+		} finally {
+			tempTokenLock.unlock();
+		}
+	}
+
+	/* ***** admin jobs ***** */
+
+	@Override
+	public void storeAdminJob(final AdminJob job) throws AuthStorageException {
+		nonNull(job, "job");
+		if (AdminJobType.DELETE_CUSTOM_ROLE.equals(job.getType())) {
+			throw new IllegalArgumentException(
+					"Custom role deletion jobs must be stored when the role is deleted");
+		}
+		putJob(new JobRecord(job, Optional.absent(), 0));
+		if (AdminJobType.REVOKE_ALL_TOKENS.equals(job.getType())) {
+			tokensRevokedBefore.accumulateAndGet(
+					job.getCreated(), (i1, i2) -> i1.isAfter(i2) ? i1 : i2);
+		}
+	}
+
+	private void putJob(final JobRecord job) {
+		if (adminJobs.putIfAbsent(job.job.getID(), job) != null) {
+			throw new IllegalArgumentException(String.format(
+					"Admin job ID %s already exists in the database", job.job.getID()));
+		}
+	}
+
+	@Override
+	public List<AdminJob> getAdminJobs(final boolean incompleteOnly)
+			throws AuthStorageException {
+		return adminJobs.values().stream().map(j -> j.job)
+				.filter(j -> !incompleteOnly || !j.isComplete())
+				.sorted((j1, j2) -> j2.getCreated().compareTo(j1.getCreated()))
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public AdminJob processAdminJobBatch(final AdminJob job, final int batchSize)
+			throws AuthStorageException {
+		nonNull(job, "job");
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		jobLock.lock();
+		try {
+			final JobRecord j = adminJobs.get(job.getID());
+			if (j == null) {
+				throw new AuthStorageException("No admin job with ID " + job.getID());
+			}
+			// use the stored job rather than the argument, since it holds the current state
+			if (j.job.isComplete()) {
+				return j.job;
+			}
+			final long[] counts; // records found, last record, matched, processed
+			if (AdminJobType.REVOKE_ALL_TOKENS.equals(j.job.getType())) {
+				counts = revokeTokens(j, batchSize);
+			} else {
+				counts = updateUsers(j, batchSize);
+			}
+			final AdminJob.Builder b = AdminJob.getBuilder(j.job.getID(), j.job.getType(),
+					j.job.getAdmin(), j.job.getCreated())
+					.withMatched(j.job.getMatched() + counts[2])
+					.withProcessed(j.job.getProcessed() + counts[3]);
+			if (j.job.getTarget().isPresent()) {
+				b.withTarget(j.job.getTarget().get());
+			}
+			if (counts[0] < batchSize) {
+				b.withCompleted(clock.instant());
+			}
+			final JobRecord updated = new JobRecord(b.build(), j.role, counts[1]);
+			adminJobs.put(updated.job.getID(), updated);
+			return updated.job;
+		} finally {
+			jobLock.unlock();
+		}
+	}
+
+	private long[] revokeTokens(final JobRecord job, final int batchSize) {
+		long count = 0;
+		long last = job.cursor;
+		tokenLock.lock();
+		try {
+			// tokens created after the job started are not affected
+			for (final TokenRecord t: new LinkedList<>(
+					tokensBySeq.tailMap(job.cursor, false).values())) {
+				if (count >= batchSize) {
+					break;
+				}
+				if (!t.token.getCreationDate().isAfter(job.job.getCreated())) {
+					removeToken(t);
+					count++;
+					last = t.seq;
+				}
+			}
+		} finally {
+			tokenLock.unlock();
+		}
+		return new long[] {count, last, count, count};
+	}
+
+	private long[] updateUsers(final JobRecord job, final int batchSize) {
+		long count = 0;
+		long last = job.cursor;
+		long processed = 0;
+		final AdminJobType type = job.job.getType();
+		userLock.lock();
+		try {
+			for (final Entry<Long, UserName> e: usersAfter(job.cursor)) {
+				if (count >= batchSize) {
+					break;
+				}
+				final UserRecord old = users.get(e.getValue());
+				final UserRecord u;
+				if (AdminJobType.FORCE_RESET_PASSWORDS.equals(type)) {
+					// users that set their password after the job started are not affected
+					u = old.local && !passwordSetAfter(old, job.job.getCreated()) ?
+							old.copy() : null;
+					if (u != null) {
+						u.forceReset = true;
+					}
+				} else if (AdminJobType.DELETE_CUSTOM_ROLE.equals(type)) {
+					u = old.customRoles.contains(job.role.get()) ? old.copy() : null;
+					if (u != null) {
+						u.customRoles.remove(job.role.get());
+					}
+				} else if (AdminJobType.REMOVE_POLICY_ID.equals(type)) {
+					final String policyID = job.job.getTarget().get();
+					u = old.policyIDs.keySet().stream().anyMatch(
+							p -> p.getName().equals(policyID)) ? old.copy() : null;
+					if (u != null) {
+						u.policyIDs.keySet().removeIf(p -> p.getName().equals(policyID));
+					}
+				} else { // can't test
+					throw new RuntimeException("Unknown job type: " + type);
+				}
+				if (u != null) {
+					count++;
+					last = e.getKey();
+					// users that are already forced to reset their password are not modified
+					if (old.forceReset != u.forceReset ||
+							!AdminJobType.FORCE_RESET_PASSWORDS.equals(type)) {
+						processed++;
+						putUser(Optional.of(old), u);
+					}
+				}
+			}
+		} finally {
+			userLock.unlock();
+		}
+		return new long[] {count, last, count, processed};
+	}
+
+	// must be called with the user lock held
+	private List<Entry<Long, UserName>> usersAfter(final long cursor) {
+		return new LinkedList<>(usersBySeq.tailMap(cursor, false).entrySet());
+	}
+
+	/* ***** maintenance ***** */
+
+	/** Removes expired tokens and temporary tokens from memory. There are no buffered updates
+	 * in this implementation.
+	 */
+	@Override
+	public void flush() {
+		final Instant now = clock.instant();
+		tokenLock.lock();
+		try {
+			for (final TokenRecord t: new LinkedList<>(tokens.values())) {
+				if (now.isAfter(t.token.getExpirationDate())) {
+					removeToken(t);
+				}
+			}
+		} finally {
+			tokenLock.unlock();
+		}
+		tempTokenLock.lock();
+		try {
+			for (final TempTokenRecord t: new LinkedList<>(tempTokens.values())) {
+				if (now.isAfter(t.identities.getExpires())) {
+					tempTokens.remove(t.hash);
+					tempTokenIDs.remove(t.identities.getId());
+				}
+			}
+		} finally {
+			tempTokenLock.unlock();
+		}
+	}
+
+	@Override
+	public void clearCaches() {
+		// nothing is cached
+	}
+
+	@Override
+	public Map<String, CacheStats> getCacheStats() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void ping() {
+		// always reachable
+	}
+
+	/* ***** configuration ***** */
+
+	@Override
+	public <T extends ExternalConfig> void updateConfig(
+			final AuthConfigUpdate<T> cfgUpdate,
+			final boolean overwrite)
+			throws AuthStorageException {
+		nonNull(cfgUpdate, "cfgSet");
+		configLock.lock();
+		try {
+			if (cfgUpdate.getLoginAllowed().isPresent()) {
+				update(appConfigBoolean, CONFIG_ALLOW_LOGIN, cfgUpdate.getLoginAllowed().get(),
+						overwrite);
+			}
+			for (final Entry<TokenLifetimeType, Long> e:
+					cfgUpdate.getTokenLifetimeMS().entrySet()) {
+				update(tokenLifetimes, e.getKey(), e.getValue(), overwrite);
+			}
+			for (final Entry<String, ProviderUpdate> e: cfgUpdate.getProviders().entrySet()) {
+				final ProviderRecord p = providerConfig.computeIfAbsent(
+						e.getKey(), k -> new ProviderRecord());
+				final ProviderUpdate pu = e.getValue();
+				if (pu.getEnabled().isPresent() && (overwrite || p.enabled == null)) {
+					p.enabled = pu.getEnabled().get();
+				}
+				if (pu.getForceLoginChoice().isPresent() &&
+						(overwrite || p.forceLoginChoice == null)) {
+					p.forceLoginChoice = pu.getForceLoginChoice().get();
+				}
+				if (pu.getForceLinkChoice().isPresent() &&
+						(overwrite || p.forceLinkChoice == null)) {
+					p.forceLinkChoice = pu.getForceLinkChoice().get();
+				}
+			}
+			if (cfgUpdate.getExternalConfig().isPresent()) {
+				for (final Entry<String, ConfigItem<String, Action>> e:
+						cfgUpdate.getExternalConfig().get().toMap().entrySet()) {
+					if (e.getValue().getAction().isSet()) {
+						update(externalConfig, e.getKey(), e.getValue().getItem(), overwrite);
+					} else if (e.getValue().getAction().isRemove() && overwrite) {
+						// don't remove keys unless overwrite is specified
+						externalConfig.remove(e.getKey());
+					}
+				}
+			}
+		} finally {
+			configLock.unlock();
+		}
+	}
+
+	private static <K, V> void update(
+			final Map<K, V> map,
+			final K key,
+			final V value,
+			final boolean overwrite) {
+		if (overwrite) {
+			map.put(key, value);
+		} else {
+			map.putIfAbsent(key, value);
+		}
+	}
+
+	@Override
+	public <T extends ExternalConfig> AuthConfigSet<T> getConfig(
+			final ExternalConfigMapper<T> mapper)
+			throws AuthStorageException, ExternalConfigMappingException {
+		nonNull(mapper, "mapper");
+		final Map<String, ConfigItem<String, State>> ext = new HashMap<>();
+		final Map<String, ProviderConfig> provs = new TreeMap<>();
+		final boolean allowLogin;
+		final Map<TokenLifetimeType, Long> lifetimes;
+		configLock.lock();
+		try {
+			for (final Entry<String, String> e: externalConfig.entrySet()) {
+				ext.put(e.getKey(), ConfigItem.state(e.getValue()));
+			}
+			for (final Entry<String, ProviderRecord> e: providerConfig.entrySet()) {
+				final ProviderRecord p = e.getValue();
+				if (p.enabled == null || p.forceLoginChoice == null || p.forceLinkChoice == null) {
+					throw new AuthStorageException(
+							"Incomplete configuration for provider " + e.getKey());
+				}
+				provs.put(e.getKey(), new ProviderConfig(
+						p.enabled, p.forceLoginChoice, p.forceLinkChoice));
+			}
+			allowLogin = appConfigBoolean.getOrDefault(
+					CONFIG_ALLOW_LOGIN, AuthConfig.DEFAULT_LOGIN_ALLOWED);
+			lifetimes = new HashMap<>(tokenLifetimes);
+		} finally {
+			configLock.unlock();
+		}
+		return new AuthConfigSet<T>(new AuthConfig(allowLogin, provs, lifetimes),
+				mapper.fromMap(ext));
+	}
+}
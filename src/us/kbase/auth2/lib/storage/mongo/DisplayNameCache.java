@@ -0,0 +1,67 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+
+/* A bounded cache of user names to display names for enabled users, so that repeated lookups
+ * of the same users, which is the common case for the users API, don't require a database
+ * query. Only users that were found are cached, so new users are visible immediately.
+ *
+ * Entries expire after a short time so that changes made by other server instances are
+ * eventually visible. Changes made by this instance invalidate the entry for the user, but a
+ * user that is disabled or renamed on another instance is returned with the old display name
+ * by this instance until the entry expires.
+ *
+ * A lookup that races with an update could otherwise cache the old display name after the
+ * entry was invalidated. Callers get the generation before querying the database, and the
+ * results are only cached if no entries have been invalidated since.
+ */
+class DisplayNameCache {
+
+	private final Cache<UserName, DisplayName> cache;
+	private long generation = 0;
+
+	DisplayNameCache(final long maximumSize, final long expireAfterWriteMillis) {
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	CacheStats getStats() {
+		return cache.stats();
+	}
+
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	Map<UserName, DisplayName> getAll(final Set<UserName> users) {
+		return cache.getAllPresent(users);
+	}
+
+	synchronized void putAll(final Map<UserName, DisplayName> names, final long generation) {
+		if (this.generation == generation) {
+			cache.putAll(names);
+		}
+	}
+
+	synchronized void invalidate(final UserName user) {
+		generation++;
+		cache.invalidate(user);
+	}
+
+	synchronized void invalidateAll() {
+		generation++;
+		cache.invalidateAll();
+	}
+}
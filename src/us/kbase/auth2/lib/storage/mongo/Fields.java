@@ -111,6 +111,8 @@ public class Fields {
 	public static final String TOKEN_NAME = "name";
 	/** The date the token was created. */
 	public static final String TOKEN_CREATION = "create";
+	/** The date the token was last used, truncated to the minute. */
+	public static final String TOKEN_LAST_USED = "lastused";
 	/** The operating system of the user when the token was created. */
 	public static final String TOKEN_OS = "os";
 	/** The version of the operating system of the user when the token was created. */
@@ -130,6 +132,68 @@ public class Fields {
 	/** A value for a custom context key / value pair. */
 	public static final String TOKEN_CUSTOM_VALUE = "v";
 	
+	/* *******************************
+	 * token ID fields
+	 * *******************************
+	 */
+	
+	/** The date the token with the ID, which is the record's ID, expires. */
+	public static final String TOKEN_IDS_EXPIRY = "expires";
+	
+	/* *******************************
+	 * token revocation queue fields
+	 * *******************************
+	 */
+	
+	/** The user name of the user whose tokens are to be revoked. */
+	public static final String TOKEN_REVOKE_USER_NAME = "user";
+	/** The date the user was added to the revocation queue. */
+	public static final String TOKEN_REVOKE_ADDED = "added";
+	
+	/* *******************************
+	 * token revocation feed fields
+	 * *******************************
+	 */
+	
+	/** The sequence number of the revocation event. */
+	public static final String REVOKE_EVENT_SEQUENCE = "seq";
+	/** The date the revocation event was recorded. */
+	public static final String REVOKE_EVENT_TIME = "time";
+	/** The scope of the revocation. */
+	public static final String REVOKE_EVENT_SCOPE = "scope";
+	/** The user whose token or tokens were revoked. */
+	public static final String REVOKE_EVENT_USER_NAME = "user";
+	/** The ID of the revoked token. */
+	public static final String REVOKE_EVENT_TOKEN_ID = "tokid";
+	/** The hash of the revoked token. */
+	public static final String REVOKE_EVENT_TOKEN_HASH = "tokhash";
+	
+	/* **********************
+	 * admin job fields
+	 * **********************
+	 */
+	
+	/** The ID of the job. */
+	public static final String ADMIN_JOB_ID = "id";
+	/** The type of the job. */
+	public static final String ADMIN_JOB_TYPE = "type";
+	/** The target of the job, e.g. the ID of the policy to remove. */
+	public static final String ADMIN_JOB_TARGET = "target";
+	/** The name of the administrator that started the job. */
+	public static final String ADMIN_JOB_ADMIN = "admin";
+	/** The date the job was created. */
+	public static final String ADMIN_JOB_CREATED = "created";
+	/** The number of records the job has matched. */
+	public static final String ADMIN_JOB_MATCHED = "matched";
+	/** The number of records the job has processed. */
+	public static final String ADMIN_JOB_PROCESSED = "processed";
+	/** The date the job was completed. */
+	public static final String ADMIN_JOB_COMPLETED = "completed";
+	/** The mongo ID of the last record processed by the job. */
+	public static final String ADMIN_JOB_CURSOR = "cursor";
+	/** The mongo ID of the custom role to be removed from users. */
+	public static final String ADMIN_JOB_ROLE = "role";
+	
 	/* ************************
 	 * temporary token fields
 	 * ************************
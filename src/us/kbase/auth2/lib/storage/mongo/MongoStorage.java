@@ -4,10 +4,13 @@ import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
 import static us.kbase.auth2.lib.Utils.nonNull;
 import static us.kbase.auth2.lib.Utils.noNulls;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Clock;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
@@ -20,8 +23,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -30,20 +38,34 @@ import org.bson.Document;
 import org.bson.types.ObjectId;
 
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -87,12 +109,20 @@ import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotSource;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotWriter;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.StoredToken.OptionalsStep;
 import us.kbase.auth2.lib.token.TemporaryHashedToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
 
@@ -102,7 +132,7 @@ import us.kbase.auth2.lib.user.NewUser;
  * @author gaprice@lbl.gov
  *
  */
-public class MongoStorage implements AuthStorage {
+public class MongoStorage implements AuthStorage, TokenSnapshotSource {
 
 	/* Don't use mongo built in object mapping to create the returned objects
 	 * since that tightly couples the classes to the storage implementation.
@@ -127,7 +157,11 @@ public class MongoStorage implements AuthStorage {
 	private static final String COL_CONFIG_EXTERNAL = "config_ext";
 	private static final String COL_USERS = "users";
 	private static final String COL_TOKEN = "tokens";
+	private static final String COL_TOKEN_IDS = "tokenids";
 	private static final String COL_TEMP_TOKEN = "temptokens";
+	private static final String COL_TOKEN_REVOKE = "tokenrevoke";
+	private static final String COL_TOKEN_REVOKE_FEED = "tokenrevokefeed";
+	private static final String COL_ADMIN_JOBS = "adminjobs";
 	private static final String COL_CUST_ROLES = "cust_roles";
 	
 	private static final Map<TokenLifetimeType, String>
@@ -142,7 +176,18 @@ public class MongoStorage implements AuthStorage {
 		TOKEN_LIFETIME_FIELD_MAP = Collections.unmodifiableMap(m);
 	}
 	
+	// the error code mongo returns when an index exists with the same keys but other options
+	private static final int INDEX_OPTIONS_CONFLICT = 85;
+	// the error code mongo returns when dropping an index that doesn't exist
+	private static final int INDEX_NOT_FOUND = 27;
+	
 	private static final Map<String, Map<List<String>, IndexOptions>> INDEXES;
+	// indexes created by older versions that are no longer used, by collection and index name
+	private static final Map<String, List<String>> OBSOLETE_INDEXES = new HashMap<>();
+	/* unique indexes that are created without the unique constraint when the collection is
+	 * sharded, since a sharded collection can only enforce uniqueness on the shard key.
+	 */
+	private static final Map<String, Set<List<String>>> UNIQUE_UNLESS_SHARDED = new HashMap<>();
 	private static final IndexOptions IDX_UNIQ = new IndexOptions().unique(true);
 	private static final IndexOptions IDX_SPARSE = new IndexOptions().sparse(true);
 	private static final IndexOptions IDX_UNIQ_SPARSE =
@@ -162,9 +207,17 @@ public class MongoStorage implements AuthStorage {
 		users.put(Arrays.asList(Fields.USER_DISPLAY_NAME_CANONICAL), null);
 		//find users by roles
 		users.put(Arrays.asList(Fields.USER_ROLES), IDX_SPARSE);
-		//find users by custom roles
-		users.put(Arrays.asList(Fields.USER_CUSTOM_ROLES), IDX_SPARSE);
+		/* find users by custom roles and policy ID, and walk the users with a custom role,
+		 * policy ID, or local account in _id order when processing admin jobs
+		 */
+		users.put(Arrays.asList(Fields.USER_CUSTOM_ROLES, Fields.MONGO_ID), null);
+		users.put(Arrays.asList(Fields.USER_POLICY_IDS + Fields.FIELD_SEP +
+				Fields.POLICY_ID, Fields.MONGO_ID), null);
+		users.put(Arrays.asList(Fields.USER_LOCAL, Fields.MONGO_ID), null);
 		INDEXES.put(COL_USERS, users);
+		// replaced by the indexes above, which also serve admin job batches
+		OBSOLETE_INDEXES.put(COL_USERS, Arrays.asList(Fields.USER_CUSTOM_ROLES + "_1",
+				Fields.USER_POLICY_IDS + Fields.FIELD_SEP + Fields.POLICY_ID + "_1"));
 		
 		//custom roles indexes
 		final Map<List<String>, IndexOptions> roles = new HashMap<>();
@@ -173,9 +226,13 @@ public class MongoStorage implements AuthStorage {
 		
 		//token indexes
 		final Map<List<String>, IndexOptions> token = new HashMap<>();
-		token.put(Arrays.asList(Fields.TOKEN_USER_NAME), null);
+		//find and list tokens by user, sorted by expiration date
+		token.put(Arrays.asList(Fields.TOKEN_USER_NAME, Fields.TOKEN_EXPIRY, Fields.TOKEN_ID),
+				null);
 		token.put(Arrays.asList(Fields.TOKEN_TOKEN), IDX_UNIQ);
 		token.put(Arrays.asList(Fields.TOKEN_ID), IDX_UNIQ);
+		//find tokens to delete when revoking all tokens
+		token.put(Arrays.asList(Fields.TOKEN_CREATION), null);
 		token.put(Arrays.asList(Fields.TOKEN_EXPIRY),
 				/* this causes the tokens to be deleted at their expiration date
 				 * Difficult to write a test for since ttl thread runs 1/min and seems to be no
@@ -183,6 +240,18 @@ public class MongoStorage implements AuthStorage {
 				 */
 				new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
 		INDEXES.put(COL_TOKEN, token);
+		// replaced by the user, expires, id index, which also serves queries by user
+		OBSOLETE_INDEXES.put(COL_TOKEN, Arrays.asList(Fields.TOKEN_USER_NAME + "_1"));
+		// token ID uniqueness is enforced with the token ID collection when sharded
+		UNIQUE_UNLESS_SHARDED.put(COL_TOKEN, Collections.singleton(
+				Arrays.asList(Fields.TOKEN_ID)));
+		
+		//token ID indexes
+		final Map<List<String>, IndexOptions> tokenids = new HashMap<>();
+		// release the IDs of expired tokens
+		tokenids.put(Arrays.asList(Fields.TOKEN_IDS_EXPIRY),
+				new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+		INDEXES.put(COL_TOKEN_IDS, tokenids);
 		
 		//temporary token indexes
 		final Map<List<String>, IndexOptions> temptoken = new HashMap<>();
@@ -197,6 +266,27 @@ public class MongoStorage implements AuthStorage {
 				new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
 		INDEXES.put(COL_TEMP_TOKEN, temptoken);
 		
+		//token revocation queue indexes
+		final Map<List<String>, IndexOptions> tokenrevoke = new HashMap<>();
+		//ensure a user is only queued once
+		tokenrevoke.put(Arrays.asList(Fields.TOKEN_REVOKE_USER_NAME), IDX_UNIQ);
+		INDEXES.put(COL_TOKEN_REVOKE, tokenrevoke);
+		
+		//token revocation feed indexes
+		final Map<List<String>, IndexOptions> revokefeed = new HashMap<>();
+		//read the feed in order and ensure sequence numbers are unique
+		revokefeed.put(Arrays.asList(Fields.REVOKE_EVENT_SEQUENCE), IDX_UNIQ);
+		//find old events to delete
+		revokefeed.put(Arrays.asList(Fields.REVOKE_EVENT_TIME), null);
+		INDEXES.put(COL_TOKEN_REVOKE_FEED, revokefeed);
+		
+		//admin job indexes
+		final Map<List<String>, IndexOptions> adminjobs = new HashMap<>();
+		adminjobs.put(Arrays.asList(Fields.ADMIN_JOB_ID), IDX_UNIQ);
+		//sort jobs by creation date
+		adminjobs.put(Arrays.asList(Fields.ADMIN_JOB_CREATED), null);
+		INDEXES.put(COL_ADMIN_JOBS, adminjobs);
+		
 		//config indexes
 		final Map<List<String>, IndexOptions> cfg = new HashMap<>();
 		//ensure only one config object
@@ -222,6 +312,118 @@ public class MongoStorage implements AuthStorage {
 	
 	private final MongoDatabase db;
 	private final Clock clock;
+	/* whether the tokens collection is sharded, in which case token IDs are reserved in the
+	 * token ID collection, since the token ID index can't be unique
+	 */
+	private final boolean tokensSharded;
+	
+	/* Last login dates waiting to be written to the database. Logins are frequent and the last
+	 * login date is rarely read, so the updates are coalesced per user and written in bulk by
+	 * flush().
+	 */
+	private final Map<UserName, Instant> lastLogins = new ConcurrentHashMap<>();
+	/* Token last used dates waiting to be written to the database, keyed by the token ID. The
+	 * token hash is kept with the date so that the updates are routed to a single shard when
+	 * the token collection is sharded. The dates are truncated to the minute so that a token in
+	 * constant use is written at most once a minute per flush.
+	 */
+	private final Map<UUID, TokenLastUsed> tokensLastUsed = new ConcurrentHashMap<>();
+	
+	private static class TokenLastUsed {
+		
+		private final String hash;
+		private final Instant lastUsed;
+		
+		private TokenLastUsed(final String hash, final Instant lastUsed) {
+			this.hash = hash;
+			this.lastUsed = lastUsed;
+		}
+	}
+	
+	private static final int PENDING_UPDATE_REFRESH_MILLIS = 1000;
+	
+	/* The effects of the incomplete revoke all tokens and force password reset jobs and of the
+	 * queued token revocations, which apply as soon as the job or revocation is stored rather
+	 * than when it's processed. Reloaded when this instance stores a job or revocation and when
+	 * the copy is older than PENDING_UPDATE_REFRESH_MILLIS, so that jobs and revocations stored
+	 * by other instances apply within about a second.
+	 */
+	private final AtomicReference<PendingUpdates> pendingUpdates = new AtomicReference<>();
+	private final AtomicLong pendingUpdateLoads = new AtomicLong();
+	
+	private static class PendingUpdates {
+		
+		private final long sequence;
+		private final Instant loaded;
+		// tokens created on or before this date have been revoked but may not be deleted yet
+		private final Instant tokensRevokedBefore;
+		// local users whose password was last set on or before this date must reset it
+		private final Optional<Instant> passwordsResetBefore;
+		// users whose tokens have been revoked but may not be deleted yet
+		private final Set<UserName> tokensRevokedFor;
+		
+		private PendingUpdates(
+				final long sequence,
+				final Instant loaded,
+				final Instant tokensRevokedBefore,
+				final Optional<Instant> passwordsResetBefore,
+				final Set<UserName> tokensRevokedFor) {
+			this.sequence = sequence;
+			this.loaded = loaded;
+			this.tokensRevokedBefore = tokensRevokedBefore;
+			this.passwordsResetBefore = passwordsResetBefore;
+			this.tokensRevokedFor = tokensRevokedFor;
+		}
+	}
+	
+	private static final int CUSTOM_ROLE_REFRESH_MILLIS = 30000;
+	private static final int CUSTOM_ROLE_MIN_RELOAD_MILLIS = 1000;
+	
+	/* An in memory copy of the custom roles collection, which is expected to be small, so that
+	 * fetching a user doesn't require a second query to map the user's custom role ObjectIds to
+	 * role IDs. Reloaded when this instance changes the roles, when a role ID can't be found,
+	 * and when the copy is older than CUSTOM_ROLE_REFRESH_MILLIS. A user's role ObjectId that
+	 * can't be found only causes a reload if the copy is older than
+	 * CUSTOM_ROLE_MIN_RELOAD_MILLIS, since users keep deleted roles until the deletion job or
+	 * a fetch removes them.
+	 */
+	private static class CustomRoleRegistry {
+		
+		private final long sequence;
+		private final Instant loaded;
+		private final Map<ObjectId, String> roleIDs = new HashMap<>();
+		private final Map<String, ObjectId> objectIDs = new HashMap<>();
+		
+		private CustomRoleRegistry(
+				final long sequence,
+				final Instant loaded,
+				final Set<Document> roles) {
+			this.sequence = sequence;
+			this.loaded = loaded;
+			for (final Document r: roles) {
+				roleIDs.put(r.getObjectId(Fields.MONGO_ID), r.getString(Fields.ROLES_ID));
+				objectIDs.put(r.getString(Fields.ROLES_ID), r.getObjectId(Fields.MONGO_ID));
+			}
+		}
+	}
+	
+	private final AtomicLong customRoleLoads = new AtomicLong();
+	private final AtomicReference<CustomRoleRegistry> customRoleRegistry =
+			new AtomicReference<>();
+	
+	private static final int DISPLAY_NAME_CACHE_SIZE = 100000;
+	
+	private final DisplayNameCache displayNames =
+			new DisplayNameCache(DISPLAY_NAME_CACHE_SIZE, CUSTOM_ROLE_REFRESH_MILLIS);
+	
+	/* The same names appear in many records - a user name in the user, its tokens, and display
+	 * name lookups, and a handful of policy IDs in every user - so share one instance of each
+	 * value while any reader holds it rather than keeping a copy per record. The interners hold
+	 * their instances weakly and so do not grow without bound.
+	 */
+	private final Interner<UserName> userNameInterner = Interners.newWeakInterner();
+	private final Interner<DisplayName> displayNameInterner = Interners.newWeakInterner();
+	private final Interner<PolicyID> policyIDInterner = Interners.newWeakInterner();
 	
 	/** Create a new MongoDB authentication storage system.
 	 * @param db the MongoDB database to use for storage.
@@ -238,8 +440,22 @@ public class MongoStorage implements AuthStorage {
 		this.clock = clock;
 		
 		//TODO MISC port over schemamanager from UJS (will need changes for schema key & mdb ver)
-		ensureIndexes(); // MUST come before checkConfig();
+		final Set<String> sharded = getShardedCollections();
+		tokensSharded = sharded.contains(COL_TOKEN);
+		ensureIndexes(sharded); // MUST come before checkConfig();
+		dropObsoleteIndexes();
 		checkConfig();
+		try {
+			loadPendingUpdates(); // pick up any pending token revocations
+		} catch (AuthStorageException e) {
+			throw new StorageInitException(
+					"Failed to read pending updates: " + e.getMessage(), e);
+		}
+		try {
+			loadCustomRoles();
+		} catch (AuthStorageException e) {
+			throw new StorageInitException("Failed to read custom roles: " + e.getMessage(), e);
+		}
 	}
 	
 	private void checkConfig() throws StorageInitException  {
@@ -283,21 +499,46 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 
-	private void ensureIndexes() throws StorageInitException {
+	// only checks the collections that have indexes that depend on sharding
+	private Set<String> getShardedCollections() throws StorageInitException {
+		final Set<String> ret = new HashSet<>();
+		for (final String col: UNIQUE_UNLESS_SHARDED.keySet()) {
+			if (isSharded(col)) {
+				ret.add(col);
+			}
+		}
+		return ret;
+	}
+	
+	private void ensureIndexes(final Set<String> shardedCollections)
+			throws StorageInitException {
 		for (String col: INDEXES.keySet()) {
+			final Set<List<String>> uniqueUnlessSharded =
+					UNIQUE_UNLESS_SHARDED.getOrDefault(col, Collections.emptySet());
+			final boolean sharded = shardedCollections.contains(col);
 			for (List<String> idx: INDEXES.get(col).keySet()) {
 				final Document index = new Document();
-				final IndexOptions opts = INDEXES.get(col).get(idx);
+				final IndexOptions opts = sharded && uniqueUnlessSharded.contains(idx) ?
+						null : INDEXES.get(col).get(idx);
 				for (String field: idx) {
 					index.put(field, 1);
 				}
-				final MongoCollection<Document> dbcol = db.getCollection(col);
 				try {
-					if (opts == null) {
-						dbcol.createIndex(index);
-					} else {
-						dbcol.createIndex(index, opts);
+					createIndex(db.getCollection(col), index, opts);
+				} catch (MongoCommandException e) {
+					/* the index was created with different options, e.g. the token ID index
+					 * was unique before the token collection was sharded. Changing the index
+					 * is left to an administrator.
+					 */
+					if (e.getErrorCode() == INDEX_OPTIONS_CONFLICT) {
+						throw new StorageInitException(String.format(
+								"Index %s on collection %s exists with different options. " +
+								"Drop the index and restart the server, see the README",
+								idx.stream().map(f -> f + "_1").collect(Collectors.joining("_")),
+								col), e);
 					}
+					throw new StorageInitException(
+							"Failed to create index: " + e.getMessage(), e);
 				} catch (MongoException me) {
 					throw new StorageInitException(
 							"Failed to create index: " + me.getMessage(), me);
@@ -305,6 +546,49 @@ public class MongoStorage implements AuthStorage {
 			}
 		}
 	}
+	
+	private boolean isSharded(final String col) throws StorageInitException {
+		try {
+			// collStats fails for a missing collection, which can't be sharded anyway
+			if (!db.listCollectionNames().into(new HashSet<>()).contains(col)) {
+				return false;
+			}
+			// only mongos includes the sharded field
+			return db.runCommand(new Document("collStats", col)).getBoolean("sharded", false);
+		} catch (MongoException e) {
+			throw new StorageInitException(String.format(
+					"Failed to get the sharding state of collection %s: %s",
+					col, e.getMessage()), e);
+		}
+	}
+	
+	private void dropObsoleteIndexes() throws StorageInitException {
+		for (final String col: OBSOLETE_INDEXES.keySet()) {
+			for (final String index: OBSOLETE_INDEXES.get(col)) {
+				try {
+					db.getCollection(col).dropIndex(index);
+				} catch (MongoException e) {
+					// not found means the index was already dropped, or this is a new database
+					if (e.getCode() != INDEX_NOT_FOUND) {
+						throw new StorageInitException(String.format(
+								"Failed to drop index %s on collection %s: %s",
+								index, col, e.getMessage()), e);
+					}
+				}
+			}
+		}
+	}
+	
+	private void createIndex(
+			final MongoCollection<Document> col,
+			final Document index,
+			final IndexOptions opts) {
+		if (opts == null) {
+			col.createIndex(index);
+		} else {
+			col.createIndex(index, opts);
+		}
+	}
 
 	@Override
 	public void createLocalUser(final LocalUser local, final PasswordHashAndSalt creds)
@@ -371,8 +655,7 @@ public class MongoStorage implements AuthStorage {
 				getDisplayName(user.getString(Fields.USER_DISPLAY_NAME)),
 				user.getDate(Fields.USER_CREATED).toInstant())
 				.withEmailAddress(getEmail(user.getString(Fields.USER_EMAIL)))
-				.withUserDisabledState(getUserDisabledState(user))
-				.withForceReset(user.getBoolean(Fields.USER_RESET_PWD));
+				.withUserDisabledState(getUserDisabledState(user));
 		addRoles(b, user);
 		addCustomRoles(b, user);
 		addPolicyIDs(b, user);
@@ -381,6 +664,11 @@ public class MongoStorage implements AuthStorage {
 		if (pwdreset.isPresent()) {
 			b.withLastReset(pwdreset.get());
 		}
+		// the user may not have been reached yet by a force password reset job
+		final Optional<Instant> resetBefore = getPendingUpdates().passwordsResetBefore;
+		final Instant pwdset = pwdreset.or(user.getDate(Fields.USER_CREATED).toInstant());
+		b.withForceReset(user.getBoolean(Fields.USER_RESET_PWD) ||
+				(resetBefore.isPresent() && !pwdset.isAfter(resetBefore.get())));
 		return b.build();
 	}
 	
@@ -404,10 +692,8 @@ public class MongoStorage implements AuthStorage {
 	private void addRoles(final AuthUser.AbstractBuilder<?> b, final Document user) {
 		@SuppressWarnings("unchecked")
 		final List<String> rolestr = (List<String>) user.get(Fields.USER_ROLES);
-		final List<Role> roles = rolestr.stream().map(s -> Role.getRole(s))
-				.collect(Collectors.toList());
-		for (final Role r: roles) {
-			b.withRole(r);
+		for (final String r: rolestr) {
+			b.withRole(Role.getRole(r));
 		}
 	}
 
@@ -427,7 +713,8 @@ public class MongoStorage implements AuthStorage {
 			@SuppressWarnings("unchecked")
 			final List<Document> policies = (List<Document>) user.get(Fields.USER_POLICY_IDS);
 			for (final Document policy: policies) {
-				b.withPolicyID(new PolicyID(policy.getString(Fields.POLICY_ID)),
+				b.withPolicyID(policyIDInterner.intern(
+						new PolicyID(policy.getString(Fields.POLICY_ID))),
 						policy.getDate(Fields.POLICY_AGREED_ON).toInstant());
 			}
 		} catch (IllegalParameterException | MissingParameterException e) {
@@ -435,8 +722,14 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 	
-	private void addLastLogin(final AuthUser.AbstractBuilder<?> b, final Document user) {
-		final Optional<Instant> ll = getOptionalDate(user, Fields.USER_LAST_LOGIN);
+	private void addLastLogin(final AuthUser.AbstractBuilder<?> b, final Document user)
+			throws AuthStorageException {
+		Optional<Instant> ll = getOptionalDate(user, Fields.USER_LAST_LOGIN);
+		// read through to any login that hasn't been flushed to the db yet
+		final Instant buffered = lastLogins.get(getUserName(user.getString(Fields.USER_NAME)));
+		if (buffered != null && (!ll.isPresent() || buffered.isAfter(ll.get()))) {
+			ll = Optional.of(buffered);
+		}
 		if (ll.isPresent()) {
 			b.withLastLogin(ll.get());
 		}
@@ -464,7 +757,7 @@ public class MongoStorage implements AuthStorage {
 
 	private UserName getUserName(final String namestr) throws AuthStorageException {
 		try {
-			return new UserName(namestr);
+			return userNameInterner.intern(new UserName(namestr));
 		} catch (MissingParameterException | IllegalParameterException e) {
 			throw new AuthStorageException("Illegal value stored in db: " + e.getMessage(), e);
 		}
@@ -472,7 +765,7 @@ public class MongoStorage implements AuthStorage {
 	
 	private DisplayName getDisplayName(final String displayName) throws AuthStorageException {
 		try {
-			return new DisplayName(displayName);
+			return displayNameInterner.intern(new DisplayName(displayName));
 		} catch (IllegalParameterException | MissingParameterException e) {
 			throw new AuthStorageException("Illegal value stored in db: " + e.getMessage() , e);
 		}
@@ -536,28 +829,101 @@ public class MongoStorage implements AuthStorage {
 	}
 	
 	@Override
-	public void forcePasswordReset() throws AuthStorageException {
+	public void createUser(final NewUser newUser)
+			throws UserExistsException, AuthStorageException, IdentityLinkedException,
+			NoSuchRoleException {
+		nonNull(newUser, "newUser");
+		final Collection<ObjectId> customRoles = getCustomRoleIds(
+				newUser.getCustomRoles()).values();
+		final Document u = toDocument(newUser, customRoles);
 		try {
-			db.getCollection(COL_USERS).updateMany(new Document(Fields.USER_LOCAL, true),
-					new Document("$set", new Document(Fields.USER_RESET_PWD, true)));
+			db.getCollection(COL_USERS).insertOne(u);
+		} catch (MongoWriteException mwe) {
+			// not happy about this, but getDetails() returns an empty map
+			final Optional<CreateUserResult> conflict = getUserCreationConflict(
+					new DuplicateKeyExceptionChecker(mwe));
+			if (conflict.isPresent()) {
+				if (CreateUserResult.USER_EXISTS.equals(conflict.get())) {
+					throw new UserExistsException(newUser.getUserName().getName());
+				}
+				// either the provider / prov id combo or the local identity uuid are already
+				// in the db
+				throw new IdentityLinkedException(newUser.getIdentity().getRemoteID().getID());
+			} // otherwise throw next exception
+			throw new AuthStorageException("Database write failed", mwe);
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
 	}
 	
 	@Override
-	public void createUser(final NewUser newUser)
-			throws UserExistsException, AuthStorageException, IdentityLinkedException,
-			NoSuchRoleException {
-		nonNull(newUser, "newUser");
+	public Map<UserName, CreateUserResult> createUsers(final Collection<NewUser> newUsers)
+			throws AuthStorageException, NoSuchRoleException {
+		nonNull(newUsers, "newUsers");
+		noNulls(newUsers, "null item in newUsers");
+		final Map<UserName, CreateUserResult> ret = new HashMap<>();
+		final Set<String> allCustomRoles = new HashSet<>();
+		for (final NewUser nu: newUsers) {
+			if (ret.containsKey(nu.getUserName())) {
+				throw new IllegalArgumentException("Duplicate user name in newUsers: " +
+						nu.getUserName().getName());
+			}
+			ret.put(nu.getUserName(), CreateUserResult.CREATED);
+			allCustomRoles.addAll(nu.getCustomRoles());
+		}
+		if (newUsers.isEmpty()) {
+			return ret;
+		}
+		// one role lookup for the entire set of users rather than one per user
+		final Map<String, ObjectId> roleIDs = getCustomRoleIds(allCustomRoles);
+		final List<NewUser> users = new ArrayList<>(newUsers);
+		final List<Document> docs = new ArrayList<>(users.size());
+		for (final NewUser nu: users) {
+			docs.add(toDocument(nu, nu.getCustomRoles().stream().map(r -> roleIDs.get(r))
+					.collect(Collectors.toSet())));
+		}
+		try {
+			// unordered, so a failure for one user doesn't stop the remaining inserts
+			db.getCollection(COL_USERS).insertMany(docs, new InsertManyOptions().ordered(false));
+		} catch (MongoBulkWriteException mbwe) {
+			if (mbwe.getWriteConcernError() != null) {
+				throw new AuthStorageException("Database write failed", mbwe);
+			}
+			for (final BulkWriteError err: mbwe.getWriteErrors()) {
+				final Optional<CreateUserResult> conflict = getUserCreationConflict(
+						new DuplicateKeyExceptionChecker(err, mbwe));
+				if (!conflict.isPresent()) {
+					throw new AuthStorageException("Database write failed", mbwe);
+				}
+				ret.put(users.get(err.getIndex()).getUserName(), conflict.get());
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	// returns absent if the error is not a duplicate key error on one of the user indexes
+	private Optional<CreateUserResult> getUserCreationConflict(
+			final DuplicateKeyExceptionChecker dk) {
+		if (dk.isDuplicate() && COL_USERS.equals(dk.getCollection().get())) {
+			if ((Fields.USER_NAME + "_1").equals(dk.getIndex().get())) {
+				return Optional.of(CreateUserResult.USER_EXISTS);
+			} else if (dk.getIndex().get().startsWith(Fields.USER_IDENTITIES +
+					Fields.FIELD_SEP)) {
+				return Optional.of(CreateUserResult.IDENTITY_LINKED);
+			}
+		}
+		return Optional.absent();
+	}
+	
+	private Document toDocument(final NewUser newUser, final Collection<ObjectId> customRoles) {
 		final Optional<UserName> admin = newUser.getAdminThatToggledEnabledState();
 		final Optional<Instant> time = newUser.getEnableToggleDate();
 		final Optional<String> reason = newUser.getReasonForDisabled();
 		final Set<String> roles = newUser.getRoles().stream().map(r -> r.getID())
 				.collect(Collectors.toSet());
-		final Collection<ObjectId> customRoles = getCustomRoleIds(
-				newUser.getCustomRoles()).values();
-		final Document u = new Document(
+		return new Document(
 				Fields.USER_NAME, newUser.getUserName().getName())
 				.append(Fields.USER_LOCAL, false)
 				.append(Fields.USER_EMAIL, newUser.getEmail().getAddress())
@@ -575,25 +941,6 @@ public class MongoStorage implements AuthStorage {
 						admin.isPresent() ? admin.get().getName() : null)
 				.append(Fields.USER_DISABLED_DATE, time.isPresent() ? Date.from(time.get()) : null)
 				.append(Fields.USER_DISABLED_REASON, reason.isPresent() ? reason.get() : null);
-		try {
-			db.getCollection(COL_USERS).insertOne(u);
-		} catch (MongoWriteException mwe) {
-			// not happy about this, but getDetails() returns an empty map
-			final DuplicateKeyExceptionChecker dk = new DuplicateKeyExceptionChecker(mwe);
-			if (dk.isDuplicate() && COL_USERS.equals(dk.getCollection().get())) {
-				if ((Fields.USER_NAME + "_1").equals(dk.getIndex().get())) {
-					throw new UserExistsException(newUser.getUserName().getName());
-				} else if (dk.getIndex().get().startsWith(Fields.USER_IDENTITIES + 
-						Fields.FIELD_SEP)) {
-					// either the provider / prov id combo or the local identity uuid are already
-					// in the db
-					throw new IdentityLinkedException(newUser.getIdentity().getRemoteID().getID());
-				} // otherwise throw next exception
-			}
-			throw new AuthStorageException("Database write failed", mwe);
-		} catch (MongoException e) {
-			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
-		}
 	}
 
 	private List<Document> toDocument(final Map<PolicyID, Instant> policyIDs) {
@@ -635,7 +982,11 @@ public class MongoStorage implements AuthStorage {
 		final Document update = new Document(Fields.USER_DISABLED_REASON, reason)
 				.append(Fields.USER_DISABLED_ADMIN, admin.getName())
 				.append(Fields.USER_DISABLED_DATE, Date.from(clock.instant()));
-		updateUser(user, update);
+		try {
+			updateUser(user, update);
+		} finally {
+			displayNames.invalidate(user);
+		}
 	}
 	
 	@Override
@@ -672,12 +1023,16 @@ public class MongoStorage implements AuthStorage {
 				.append(Fields.TOKEN_IP, ctx.getIpAddress().isPresent() ?
 						ctx.getIpAddress().get().getHostAddress() : null)
 				.append(Fields.TOKEN_CUSTOM_CONTEXT, toCustomContextList(ctx.getCustomContext()));
+		if (tokensSharded) {
+			reserveTokenID(token);
+		}
 		try {
 			db.getCollection(COL_TOKEN).insertOne(td);
 		} catch (MongoWriteException mwe) {
 			// not happy about this, but getDetails() returns an empty map
 			final DuplicateKeyExceptionChecker dk = new DuplicateKeyExceptionChecker(mwe);
 			if (dk.isDuplicate() && COL_TOKEN.equals(dk.getCollection().get())) {
+				// the ID index is not unique if the token collection is sharded
 				if ((Fields.TOKEN_ID + "_1").equals(dk.getIndex().get())) {
 					throw new IllegalArgumentException(String.format(
 							"Token ID %s already exists in the database", token.getId()));
@@ -693,6 +1048,84 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 
+	/* The token ID index isn't unique on a sharded tokens collection, so the ID is inserted into
+	 * the token ID collection, which has a unique _id, before the token is stored. The ID is
+	 * released when the token would have expired, even if the token is deleted earlier or
+	 * failed to store, which is harmless since IDs are random UUIDs.
+	 */
+	private void reserveTokenID(final StoredToken token) throws AuthStorageException {
+		try {
+			db.getCollection(COL_TOKEN_IDS).insertOne(
+					new Document(Fields.MONGO_ID, token.getId().toString())
+							.append(Fields.TOKEN_IDS_EXPIRY,
+									Date.from(token.getExpirationDate())));
+		} catch (MongoWriteException mwe) {
+			if (DuplicateKeyExceptionChecker.isDuplicate(mwe)) {
+				throw new IllegalArgumentException(String.format(
+						"Token ID %s already exists in the database", token.getId()));
+			}
+			throw new AuthStorageException("Database write failed", mwe);
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+
+	/** Get the shard keys for the collections that may be sharded, keyed by collection name.
+	 *
+	 * The tokens collection is sharded on a hash of the token hash. Getting a token and
+	 * recording token use are routed to a single shard. Listing and deleting a user's tokens
+	 * query every shard, each of which uses its index on the user or ID. The token ID index is
+	 * not unique when the tokens collection is sharded, and token IDs are instead reserved in
+	 * the unsharded token ID collection when a token is stored.
+	 *
+	 * Other collections are not sharded. In particular the users collection must remain
+	 * unsharded, since the unique index on the remote identity IDs, which ensures an identity
+	 * is linked to only one user, cannot be enforced on a sharded collection.
+	 *
+	 * Collections must be sharded by an administrator before starting the server.
+	 * @return the shard keys.
+	 */
+	public static Map<String, Document> getShardKeys() {
+		final Map<String, Document> ret = new HashMap<>();
+		ret.put(COL_TOKEN, new Document(Fields.TOKEN_TOKEN, "hashed"));
+		return ret;
+	}
+
+	@Override
+	public void exportTokens(final TokenSnapshotWriter writer)
+			throws AuthStorageException, IOException {
+		nonNull(writer, "writer");
+		// pick up any revoke all tokens jobs started by other instances
+		final Instant revokedBefore = loadPendingUpdates().tokensRevokedBefore;
+		final Document projection = new Document(Fields.TOKEN_TYPE, 1)
+				.append(Fields.TOKEN_USER_NAME, 1)
+				.append(Fields.TOKEN_ID, 1)
+				.append(Fields.TOKEN_TOKEN, 1)
+				.append(Fields.TOKEN_CREATION, 1)
+				.append(Fields.TOKEN_EXPIRY, 1);
+		try {
+			// skip tokens waiting to be deleted by a revoke all tokens job
+			final FindIterable<Document> ts = db.getCollection(COL_TOKEN).find(new Document(
+					Fields.TOKEN_EXPIRY, new Document("$gt", Date.from(Instant.now())))
+					.append(Fields.TOKEN_CREATION, new Document(
+							"$gt", Date.from(revokedBefore))))
+					.projection(projection);
+			for (final Document t: ts) {
+				writer.add(StoredToken.getBuilder(
+							TokenType.getType(t.getString(Fields.TOKEN_TYPE)),
+							UUID.fromString(t.getString(Fields.TOKEN_ID)),
+							getUserName(t.getString(Fields.TOKEN_USER_NAME)))
+						.withLifeTime(
+								t.getDate(Fields.TOKEN_CREATION).toInstant(),
+								t.getDate(Fields.TOKEN_EXPIRY).toInstant())
+						.build(),
+						t.getString(Fields.TOKEN_TOKEN));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+
 	private List<Document> toCustomContextList(
 			final Map<String, String> customContext) {
 		final List<Document> ret = new LinkedList<>();
@@ -739,17 +1172,40 @@ public class MongoStorage implements AuthStorage {
 			throw new NoSuchTokenException("Token not found");
 		}
 		final StoredToken htoken = getToken(t);
+		final Instant now = Instant.now();
 		/* although expired tokens are automatically deleted from the DB by mongo, the thread
 		 * only runs ~1/min, so check here
 		 */
-		if (Instant.now().isAfter(htoken.getExpirationDate())) {
+		if (now.isAfter(htoken.getExpirationDate())) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		/* the token may be waiting to be deleted by a revoke all tokens job or the token
+		 * revocation queue
+		 */
+		final PendingUpdates updates = getPendingUpdates();
+		if (!htoken.getCreationDate().isAfter(updates.tokensRevokedBefore) ||
+				updates.tokensRevokedFor.contains(htoken.getUserName())) {
 			throw new NoSuchTokenException("Token not found");
 		}
+		setTokenLastUsed(htoken, token.getTokenHash(), now);
 		return htoken;
 	}
 	
+	private void setTokenLastUsed(
+			final StoredToken token,
+			final String hash,
+			final Instant now) {
+		final Instant minute = now.truncatedTo(ChronoUnit.MINUTES);
+		final Optional<Instant> lastUsed = token.getLastUsed();
+		// nothing to do if the use has already been recorded for this minute
+		if (!lastUsed.isPresent() || minute.isAfter(lastUsed.get())) {
+			tokensLastUsed.merge(token.getId(), new TokenLastUsed(hash, minute),
+					(u1, u2) -> u1.lastUsed.isAfter(u2.lastUsed) ? u1 : u2);
+		}
+	}
+	
 	private StoredToken getToken(final Document t) throws AuthStorageException {
-		return StoredToken.getBuilder(
+		final OptionalsStep b = StoredToken.getBuilder(
 					TokenType.getType(t.getString(Fields.TOKEN_TYPE)),
 					UUID.fromString(t.getString(Fields.TOKEN_ID)),
 					getUserName(t.getString(Fields.TOKEN_USER_NAME)))
@@ -757,8 +1213,19 @@ public class MongoStorage implements AuthStorage {
 						t.getDate(Fields.TOKEN_CREATION).toInstant(),
 						t.getDate(Fields.TOKEN_EXPIRY).toInstant())
 				.withNullableTokenName(getTokenName(t.getString(Fields.TOKEN_NAME)))
-				.withContext(toTokenCreationContext(t))
-				.build();
+				.withContext(toTokenCreationContext(t));
+		Optional<Instant> lastUsed = getOptionalDate(t, Fields.TOKEN_LAST_USED);
+		// read through to any use that hasn't been flushed to the db yet
+		final TokenLastUsed buffered = tokensLastUsed.get(UUID.fromString(
+				t.getString(Fields.TOKEN_ID)));
+		if (buffered != null &&
+				(!lastUsed.isPresent() || buffered.lastUsed.isAfter(lastUsed.get()))) {
+			lastUsed = Optional.of(buffered.lastUsed);
+		}
+		if (lastUsed.isPresent()) {
+			b.withLastUsed(lastUsed.get());
+		}
+		return b.build();
 	}
 	
 	private TokenCreationContext toTokenCreationContext(final Document t)
@@ -803,6 +1270,54 @@ public class MongoStorage implements AuthStorage {
 		return ret;
 	}
 	
+	@Override
+	public TokenPage getTokens(final UserName userName, final TokenListSpec spec)
+			throws AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(spec, "spec");
+		final Document query = new Document(Fields.TOKEN_USER_NAME, userName.getName());
+		if (!spec.getTokenTypes().isEmpty()) {
+			query.append(Fields.TOKEN_TYPE, new Document("$in", spec.getTokenTypes().stream()
+					.map(t -> t.getID()).collect(Collectors.toList())));
+		}
+		if (spec.getAfterExpiration().isPresent()) {
+			/* the range on the expiration date lets the user, expires, id index bound the
+			 * scan. The $or then skips the tokens with the same expiration date up to and
+			 * including the start token.
+			 */
+			final Date after = Date.from(spec.getAfterExpiration().get());
+			query.append(Fields.TOKEN_EXPIRY, new Document("$gte", after))
+					.append("$or", Arrays.asList(
+							new Document(Fields.TOKEN_EXPIRY, new Document("$gt", after)),
+							new Document(Fields.TOKEN_ID, new Document(
+									"$gt", spec.getAfterID().get().toString()))));
+		}
+		if (spec.getExcludedID().isPresent()) {
+			query.append(Fields.TOKEN_ID,
+					new Document("$ne", spec.getExcludedID().get().toString()));
+		}
+		final Document projection = new Document(Fields.TOKEN_TOKEN, 0)
+				.append(Fields.TOKEN_CUSTOM_CONTEXT, 0);
+		final List<StoredToken> tokens = new ArrayList<>();
+		try {
+			final FindIterable<Document> ts = db.getCollection(COL_TOKEN).find(query)
+					.projection(projection)
+					.sort(new Document(Fields.TOKEN_EXPIRY, 1).append(Fields.TOKEN_ID, 1));
+			if (spec.getLimit().isPresent()) {
+				// get one extra token to find out if there are more
+				ts.limit(spec.getLimit().get() + 1);
+			}
+			for (final Document d: ts) {
+				tokens.add(getToken(d));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		final int limit = spec.getLimit().or(Integer.MAX_VALUE);
+		final boolean more = tokens.size() > limit;
+		return new TokenPage(more ? tokens.subList(0, limit) : tokens, more);
+	}
+
 	@Override
 	public AuthUser getUser(final UserName userName)
 			throws AuthStorageException, NoSuchUserException {
@@ -842,14 +1357,19 @@ public class MongoStorage implements AuthStorage {
 			throws AuthStorageException {
 		nonNull(users, "users");
 		Utils.noNulls(users, "Null username in users set");
-		if (users.isEmpty()) {
-			return new HashMap<>();
+		final Map<UserName, DisplayName> ret = new HashMap<>(displayNames.getAll(users));
+		if (ret.size() == users.size()) {
+			return ret;
 		}
-		final List<String> queryusers = users.stream().map(u -> u.getName())
-				.collect(Collectors.toList());
+		final long generation = displayNames.getGeneration();
+		final List<String> queryusers = users.stream().filter(u -> !ret.containsKey(u))
+				.map(u -> u.getName()).collect(Collectors.toList());
 		final Document query = new Document(Fields.USER_NAME, new Document("$in", queryusers))
 				.append(Fields.USER_DISABLED_REASON, null);
-		return getDisplayNames(query, Fields.USER_NAME, -1);
+		final Map<UserName, DisplayName> found = getDisplayNames(query, Fields.USER_NAME, -1);
+		displayNames.putAll(found, generation);
+		ret.putAll(found);
+		return ret;
 	}
 
 	private Map<UserName, DisplayName> getDisplayNames(
@@ -916,10 +1436,11 @@ public class MongoStorage implements AuthStorage {
 					.stream().map(r -> r.getID()).collect(Collectors.toSet())));
 		}
 		if (spec.isCustomRoleSearch()) {
-			final Set<Document> crs = getCustomRoles(new Document(Fields.ROLES_ID,
-					new Document("$in", spec.getSearchCustomRoles())));
-			query.put(Fields.USER_CUSTOM_ROLES, new Document("$all", crs.stream()
-					.map(d -> d.getObjectId(Fields.MONGO_ID)).collect(Collectors.toSet())));
+			final CustomRoleRegistry reg = getCustomRoleRegistry(
+					r -> r.objectIDs.keySet().containsAll(spec.getSearchCustomRoles()), 0);
+			query.put(Fields.USER_CUSTOM_ROLES, new Document("$all",
+					spec.getSearchCustomRoles().stream().map(r -> reg.objectIDs.get(r))
+							.filter(r -> r != null).collect(Collectors.toSet())));
 		}
 		if (!spec.isDisabledIncluded()) {
 			query.put(Fields.USER_DISABLED_REASON, null);
@@ -927,14 +1448,34 @@ public class MongoStorage implements AuthStorage {
 		return getDisplayNames(query, SEARCHFIELD_TO_FIELD.get(spec.orderBy()), limit);
 	}
 
+	@Override
+	public String getTokenHash(final UserName userName, final UUID tokenId)
+			throws AuthStorageException, NoSuchTokenException {
+		nonNull(userName, "userName");
+		nonNull(tokenId, "tokenId");
+		final Document t = findOne(COL_TOKEN,
+				new Document(Fields.TOKEN_USER_NAME, userName.getName())
+						.append(Fields.TOKEN_ID, tokenId.toString()),
+				new Document(Fields.TOKEN_TOKEN, 1));
+		if (t == null) {
+			throw new NoSuchTokenException(String.format("No token %s for user %s exists",
+					tokenId, userName.getName()));
+		}
+		return t.getString(Fields.TOKEN_TOKEN);
+	}
+
 	@Override
 	public void deleteToken(final UserName userName, final UUID tokenId)
 			throws AuthStorageException, NoSuchTokenException {
 		nonNull(userName, "userName");
 		nonNull(tokenId, "tokenId");
 		try {
+			/* deleteMany rather than deleteOne since a single document delete on a sharded
+			 * collection must include the shard key. At most one token has the ID, since IDs
+			 * are reserved in the token ID collection when the collection is sharded.
+			 */
 			final DeleteResult dr = db.getCollection(COL_TOKEN)
-					.deleteOne(new Document(Fields.TOKEN_USER_NAME, userName.getName())
+					.deleteMany(new Document(Fields.TOKEN_USER_NAME, userName.getName())
 							.append(Fields.TOKEN_ID, tokenId.toString()));
 			if (dr.getDeletedCount() != 1L) {
 				throw new NoSuchTokenException(String.format(
@@ -962,8 +1503,386 @@ public class MongoStorage implements AuthStorage {
 	}
 	
 	@Override
-	public void deleteTokens() throws AuthStorageException {
-		deleteTokens(new Document());
+	public void addTokenRevocation(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		try {
+			db.getCollection(COL_TOKEN_REVOKE).updateOne(
+					new Document(Fields.TOKEN_REVOKE_USER_NAME, userName.getName()),
+					new Document("$setOnInsert", new Document(
+							Fields.TOKEN_REVOKE_ADDED, Date.from(clock.instant()))),
+					new UpdateOptions().upsert(true));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		loadPendingUpdates();
+	}
+	
+	@Override
+	public Set<UserName> getTokenRevocations() throws AuthStorageException {
+		final Set<UserName> ret = new HashSet<>();
+		try {
+			final FindIterable<Document> revs = db.getCollection(COL_TOKEN_REVOKE).find()
+					.projection(new Document(Fields.TOKEN_REVOKE_USER_NAME, 1));
+			for (final Document d: revs) {
+				ret.add(getUserName(d.getString(Fields.TOKEN_REVOKE_USER_NAME)));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	@Override
+	public void removeTokenRevocation(final UserName userName) throws AuthStorageException {
+		nonNull(userName, "userName");
+		try {
+			db.getCollection(COL_TOKEN_REVOKE).deleteOne(
+					new Document(Fields.TOKEN_REVOKE_USER_NAME, userName.getName()));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	/* Sequence numbers are assigned by inserting the next number after the current maximum and
+	 * retrying if another instance got there first. Since an event can't be inserted until the
+	 * event before it exists, events become visible in sequence order with no gaps, which a
+	 * counter document incremented separately from the insert can't guarantee.
+	 */
+	private static final int REVOKE_EVENT_INSERT_ATTEMPTS = 100;
+	
+	@Override
+	public TokenRevocationEvent addTokenRevocationEvent(final TokenRevocation revocation)
+			throws AuthStorageException {
+		nonNull(revocation, "revocation");
+		final Instant now = clock.instant();
+		try {
+			final MongoCollection<Document> col = db.getCollection(COL_TOKEN_REVOKE_FEED);
+			for (int i = 0; i < REVOKE_EVENT_INSERT_ATTEMPTS; i++) {
+				final long seq = getTokenRevocationSequence() + 1;
+				try {
+					col.insertOne(new Document(Fields.REVOKE_EVENT_SEQUENCE, seq)
+							.append(Fields.REVOKE_EVENT_TIME, Date.from(now))
+							.append(Fields.REVOKE_EVENT_SCOPE, revocation.getScope().name())
+							.append(Fields.REVOKE_EVENT_USER_NAME,
+									revocation.getUserName().isPresent() ?
+											revocation.getUserName().get().getName() : null)
+							.append(Fields.REVOKE_EVENT_TOKEN_ID,
+									revocation.getTokenID().isPresent() ?
+											revocation.getTokenID().get().toString() : null)
+							.append(Fields.REVOKE_EVENT_TOKEN_HASH,
+									revocation.getTokenHash().orNull()));
+					return new TokenRevocationEvent(seq, now, revocation);
+				} catch (MongoWriteException mwe) {
+					if (!DuplicateKeyExceptionChecker.isDuplicate(mwe)) {
+						throw new AuthStorageException("Database write failed", mwe);
+					}
+					// another instance took the sequence number, try the next one
+				}
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		throw new AuthStorageException(String.format(
+				"Failed to add token revocation event after %s attempts",
+				REVOKE_EVENT_INSERT_ATTEMPTS));
+	}
+	
+	@Override
+	public List<TokenRevocationEvent> getTokenRevocationEvents(
+			final long afterSequence,
+			final int limit)
+			throws AuthStorageException {
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		final List<TokenRevocationEvent> ret = new LinkedList<>();
+		try {
+			final FindIterable<Document> events = db.getCollection(COL_TOKEN_REVOKE_FEED)
+					.find(new Document(Fields.REVOKE_EVENT_SEQUENCE,
+							new Document("$gt", afterSequence)))
+					.sort(new Document(Fields.REVOKE_EVENT_SEQUENCE, 1))
+					.limit(limit);
+			for (final Document e: events) {
+				ret.add(toTokenRevocationEvent(e));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	private TokenRevocationEvent toTokenRevocationEvent(final Document e)
+			throws AuthStorageException {
+		final String user = e.getString(Fields.REVOKE_EVENT_USER_NAME);
+		final TokenRevocation.Scope scope = TokenRevocation.Scope.valueOf(
+				e.getString(Fields.REVOKE_EVENT_SCOPE));
+		final TokenRevocation r;
+		if (TokenRevocation.Scope.TOKEN.equals(scope)) {
+			r = TokenRevocation.token(getUserName(user),
+					UUID.fromString(e.getString(Fields.REVOKE_EVENT_TOKEN_ID)),
+					e.getString(Fields.REVOKE_EVENT_TOKEN_HASH));
+		} else if (TokenRevocation.Scope.USER.equals(scope)) {
+			r = TokenRevocation.user(getUserName(user));
+		} else {
+			r = TokenRevocation.all();
+		}
+		return new TokenRevocationEvent(e.getLong(Fields.REVOKE_EVENT_SEQUENCE),
+				e.getDate(Fields.REVOKE_EVENT_TIME).toInstant(), r);
+	}
+	
+	@Override
+	public long getTokenRevocationSequence() throws AuthStorageException {
+		try {
+			final Document last = db.getCollection(COL_TOKEN_REVOKE_FEED).find()
+					.projection(new Document(Fields.REVOKE_EVENT_SEQUENCE, 1))
+					.sort(new Document(Fields.REVOKE_EVENT_SEQUENCE, -1))
+					.first();
+			return last == null ? 0 : last.getLong(Fields.REVOKE_EVENT_SEQUENCE);
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public void deleteTokenRevocationEvents(final Instant before) throws AuthStorageException {
+		nonNull(before, "before");
+		final long last = getTokenRevocationSequence();
+		try {
+			db.getCollection(COL_TOKEN_REVOKE_FEED).deleteMany(new Document(
+					Fields.REVOKE_EVENT_TIME, new Document("$lt", Date.from(before)))
+					.append(Fields.REVOKE_EVENT_SEQUENCE, new Document("$lt", last)));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public void storeAdminJob(final AdminJob job) throws AuthStorageException {
+		nonNull(job, "job");
+		if (AdminJobType.DELETE_CUSTOM_ROLE.equals(job.getType())) {
+			throw new IllegalArgumentException(
+					"Custom role deletion jobs must be stored when the role is deleted");
+		}
+		try {
+			db.getCollection(COL_ADMIN_JOBS).insertOne(toDocument(job));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		loadPendingUpdates();
+	}
+	
+	private Document toDocument(final AdminJob job) {
+		return new Document(Fields.ADMIN_JOB_ID, job.getID().toString())
+				.append(Fields.ADMIN_JOB_TYPE, job.getType().getID())
+				.append(Fields.ADMIN_JOB_TARGET, job.getTarget().orNull())
+				.append(Fields.ADMIN_JOB_ADMIN, job.getAdmin().getName())
+				.append(Fields.ADMIN_JOB_CREATED, Date.from(job.getCreated()))
+				.append(Fields.ADMIN_JOB_MATCHED, job.getMatched())
+				.append(Fields.ADMIN_JOB_PROCESSED, job.getProcessed())
+				.append(Fields.ADMIN_JOB_COMPLETED, job.getCompleted().isPresent() ?
+						Date.from(job.getCompleted().get()) : null);
+	}
+	
+	private PendingUpdates loadPendingUpdates() throws AuthStorageException {
+		final long sequence = pendingUpdateLoads.incrementAndGet();
+		final Instant loaded = Instant.now();
+		Instant revokedBefore = Instant.EPOCH;
+		Instant resetBefore = null;
+		try {
+			final FindIterable<Document> jobs = db.getCollection(COL_ADMIN_JOBS).find(
+					new Document(Fields.ADMIN_JOB_COMPLETED, null)
+							.append(Fields.ADMIN_JOB_TYPE, new Document("$in", Arrays.asList(
+									AdminJobType.REVOKE_ALL_TOKENS.getID(),
+									AdminJobType.FORCE_RESET_PASSWORDS.getID()))))
+					.projection(new Document(Fields.ADMIN_JOB_TYPE, 1)
+							.append(Fields.ADMIN_JOB_CREATED, 1));
+			for (final Document j: jobs) {
+				final Instant created = j.getDate(Fields.ADMIN_JOB_CREATED).toInstant();
+				if (AdminJobType.REVOKE_ALL_TOKENS.getID().equals(
+						j.getString(Fields.ADMIN_JOB_TYPE))) {
+					revokedBefore = created.isAfter(revokedBefore) ? created : revokedBefore;
+				} else if (resetBefore == null || created.isAfter(resetBefore)) {
+					resetBefore = created;
+				}
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		final PendingUpdates updates = new PendingUpdates(sequence, loaded, revokedBefore,
+				Optional.fromNullable(resetBefore), getTokenRevocations());
+		// don't replace updates that were loaded after these were started
+		return pendingUpdates.accumulateAndGet(updates,
+				(u1, u2) -> u1 == null || u2.sequence > u1.sequence ? u2 : u1);
+	}
+	
+	private PendingUpdates getPendingUpdates() throws AuthStorageException {
+		final PendingUpdates updates = pendingUpdates.get();
+		if (Instant.now().isAfter(updates.loaded.plusMillis(PENDING_UPDATE_REFRESH_MILLIS))) {
+			return loadPendingUpdates();
+		}
+		return updates;
+	}
+	
+	@Override
+	public List<AdminJob> getAdminJobs(final boolean incompleteOnly)
+			throws AuthStorageException {
+		final Document query = incompleteOnly ?
+				new Document(Fields.ADMIN_JOB_COMPLETED, null) : new Document();
+		final List<AdminJob> ret = new LinkedList<>();
+		try {
+			final FindIterable<Document> jobs = db.getCollection(COL_ADMIN_JOBS).find(query)
+					.sort(new Document(Fields.ADMIN_JOB_CREATED, -1));
+			for (final Document j: jobs) {
+				ret.add(toAdminJob(j));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	private AdminJob toAdminJob(final Document j) throws AuthStorageException {
+		final AdminJob.Builder b = AdminJob.getBuilder(
+				UUID.fromString(j.getString(Fields.ADMIN_JOB_ID)),
+				AdminJobType.getType(j.getString(Fields.ADMIN_JOB_TYPE)),
+				getUserName(j.getString(Fields.ADMIN_JOB_ADMIN)),
+				j.getDate(Fields.ADMIN_JOB_CREATED).toInstant())
+				.withMatched(j.getLong(Fields.ADMIN_JOB_MATCHED))
+				.withProcessed(j.getLong(Fields.ADMIN_JOB_PROCESSED));
+		final String target = j.getString(Fields.ADMIN_JOB_TARGET);
+		if (target != null) {
+			b.withTarget(target);
+		}
+		final Date completed = j.getDate(Fields.ADMIN_JOB_COMPLETED);
+		if (completed != null) {
+			b.withCompleted(completed.toInstant());
+		}
+		return b.build();
+	}
+	
+	@Override
+	public AdminJob processAdminJobBatch(final AdminJob job, final int batchSize)
+			throws AuthStorageException {
+		nonNull(job, "job");
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		final Document jobQuery = new Document(Fields.ADMIN_JOB_ID, job.getID().toString());
+		try {
+			final MongoCollection<Document> jobs = db.getCollection(COL_ADMIN_JOBS);
+			final Document j = jobs.find(jobQuery).first();
+			if (j == null) {
+				throw new AuthStorageException("No admin job with ID " + job.getID());
+			}
+			// use the stored job rather than the argument, since it holds the current state
+			final AdminJob stored = toAdminJob(j);
+			if (stored.isComplete()) {
+				return stored;
+			}
+			final String collection;
+			final Document filter;
+			final Document hint; // the index that serves the filter
+			final Document update; // null means delete
+			switch (stored.getType()) {
+				case REVOKE_ALL_TOKENS:
+					// tokens created after the job started are not affected
+					collection = COL_TOKEN;
+					filter = new Document(Fields.TOKEN_CREATION,
+							new Document("$lte", Date.from(stored.getCreated())));
+					hint = new Document(Fields.TOKEN_CREATION, 1);
+					update = null;
+					break;
+				case FORCE_RESET_PASSWORDS:
+					// users that set their password after the job started are not affected
+					final Date resetBefore = Date.from(stored.getCreated());
+					collection = COL_USERS;
+					filter = new Document(Fields.USER_LOCAL, true)
+							.append("$or", Arrays.asList(
+									new Document(Fields.USER_RESET_PWD_LAST,
+											new Document("$lte", resetBefore)),
+									new Document(Fields.USER_RESET_PWD_LAST, null)
+											.append(Fields.USER_CREATED,
+													new Document("$lte", resetBefore))));
+					hint = new Document(Fields.USER_LOCAL, 1).append(Fields.MONGO_ID, 1);
+					update = new Document("$set", new Document(Fields.USER_RESET_PWD, true));
+					break;
+				case DELETE_CUSTOM_ROLE:
+					final ObjectId role = j.getObjectId(Fields.ADMIN_JOB_ROLE);
+					collection = COL_USERS;
+					filter = new Document(Fields.USER_CUSTOM_ROLES, role);
+					hint = new Document(Fields.USER_CUSTOM_ROLES, 1).append(Fields.MONGO_ID, 1);
+					update = new Document("$pull", new Document(Fields.USER_CUSTOM_ROLES, role));
+					break;
+				case REMOVE_POLICY_ID:
+					final String policyID = stored.getTarget().get();
+					collection = COL_USERS;
+					filter = new Document(Fields.USER_POLICY_IDS + Fields.FIELD_SEP +
+							Fields.POLICY_ID, policyID);
+					hint = new Document(Fields.USER_POLICY_IDS + Fields.FIELD_SEP +
+							Fields.POLICY_ID, 1).append(Fields.MONGO_ID, 1);
+					update = new Document("$pull", new Document(Fields.USER_POLICY_IDS,
+							new Document(Fields.POLICY_ID, policyID)));
+					break;
+				default: // can't test
+					throw new RuntimeException("Unknown job type: " + stored.getType());
+			}
+			/* Updates walk the collection in _id order so that records that still match the
+			 * filter after processing, like users that are forced to reset their password,
+			 * aren't processed again. Deleted records no longer match, so deletes just take
+			 * the next batch that matches the filter, which avoids sorting a range of
+			 * creation dates by _id.
+			 * The index is hinted since otherwise the planner may walk the _id index, which
+			 * provides the sort, and filter every document in the collection.
+			 */
+			final Document batchFilter = new Document(filter);
+			final Object cursor = j.get(Fields.ADMIN_JOB_CURSOR);
+			if (cursor != null) {
+				batchFilter.append(Fields.MONGO_ID, new Document("$gt", cursor));
+			}
+			final MongoCollection<Document> col = db.getCollection(collection);
+			final FindIterable<Document> found = col.find(batchFilter)
+					.projection(new Document(Fields.MONGO_ID, 1))
+					.modifiers(new Document("$hint", hint))
+					.limit(batchSize);
+			if (update != null) {
+				found.sort(new Document(Fields.MONGO_ID, 1));
+			}
+			final List<ObjectId> ids = new LinkedList<>();
+			for (final Document d: found) {
+				ids.add(d.getObjectId(Fields.MONGO_ID));
+			}
+			long matched = 0;
+			long processed = 0;
+			if (!ids.isEmpty()) {
+				// only touch the holders found above, which are found via the filter's index
+				final Document batch = new Document(filter)
+						.append(Fields.MONGO_ID, new Document("$in", ids));
+				if (update == null) {
+					processed = col.deleteMany(batch).getDeletedCount();
+					matched = processed;
+				} else {
+					final UpdateResult res = col.updateMany(batch, update);
+					matched = res.getMatchedCount();
+					processed = res.getModifiedCount();
+				}
+			}
+			final Document jobUpdate = new Document("$inc",
+					new Document(Fields.ADMIN_JOB_MATCHED, matched)
+							.append(Fields.ADMIN_JOB_PROCESSED, processed));
+			if (update != null && !ids.isEmpty()) {
+				// $max in case another instance is processing the same job
+				jobUpdate.append("$max", new Document(Fields.ADMIN_JOB_CURSOR,
+						ids.get(ids.size() - 1)));
+			}
+			if (ids.size() < batchSize) {
+				jobUpdate.append("$min", new Document(Fields.ADMIN_JOB_COMPLETED,
+						Date.from(clock.instant())));
+			}
+			return toAdminJob(jobs.findOneAndUpdate(jobQuery, jobUpdate,
+					new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
 	}
 
 	@Override
@@ -1027,13 +1946,19 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		loadCustomRoles();
 	}
 	
 	@Override
-	public void deleteCustomRole(final String roleId)
+	public void deleteCustomRole(final String roleId, final AdminJob job)
 			throws NoSuchRoleException, AuthStorageException,
 			MissingParameterException, IllegalParameterException {
 		CustomRole.checkValidRoleID(roleId);
+		nonNull(job, "job");
+		if (!AdminJobType.DELETE_CUSTOM_ROLE.equals(job.getType()) ||
+				!job.getTarget().get().equals(roleId)) {
+			throw new IllegalArgumentException("Job is not a deletion job for role " + roleId);
+		}
 		try {
 			final Document role = db.getCollection(COL_CUST_ROLES).findOneAndDelete(
 					new Document(Fields.ROLES_ID, roleId));
@@ -1042,13 +1967,15 @@ public class MongoStorage implements AuthStorage {
 			}
 			/* note that in the getCustomRoles() method the user's roles are checked against the
 			 * db and removed if they don't exist, which protects against race conditions and
-			 * mongo / server downs.
+			 * mongo / server downs. The role's ID is stored with the job since the job can't
+			 * look it up once the role is deleted.
 			 */
-			db.getCollection(COL_USERS).updateMany(new Document(), new Document("$pull",
-					new Document(Fields.USER_CUSTOM_ROLES, role.getObjectId(Fields.MONGO_ID))));
+			db.getCollection(COL_ADMIN_JOBS).insertOne(toDocument(job)
+					.append(Fields.ADMIN_JOB_ROLE, role.getObjectId(Fields.MONGO_ID)));
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		loadCustomRoles();
 	}
 	
 	@Override
@@ -1085,14 +2012,48 @@ public class MongoStorage implements AuthStorage {
 		return ret;
 	}
 
+	private CustomRoleRegistry loadCustomRoles() throws AuthStorageException {
+		final long sequence = customRoleLoads.incrementAndGet();
+		final CustomRoleRegistry reg = new CustomRoleRegistry(
+				sequence, Instant.now(), getCustomRoles(new Document()));
+		// don't replace a registry that was loaded after this one was started
+		return customRoleRegistry.accumulateAndGet(reg,
+				(r1, r2) -> r1 == null || r2.sequence > r1.sequence ? r2 : r1);
+	}
+	
+	/* Get the custom role registry, reloading it if it's too old or if it's not complete
+	 * according to the supplied function, e.g. because a role was created by another server
+	 * instance. An incomplete registry is not reloaded if it's younger than minReloadMillis.
+	 */
+	private CustomRoleRegistry getCustomRoleRegistry(
+			final Function<CustomRoleRegistry, Boolean> isComplete,
+			final int minReloadMillis)
+			throws AuthStorageException {
+		final CustomRoleRegistry reg = customRoleRegistry.get();
+		final Instant now = Instant.now();
+		if (now.isAfter(reg.loaded.plusMillis(CUSTOM_ROLE_REFRESH_MILLIS)) ||
+				(!isComplete.apply(reg) && now.isAfter(reg.loaded.plusMillis(minReloadMillis)))) {
+			return loadCustomRoles();
+		}
+		return reg;
+	}
+
 	private Set<String> getCustomRoles(final UserName user, final Set<ObjectId> roleIds)
 			throws AuthStorageException {
-		final Set<Document> roledocs = getCustomRoles(new Document(
-				Fields.MONGO_ID, new Document("$in", roleIds)));
-		final Set<ObjectId> extantRoleIds = roledocs.stream()
-				.map(d -> d.getObjectId(Fields.MONGO_ID)).collect(Collectors.toSet());
+		final Instant fetched = Instant.now();
+		final CustomRoleRegistry reg = getCustomRoleRegistry(
+				r -> r.roleIDs.keySet().containsAll(roleIds), CUSTOM_ROLE_MIN_RELOAD_MILLIS);
+		/* a role that isn't in a registry loaded after the user was fetched has been deleted.
+		 * Otherwise the role may have been created by another instance since the registry was
+		 * loaded, so it's left in place and the user is returned without it until the next
+		 * reload.
+		 */
+		final boolean current = !reg.loaded.isBefore(fetched);
+		final Set<String> ret = new HashSet<>();
 		for (final ObjectId role: roleIds) {
-			if (!extantRoleIds.contains(role)) {
+			if (reg.roleIDs.containsKey(role)) {
+				ret.add(reg.roleIDs.get(role));
+			} else if (current) {
 				// should very rarely happen, if at all, so don't worry about optimization
 				final Document query = new Document(Fields.USER_NAME, user.getName());
 				final Document mod = new Document("$pull",
@@ -1106,8 +2067,7 @@ public class MongoStorage implements AuthStorage {
 				}
 			}
 		}
-		return roledocs.stream().map(d -> d.getString(Fields.ROLES_ID))
-				.collect(Collectors.toSet());
+		return ret;
 	}
 
 	@Override
@@ -1135,54 +2095,84 @@ public class MongoStorage implements AuthStorage {
 		if (roles.isEmpty()) {
 			return new HashMap<>();
 		}
-		final Map<String, ObjectId> roleIDs =  getCustomRoles(new Document(
-				Fields.ROLES_ID, new Document("$in", roles))).stream()
-						.collect(Collectors.toMap(
-								d -> d.getString(Fields.ROLES_ID),
-								d -> d.getObjectId(Fields.MONGO_ID)));
-		if (roles.size() != roleIDs.size()) {
-			final Set<String> rolescopy = new HashSet<>(roles);
-			rolescopy.removeAll(roleIDs.keySet());
-			throw new NoSuchRoleException(rolescopy.iterator().next());
+		// a missing role is an error, so always reload to check it wasn't just created
+		final CustomRoleRegistry reg = getCustomRoleRegistry(
+				r -> r.objectIDs.keySet().containsAll(roles), 0);
+		final Map<String, ObjectId> roleIDs = new HashMap<>();
+		for (final String role: roles) {
+			if (!reg.objectIDs.containsKey(role)) {
+				throw new NoSuchRoleException(role);
+			}
+			roleIDs.put(role, reg.objectIDs.get(role));
 		}
 		return roleIDs;
 	}
 
 	@Override
 	public Optional<AuthUser> getUser(final RemoteIdentity remoteID) throws AuthStorageException {
-		final Document query = makeUserQuery(remoteID);
+		nonNull(remoteID, "remoteID");
+		return Optional.fromNullable(getUsers(Collections.singleton(remoteID)).get(remoteID));
+	}
+	
+	@Override
+	public Map<RemoteIdentity, AuthUser> getUsers(final Set<RemoteIdentity> remoteIDs)
+			throws AuthStorageException {
+		nonNull(remoteIDs, "remoteIDs");
+		Utils.noNulls(remoteIDs, "Null remote identity in set");
+		final Map<String, RemoteIdentity> incoming = new HashMap<>();
+		for (final RemoteIdentity ri: remoteIDs) {
+			incoming.put(ri.getRemoteID().getID(), ri);
+		}
+		final Map<RemoteIdentity, AuthUser> ret = new HashMap<>();
+		if (incoming.isEmpty()) {
+			return ret;
+		}
+		final Document query = new Document(
+				Fields.USER_IDENTITIES + Fields.FIELD_SEP + Fields.IDENTITIES_ID,
+				new Document("$in", new LinkedList<>(incoming.keySet())));
 		//note a user with identities should never have these fields, but
 		//doesn't hurt to be safe
 		final Document projection = new Document(Fields.USER_PWD_HSH, 0)
 				.append(Fields.USER_SALT, 0);
-		final Document u = findOne(COL_USERS, query, projection);
-		if (u == null) {
-			return Optional.absent();
-		}
-		AuthUser user = toUser(u);
 		/* could do a findAndModify to set the fields on the first query, but
 		 * 99% of the time a set won't be necessary, so don't write lock the
 		 * DB/collection (depending on mongo version) unless necessary 
 		 */
-		RemoteIdentity update = null;
-		for (final RemoteIdentity ri: user.getIdentities()) {
-			if (ri.getRemoteID().equals(remoteID.getRemoteID()) &&
-					!ri.getDetails().equals(remoteID.getDetails())) {
-				update = ri;
-			}
-		}
-		if (update != null) {
-			final AuthUser.Builder b = AuthUser.getBuilderWithoutIdentities(user);
-			for (final RemoteIdentity ri: user.getIdentities()) {
-				if (!ri.equals(update)) {
-					b.withIdentity(ri);
+		final List<UpdateOneModel<Document>> updates = new LinkedList<>();
+		try {
+			for (final Document u: db.getCollection(COL_USERS).find(query)
+					.projection(projection)) {
+				final AuthUser user = toUser(u);
+				final AuthUser.Builder b = AuthUser.getBuilderWithoutIdentities(user);
+				final Set<RemoteIdentity> linked = new HashSet<>();
+				for (final RemoteIdentity ri: user.getIdentities()) {
+					final RemoteIdentity in = incoming.get(ri.getRemoteID().getID());
+					if (in == null) {
+						b.withIdentity(ri);
+					} else {
+						b.withIdentity(in);
+						linked.add(in);
+						if (!ri.getDetails().equals(in.getDetails())) {
+							updates.add(new UpdateOneModel<>(makeUserQuery(in),
+									makeIdentityUpdate(in)));
+						}
+					}
 				}
+				final AuthUser updated = b.build();
+				for (final RemoteIdentity ri: linked) {
+					ret.put(ri, updated);
+				}
+			}
+			if (!updates.isEmpty()) {
+				// ids might have been unlinked, so we just assume
+				// the updates worked. If one was just unlinked we don't care.
+				db.getCollection(COL_USERS).bulkWrite(
+						updates, new BulkWriteOptions().ordered(false));
 			}
-			b.withIdentity(remoteID);
-			user = b.build();
-			updateIdentity(remoteID);
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
-		return Optional.of(user);
+		return ret;
 	}
 
 	private Document makeUserQuery(final RemoteIdentity remoteID) {
@@ -1190,20 +2180,22 @@ public class MongoStorage implements AuthStorage {
 				remoteID.getRemoteID().getID());
 	}
 	
-	private void updateIdentity(final RemoteIdentity remoteID)
-			throws AuthStorageException {
-		final Document query = makeUserQuery(remoteID);
-		
+	private Document makeIdentityUpdate(final RemoteIdentity remoteID) {
 		final String pre = Fields.USER_IDENTITIES + ".$.";
 		final RemoteIdentityDetails rid = remoteID.getDetails();
-		final Document update = new Document("$set",
+		return new Document("$set",
 				new Document(pre + Fields.IDENTITIES_USER, rid.getUsername())
 				.append(pre + Fields.IDENTITIES_EMAIL, rid.getEmail())
 				.append(pre + Fields.IDENTITIES_NAME, rid.getFullname()));
+	}
+	
+	private void updateIdentity(final RemoteIdentity remoteID)
+			throws AuthStorageException {
 		try {
 			// id might have been unlinked, so we just assume
 			// the update worked. If it was just unlinked we don't care.
-			db.getCollection(COL_USERS).updateOne(query, update);
+			db.getCollection(COL_USERS).updateOne(
+					makeUserQuery(remoteID), makeIdentityUpdate(remoteID));
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
@@ -1224,19 +2216,25 @@ public class MongoStorage implements AuthStorage {
 		
 		public DuplicateKeyExceptionChecker(final MongoWriteException mwe)
 				throws AuthStorageException {
+			this(mwe.getError(), mwe);
+		}
+		
+		// for errors that are part of a bulk write
+		public DuplicateKeyExceptionChecker(final WriteError error, final MongoException cause)
+				throws AuthStorageException {
 			// split up indexes better at some point - e.g. in a Document
-			isDuplicate = isDuplicate(mwe);
+			isDuplicate = isDuplicate(error);
 			if (isDuplicate) {
-				final Matcher indexMatcher = indexPattern.matcher(mwe.getMessage());
+				final Matcher indexMatcher = indexPattern.matcher(error.getMessage());
 				if (indexMatcher.find()) {
 					collection = Optional.of(indexMatcher.group(2));
 					index = Optional.of(indexMatcher.group(4));
 				} else {
 					throw new AuthStorageException("Unable to parse duplicate key error: " +
 							// could include a token hash as the key, so split it out if it's there
-							mwe.getMessage().split("dup key")[0], mwe);
+							error.getMessage().split("dup key")[0], cause);
 				}
-				final Matcher keyMatcher = keyPattern.matcher(mwe.getMessage());
+				final Matcher keyMatcher = keyPattern.matcher(error.getMessage());
 				if (keyMatcher.find()) {
 					key = Optional.of(keyMatcher.group(1));
 				} else { // some errors include the dup key, some don't
@@ -1251,7 +2249,11 @@ public class MongoStorage implements AuthStorage {
 		}
 		
 		public static boolean isDuplicate(final MongoWriteException mwe) {
-			return mwe.getError().getCategory().equals(ErrorCategory.DUPLICATE_KEY);
+			return isDuplicate(mwe.getError());
+		}
+		
+		public static boolean isDuplicate(final WriteError error) {
+			return error.getCategory().equals(ErrorCategory.DUPLICATE_KEY);
 		}
 
 		public boolean isDuplicate() {
@@ -1491,6 +2493,114 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 	
+	@Override
+	public void link(final UserName userName, final Set<RemoteIdentity> remoteIDs)
+			throws NoSuchUserException, AuthStorageException, LinkFailedException,
+			IdentityLinkedException {
+		nonNull(remoteIDs, "remoteIDs");
+		Utils.noNulls(remoteIDs, "Null remote identity in set");
+		final Map<String, RemoteIdentity> ids = new HashMap<>();
+		for (final RemoteIdentity ri: remoteIDs) {
+			if (ids.put(ri.getRemoteID().getID(), ri) != null) {
+				throw new IllegalArgumentException("Duplicate remote identity ID in set: " +
+						ri.getRemoteID().getID());
+			}
+		}
+		int count = 0;
+		boolean complete = false;
+		while (!complete) {
+			count++;
+			if (count > 5) {
+				// there's not really any way to test this without some crazy timing stuff
+				throw new RuntimeException("Attempted link update 5 times without success. " +
+						"There's probably a programming error here.");
+			}
+			complete = addIdentities(getUser(userName), ids);
+		}
+	}
+	
+	// as for link() and addIdentity(), split so that tests can use reflection on this method
+	private boolean addIdentities(
+			final AuthUser user,
+			final Map<String, RemoteIdentity> remoteIDs)
+			throws AuthStorageException, LinkFailedException, IdentityLinkedException {
+		if (user.isLocal()) {
+			throw new LinkFailedException("Cannot link identities to a local user");
+		}
+		final Map<String, RemoteIdentity> add = new HashMap<>(remoteIDs);
+		final List<UpdateOneModel<Document>> updates = new LinkedList<>();
+		for (final RemoteIdentity ri: user.getIdentities()) {
+			final RemoteIdentity in = add.remove(ri.getRemoteID().getID());
+			if (in != null && !ri.getDetails().equals(in.getDetails())) {
+				updates.add(new UpdateOneModel<>(makeUserQuery(in), makeIdentityUpdate(in)));
+			}
+		}
+		try {
+			if (!add.isEmpty()) {
+				/* As for addIdentity(), only update the user if none of the new identity IDs
+				 * have been linked to the user since the user was pulled from the database. If
+				 * any of the identities is linked to another user the unique index fails the
+				 * entire update, so either all the identities are added or none are.
+				 */
+				final Document query = new Document(Fields.USER_NAME, user.getUserName().getName())
+						.append(Fields.USER_IDENTITIES + Fields.FIELD_SEP + Fields.IDENTITIES_ID,
+								new Document("$nin", new LinkedList<>(add.keySet())));
+				final List<Document> docs = new LinkedList<>();
+				for (final RemoteIdentity ri: add.values()) {
+					docs.add(toDocument(ri));
+				}
+				final Document update = new Document("$addToSet", new Document(
+						Fields.USER_IDENTITIES, new Document("$each", docs)));
+				final UpdateResult r = db.getCollection(COL_USERS).updateOne(query, update);
+				if (r.getModifiedCount() != 1) {
+					return false; // retry
+				}
+			}
+			if (!updates.isEmpty()) {
+				// ids might have been unlinked, in which case we don't care
+				db.getCollection(COL_USERS).bulkWrite(
+						updates, new BulkWriteOptions().ordered(false));
+			}
+			return true;
+		} catch (MongoWriteException mwe) {
+			if (DuplicateKeyExceptionChecker.isDuplicate(mwe)) {
+				// another user already is linked to one of the IDs, fail permanently, no retry
+				throw new IdentityLinkedException(getLinkedIdentityID(
+						user.getUserName(), add.keySet()));
+			} else {
+				throw new AuthStorageException("Database write failed", mwe);
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	// find which of the identity IDs caused a duplicate key error when linking
+	private String getLinkedIdentityID(final UserName userName, final Set<String> ids)
+			throws AuthStorageException {
+		final String field = Fields.USER_IDENTITIES + Fields.FIELD_SEP + Fields.IDENTITIES_ID;
+		final Document query = new Document(field, new Document("$in", new LinkedList<>(ids)))
+				.append(Fields.USER_NAME, new Document("$ne", userName.getName()));
+		final Document u;
+		try {
+			u = db.getCollection(COL_USERS).find(query)
+					.projection(new Document(Fields.USER_IDENTITIES, 1)).first();
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		if (u != null) {
+			@SuppressWarnings("unchecked")
+			final List<Document> idents = (List<Document>) u.get(Fields.USER_IDENTITIES);
+			for (final Document id: idents) {
+				if (ids.contains(id.getString(Fields.IDENTITIES_ID))) {
+					return id.getString(Fields.IDENTITIES_ID);
+				}
+			}
+		}
+		// the identity was unlinked again since the update
+		return String.join(", ", new TreeSet<>(ids));
+	}
+	
 	@Override
 	public void unlink(
 			final UserName userName,
@@ -1544,7 +2654,12 @@ public class MongoStorage implements AuthStorage {
 		if (update.getEmail().isPresent()) {
 			d.append(Fields.USER_EMAIL, update.getEmail().get().getAddress());
 		}
-		updateUser(userName, d);
+		try {
+			updateUser(userName, d);
+		} finally {
+			// invalidate after the write so a concurrent lookup can't cache the old name
+			displayNames.invalidate(userName);
+		}
 	}
 
 	// wraps update in a $set
@@ -1573,10 +2688,70 @@ public class MongoStorage implements AuthStorage {
 	}
 	
 	@Override
-	public void setLastLogin(final UserName user, final Instant lastLogin) 
-			throws NoSuchUserException, AuthStorageException {
+	public void setLastLogin(final UserName user, final Instant lastLogin) {
+		nonNull(user, "userName");
 		nonNull(lastLogin, "lastLogin");
-		updateUser(user, new Document(Fields.USER_LAST_LOGIN, Date.from(lastLogin)));
+		lastLogins.merge(user, lastLogin, (i1, i2) -> i1.isAfter(i2) ? i1 : i2);
+	}
+	
+	@Override
+	public void flush() throws AuthStorageException {
+		// updates for users or tokens that don't exist match nothing and are silently dropped
+		flushDates(lastLogins, COL_USERS,
+				e -> new Document(Fields.USER_NAME, e.getKey().getName()),
+				e -> e.getValue(), Fields.USER_LAST_LOGIN);
+		flushDates(tokensLastUsed, COL_TOKEN,
+				e -> new Document(Fields.TOKEN_TOKEN, e.getValue().hash),
+				e -> e.getValue().lastUsed, Fields.TOKEN_LAST_USED);
+	}
+	
+	@Override
+	public void clearCaches() {
+		displayNames.invalidateAll();
+	}
+	
+	@Override
+	public Map<String, CacheStats> getCacheStats() {
+		return ImmutableMap.of("displaynames", displayNames.getStats());
+	}
+	
+	@Override
+	public void ping() throws AuthStorageException {
+		try {
+			db.runCommand(new Document("ping", 1));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	/* Write a buffer of dates to a collection with one unordered bulk write. Entries that are
+	 * updated during the write are left in the buffer for the next flush.
+	 */
+	private <K, V> void flushDates(
+			final Map<K, V> buffer,
+			final String collection,
+			final Function<Entry<K, V>, Document> query,
+			final Function<Entry<K, V>, Instant> date,
+			final String field)
+			throws AuthStorageException {
+		final Map<K, V> dates = new HashMap<>(buffer);
+		if (dates.isEmpty()) {
+			return;
+		}
+		final List<UpdateOneModel<Document>> updates = new LinkedList<>();
+		for (final Entry<K, V> e: dates.entrySet()) {
+			// $max so a delayed flush from another instance can't move the date backwards
+			updates.add(new UpdateOneModel<>(query.apply(e),
+					new Document("$max", new Document(field, Date.from(date.apply(e))))));
+		}
+		try {
+			db.getCollection(collection).bulkWrite(updates, new BulkWriteOptions().ordered(false));
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		for (final Entry<K, V> e: dates.entrySet()) {
+			buffer.remove(e.getKey(), e.getValue());
+		}
 	}
 	
 	@Override
@@ -1620,19 +2795,6 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 
-	@Override
-	public void removePolicyID(final PolicyID policyID) throws AuthStorageException {
-		nonNull(policyID, "policyID");
-		try {
-			db.getCollection(COL_USERS).updateMany(new Document(), new Document("$pull",
-					new Document(Fields.USER_POLICY_IDS, new Document(Fields.POLICY_ID,
-							policyID.getName()))));
-			// don't care if nothing happened, just means no one had the policy
-		} catch (MongoException e) {
-			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
-		}
-	}
-
 	private <T> void updateConfig(
 			final String collection,
 			final String key,
@@ -0,0 +1,677 @@
+package us.kbase.auth2.lib.storage.snapshot;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.TemporaryIdentities;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.UserUpdate;
+import us.kbase.auth2.lib.config.AuthConfigSet;
+import us.kbase.auth2.lib.config.AuthConfigUpdate;
+import us.kbase.auth2.lib.config.ExternalConfig;
+import us.kbase.auth2.lib.config.ExternalConfigMapper;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.storage.exceptions.UnsupportedStorageOperationException;
+import us.kbase.auth2.lib.storage.memory.MemoryStorage;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TemporaryHashedToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+
+/** A read only storage system that validates tokens from a {@link TokenSnapshot} of the tokens
+ * in a primary storage system. Intended for nodes that only answer token validation requests,
+ * such as the token endpoint and the legacy token introspection endpoints, without contacting
+ * the primary storage system for every request.
+ *
+ * The snapshot is written from the primary storage system if the snapshot file does not exist
+ * or cannot be read. Revocations made on any instance of the server are read from the primary
+ * storage system's token revocation feed when {@link #flush()} or {@link #update()} is called.
+ * If the feed no longer contains the events after the snapshot, the snapshot is rewritten from
+ * the primary storage system. Tokens that are not in the snapshot, such as tokens created after
+ * the snapshot was written, are looked up in the primary storage system and held in memory.
+ * Tokens that the primary storage system does not return are remembered for a minute, so
+ * repeated lookups of a bogus, expired, or revoked token do not contact the primary storage
+ * system.
+ *
+ * The revocations in memory and the tokens read from the primary storage system are merged into
+ * a new snapshot, which replaces the snapshot file, when their number reaches a threshold. The
+ * number of tokens held in memory, and the number of missing tokens remembered, never exceed
+ * the threshold.
+ * Tokens returned from this storage system don't have names, creation contexts, or last used
+ * dates.
+ *
+ * The configuration is held in memory and is not shared with the primary storage system. Token
+ * revocation queues and admin jobs are always empty. The token revocation feed is read from
+ * the primary storage system. All other methods throw an
+ * {@link UnsupportedStorageOperationException}.
+ */
+public class SnapshotStorage implements AuthStorage {
+
+	private static final int DEFAULT_COMPACTION_THRESHOLD = 100000;
+	private static final int READ_BATCH_SIZE = 10000;
+	/* a token is created before it is handed to a client, so a missing token can only appear
+	 * in the primary storage system if a client guessed the token before it was created
+	 */
+	private static final long MISSING_TOKEN_EXPIRY_MILLIS = 60000;
+
+	private final Path snapshotFile;
+	private final TokenSnapshotSource primary;
+	private final int compactionThreshold;
+	private final MemoryStorage config = new MemoryStorage();
+	// token hashes that the primary storage system did not return
+	private final Cache<String, Boolean> missing;
+	private volatile State state;
+
+	/* A snapshot and the changes applied since the snapshot was written. Readers use whichever
+	 * state is current, and a compaction replaces the state as a whole. Other than the tokens
+	 * read from the primary storage system, the collections are only modified while holding
+	 * this instance's lock.
+	 */
+	private static class State {
+
+		private final TokenSnapshot snapshot;
+		private final Map<String, StoredToken> created = new ConcurrentHashMap<>();
+		private final Set<UUID> deleted = ConcurrentHashMap.newKeySet();
+		private final Map<UserName, Instant> userRevokedBefore = new ConcurrentHashMap<>();
+		private volatile Instant revokedBefore = Instant.EPOCH;
+		private volatile long sequence;
+		private int changes = 0;
+
+		private State(final TokenSnapshot snapshot) {
+			this.snapshot = snapshot;
+			sequence = snapshot.getSequence();
+		}
+
+		private boolean isValid(final StoredToken t, final Instant now) {
+			if (now.isAfter(t.getExpirationDate()) || deleted.contains(t.getId()) ||
+					!t.getCreationDate().isAfter(revokedBefore)) {
+				return false;
+			}
+			final Instant userRevoked = userRevokedBefore.get(t.getUserName());
+			return userRevoked == null || t.getCreationDate().isAfter(userRevoked);
+		}
+	}
+
+	/** Create the storage system.
+	 * @param snapshot the snapshot file. The file is replaced when changes are merged into the
+	 * snapshot, and so should not be shared with other instances.
+	 * @param primary the primary storage system.
+	 * @throws StorageInitException if the snapshot could not be written or the revocations
+	 * could not be read from the primary storage system.
+	 */
+	public SnapshotStorage(final Path snapshot, final TokenSnapshotSource primary)
+			throws StorageInitException {
+		this(snapshot, primary, DEFAULT_COMPACTION_THRESHOLD);
+	}
+
+	/** Create the storage system.
+	 * @param snapshot the snapshot file. The file is replaced when changes are merged into the
+	 * snapshot, and so should not be shared with other instances.
+	 * @param primary the primary storage system.
+	 * @param compactionThreshold the number of changes held in memory before the changes are
+	 * merged into a new snapshot.
+	 * @throws StorageInitException if the snapshot could not be written or the revocations
+	 * could not be read from the primary storage system.
+	 */
+	public SnapshotStorage(
+			final Path snapshot,
+			final TokenSnapshotSource primary,
+			final int compactionThreshold)
+			throws StorageInitException {
+		nonNull(snapshot, "snapshot");
+		nonNull(primary, "primary");
+		if (compactionThreshold < 1) {
+			throw new IllegalArgumentException("compactionThreshold must be at least 1");
+		}
+		this.snapshotFile = snapshot;
+		this.primary = primary;
+		this.compactionThreshold = compactionThreshold;
+		missing = CacheBuilder.newBuilder().maximumSize(compactionThreshold)
+				.expireAfterWrite(MISSING_TOKEN_EXPIRY_MILLIS, TimeUnit.MILLISECONDS)
+				.recordStats().build();
+		try {
+			state = open();
+			update();
+		} catch (AuthStorageException e) {
+			throw new StorageInitException("Failed to load token snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	private State open() throws AuthStorageException {
+		if (Files.exists(snapshotFile)) {
+			try {
+				final State s = new State(TokenSnapshot.open(snapshotFile));
+				// a snapshot from a different database is ahead of the feed
+				if (s.sequence <= primary.getTokenRevocationSequence()) {
+					return s;
+				}
+			} catch (IOException e) {
+				LoggerFactory.getLogger(getClass()).warn(String.format(
+						"Rewriting unreadable token snapshot %s: %s",
+						snapshotFile, e.getMessage()), e);
+			}
+		}
+		return write();
+	}
+
+	/* Writes a new snapshot from the primary storage system. The feed sequence number is read
+	 * first, so any revocations made while the tokens are exported are applied afterwards.
+	 */
+	private State write() throws AuthStorageException {
+		final long sequence = primary.getTokenRevocationSequence();
+		try {
+			final TokenSnapshotWriter w = new TokenSnapshotWriter(snapshotFile, sequence);
+			try {
+				primary.exportTokens(w);
+			} catch (AuthStorageException | IOException | RuntimeException e) {
+				w.abort();
+				throw e;
+			}
+			w.complete();
+			return new State(TokenSnapshot.open(snapshotFile));
+		} catch (IOException e) {
+			throw new AuthStorageException("Failed to write token snapshot: " +
+					e.getMessage(), e);
+		}
+	}
+
+	/** Get the sequence number of the last token revocation feed event applied to this storage
+	 * system.
+	 * @return the sequence number.
+	 */
+	public long getSequence() {
+		return state.sequence;
+	}
+
+	/** Apply any new events from the primary storage system's token revocation feed, merging
+	 * the changes into a new snapshot if the compaction threshold is reached.
+	 * @return the number of events applied.
+	 * @throws AuthStorageException if the feed could not be read or the snapshot could not be
+	 * written.
+	 */
+	public synchronized int update() throws AuthStorageException {
+		int applied = 0;
+		List<TokenRevocationEvent> events = primary.getTokenRevocationEvents(
+				state.sequence, READ_BATCH_SIZE);
+		while (!events.isEmpty()) {
+			if (events.get(0).getSequence() != state.sequence + 1) {
+				// the feed has been pruned past the snapshot, so revocations may be missing
+				state = write();
+			} else {
+				for (final TokenRevocationEvent e: events) {
+					apply(state, e);
+					applied++;
+				}
+				compactIfNeeded();
+			}
+			events = primary.getTokenRevocationEvents(state.sequence, READ_BATCH_SIZE);
+		}
+		compactIfNeeded();
+		return applied;
+	}
+
+	private void compactIfNeeded() throws AuthStorageException {
+		if (state.changes + state.created.size() >= compactionThreshold) {
+			compact();
+		}
+	}
+
+	private void apply(final State s, final TokenRevocationEvent e) {
+		final TokenRevocation r = e.getRevocation();
+		switch (r.getScope()) {
+			case TOKEN:
+				s.deleted.add(r.getTokenID().get());
+				break;
+			case USER:
+				s.userRevokedBefore.merge(r.getUserName().get(), e.getTime(),
+						(i1, i2) -> i1.isAfter(i2) ? i1 : i2);
+				break;
+			case ALL:
+				if (e.getTime().isAfter(s.revokedBefore)) {
+					s.revokedBefore = e.getTime();
+				}
+				break;
+			default:
+				throw new RuntimeException("Unknown revocation scope: " + r.getScope());
+		}
+		s.sequence = e.getSequence();
+		s.changes++;
+	}
+
+	/** Merge the changes applied since the snapshot was written into a new snapshot, dropping
+	 * expired and revoked tokens, and replace the snapshot file.
+	 * @throws AuthStorageException if the snapshot could not be written.
+	 */
+	public synchronized void compact() throws AuthStorageException {
+		final State old = state;
+		final Instant now = Instant.now();
+		try {
+			final TokenSnapshotWriter w = new TokenSnapshotWriter(snapshotFile, old.sequence);
+			try {
+				old.snapshot.forEach((hash, t) -> addIfValid(w, old, hash, t, now));
+				old.created.forEach((hash, t) -> addIfValid(w, old, hash, t, now));
+			} catch (UncheckedIOException e) {
+				w.abort();
+				throw e.getCause();
+			}
+			w.complete();
+			state = new State(TokenSnapshot.open(snapshotFile));
+		} catch (IOException e) {
+			throw new AuthStorageException("Failed to write token snapshot: " +
+					e.getMessage(), e);
+		}
+	}
+
+	private void addIfValid(
+			final TokenSnapshotWriter w,
+			final State s,
+			final String hash,
+			final StoredToken t,
+			final Instant now) {
+		if (s.isValid(t, now)) {
+			try {
+				w.add(t, hash);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public StoredToken getToken(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException {
+		nonNull(token, "token");
+		final State s = state;
+		StoredToken t = s.created.get(token.getTokenHash());
+		if (t == null) {
+			t = s.snapshot.getToken(token.getTokenHash()).orNull();
+		}
+		if (t == null) {
+			// the token was created after the snapshot was written, or doesn't exist
+			if (missing.getIfPresent(token.getTokenHash()) != null) {
+				throw new NoSuchTokenException("Token not found");
+			}
+			try {
+				t = toSnapshotToken(primary.getToken(token));
+			} catch (NoSuchTokenException e) {
+				missing.put(token.getTokenHash(), true);
+				throw e;
+			}
+			// once the threshold is reached the next update compacts the tokens into the snapshot
+			if (s.created.size() < compactionThreshold) {
+				s.created.put(token.getTokenHash(), t);
+			}
+		}
+		if (!s.isValid(t, Instant.now())) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		return t;
+	}
+
+	// drop the fields that aren't stored in the snapshot so all lookups return the same data
+	private static StoredToken toSnapshotToken(final StoredToken t) {
+		return StoredToken.getBuilder(t.getTokenType(), t.getId(), t.getUserName())
+				.withLifeTime(t.getCreationDate(), t.getExpirationDate())
+				.build();
+	}
+
+	/** Apply any new events from the token revocation feed, as {@link #update()}, and flush
+	 * the primary storage system.
+	 */
+	@Override
+	public void flush() throws AuthStorageException {
+		update();
+		primary.flush();
+	}
+
+	@Override
+	public void clearCaches() {
+		missing.invalidateAll();
+		primary.clearCaches();
+	}
+
+	@Override
+	public Map<String, CacheStats> getCacheStats() {
+		return ImmutableMap.<String, CacheStats>builder().putAll(primary.getCacheStats())
+				.put("missingtokens", missing.stats()).build();
+	}
+
+	@Override
+	public void ping() throws AuthStorageException {
+		primary.ping();
+	}
+
+	@Override
+	public Set<UserName> getTokenRevocations() throws AuthStorageException {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public List<TokenRevocationEvent> getTokenRevocationEvents(
+			final long afterSequence,
+			final int limit)
+			throws AuthStorageException {
+		return primary.getTokenRevocationEvents(afterSequence, limit);
+	}
+
+	@Override
+	public long getTokenRevocationSequence() throws AuthStorageException {
+		return primary.getTokenRevocationSequence();
+	}
+
+	@Override
+	public void deleteTokenRevocationEvents(final Instant before) throws AuthStorageException {
+		// the feed is pruned by the servers that use the primary storage system directly
+	}
+
+	@Override
+	public List<AdminJob> getAdminJobs(final boolean incompleteOnly)
+			throws AuthStorageException {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public <T extends ExternalConfig> void updateConfig(
+			final AuthConfigUpdate<T> authConfigUpdate,
+			final boolean overwrite)
+			throws AuthStorageException {
+		config.updateConfig(authConfigUpdate, overwrite);
+	}
+
+	@Override
+	public <T extends ExternalConfig> AuthConfigSet<T> getConfig(
+			final ExternalConfigMapper<T> mapper)
+			throws AuthStorageException, ExternalConfigMappingException {
+		return config.getConfig(mapper);
+	}
+
+	private AuthStorageException unsupported() {
+		return new UnsupportedStorageOperationException(
+				"The token snapshot storage system only supports token lookups");
+	}
+
+	@Override
+	public void createLocalUser(final LocalUser local, final PasswordHashAndSalt creds)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public PasswordHashAndSalt getPasswordHashAndSalt(final UserName userName)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void changePassword(
+			final UserName name,
+			final PasswordHashAndSalt creds,
+			final boolean forceReset)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void forcePasswordReset(final UserName name) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void createUser(final NewUser newUser) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Map<UserName, CreateUserResult> createUsers(final Collection<NewUser> newUsers)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void disableAccount(final UserName user, final UserName admin, final String reason)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void enableAccount(final UserName user, final UserName admin)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public AuthUser getUser(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Optional<AuthUser> getUser(final RemoteIdentity remoteID)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Map<RemoteIdentity, AuthUser> getUsers(final Set<RemoteIdentity> remoteIDs)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Map<UserName, DisplayName> getUserDisplayNames(final Set<UserName> usernames)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Map<UserName, DisplayName> getUserDisplayNames(
+			final UserSearchSpec spec,
+			final int maxReturnedUsers)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public LocalUser getLocalUser(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void updateUser(final UserName userName, final UserUpdate update)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void setLastLogin(final UserName userName, final Instant lastLogin)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void addPolicyIDs(final UserName userName, final Set<PolicyID> policyIDs)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void storeToken(final StoredToken token, final String hash)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Set<StoredToken> getTokens(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public TokenPage getTokens(final UserName userName, final TokenListSpec spec)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public String getTokenHash(final UserName userName, final UUID tokenId)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void deleteToken(final UserName userName, final UUID tokenId)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void deleteTokens(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void addTokenRevocation(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void removeTokenRevocation(final UserName userName) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public TokenRevocationEvent addTokenRevocationEvent(final TokenRevocation revocation)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void storeAdminJob(final AdminJob job) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public AdminJob processAdminJobBatch(final AdminJob job, final int batchSize)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void updateRoles(
+			final UserName userName,
+			final Set<Role> addRoles,
+			final Set<Role> removeRoles)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void setCustomRole(final CustomRole role) throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void deleteCustomRole(final String roleId, final AdminJob job)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public Set<CustomRole> getCustomRoles() throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void updateCustomRoles(
+			final UserName userName,
+			final Set<String> addRoles,
+			final Set<String> removeRoles)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void storeErrorTemporarily(
+			final TemporaryHashedToken token,
+			final String error,
+			final ErrorType errorType)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void storeIdentitiesTemporarily(
+			final TemporaryHashedToken token,
+			final Set<RemoteIdentity> ids)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public TemporaryIdentities getTemporaryIdentities(final IncomingHashedToken token)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void deleteTemporaryIdentities(final IncomingHashedToken token)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void link(final UserName userName, final RemoteIdentity remoteID)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void link(final UserName userName, final Set<RemoteIdentity> remoteIDs)
+			throws AuthStorageException {
+		throw unsupported();
+	}
+
+	@Override
+	public void unlink(final UserName userName, final String id) throws AuthStorageException {
+		throw unsupported();
+	}
+}
@@ -0,0 +1,271 @@
+package us.kbase.auth2.lib.storage.snapshot;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+
+/** A read only, memory mapped snapshot of the valid tokens in a storage system at a point in
+ * time. Snapshots are written by {@link TokenSnapshotWriter}.
+ *
+ * The snapshot is an open addressed hash table keyed by the SHA-256 hash of the token, so a
+ * lookup reads one or two fixed size slots from the mapped file. The table lives outside the
+ * Java heap and pages are loaded by the operating system as needed, so heap usage does not grow
+ * with the number of tokens.
+ *
+ * A snapshot only contains the data needed to validate a token - the token type, ID, user,
+ * and creation and expiration dates. Token names, creation contexts and last use dates are not
+ * included.
+ *
+ * This class is thread safe.
+ */
+public class TokenSnapshot {
+
+	/* File layout:
+	 * header (HEADER_SIZE bytes):
+	 *   int magic, int version, long sequence, int capacity, int size, long strings offset
+	 * capacity slots (SLOT_SIZE bytes each, an empty slot has a type byte of 0):
+	 *   32 bytes SHA-256 hash, byte type index + 1, 3 bytes padding, int user index,
+	 *   long token ID msb, long token ID lsb, long created epoch ms, long expires epoch ms
+	 * strings:
+	 *   type table, then user table. Each table is an int count, an int offset from the start
+	 *   of the table per string, then the strings as a short length and UTF-8 bytes.
+	 */
+	static final int MAGIC = 0x4b415453;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int HASH_SIZE = 32;
+	static final int SLOT_SIZE = 72;
+	static final int SLOT_TYPE = 32;
+	static final int SLOT_USER = 36;
+	static final int SLOT_ID_MSB = 40;
+	static final int SLOT_ID_LSB = 48;
+	static final int SLOT_CREATED = 56;
+	static final int SLOT_EXPIRES = 64;
+	// slots are mapped in segments since a single mapping is limited to 2GB
+	static final int SEGMENT_SLOTS_BITS = 20;
+	static final int SEGMENT_SLOTS = 1 << SEGMENT_SLOTS_BITS;
+
+	private final Path file;
+	private final long sequence;
+	private final int capacity;
+	private final int size;
+	private final MappedByteBuffer[] segments;
+	private final TokenType[] types;
+	private final MappedByteBuffer users;
+
+	private TokenSnapshot(final Path file) throws IOException {
+		this.file = file;
+		try (final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long fileSize = fc.size();
+			if (fileSize < HEADER_SIZE) {
+				throw notASnapshot();
+			}
+			final MappedByteBuffer header = fc.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC) {
+				throw notASnapshot();
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException(String.format(
+						"Unsupported token snapshot version %s in %s", header.getInt(4), file));
+			}
+			sequence = header.getLong(8);
+			capacity = header.getInt(16);
+			size = header.getInt(20);
+			final long stringsOffset = header.getLong(24);
+			if (Integer.bitCount(capacity) != 1 ||
+					stringsOffset != HEADER_SIZE + (long) capacity * SLOT_SIZE ||
+					stringsOffset > fileSize) {
+				throw new IOException("Corrupt token snapshot file: " + file);
+			}
+			segments = new MappedByteBuffer[(capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS];
+			for (int i = 0; i < segments.length; i++) {
+				final int slots = Math.min(SEGMENT_SLOTS, capacity - i * SEGMENT_SLOTS);
+				segments[i] = fc.map(MapMode.READ_ONLY,
+						HEADER_SIZE + (long) i * SEGMENT_SLOTS * SLOT_SIZE,
+						(long) slots * SLOT_SIZE);
+			}
+			final MappedByteBuffer typeTable = fc.map(
+					MapMode.READ_ONLY, stringsOffset, fileSize - stringsOffset);
+			types = new TokenType[typeTable.getInt(0)];
+			for (int i = 0; i < types.length; i++) {
+				types[i] = TokenType.getType(getString(typeTable, i));
+			}
+			final long usersOffset = stringsOffset + getTableSize(typeTable);
+			users = fc.map(MapMode.READ_ONLY, usersOffset, fileSize - usersOffset);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Corrupt token snapshot file: " + file, e);
+		}
+	}
+
+	private IOException notASnapshot() {
+		return new IOException("Not a token snapshot file: " + file);
+	}
+
+	/** Open a snapshot file.
+	 * @param file the snapshot file.
+	 * @return the snapshot.
+	 * @throws IOException if the file could not be read or is not a valid snapshot.
+	 */
+	public static TokenSnapshot open(final Path file) throws IOException {
+		nonNull(file, "file");
+		return new TokenSnapshot(file);
+	}
+
+	/** Get the path to the snapshot file.
+	 * @return the file.
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/** Get the sequence number of the last token revocation feed event included in the
+	 * snapshot.
+	 * @return the sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** Get the number of tokens in the snapshot.
+	 * @return the number of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/** Get a token from the snapshot. The token is returned whether or not it has expired.
+	 * @param hash the hash of the token, as provided to
+	 * {@link us.kbase.auth2.lib.storage.AuthStorage#storeToken(StoredToken, String)}.
+	 * @return the token, or absent if the snapshot does not contain the token.
+	 */
+	public Optional<StoredToken> getToken(final String hash) {
+		final long[] key = toKey(hash);
+		final int mask = capacity - 1;
+		// capacity is always larger than size, so there's always an empty slot to stop on
+		for (int slot = (int) key[0] & mask; ; slot = (slot + 1) & mask) {
+			final ByteBuffer seg = segments[slot >>> SEGMENT_SLOTS_BITS];
+			final int pos = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			if (seg.get(pos + SLOT_TYPE) == 0) {
+				return Optional.absent();
+			}
+			if (matches(seg, pos, key)) {
+				return Optional.of(toToken(seg, pos));
+			}
+		}
+	}
+
+	/** Call a function for every token in the snapshot, in no particular order.
+	 * @param consumer the function to call with the hash of each token and the token.
+	 */
+	public void forEach(final BiConsumer<String, StoredToken> consumer) {
+		nonNull(consumer, "consumer");
+		final Base64.Encoder enc = Base64.getEncoder();
+		final byte[] hash = new byte[HASH_SIZE];
+		for (int slot = 0; slot < capacity; slot++) {
+			final ByteBuffer seg = segments[slot >>> SEGMENT_SLOTS_BITS];
+			final int pos = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			if (seg.get(pos + SLOT_TYPE) != 0) {
+				for (int i = 0; i < HASH_SIZE; i++) {
+					hash[i] = seg.get(pos + i);
+				}
+				consumer.accept(enc.encodeToString(hash), toToken(seg, pos));
+			}
+		}
+	}
+
+	/* Only absolute get methods are used on the shared buffers, since they don't change the
+	 * buffer position and so are safe to call from multiple threads.
+	 */
+	private boolean matches(final ByteBuffer seg, final int pos, final long[] key) {
+		for (int i = 0; i < key.length; i++) {
+			if (seg.getLong(pos + i * 8) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private StoredToken toToken(final ByteBuffer seg, final int pos) {
+		final TokenType type = types[seg.get(pos + SLOT_TYPE) - 1];
+		final UserName user = getUserName(getString(users, seg.getInt(pos + SLOT_USER)));
+		return StoredToken.getBuilder(type,
+					new UUID(seg.getLong(pos + SLOT_ID_MSB), seg.getLong(pos + SLOT_ID_LSB)),
+					user)
+				.withLifeTime(Instant.ofEpochMilli(seg.getLong(pos + SLOT_CREATED)),
+						Instant.ofEpochMilli(seg.getLong(pos + SLOT_EXPIRES)))
+				.build();
+	}
+
+	private UserName getUserName(final String name) {
+		try {
+			return new UserName(name);
+		} catch (MissingParameterException | IllegalParameterException e) {
+			throw new IllegalStateException(String.format(
+					"Illegal user name %s stored in token snapshot %s", name, file), e);
+		}
+	}
+
+	/** Convert a token hash to the key used to look up the token in a snapshot.
+	 * @param hash the token hash.
+	 * @return the key.
+	 */
+	static long[] toKey(final String hash) {
+		checkStringNoCheckedException(hash, "hash");
+		final byte[] b;
+		try {
+			b = Base64.getDecoder().decode(hash);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("hash is not a base 64 encoded SHA-256 hash", e);
+		}
+		if (b.length != HASH_SIZE) {
+			throw new IllegalArgumentException("hash is not a base 64 encoded SHA-256 hash");
+		}
+		final ByteBuffer bb = ByteBuffer.wrap(b);
+		final long[] key = new long[HASH_SIZE / 8];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = bb.getLong();
+		}
+		return key;
+	}
+
+	private static String getString(final ByteBuffer table, final int index) {
+		if (index < 0 || index >= table.getInt(0)) {
+			throw new IndexOutOfBoundsException("No string at index " + index);
+		}
+		final int pos = table.getInt(4 + index * 4);
+		final byte[] b = new byte[table.getShort(pos)];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = table.get(pos + 2 + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static int getTableSize(final ByteBuffer table) {
+		final int count = table.getInt(0);
+		if (count == 0) {
+			return 4;
+		}
+		final int last = table.getInt(4 + (count - 1) * 4);
+		return last + 2 + table.getShort(last);
+	}
+}
@@ -0,0 +1,21 @@
+package us.kbase.auth2.lib.storage.snapshot;
+
+import java.io.IOException;
+
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** A storage system that can write its tokens to a token snapshot, and so can act as the primary
+ * storage system for a {@link SnapshotStorage}.
+ */
+public interface TokenSnapshotSource extends AuthStorage {
+
+	/** Add all the unexpired tokens that have not been revoked to a token snapshot. Tokens
+	 * created before all tokens were revoked are not added, even if they have not yet been
+	 * deleted.
+	 * @param writer the snapshot writer.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 * @throws IOException if the tokens could not be written to the snapshot.
+	 */
+	void exportTokens(TokenSnapshotWriter writer) throws AuthStorageException, IOException;
+}
@@ -0,0 +1,252 @@
+package us.kbase.auth2.lib.storage.snapshot;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.HASH_SIZE;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.HEADER_SIZE;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.SEGMENT_SLOTS;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.SEGMENT_SLOTS_BITS;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.SLOT_SIZE;
+import static us.kbase.auth2.lib.storage.snapshot.TokenSnapshot.SLOT_TYPE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+
+/** Writes a {@link TokenSnapshot} file.
+ *
+ * Tokens are streamed to a temporary file as they are added, and the hash table is built from
+ * the temporary file when the snapshot is completed, so memory use does not depend on the
+ * number of tokens. The snapshot file is replaced atomically, so readers never see a partially
+ * written snapshot.
+ *
+ * This class is not thread safe.
+ */
+public class TokenSnapshotWriter {
+
+	// keeps the table at most 3/4 full with a maximum capacity of 2^30 slots
+	private static final long MAX_TOKENS = 3L << 28;
+	private static final int MIN_CAPACITY = 16;
+
+	private final Path file;
+	private final Path records;
+	private final long sequence;
+	private final DataOutputStream out;
+	private final Map<UserName, Integer> userIndex = new HashMap<>();
+	private final List<String> users = new ArrayList<>();
+	private long count = 0;
+	private boolean done = false;
+
+	/** Start writing a snapshot.
+	 * @param file the snapshot file. Any existing file is replaced when the snapshot is
+	 * completed.
+	 * @param sequence the sequence number of the last token revocation feed event included in
+	 * the snapshot. Use 0 if the snapshot is not associated with a token revocation feed.
+	 * @throws IOException if the temporary file could not be created.
+	 */
+	public TokenSnapshotWriter(final Path file, final long sequence) throws IOException {
+		nonNull(file, "file");
+		if (sequence < 0) {
+			throw new IllegalArgumentException("sequence must be at least 0");
+		}
+		this.file = file;
+		this.sequence = sequence;
+		records = file.resolveSibling(file.getFileName() + ".records");
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(records)));
+	}
+
+	/** Add a token to the snapshot. If a token with the same hash has already been added, the
+	 * token replaces it.
+	 * @param token the token.
+	 * @param hash the hash of the token.
+	 * @throws IOException if the token could not be written to the temporary file.
+	 */
+	public void add(final StoredToken token, final String hash) throws IOException {
+		nonNull(token, "token");
+		final long[] key = TokenSnapshot.toKey(hash);
+		checkOpen();
+		if (count >= MAX_TOKENS) {
+			throw new IllegalStateException("A snapshot can contain at most " + MAX_TOKENS +
+					" tokens");
+		}
+		Integer user = userIndex.get(token.getUserName());
+		if (user == null) {
+			user = users.size();
+			users.add(token.getUserName().getName());
+			userIndex.put(token.getUserName(), user);
+		}
+		// the same layout as a slot in the snapshot file
+		for (final long k: key) {
+			out.writeLong(k);
+		}
+		out.writeByte(token.getTokenType().ordinal() + 1);
+		out.write(new byte[3]);
+		out.writeInt(user);
+		out.writeLong(token.getId().getMostSignificantBits());
+		out.writeLong(token.getId().getLeastSignificantBits());
+		out.writeLong(token.getCreationDate().toEpochMilli());
+		out.writeLong(token.getExpirationDate().toEpochMilli());
+		count++;
+	}
+
+	private void checkOpen() {
+		if (done) {
+			throw new IllegalStateException("The snapshot has already been completed or aborted");
+		}
+	}
+
+	/** Build the snapshot and replace the snapshot file.
+	 * @return the number of distinct tokens in the snapshot.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	public int complete() throws IOException {
+		checkOpen();
+		done = true;
+		out.close();
+		try {
+			final int capacity = getCapacity(count);
+			final long stringsOffset = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+			final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			final int size;
+			try (final FileChannel fc = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+					final DataInputStream in = new DataInputStream(
+							new BufferedInputStream(Files.newInputStream(records)))) {
+				final MappedByteBuffer[] segments =
+						new MappedByteBuffer[(capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS];
+				for (int i = 0; i < segments.length; i++) {
+					final int slots = Math.min(SEGMENT_SLOTS, capacity - i * SEGMENT_SLOTS);
+					// the new file is zero filled, so all the slots start empty
+					segments[i] = fc.map(MapMode.READ_WRITE,
+							HEADER_SIZE + (long) i * SEGMENT_SLOTS * SLOT_SIZE,
+							(long) slots * SLOT_SIZE);
+				}
+				final byte[] rec = new byte[SLOT_SIZE];
+				int inserted = 0;
+				for (long i = 0; i < count; i++) {
+					in.readFully(rec);
+					if (insert(segments, capacity, rec)) {
+						inserted++;
+					}
+				}
+				size = inserted;
+				final List<String> types = new ArrayList<>();
+				for (final TokenType tt: TokenType.values()) {
+					types.add(tt.getID());
+				}
+				final byte[] typeTable = toTable(types);
+				write(fc, ByteBuffer.wrap(typeTable), stringsOffset);
+				write(fc, ByteBuffer.wrap(toTable(users)), stringsOffset + typeTable.length);
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(TokenSnapshot.MAGIC).putInt(TokenSnapshot.VERSION)
+						.putLong(sequence).putInt(capacity).putInt(size).putLong(stringsOffset);
+				header.rewind();
+				for (final MappedByteBuffer seg: segments) {
+					seg.force();
+				}
+				write(fc, header, 0);
+				fc.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return size;
+		} finally {
+			Files.deleteIfExists(records);
+		}
+	}
+
+	/** Abandon the snapshot. The snapshot file is not changed.
+	 * @throws IOException if the temporary file could not be deleted.
+	 */
+	public void abort() throws IOException {
+		if (!done) {
+			done = true;
+			out.close();
+			Files.deleteIfExists(records);
+		}
+	}
+
+	private static int getCapacity(final long tokens) {
+		int capacity = MIN_CAPACITY;
+		while (tokens * 4 > capacity * 3L) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	// returns false if the record replaced a record with the same hash
+	private static boolean insert(
+			final MappedByteBuffer[] segments,
+			final int capacity,
+			final byte[] rec) {
+		final ByteBuffer r = ByteBuffer.wrap(rec);
+		final int mask = capacity - 1;
+		for (int slot = (int) r.getLong(0) & mask; ; slot = (slot + 1) & mask) {
+			final ByteBuffer seg = segments[slot >>> SEGMENT_SLOTS_BITS];
+			final int pos = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			final boolean empty = seg.get(pos + SLOT_TYPE) == 0;
+			if (empty || sameHash(seg, pos, rec)) {
+				for (int i = 0; i < SLOT_SIZE; i++) {
+					seg.put(pos + i, rec[i]);
+				}
+				return empty;
+			}
+		}
+	}
+
+	private static boolean sameHash(final ByteBuffer seg, final int pos, final byte[] rec) {
+		for (int i = 0; i < HASH_SIZE; i++) {
+			if (seg.get(pos + i) != rec[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] toTable(final List<String> strings) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream d = new DataOutputStream(bytes);
+		d.writeInt(strings.size());
+		int offset = 4 + strings.size() * 4;
+		final List<byte[]> encoded = new ArrayList<>();
+		for (final String s: strings) {
+			final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			encoded.add(b);
+			d.writeInt(offset);
+			offset += 2 + b.length;
+		}
+		for (final byte[] b: encoded) {
+			d.writeShort(b.length);
+			d.write(b);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void write(final FileChannel fc, final ByteBuffer buf, final long position)
+			throws IOException {
+		long pos = position;
+		while (buf.hasRemaining()) {
+			pos += fc.write(buf, pos);
+		}
+	}
+}
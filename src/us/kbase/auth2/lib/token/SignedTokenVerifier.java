@@ -0,0 +1,202 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+
+/** Verifies signed tokens created by a {@link TokenSigner} without contacting the
+ * authentication service.
+ *
+ * Signed tokens cannot be revoked before they expire, so a revoked token remains valid offline
+ * for at most the lifetime of the signed token.
+ *
+ * This class is thread safe.
+ */
+public class SignedTokenVerifier {
+
+	private static final TypeReference<Map<String, Object>> MAP_TYPE =
+			new TypeReference<Map<String, Object>>() {};
+
+	private final RSAPublicKey publicKey;
+	private final String keyID;
+	private final Clock clock;
+
+	/** Create a verifier.
+	 * @param publicKey the public key of the signer.
+	 */
+	public SignedTokenVerifier(final RSAPublicKey publicKey) {
+		this(publicKey, Clock.systemDefaultZone());
+	}
+
+	// for tests
+	private SignedTokenVerifier(final RSAPublicKey publicKey, final Clock clock) {
+		nonNull(publicKey, "publicKey");
+		this.publicKey = publicKey;
+		this.keyID = TokenSigner.getKeyID(publicKey);
+		this.clock = clock;
+	}
+
+	/** Create a verifier from a JSON Web Key as returned from the authentication service's
+	 * public key endpoint.
+	 * @param jwk the key.
+	 * @return the verifier.
+	 * @throws InvalidKeySpecException if the key is not an RSA signing key.
+	 */
+	public static SignedTokenVerifier fromJWK(final Map<String, ?> jwk)
+			throws InvalidKeySpecException {
+		nonNull(jwk, "jwk");
+		if (!"RSA".equals(jwk.get("kty"))) {
+			throw new InvalidKeySpecException("Not an RSA key");
+		}
+		if (jwk.get("alg") != null && !TokenSigner.ALGORITHM.equals(jwk.get("alg"))) {
+			throw new InvalidKeySpecException("Unsupported algorithm: " + jwk.get("alg"));
+		}
+		final BigInteger modulus = decodeInt(jwk.get("n"));
+		final BigInteger exponent = decodeInt(jwk.get("e"));
+		final RSAPublicKey key;
+		try {
+			key = (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(
+					new RSAPublicKeySpec(modulus, exponent));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("This should be impossible", e);
+		}
+		return new SignedTokenVerifier(key);
+	}
+
+	private static BigInteger decodeInt(final Object value) throws InvalidKeySpecException {
+		if (!(value instanceof String)) {
+			throw new InvalidKeySpecException("Missing or invalid key parameter");
+		}
+		try {
+			return new BigInteger(1, Base64.getUrlDecoder().decode((String) value));
+		} catch (IllegalArgumentException e) {
+			throw new InvalidKeySpecException("Invalid key parameter encoding", e);
+		}
+	}
+
+	/** Get the ID of the public key used by this verifier.
+	 * @return the key ID.
+	 */
+	public String getKeyID() {
+		return keyID;
+	}
+
+	/** Verify a signed token.
+	 *
+	 * The returned token's creation and expiration dates are those of the signed token, not
+	 * the token the signed token was issued for, and its creation context contains only the
+	 * custom context.
+	 * @param signedToken the signed token.
+	 * @return the token.
+	 * @throws InvalidTokenException if the token is not a signed token, was not signed by the
+	 * key associated with this verifier, has been altered, or has expired.
+	 */
+	public StoredToken verify(final String signedToken) throws InvalidTokenException {
+		if (signedToken == null) {
+			throw new InvalidTokenException();
+		}
+		final String[] parts = signedToken.split("\\.", -1);
+		if (parts.length != 3) {
+			throw new InvalidTokenException("Not a signed token");
+		}
+		final Map<String, Object> header = decodeJSON(parts[0]);
+		if (!TokenSigner.ALGORITHM.equals(header.get(TokenSigner.HEADER_ALGORITHM))) {
+			throw new InvalidTokenException("Unsupported signature algorithm");
+		}
+		if (!keyID.equals(header.get(TokenSigner.HEADER_KEY_ID))) {
+			throw new InvalidTokenException("Token was not signed with a known key");
+		}
+		try {
+			final Signature sig = Signature.getInstance(TokenSigner.JAVA_ALGORITHM);
+			sig.initVerify(publicKey);
+			sig.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+			if (!sig.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+				throw new InvalidTokenException("Invalid token signature");
+			}
+		} catch (GeneralSecurityException | IllegalArgumentException e) {
+			throw new InvalidTokenException("Invalid token signature");
+		}
+		final Map<String, Object> claims = decodeJSON(parts[1]);
+		final Instant issued = Instant.ofEpochSecond(getLong(claims, TokenSigner.CLAIM_ISSUED));
+		final Instant expires = Instant.ofEpochSecond(
+				getLong(claims, TokenSigner.CLAIM_EXPIRES));
+		if (!expires.isAfter(clock.instant())) {
+			throw new InvalidTokenException("Token is expired");
+		}
+		try {
+			final TokenCreationContext.Builder ctx = TokenCreationContext.getBuilder();
+			final Object custom = claims.get(TokenSigner.CLAIM_CONTEXT);
+			if (custom != null) {
+				if (!(custom instanceof Map)) {
+					throw new IllegalArgumentException("Invalid custom context");
+				}
+				for (final Entry<?, ?> e: ((Map<?, ?>) custom).entrySet()) {
+					ctx.withCustomContext((String) e.getKey(), (String) e.getValue());
+				}
+			}
+			final Object name = claims.get(TokenSigner.CLAIM_NAME);
+			return StoredToken.getBuilder(
+					TokenType.getType(getString(claims, TokenSigner.CLAIM_TYPE)),
+					UUID.fromString(getString(claims, TokenSigner.CLAIM_ID)),
+					new UserName(getString(claims, TokenSigner.CLAIM_SUBJECT)))
+					.withLifeTime(issued, expires)
+					.withNullableTokenName(name == null ? null :
+							new TokenName(getString(claims, TokenSigner.CLAIM_NAME)))
+					.withContext(ctx.build())
+					.build();
+		} catch (MissingParameterException | IllegalParameterException |
+				IllegalArgumentException | ClassCastException e) {
+			throw new InvalidTokenException("Invalid token claims");
+		}
+	}
+
+	private static Map<String, Object> decodeJSON(final String part)
+			throws InvalidTokenException {
+		try {
+			return TokenSigner.MAPPER.readValue(Base64.getUrlDecoder().decode(part), MAP_TYPE);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new InvalidTokenException("Not a signed token");
+		}
+	}
+
+	private static String getString(final Map<String, Object> claims, final String claim)
+			throws InvalidTokenException {
+		final Object value = claims.get(claim);
+		if (!(value instanceof String)) {
+			throw new InvalidTokenException("Invalid token claims");
+		}
+		return (String) value;
+	}
+
+	private static long getLong(final Map<String, Object> claims, final String claim)
+			throws InvalidTokenException {
+		final Object value = claims.get(claim);
+		if (!(value instanceof Number)) {
+			throw new InvalidTokenException("Invalid token claims");
+		}
+		return ((Number) value).longValue();
+	}
+}
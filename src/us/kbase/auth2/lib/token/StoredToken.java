@@ -24,6 +24,7 @@ public class StoredToken {
 	private final UserName userName;
 	private final Instant creationDate;
 	private final Instant expirationDate;
+	private final Optional<Instant> lastUsed;
 	
 	private StoredToken(
 			final UUID id,
@@ -32,7 +33,8 @@ public class StoredToken {
 			final UserName userName,
 			final TokenCreationContext context,
 			final Instant creationDate,
-			final Instant expirationDate) {
+			final Instant expirationDate,
+			final Optional<Instant> lastUsed) {
 		// this stuff is here just in case naughty users use casting to skip a builder step
 		nonNull(creationDate, "created");
 		// no way to test this one
@@ -43,6 +45,7 @@ public class StoredToken {
 		this.userName = userName;
 		this.expirationDate = expirationDate;
 		this.creationDate = creationDate;
+		this.lastUsed = lastUsed;
 		this.id = id;
 	}
 
@@ -95,6 +98,14 @@ public class StoredToken {
 		return expirationDate;
 	}
 	
+	/** Get the date the token was last used, if known. The date is accurate to the minute.
+	 * @return the date the token was last used, or absent if the token has not been used since
+	 * usage tracking was introduced.
+	 */
+	public Optional<Instant> getLastUsed() {
+		return lastUsed;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -103,6 +114,7 @@ public class StoredToken {
 		result = prime * result + ((creationDate == null) ? 0 : creationDate.hashCode());
 		result = prime * result + ((expirationDate == null) ? 0 : expirationDate.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((lastUsed == null) ? 0 : lastUsed.hashCode());
 		result = prime * result + ((tokenName == null) ? 0 : tokenName.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
 		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
@@ -149,6 +161,13 @@ public class StoredToken {
 		} else if (!id.equals(other.id)) {
 			return false;
 		}
+		if (lastUsed == null) {
+			if (other.lastUsed != null) {
+				return false;
+			}
+		} else if (!lastUsed.equals(other.lastUsed)) {
+			return false;
+		}
 		if (tokenName == null) {
 			if (other.tokenName != null) {
 				return false;
@@ -225,6 +244,12 @@ public class StoredToken {
 		 */
 		OptionalsStep withContext(TokenCreationContext context);
 		
+		/** Specify the date the token was last used.
+		 * @param lastUsed the date the token was last used.
+		 * @return this builder.
+		 */
+		OptionalsStep withLastUsed(Instant lastUsed);
+		
 		/** Build the token.
 		 * @return a new StoredToken.
 		 */
@@ -240,6 +265,7 @@ public class StoredToken {
 		private final UserName userName;
 		private Instant creationDate;
 		private Instant expirationDate;
+		private Optional<Instant> lastUsed = Optional.absent();
 	
 		private Builder(final TokenType type, final UUID id, final UserName userName) {
 			nonNull(type, "type");
@@ -270,10 +296,17 @@ public class StoredToken {
 			return this;
 		}
 
+		@Override
+		public OptionalsStep withLastUsed(final Instant lastUsed) {
+			nonNull(lastUsed, "lastUsed");
+			this.lastUsed = Optional.of(lastUsed);
+			return this;
+		}
+
 		@Override
 		public StoredToken build() {
 			return new StoredToken(id, type, tokenName, userName, context,
-					creationDate, expirationDate);
+					creationDate, expirationDate, lastUsed);
 		}
 
 		@Override
@@ -0,0 +1,218 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.base.Optional;
+
+/** A specification for listing a page of a user's tokens.
+ *
+ * Tokens are listed in order of expiration date, soonest first, and then in order of the
+ * string form of the token ID. The next page is requested by starting after the expiration
+ * date and ID of the last token in the current page. By default all the tokens are listed in one
+ * page.
+ */
+public class TokenListSpec {
+
+	/** The largest allowed maximum number of tokens in a page. */
+	public static final int MAX_LIMIT = 1000;
+
+	private final Set<TokenType> tokenTypes;
+	private final Optional<Integer> limit;
+	private final Optional<Instant> afterExpiration;
+	private final Optional<UUID> afterID;
+	private final Optional<UUID> excludedID;
+
+	private TokenListSpec(
+			final Set<TokenType> tokenTypes,
+			final Optional<Integer> limit,
+			final Optional<Instant> afterExpiration,
+			final Optional<UUID> afterID,
+			final Optional<UUID> excludedID) {
+		this.tokenTypes = Collections.unmodifiableSet(tokenTypes);
+		this.limit = limit;
+		this.afterExpiration = afterExpiration;
+		this.afterID = afterID;
+		this.excludedID = excludedID;
+	}
+
+	/** Get the types of the tokens to list. If empty, tokens of all types are listed.
+	 * @return the token types.
+	 */
+	public Set<TokenType> getTokenTypes() {
+		return tokenTypes;
+	}
+
+	/** Get the maximum number of tokens to list, if any.
+	 * @return the limit, or absent to list all the tokens.
+	 */
+	public Optional<Integer> getLimit() {
+		return limit;
+	}
+
+	/** Get the expiration date of the token after which listing starts, if any.
+	 * Present if and only if {@link #getAfterID()} is present.
+	 * @return the expiration date.
+	 */
+	public Optional<Instant> getAfterExpiration() {
+		return afterExpiration;
+	}
+
+	/** Get the ID of the token after which listing starts, if any.
+	 * Present if and only if {@link #getAfterExpiration()} is present.
+	 * @return the token ID.
+	 */
+	public Optional<UUID> getAfterID() {
+		return afterID;
+	}
+
+	/** Get the ID of a token to leave out of the list, if any.
+	 * @return the token ID.
+	 */
+	public Optional<UUID> getExcludedID() {
+		return excludedID;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((afterExpiration == null) ? 0 : afterExpiration.hashCode());
+		result = prime * result + ((afterID == null) ? 0 : afterID.hashCode());
+		result = prime * result + ((excludedID == null) ? 0 : excludedID.hashCode());
+		result = prime * result + ((limit == null) ? 0 : limit.hashCode());
+		result = prime * result + ((tokenTypes == null) ? 0 : tokenTypes.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenListSpec other = (TokenListSpec) obj;
+		if (afterExpiration == null) {
+			if (other.afterExpiration != null) {
+				return false;
+			}
+		} else if (!afterExpiration.equals(other.afterExpiration)) {
+			return false;
+		}
+		if (afterID == null) {
+			if (other.afterID != null) {
+				return false;
+			}
+		} else if (!afterID.equals(other.afterID)) {
+			return false;
+		}
+		if (excludedID == null) {
+			if (other.excludedID != null) {
+				return false;
+			}
+		} else if (!excludedID.equals(other.excludedID)) {
+			return false;
+		}
+		if (limit == null) {
+			if (other.limit != null) {
+				return false;
+			}
+		} else if (!limit.equals(other.limit)) {
+			return false;
+		}
+		if (tokenTypes == null) {
+			if (other.tokenTypes != null) {
+				return false;
+			}
+		} else if (!tokenTypes.equals(other.tokenTypes)) {
+			return false;
+		}
+		return true;
+	}
+
+	/** Get a builder for a TokenListSpec.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a TokenListSpec.
+	 */
+	public static class Builder {
+
+		private final Set<TokenType> tokenTypes = new HashSet<>();
+		private Optional<Integer> limit = Optional.absent();
+		private Optional<Instant> afterExpiration = Optional.absent();
+		private Optional<UUID> afterID = Optional.absent();
+		private Optional<UUID> excludedID = Optional.absent();
+
+		private Builder() {}
+
+		/** Add a token type to the types to list. If no types are added, tokens of all types are
+		 * listed.
+		 * @param tokenType the token type.
+		 * @return this builder.
+		 */
+		public Builder withTokenType(final TokenType tokenType) {
+			nonNull(tokenType, "tokenType");
+			tokenTypes.add(tokenType);
+			return this;
+		}
+
+		/** Set the maximum number of tokens to list. By default all the tokens are listed.
+		 * @param limit the limit, between 1 and {@link #MAX_LIMIT}.
+		 * @return this builder.
+		 */
+		public Builder withLimit(final int limit) {
+			if (limit < 1 || limit > MAX_LIMIT) {
+				throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+			}
+			this.limit = Optional.of(limit);
+			return this;
+		}
+
+		/** Start listing after a token. Usually the token is the last token in the previous
+		 * page.
+		 * @param expiration the expiration date of the token.
+		 * @param tokenID the ID of the token.
+		 * @return this builder.
+		 */
+		public Builder withStartAfter(final Instant expiration, final UUID tokenID) {
+			nonNull(expiration, "expiration");
+			nonNull(tokenID, "tokenID");
+			this.afterExpiration = Optional.of(expiration);
+			this.afterID = Optional.of(tokenID);
+			return this;
+		}
+
+		/** Leave a token out of the list, usually the token used to request the list, which is
+		 * shown separately.
+		 * @param tokenID the ID of the token.
+		 * @return this builder.
+		 */
+		public Builder withExcludedID(final UUID tokenID) {
+			nonNull(tokenID, "tokenID");
+			this.excludedID = Optional.of(tokenID);
+			return this;
+		}
+
+		/** Build the TokenListSpec.
+		 * @return the spec.
+		 */
+		public TokenListSpec build() {
+			return new TokenListSpec(new HashSet<>(tokenTypes), limit, afterExpiration, afterID,
+					excludedID);
+		}
+	}
+}
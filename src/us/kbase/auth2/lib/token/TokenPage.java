@@ -0,0 +1,92 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Optional;
+
+/** A page of a user's tokens, listed as specified by a {@link TokenListSpec}.
+ *
+ * The tokens in a page are summaries for list views and do not include the custom token
+ * creation context, which may be large. Get a token individually for the full context.
+ */
+public class TokenPage {
+
+	private final List<StoredToken> tokens;
+	private final boolean more;
+
+	/** Create a token page.
+	 * @param tokens the tokens in list order.
+	 * @param more true if there are more tokens after this page.
+	 */
+	public TokenPage(final List<StoredToken> tokens, final boolean more) {
+		nonNull(tokens, "tokens");
+		for (final StoredToken t: tokens) {
+			nonNull(t, "One of the tokens in the incoming list is null");
+		}
+		this.tokens = Collections.unmodifiableList(new ArrayList<>(tokens));
+		this.more = more;
+	}
+
+	/** Get the tokens in this page, in list order.
+	 * @return the tokens.
+	 */
+	public List<StoredToken> getTokens() {
+		return tokens;
+	}
+
+	/** Whether there are more tokens after this page.
+	 * @return true if there are more tokens.
+	 */
+	public boolean hasMore() {
+		return more;
+	}
+
+	/** Get the last token in the page, which is where the next page starts, if there are more
+	 * tokens.
+	 * @return the last token, or absent if there are no more tokens.
+	 */
+	public Optional<StoredToken> getNextStart() {
+		if (!more || tokens.isEmpty()) {
+			return Optional.absent();
+		}
+		return Optional.of(tokens.get(tokens.size() - 1));
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (more ? 1231 : 1237);
+		result = prime * result + ((tokens == null) ? 0 : tokens.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenPage other = (TokenPage) obj;
+		if (more != other.more) {
+			return false;
+		}
+		if (tokens == null) {
+			if (other.tokens != null) {
+				return false;
+			}
+		} else if (!tokens.equals(other.tokens)) {
+			return false;
+		}
+		return true;
+	}
+}
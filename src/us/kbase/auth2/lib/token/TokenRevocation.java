@@ -0,0 +1,166 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.UUID;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+
+/** A description of a set of revoked tokens, as published in the token revocation feed.
+ */
+public class TokenRevocation {
+	
+	/** The scope of a revocation. */
+	public static enum Scope {
+		/** A single token was revoked. */
+		TOKEN,
+		/** All of a user's tokens were revoked. */
+		USER,
+		/** All tokens were revoked. */
+		ALL;
+	}
+	
+	private final Scope scope;
+	private final Optional<UserName> userName;
+	private final Optional<UUID> tokenID;
+	private final Optional<String> tokenHash;
+	
+	private TokenRevocation(
+			final Scope scope,
+			final UserName userName,
+			final UUID tokenID,
+			final String tokenHash) {
+		this.scope = scope;
+		this.userName = Optional.fromNullable(userName);
+		this.tokenID = Optional.fromNullable(tokenID);
+		this.tokenHash = Optional.fromNullable(tokenHash);
+	}
+	
+	/** Create a revocation of a single token.
+	 * @param userName the user that owned the token.
+	 * @param tokenID the ID of the token.
+	 * @param tokenHash the hash of the token, as produced by {@link IncomingToken#hash(String)}.
+	 * @return the revocation.
+	 */
+	public static TokenRevocation token(
+			final UserName userName,
+			final UUID tokenID,
+			final String tokenHash) {
+		nonNull(userName, "userName");
+		nonNull(tokenID, "tokenID");
+		checkStringNoCheckedException(tokenHash, "tokenHash");
+		return new TokenRevocation(Scope.TOKEN, userName, tokenID, tokenHash);
+	}
+	
+	/** Create a revocation of all of a user's tokens.
+	 * @param userName the user.
+	 * @return the revocation.
+	 */
+	public static TokenRevocation user(final UserName userName) {
+		nonNull(userName, "userName");
+		return new TokenRevocation(Scope.USER, userName, null, null);
+	}
+	
+	/** Create a revocation of all tokens.
+	 * @return the revocation.
+	 */
+	public static TokenRevocation all() {
+		return new TokenRevocation(Scope.ALL, null, null, null);
+	}
+
+	/** Get the scope of the revocation.
+	 * @return the scope.
+	 */
+	public Scope getScope() {
+		return scope;
+	}
+
+	/** Get the user whose token or tokens were revoked. Absent if all tokens were revoked.
+	 * @return the user name.
+	 */
+	public Optional<UserName> getUserName() {
+		return userName;
+	}
+
+	/** Get the ID of the revoked token. Present only if a single token was revoked.
+	 * @return the token ID.
+	 */
+	public Optional<UUID> getTokenID() {
+		return tokenID;
+	}
+
+	/** Get the hash of the revoked token. Present only if a single token was revoked.
+	 * @return the token hash.
+	 */
+	public Optional<String> getTokenHash() {
+		return tokenHash;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((scope == null) ? 0 : scope.hashCode());
+		result = prime * result + ((tokenHash == null) ? 0 : tokenHash.hashCode());
+		result = prime * result + ((tokenID == null) ? 0 : tokenID.hashCode());
+		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenRevocation other = (TokenRevocation) obj;
+		if (scope != other.scope) {
+			return false;
+		}
+		if (tokenHash == null) {
+			if (other.tokenHash != null) {
+				return false;
+			}
+		} else if (!tokenHash.equals(other.tokenHash)) {
+			return false;
+		}
+		if (tokenID == null) {
+			if (other.tokenID != null) {
+				return false;
+			}
+		} else if (!tokenID.equals(other.tokenID)) {
+			return false;
+		}
+		if (userName == null) {
+			if (other.userName != null) {
+				return false;
+			}
+		} else if (!userName.equals(other.userName)) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("TokenRevocation [scope=");
+		builder.append(scope);
+		builder.append(", userName=");
+		builder.append(userName);
+		builder.append(", tokenID=");
+		builder.append(tokenID);
+		builder.append(", tokenHash=");
+		builder.append(tokenHash);
+		builder.append("]");
+		return builder.toString();
+	}
+}
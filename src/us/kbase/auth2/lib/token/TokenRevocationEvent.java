@@ -0,0 +1,111 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+
+/** A token revocation as recorded in the token revocation feed.
+ */
+public class TokenRevocationEvent {
+	
+	private final long sequence;
+	private final Instant time;
+	private final TokenRevocation revocation;
+	
+	/** Create a revocation event.
+	 * @param sequence the position of the event in the feed. Sequence numbers start at 1 and
+	 * increase by 1 with each event.
+	 * @param time the time the event was recorded. For revocations of all of a user's tokens,
+	 * or all tokens, tokens created before this time are revoked.
+	 * @param revocation the tokens that were revoked.
+	 */
+	public TokenRevocationEvent(
+			final long sequence,
+			final Instant time,
+			final TokenRevocation revocation) {
+		if (sequence < 1) {
+			throw new IllegalArgumentException("sequence must be at least 1");
+		}
+		nonNull(time, "time");
+		nonNull(revocation, "revocation");
+		this.sequence = sequence;
+		this.time = time;
+		this.revocation = revocation;
+	}
+
+	/** Get the position of the event in the feed.
+	 * @return the sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** Get the time the event was recorded.
+	 * @return the time.
+	 */
+	public Instant getTime() {
+		return time;
+	}
+
+	/** Get the tokens that were revoked.
+	 * @return the revocation.
+	 */
+	public TokenRevocation getRevocation() {
+		return revocation;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((revocation == null) ? 0 : revocation.hashCode());
+		result = prime * result + (int) (sequence ^ (sequence >>> 32));
+		result = prime * result + ((time == null) ? 0 : time.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenRevocationEvent other = (TokenRevocationEvent) obj;
+		if (revocation == null) {
+			if (other.revocation != null) {
+				return false;
+			}
+		} else if (!revocation.equals(other.revocation)) {
+			return false;
+		}
+		if (sequence != other.sequence) {
+			return false;
+		}
+		if (time == null) {
+			if (other.time != null) {
+				return false;
+			}
+		} else if (!time.equals(other.time)) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("TokenRevocationEvent [sequence=");
+		builder.append(sequence);
+		builder.append(", time=");
+		builder.append(time);
+		builder.append(", revocation=");
+		builder.append(revocation);
+		builder.append("]");
+		return builder.toString();
+	}
+}
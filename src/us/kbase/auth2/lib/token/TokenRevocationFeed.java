@@ -0,0 +1,59 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/** A segment of the token revocation feed.
+ * 
+ * Clients that cache tokens should remove any cached token matching an event in the feed, and
+ * request the next segment with {@link #getSequence()}. If {@link #isReset()} is true,
+ * the client has missed events and must clear its cache.
+ */
+public class TokenRevocationFeed {
+	
+	private final List<TokenRevocationEvent> events;
+	private final long sequence;
+	private final boolean reset;
+	
+	/** Create a feed segment.
+	 * @param events the revocation events, in sequence order.
+	 * @param sequence the sequence number of the last event the client has seen after
+	 * processing this segment.
+	 * @param reset true if events the client has not seen are no longer available.
+	 */
+	public TokenRevocationFeed(
+			final List<TokenRevocationEvent> events,
+			final long sequence,
+			final boolean reset) {
+		nonNull(events, "events");
+		if (sequence < 0) {
+			throw new IllegalArgumentException("sequence must be at least 0");
+		}
+		this.events = Collections.unmodifiableList(events);
+		this.sequence = sequence;
+		this.reset = reset;
+	}
+
+	/** Get the revocation events, in sequence order.
+	 * @return the events.
+	 */
+	public List<TokenRevocationEvent> getEvents() {
+		return events;
+	}
+
+	/** Get the sequence number to provide when requesting the next segment of the feed.
+	 * @return the sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** Whether the client has missed events and must clear any cached tokens.
+	 * @return true if the client must clear its cache.
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+}
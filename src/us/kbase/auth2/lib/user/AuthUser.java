@@ -4,15 +4,19 @@ import static us.kbase.auth2.lib.Utils.nonNull;
 
 import java.time.Instant;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -45,6 +49,19 @@ public class AuthUser {
 	private final Optional<Instant> lastLogin;
 	private final UserDisabledState disabledState;
 	
+	/* There are only a few distinct combinations of roles, so users share one immutable set per
+	 * combination rather than each holding its own copy. The grantable roles are computed once
+	 * per combination.
+	 */
+	private static final Map<Set<Role>, Set<Role>> ROLE_SETS = new ConcurrentHashMap<>();
+	private static final Map<Set<Role>, Set<Role>> GRANTABLE_ROLES = new ConcurrentHashMap<>();
+	
+	private static Set<Role> internRoles(final Set<Role> roles) {
+		final EnumSet<Role> copy = EnumSet.noneOf(Role.class);
+		copy.addAll(roles);
+		return ROLE_SETS.computeIfAbsent(copy, c -> Collections.unmodifiableSet(c));
+	}
+	
 	AuthUser(
 			final UserName userName,
 			final DisplayName displayName,
@@ -60,11 +77,11 @@ public class AuthUser {
 		this.email = email;
 		this.displayName = displayName;
 		this.identities = Collections.unmodifiableSet(identities);
-		this.roles = Collections.unmodifiableSet(roles);
-		this.customRoles = Collections.unmodifiableSet(customRoles);
-		this.policyIDs = Collections.unmodifiableMap(policyIDs);
-		this.canGrantRoles = Collections.unmodifiableSet(getRoles().stream()
-				.flatMap(r -> r.canGrant().stream()).collect(Collectors.toSet()));
+		this.roles = internRoles(roles);
+		this.customRoles = ImmutableSortedSet.copyOf(customRoles);
+		this.policyIDs = ImmutableSortedMap.copyOf(policyIDs);
+		this.canGrantRoles = GRANTABLE_ROLES.computeIfAbsent(this.roles, rs -> internRoles(
+				rs.stream().flatMap(r -> r.canGrant().stream()).collect(Collectors.toSet())));
 		this.created = created;
 		this.lastLogin = lastLogin;
 		this.disabledState = disabledState;
@@ -410,7 +427,7 @@ public class AuthUser {
 		final DisplayName displayName;
 		final Instant created;
 		EmailAddress email = EmailAddress.UNKNOWN;
-		final Set<Role> roles = new TreeSet<>();
+		final Set<Role> roles = EnumSet.noneOf(Role.class);
 		final Set<String> customRoles = new TreeSet<>();
 		final Map<PolicyID, Instant> policyIDs = new TreeMap<>();
 		Optional<Instant> lastLogin = Optional.absent();
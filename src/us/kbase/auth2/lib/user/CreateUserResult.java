@@ -0,0 +1,15 @@
+package us.kbase.auth2.lib.user;
+
+/** The outcome of an attempt to create a single user as part of a bulk user creation operation.
+ */
+public enum CreateUserResult {
+
+	/** The user was created. */
+	CREATED,
+	/** The user was not created because the user name is already in use. */
+	USER_EXISTS,
+	/** The user was not created because the user's remote identity is already linked to a
+	 * different user.
+	 */
+	IDENTITY_LINKED;
+}
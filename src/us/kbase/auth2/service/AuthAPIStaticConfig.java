@@ -1,5 +1,9 @@
 package us.kbase.auth2.service;
 
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.token.TokenSigner;
+
 /* for configuration items that need to be accessible to the API classes but need not be
  * stored in the db
  */
@@ -9,15 +13,31 @@ public class AuthAPIStaticConfig {
 	//TODO TEST
 	
 	private final String cookieName;
+	private final Optional<TokenSigner> tokenSigner;
 
 	public AuthAPIStaticConfig(final String tokenCookieName) {
+		this(tokenCookieName, Optional.absent());
+	}
+	
+	public AuthAPIStaticConfig(
+			final String tokenCookieName,
+			final Optional<TokenSigner> tokenSigner) {
 		if (tokenCookieName == null || tokenCookieName.trim().isEmpty()) {
 			throw new IllegalArgumentException("tokenCookieName cannot be null or empty");
 		}
+		if (tokenSigner == null) {
+			throw new NullPointerException("tokenSigner");
+		}
 		this.cookieName = tokenCookieName;
+		this.tokenSigner = tokenSigner;
 	}
 
 	public String getTokenCookieName() {
 		return cookieName;
 	}
+
+	// absent if signed tokens are not enabled
+	public Optional<TokenSigner> getTokenSigner() {
+		return tokenSigner;
+	}
 }
@@ -6,10 +6,15 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
 import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
@@ -23,6 +28,7 @@ import us.kbase.auth2.lib.identity.IdentityProviderFactory;
 import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
 import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.storage.snapshot.SnapshotStorage;
 import us.kbase.auth2.service.common.ServiceCommon;
 import us.kbase.auth2.service.exceptions.AuthConfigurationException;
 
@@ -33,13 +39,24 @@ public class AuthBuilder {
 	
 	private MongoClient mc;
 	private Authentication auth;
+	private final StartupStatus status;
 	
 	public AuthBuilder(
 			final AuthStartupConfig cfg,
 			final ExternalConfig defaultExternalConfig)
 			throws StorageInitException, AuthConfigurationException {
+		this(cfg, defaultExternalConfig, new StartupStatus());
+	}
+	
+	public AuthBuilder(
+			final AuthStartupConfig cfg,
+			final ExternalConfig defaultExternalConfig,
+			final StartupStatus status)
+			throws StorageInitException, AuthConfigurationException {
 		nonNull(cfg, "cfg");
 		nonNull(defaultExternalConfig, "defaultExternalConfig");
+		nonNull(status, "status");
+		this.status = status;
 		mc = buildMongo(cfg);
 		auth = buildAuth(cfg, mc, defaultExternalConfig);
 	}
@@ -49,23 +66,60 @@ public class AuthBuilder {
 			final ExternalConfig defaultExternalConfig,
 			final MongoClient mc)
 			throws StorageInitException, AuthConfigurationException {
+		this(cfg, defaultExternalConfig, mc, new StartupStatus());
+	}
+	
+	public AuthBuilder(
+			final AuthStartupConfig cfg,
+			final ExternalConfig defaultExternalConfig,
+			final MongoClient mc,
+			final StartupStatus status)
+			throws StorageInitException, AuthConfigurationException {
 		nonNull(cfg, "cfg");
 		nonNull(defaultExternalConfig, "defaultExternalConfig");
 		nonNull(mc, "mc");
+		nonNull(status, "status");
+		this.status = status;
 		this.mc = mc;
 		auth = buildAuth(cfg, mc, defaultExternalConfig);
 	}
 	
+	/* for test purposes. Builds the service on the given storage system, for example an in
+	 * memory storage system, rather than MongoDB. The MongoDB settings in the configuration are
+	 * ignored and getMongoClient() returns null.
+	 */
+	public AuthBuilder(
+			final AuthStartupConfig cfg,
+			final ExternalConfig defaultExternalConfig,
+			final AuthStorage storage,
+			final StartupStatus status)
+			throws StorageInitException, AuthConfigurationException {
+		nonNull(cfg, "cfg");
+		nonNull(defaultExternalConfig, "defaultExternalConfig");
+		nonNull(storage, "storage");
+		nonNull(status, "status");
+		this.status = status;
+		this.mc = null;
+		auth = buildAuth(cfg, () -> storage, defaultExternalConfig);
+	}
+	
 	private MongoClient buildMongo(final AuthStartupConfig c) throws StorageInitException {
 		//TODO ZLATER MONGO handle shards & replica sets
+		final MongoClientOptions.Builder opts = MongoClientOptions.builder();
+		if (c.getMongoMaxConnections().isPresent()) {
+			/* each request thread holds a connection while it waits on the database, so the pool
+			 * needs to scale with the server thread pool.
+			 */
+			opts.connectionsPerHost(c.getMongoMaxConnections().get());
+		}
 		try {
 			if (c.getMongoUser().isPresent()) {
 				final List<MongoCredential> creds = Arrays.asList(MongoCredential.createCredential(
 						c.getMongoUser().get(), c.getMongoDatabase(), c.getMongoPwd().get()));
 				// unclear if and when it's safe to clear the password
-				return new MongoClient(new ServerAddress(c.getMongoHost()), creds);
+				return new MongoClient(new ServerAddress(c.getMongoHost()), creds, opts.build());
 			} else {
-				return new MongoClient(new ServerAddress(c.getMongoHost()));
+				return new MongoClient(new ServerAddress(c.getMongoHost()), opts.build());
 			}
 		} catch (MongoException e) {
 			LoggerFactory.getLogger(getClass()).error(
@@ -88,16 +142,77 @@ public class AuthBuilder {
 			throw new StorageInitException("Failed to get database from MongoDB: " +
 					e.getMessage(), e);
 		}
-		//TODO TEST authenticate to db, write actual test with authentication
-		final AuthStorage s = new MongoStorage(db);
+		return buildAuth(c, () -> buildStorage(c, db), defaultExternalConfig);
+	}
+	
+	private interface StorageBuilder {
 		
+		AuthStorage build() throws StorageInitException;
+	}
+	
+	private Authentication buildAuth(
+			final AuthStartupConfig c,
+			final StorageBuilder storageBuilder,
+			final ExternalConfig defaultExternalConfig)
+			throws StorageInitException, AuthConfigurationException {
+		/* Setting up the storage system (creating indexes, checking the schema, loading caches)
+		 * and loading the identity providers are independent, so do them at the same time.
+		 */
+		final ExecutorService exe = Executors.newSingleThreadExecutor();
+		final AuthStorage s;
+		final Set<IdentityProvider> providers;
+		try {
+			//TODO TEST authenticate to db, write actual test with authentication
+			final Future<AuthStorage> storage = exe.submit(
+					() -> status.time("storage", () -> storageBuilder.build()));
+			providers = status.time("identityproviders", () -> loadProviders(c));
+			s = getStorage(storage);
+		} finally {
+			exe.shutdownNow();
+		}
+		// sets the default config, so has to wait for the storage system
+		return status.time("authentication",
+				() -> new Authentication(s, providers, defaultExternalConfig));
+	}
+
+	private AuthStorage buildStorage(final AuthStartupConfig c, final MongoDatabase db)
+			throws StorageInitException {
+		final MongoStorage mongo = new MongoStorage(db);
+		if (c.getTokenSnapshotFile().isPresent()) {
+			// a token validation only server
+			return new SnapshotStorage(c.getTokenSnapshotFile().get(), mongo);
+		}
+		return mongo;
+	}
+
+	private Set<IdentityProvider> loadProviders(final AuthStartupConfig c)
+			throws AuthConfigurationException {
 		final Set<IdentityProvider> providers = new HashSet<>();
 		for (final IdentityProviderConfig idc: c.getIdentityProviderConfigs()) {
 			final IdentityProviderFactory fac = ServiceCommon.loadClassWithInterface(
 					idc.getIdentityProviderFactoryClassName(), IdentityProviderFactory.class);
 			providers.add(fac.configure(idc));
 		}
-		return new Authentication(s, providers, defaultExternalConfig);
+		return providers;
+	}
+
+	private AuthStorage getStorage(final Future<AuthStorage> storage)
+			throws StorageInitException {
+		try {
+			return storage.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageInitException("Interrupted while setting up storage", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageInitException) {
+				throw (StorageInitException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			// must be a runtime exception since the storage only throws StorageInitException
+			throw (RuntimeException) e.getCause();
+		}
 	}
 	
 	public MongoClient getMongoClient() {
@@ -108,4 +223,8 @@ public class AuthBuilder {
 		return auth;
 	}
 	
+	public StartupStatus getStartupStatus() {
+		return status;
+	}
+	
 }
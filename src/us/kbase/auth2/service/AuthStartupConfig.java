@@ -1,10 +1,12 @@
 package us.kbase.auth2.service;
 
+import java.nio.file.Path;
 import java.util.Set;
 
 import com.google.common.base.Optional;
 
 import us.kbase.auth2.lib.identity.IdentityProviderConfig;
+import us.kbase.auth2.lib.token.TokenSigner;
 
 public interface AuthStartupConfig {
 
@@ -17,5 +19,13 @@ public interface AuthStartupConfig {
 	// note both or neither for user & pwd
 	Optional<String> getMongoUser();
 	Optional<char[]> getMongoPwd();
+	// absent to use the MongoDB driver default
+	Optional<Integer> getMongoMaxConnections();
+	// absent to use one analyzer per available processor
+	Optional<Integer> getUserAgentAnalyzerCount();
 	String getTokenCookieName();
+	// absent if signed tokens are not enabled
+	Optional<TokenSigner> getTokenSigner();
+	// absent unless the server only validates tokens, from a snapshot of the database's tokens
+	Optional<Path> getTokenSnapshotFile();
 }
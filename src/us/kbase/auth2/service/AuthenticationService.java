@@ -1,8 +1,11 @@
 package us.kbase.auth2.service;
 
 import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
 
 import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -16,6 +19,8 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.config.ExternalConfig;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
 import us.kbase.auth2.service.LoggingFilter;
 import us.kbase.auth2.service.common.ServiceCommon;
@@ -30,7 +35,11 @@ public class AuthenticationService extends ResourceConfig {
 	//TODO JAVADOC
 	
 	private static String cfgClass = null;
+	private static AuthStorage storage = null;
 	private static MongoClient mc;
+	// mc is static, so it must be guarded by a static lock rather than the instance
+	private static final Object MONGO_CLIENT_LOCK = new Object();
+	private static final List<Authentication> auths = new LinkedList<>();
 	@SuppressWarnings("unused")
 	private final SLF4JAutoLogger logger; //keep a reference to prevent GC
 	
@@ -39,6 +48,14 @@ public class AuthenticationService extends ResourceConfig {
 		cfgClass = config;
 	}
 	
+	/* for test purposes. Backs services started after this call with the given storage system,
+	 * for example an in memory storage system, rather than MongoDB.
+	 */
+	public static void setStorage(final AuthStorage storage) {
+		nonNull(storage, "storage");
+		AuthenticationService.storage = storage;
+	}
+	
 	public AuthenticationService()
 			throws StorageInitException, AuthConfigurationException {
 		if (cfgClass == null) {
@@ -74,13 +91,27 @@ public class AuthenticationService extends ResourceConfig {
 			final AuthStartupConfig c,
 			final ExternalConfig defaultExternalConfig)
 			throws StorageInitException, AuthConfigurationException {
+		final StartupStatus status = new StartupStatus();
+		/* building the user agent parser is slow and nothing else depends on it, so build it
+		 * while everything else starts up. Parsing waits for it if necessary.
+		 */
+		final int analyzers = c.getUserAgentAnalyzerCount()
+				.or(Runtime.getRuntime().availableProcessors());
+		final UserAgentParser uaParser = new UserAgentParser(analyzers, 1000, r -> {
+			final Thread t = new Thread(r, "auth2-useragent-startup");
+			t.setDaemon(true);
+			t.start();
+		});
+		status.register("useragentparser", () -> uaParser.isReady());
 		final AuthBuilder ab;
-		synchronized(this) {
-			if (mc == null) {
-				ab = new AuthBuilder(c, defaultExternalConfig);
+		synchronized(MONGO_CLIENT_LOCK) {
+			if (storage != null) {
+				ab = new AuthBuilder(c, defaultExternalConfig, storage, status);
+			} else if (mc == null) {
+				ab = new AuthBuilder(c, defaultExternalConfig, status);
 				mc = ab.getMongoClient();
 			} else {
-				ab = new AuthBuilder(c, defaultExternalConfig, mc);
+				ab = new AuthBuilder(c, defaultExternalConfig, mc, status);
 			}
 		}
 		packages("us.kbase.auth2.service.api", "us.kbase.auth2.service.ui");
@@ -91,6 +122,9 @@ public class AuthenticationService extends ResourceConfig {
 		register(LoggingFilter.class);
 		register(ExceptionHandler.class);
 		final Authentication auth = ab.getAuth();
+		synchronized(auths) {
+			auths.add(auth);
+		}
 		register(new AbstractBinder() {
 			@Override
 			protected void configure() {
@@ -98,14 +132,50 @@ public class AuthenticationService extends ResourceConfig {
 				bind(new MustacheProcessor(Paths.get(templatePath).toAbsolutePath()))
 					.to(TemplateProcessor.class);
 				bind(c.getLogger()).to(SLF4JAutoLogger.class);
-				bind(new AuthAPIStaticConfig(c.getTokenCookieName()))
+				bind(new AuthAPIStaticConfig(c.getTokenCookieName(), c.getTokenSigner()))
 						.to(AuthAPIStaticConfig.class);
-				bind(new UserAgentParser()).to(UserAgentParser.class);
+				bind(uaParser).to(UserAgentParser.class);
+				bind(status).to(StartupStatus.class);
 			}
 		});
 	}
 	
+	// for test purposes. Writes any buffered updates for running instances to storage.
+	@SuppressWarnings("unused")
+	private static void flush() throws AuthStorageException {
+		synchronized(auths) {
+			for (final Authentication auth: auths) {
+				auth.flush();
+			}
+		}
+	}
+	
+	// for test purposes. Discards data cached by running instances.
+	@SuppressWarnings("unused")
+	private static void clearCaches() {
+		synchronized(auths) {
+			for (final Authentication auth: auths) {
+				auth.clearCaches();
+			}
+		}
+	}
+	
 	static void shutdown() {
-		mc.close();
+		synchronized(auths) {
+			// stop background tasks before closing the database connection they use
+			for (final Authentication auth: auths) {
+				try {
+					auth.close();
+				} catch (AuthStorageException e) {
+					LoggerFactory.getLogger(AuthenticationService.class).error(
+							"Failed to write buffered updates to storage on shutdown: " +
+							e.getMessage(), e);
+				}
+			}
+			auths.clear();
+		}
+		if (mc != null) {
+			mc.close();
+		}
 	}
 }
@@ -0,0 +1,121 @@
+package us.kbase.auth2.service;
+
+import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+/** Tracks the startup of the service's components, logs how long each took, and reports
+ * whether the components are ready to serve requests.
+ */
+public class StartupStatus {
+
+	/** A step in the startup process.
+	 * @param <T> the type of the result of the step.
+	 * @param <E> the type of the exception the step may throw.
+	 */
+	public interface StartupStep<T, E extends Exception> {
+
+		/** Run the step.
+		 * @return the result of the step.
+		 * @throws E if the step failed.
+		 */
+		T run() throws E;
+	}
+
+	private static class Component {
+
+		private final BooleanSupplier ready;
+		private final Optional<Long> startupMillis;
+
+		private Component(final BooleanSupplier ready, final Optional<Long> startupMillis) {
+			this.ready = ready;
+			this.startupMillis = startupMillis;
+		}
+	}
+
+	// keep components in startup order
+	private final Map<String, Component> components = new LinkedHashMap<>();
+
+	/** Run a startup step for a component, log how long it took, and mark the component as
+	 * ready if the step succeeded.
+	 * @param <T> the type of the result of the step.
+	 * @param <E> the type of the exception the step may throw.
+	 * @param component the name of the component.
+	 * @param step the step to run.
+	 * @return the result of the step.
+	 * @throws E if the step failed.
+	 */
+	public <T, E extends Exception> T time(
+			final String component,
+			final StartupStep<T, E> step)
+			throws E {
+		checkStringNoCheckedException(component, "component");
+		nonNull(step, "step");
+		final long start = System.nanoTime();
+		final T ret = step.run();
+		final long millis = (System.nanoTime() - start) / 1000000;
+		LoggerFactory.getLogger(getClass()).info(
+				"Startup of {} completed in {} ms", component, millis);
+		synchronized (components) {
+			components.put(component, new Component(() -> true, Optional.of(millis)));
+		}
+		return ret;
+	}
+
+	/** Register a component that becomes ready on its own, for example by warming up in a
+	 * background thread.
+	 * @param component the name of the component.
+	 * @param ready a function that returns true when the component is ready.
+	 */
+	public void register(final String component, final BooleanSupplier ready) {
+		checkStringNoCheckedException(component, "component");
+		nonNull(ready, "ready");
+		synchronized (components) {
+			components.put(component, new Component(ready, Optional.absent()));
+		}
+	}
+
+	/** Get whether each component is ready.
+	 * @return a mapping of component name to whether the component is ready.
+	 */
+	public Map<String, Boolean> getReadiness() {
+		final Map<String, Boolean> ret = new LinkedHashMap<>();
+		synchronized (components) {
+			for (final String c: components.keySet()) {
+				ret.put(c, components.get(c).ready.getAsBoolean());
+			}
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+
+	/** Get the time taken to start each component that was started via
+	 * {@link #time(String, StartupStep)}.
+	 * @return a mapping of component name to startup time in milliseconds.
+	 */
+	public Map<String, Long> getStartupMillis() {
+		final Map<String, Long> ret = new LinkedHashMap<>();
+		synchronized (components) {
+			for (final String c: components.keySet()) {
+				if (components.get(c).startupMillis.isPresent()) {
+					ret.put(c, components.get(c).startupMillis.get());
+				}
+			}
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+
+	/** Check whether all the components are ready.
+	 * @return true if all the components are ready.
+	 */
+	public boolean isReady() {
+		return !getReadiness().containsValue(false);
+	}
+}
@@ -1,40 +1,216 @@
 package us.kbase.auth2.service;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.TokenCreationContext.Builder;
 
 public class UserAgentParser {
-	
+
 	//TODO JAVADOC
-	//TODO TEST
-	
-	private final UserAgentAnalyzer uaa;
-	
+
+	private static final int DEFAULT_CACHE_SIZE = 1000;
+	// don't let huge, probably malicious, user agent strings push out real ones
+	private static final int MAX_CACHED_LENGTH = 1000;
+
+	/* Analyzers are not thread safe, so each is used by one thread at a time. Most user agent
+	 * strings will be in the cache, so only a few analyzers are needed.
+	 */
+	private final BlockingQueue<UserAgentAnalyzer> analyzers;
+	private final Cache<String, ParsedUserAgent> cache;
+	private final int analyzerCount;
+	private final AtomicInteger analyzersBuilt = new AtomicInteger();
+	private final AtomicInteger analyzersFailed = new AtomicInteger();
+	/* Completes when the first analyzer is built, or exceptionally if every analyzer failed to
+	 * build. Parsing waits on this rather than on the analyzer queue so that a failed build
+	 * can't leave requests waiting forever.
+	 */
+	private final CompletableFuture<Void> available = new CompletableFuture<>();
+
 	public UserAgentParser() {
-		// this is slooow. Only want to do it once per service start.
-		uaa = UserAgentAnalyzer.newBuilder()
+		this(1, DEFAULT_CACHE_SIZE);
+	}
+
+	public UserAgentParser(final int analyzerCount, final int cacheSize) {
+		this(analyzerCount, cacheSize, r -> r.run());
+	}
+
+	/* Build the analyzers with the given executor, for example in a background thread so
+	 * that the rest of the service can start at the same time. Parsing blocks until an analyzer
+	 * has been built. If every analyzer fails to build, parsing returns no user agent
+	 * information rather than blocking.
+	 */
+	public UserAgentParser(
+			final int analyzerCount,
+			final int cacheSize,
+			final Executor builder) {
+		this(analyzerCount, cacheSize, builder, () -> UserAgentAnalyzer.newBuilder()
 				.withField(UserAgent.DEVICE_NAME)
 				.withField(UserAgent.OPERATING_SYSTEM_NAME)
 				.withField(UserAgent.OPERATING_SYSTEM_VERSION)
 				.withField(UserAgent.AGENT_NAME)
 				.withField(UserAgent.AGENT_VERSION)
-				.build();
+				.build());
+	}
+
+	// for tests
+	private UserAgentParser(
+			final int analyzerCount,
+			final int cacheSize,
+			final Executor builder,
+			final Supplier<UserAgentAnalyzer> analyzerFactory) {
+		if (builder == null) {
+			throw new NullPointerException("builder");
+		}
+		if (analyzerCount < 1) {
+			throw new IllegalArgumentException("analyzerCount must be at least 1");
+		}
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("cacheSize must be at least 0");
+		}
+		this.analyzerCount = analyzerCount;
+		analyzers = new ArrayBlockingQueue<>(analyzerCount);
+		cache = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+		for (int i = 0; i < analyzerCount; i++) {
+			builder.execute(() -> buildAnalyzer(analyzerFactory));
+		}
+	}
+
+	private void buildAnalyzer(final Supplier<UserAgentAnalyzer> analyzerFactory) {
+		final long start = System.nanoTime();
+		final UserAgentAnalyzer uaa;
+		try {
+			// this is slooow. Only want to do it once per service start.
+			uaa = analyzerFactory.get();
+		} catch (Throwable t) {
+			// catch errors too, since an OOM building one analyzer shouldn't hang parsing
+			LoggerFactory.getLogger(getClass()).error(
+					"Failed to build user agent analyzer: " + t.getMessage(), t);
+			if (analyzersFailed.incrementAndGet() == analyzerCount) {
+				available.completeExceptionally(t);
+			}
+			return;
+		}
+		analyzers.add(uaa);
+		analyzersBuilt.incrementAndGet();
+		available.complete(null);
+		LoggerFactory.getLogger(getClass()).info("Built user agent analyzer in {} ms",
+				(System.nanoTime() - start) / 1000000);
+	}
+
+	/** Check whether at least one analyzer has been built, and so the parser is ready to parse
+	 * user agents without waiting.
+	 * @return true if the parser is ready.
+	 */
+	public boolean isReady() {
+		return analyzersBuilt.get() > 0;
 	}
-	
-	public synchronized Builder getTokenContextFromUserAgent(final String userAgent) {
+
+	/** Get the error that caused the analyzers to fail to build, if every analyzer failed to
+	 * build. In that case user agents are not parsed and token creation contexts contain no
+	 * user agent information.
+	 * @return the error, or absent if any analyzer was built or the builds are in progress.
+	 */
+	public Optional<String> getBuildError() {
+		if (!available.isCompletedExceptionally()) {
+			return Optional.absent();
+		}
+		try {
+			available.join();
+			return Optional.absent(); // can't happen
+		} catch (RuntimeException e) {
+			final Throwable cause = e.getCause() == null ? e : e.getCause();
+			return Optional.of(cause.getClass().getSimpleName() + ": " + cause.getMessage());
+		}
+	}
+
+	/** Get statistics for the cache of parsed user agents.
+	 * @return the cache statistics.
+	 */
+	public CacheStats getCacheStats() {
+		return cache.stats();
+	}
+
+	private static class ParsedUserAgent {
+
+		private final String agent;
+		private final String agentVersion;
+		private final String os;
+		private final String osVersion;
+		private final String device;
+
+		// an agent about which nothing is known
+		private ParsedUserAgent() {
+			agent = null;
+			agentVersion = null;
+			os = null;
+			osVersion = null;
+			device = null;
+		}
+
+		private ParsedUserAgent(final UserAgent ua) {
+			agent = filter(ua.getValue(UserAgent.AGENT_NAME));
+			agentVersion = filter(ua.getValue(UserAgent.AGENT_VERSION));
+			os = filter(ua.getValue(UserAgent.OPERATING_SYSTEM_NAME));
+			osVersion = filter(ua.getValue(UserAgent.OPERATING_SYSTEM_VERSION));
+			device = filter(ua.getValue(UserAgent.DEVICE_NAME));
+		}
+	}
+
+	public Builder getTokenContextFromUserAgent(final String userAgent) {
 		//TODO LOG if any fields = Hacker log HackerAttackVector and HackerToolkit fields
-		final UserAgent ua = uaa.parse(userAgent);
+		final boolean cacheable = userAgent != null && userAgent.length() <= MAX_CACHED_LENGTH;
+		ParsedUserAgent ua = cacheable ? cache.getIfPresent(userAgent) : null;
+		if (ua == null) {
+			// two threads may parse the same string at the same time, but that's harmless
+			ua = parse(userAgent);
+			if (cacheable) {
+				cache.put(userAgent, ua);
+			}
+		}
 		return TokenCreationContext.getBuilder()
-				.withNullableAgent(filter(ua.getValue(UserAgent.AGENT_NAME)),
-						filter(ua.getValue(UserAgent.AGENT_VERSION)))
-				.withNullableOS(filter(ua.getValue(UserAgent.OPERATING_SYSTEM_NAME)),
-						filter(ua.getValue(UserAgent.OPERATING_SYSTEM_VERSION)))
-				.withNullableDevice(filter(ua.getValue(UserAgent.DEVICE_NAME)));
-	}
-	
-	private String filter(final String value) {
+				.withNullableAgent(ua.agent, ua.agentVersion)
+				.withNullableOS(ua.os, ua.osVersion)
+				.withNullableDevice(ua.device);
+	}
+
+	private ParsedUserAgent parse(final String userAgent) {
+		final UserAgentAnalyzer uaa;
+		try {
+			available.get();
+			// at least one analyzer exists, and analyzers are always returned to the queue
+			uaa = analyzers.take();
+		} catch (ExecutionException e) {
+			// no analyzers could be built. The failure is logged and reported by
+			// getBuildError(), so don't fail requests because of it.
+			return new ParsedUserAgent();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a user agent analyzer", e);
+		}
+		try {
+			return new ParsedUserAgent(uaa.parse(userAgent));
+		} finally {
+			analyzers.add(uaa);
+		}
+	}
+
+	private static String filter(final String value) {
 		// some values spit out by UAA are just ??, which is not helpful
 		if (value.replace("\\s", "").replace("?", "").isEmpty()) {
 			return null;
@@ -36,6 +36,18 @@ public class APIPaths {
 	/** The user search endpoint location relative to the user lookup root. */
 	public static final String USERS_SEARCH = "search" + SEP + PREFIX_PARAM;
 	
+	/** The signed token public key endpoint location. */
+	public static final String API_V2_KEYS = API_V2 + SEP + "keys";
+	
+	/** The token revocation feed endpoint location. */
+	public static final String API_V2_REVOCATIONS = API_V2 + SEP + "revocations";
+	
 	/** The me endpoint location. */
 	public static final String API_V2_ME = API_V2 + SEP + "me";
+	
+	/** The readiness endpoint location. */
+	public static final String API_V2_READY = API_V2 + SEP + "ready";
+	
+	/** The health endpoint location. */
+	public static final String API_V2_HEALTH = API_V2 + SEP + "health";
 }
@@ -1,5 +1,8 @@
 package us.kbase.auth2.service.api;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.service.common.ExternalToken;
 
@@ -8,13 +11,28 @@ public class APIToken extends ExternalToken {
 	//TODO JAVADOC or swagger
 	
 	private final long cachefor;
+	private final String signed;
 	
 	public APIToken(final StoredToken token, final long tokenCacheTimeMillis) {
+		this(token, tokenCacheTimeMillis, null);
+	}
+	
+	// signedToken is null if signed tokens are not enabled
+	public APIToken(
+			final StoredToken token,
+			final long tokenCacheTimeMillis,
+			final String signedToken) {
 		super(token);
 		cachefor = tokenCacheTimeMillis;
+		signed = signedToken;
 	}
 
 	public long getCachefor() {
 		return cachefor;
 	}
+	
+	@JsonInclude(Include.NON_NULL)
+	public String getSigned() {
+		return signed;
+	}
 }
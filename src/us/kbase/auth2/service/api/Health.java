@@ -0,0 +1,108 @@
+package us.kbase.auth2.service.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.common.cache.CacheStats;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.identity.IdentityProviderStatus;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.service.UserAgentParser;
+import us.kbase.auth2.service.common.Fields;
+
+@Path(APIPaths.API_V2_HEALTH)
+public class Health {
+
+	/* Reports the health of the service and its dependencies. Returns a 503 if the storage
+	 * system can't be reached, so that load balancers can take the node out of rotation.
+	 * Identity providers are not contacted - their status is based on the outcomes of the
+	 * most recent logins and links.
+	 */
+
+	@Inject
+	private Authentication auth;
+
+	@Inject
+	private UserAgentParser userAgentParser;
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response health() {
+		final Map<String, Object> ret = new LinkedHashMap<>();
+		final Map<String, Object> storage = new HashMap<>();
+		boolean healthy = true;
+		try {
+			final Duration ping = auth.pingStorage();
+			storage.put(Fields.PING_MS, ping.toNanos() / 1000000.0);
+			storage.put(Fields.ERROR, null);
+		} catch (AuthStorageException | RuntimeException e) {
+			healthy = false;
+			storage.put(Fields.PING_MS, null);
+			storage.put(Fields.ERROR, e.getMessage());
+		}
+		ret.put(Fields.HEALTHY, healthy);
+		ret.put(Fields.STORAGE, storage);
+		ret.put(Fields.CONFIG_AGE_MS, Duration.between(
+				auth.getConfigUpdateTime(), Instant.now()).toMillis());
+		final Map<String, Object> idps = new LinkedHashMap<>();
+		for (final IdentityProviderStatus s: auth.getIdentityProviderStatus()) {
+			final Map<String, Object> idp = new HashMap<>();
+			idp.put(Fields.OK, s.isOK());
+			idp.put(Fields.LAST_SUCCESS, s.getLastSuccess().isPresent() ?
+					s.getLastSuccess().get().toEpochMilli() : null);
+			idp.put(Fields.LAST_FAILURE, s.getLastFailure().isPresent() ?
+					s.getLastFailure().get().toEpochMilli() : null);
+			idp.put(Fields.ERROR, s.getLastError().orNull());
+			idps.put(s.getProviderName(), idp);
+		}
+		ret.put(Fields.IDENTITY_PROVIDERS, idps);
+		ret.put(Fields.JVM, getJVMStats());
+		ret.put(Fields.BACKGROUND_TASKS, auth.getBackgroundTaskStats());
+		final Map<String, Object> uaParser = new HashMap<>();
+		uaParser.put(Fields.READY, userAgentParser.isReady());
+		uaParser.put(Fields.ERROR, userAgentParser.getBuildError().orNull());
+		ret.put(Fields.USER_AGENT_PARSER, uaParser);
+		final Map<String, Object> caches = new HashMap<>();
+		caches.put("useragent", toMap(userAgentParser.getCacheStats()));
+		for (final Entry<String, CacheStats> c: auth.getStorageCacheStats().entrySet()) {
+			caches.put(c.getKey(), toMap(c.getValue()));
+		}
+		ret.put(Fields.CACHES, caches);
+		return Response.status(healthy ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+				.entity(ret).build();
+	}
+
+	private Map<String, Object> toMap(final CacheStats stats) {
+		final Map<String, Object> cache = new HashMap<>();
+		cache.put(Fields.HITS, stats.hitCount());
+		cache.put(Fields.MISSES, stats.missCount());
+		cache.put(Fields.HIT_RATIO, stats.hitRate());
+		return cache;
+	}
+
+	private Map<String, Object> getJVMStats() {
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final Map<String, Object> jvm = new HashMap<>();
+		jvm.put(Fields.HEAP_USED, heap.getUsed());
+		jvm.put(Fields.HEAP_MAX, heap.getMax());
+		jvm.put(Fields.THREADS, threads.getThreadCount());
+		jvm.put(Fields.PEAK_THREADS, threads.getPeakThreadCount());
+		return jvm;
+	}
+}
@@ -0,0 +1,39 @@
+package us.kbase.auth2.service.api;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.service.AuthAPIStaticConfig;
+import us.kbase.auth2.service.common.Fields;
+
+@Path(APIPaths.API_V2_KEYS)
+public class Keys {
+	
+	/* Returns the public keys with which signed tokens can be verified as a JSON Web Key Set
+	 * (RFC 7517). The list is empty if signed tokens are not enabled.
+	 */
+	
+	@Inject
+	private AuthAPIStaticConfig cfg;
+	
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, List<Map<String, String>>> keys() {
+		final List<Map<String, String>> keys;
+		if (cfg.getTokenSigner().isPresent()) {
+			keys = Collections.singletonList(cfg.getTokenSigner().get().getJWK());
+		} else {
+			keys = Collections.emptyList();
+		}
+		return ImmutableMap.of(Fields.KEYS, keys);
+	}
+}
@@ -9,7 +9,15 @@ public class NewAPIToken extends APIToken {
 	private final String token;
 	
 	public NewAPIToken(final NewToken token, final long tokenCacheTimeMillis) {
-		super(token.getStoredToken(), tokenCacheTimeMillis);
+		this(token, tokenCacheTimeMillis, null);
+	}
+	
+	// signedToken is null if signed tokens are not enabled
+	public NewAPIToken(
+			final NewToken token,
+			final long tokenCacheTimeMillis,
+			final String signedToken) {
+		super(token.getStoredToken(), tokenCacheTimeMillis, signedToken);
 		this.token = token.getToken();
 	}
 
@@ -0,0 +1,40 @@
+package us.kbase.auth2.service.api;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.service.StartupStatus;
+import us.kbase.auth2.service.common.Fields;
+
+@Path(APIPaths.API_V2_READY)
+public class Ready {
+	
+	/* Reports whether the service's components have finished warming up. Returns a 503 until
+	 * they have, so that load balancers and rolling deploys can wait for the service to be
+	 * ready before sending traffic to it.
+	 */
+	
+	@Inject
+	private StartupStatus status;
+	
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response ready() {
+		final Map<String, Boolean> components = status.getReadiness();
+		final boolean ready = !components.containsValue(false);
+		return Response.status(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+				.entity(ImmutableMap.of(
+						Fields.READY, ready,
+						Fields.COMPONENTS, components,
+						Fields.STARTUP_MS, status.getStartupMillis()))
+				.build();
+	}
+}
@@ -0,0 +1,111 @@
+package us.kbase.auth2.service.api;
+
+import static us.kbase.auth2.service.common.ServiceCommon.getToken;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.token.TokenRevocationFeed;
+import us.kbase.auth2.service.common.Fields;
+
+@Path(APIPaths.API_V2_REVOCATIONS)
+public class Revocations {
+
+	/* A long polling feed of token revocations for services that cache tokens. A client starts
+	 * following the feed by omitting the after parameter, which returns the current sequence
+	 * number, and then repeatedly requests the events after the sequence number returned by
+	 * the previous request. If no events are available, the request waits for up to wait
+	 * seconds for an event. The request is suspended while it waits, so waiting clients do
+	 * not hold request threads.
+	 *
+	 * SSE would avoid the repeated requests, but Jersey's SSE support is not included in the
+	 * service dependencies, and long polling works through any proxy.
+	 */
+
+	private static final int DEFAULT_LIMIT = 1000;
+
+	@Inject
+	private Authentication auth;
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getRevocations(
+			@Suspended final AsyncResponse response,
+			@HeaderParam(APIConstants.HEADER_TOKEN) final String token,
+			@QueryParam(Fields.REVOKE_AFTER) final String after,
+			@QueryParam(Fields.REVOKE_LIMIT) final String limit,
+			@QueryParam(Fields.REVOKE_WAIT) final String wait)
+			throws NoTokenProvidedException, InvalidTokenException, AuthStorageException,
+				IllegalParameterException {
+		final long afterSeq = after == null ? -1 : parse(after, Fields.REVOKE_AFTER);
+		final long lim = limit == null ? DEFAULT_LIMIT : parse(limit, Fields.REVOKE_LIMIT);
+		final long waitSec = wait == null ? 0 : parse(wait, Fields.REVOKE_WAIT);
+		if (lim < 1 || lim > 10000) {
+			throw new IllegalParameterException(
+					Fields.REVOKE_LIMIT + " must be between 1 and 10000");
+		}
+		if (waitSec < 0 || waitSec > 60) {
+			throw new IllegalParameterException(Fields.REVOKE_WAIT + " must be between 0 and 60");
+		}
+		auth.getTokenRevocations(getToken(token), afterSeq, (int) lim, waitSec * 1000)
+				.whenComplete((feed, err) -> {
+					if (err != null) {
+						// the exception handler maps the resumed exception to a response
+						response.resume(err instanceof CompletionException ?
+								err.getCause() : err);
+					} else {
+						response.resume(toMap(feed));
+					}
+				});
+	}
+
+	private Map<String, Object> toMap(final TokenRevocationFeed feed) {
+		final List<Map<String, Object>> revs = new LinkedList<>();
+		for (final TokenRevocationEvent e: feed.getEvents()) {
+			final TokenRevocation r = e.getRevocation();
+			final Map<String, Object> rev = new HashMap<>();
+			rev.put(Fields.REVOKE_SEQUENCE, e.getSequence());
+			rev.put(Fields.REVOKE_TIME, e.getTime().toEpochMilli());
+			rev.put(Fields.REVOKE_SCOPE, r.getScope().name());
+			rev.put(Fields.USER, r.getUserName().isPresent() ?
+					r.getUserName().get().getName() : null);
+			rev.put(Fields.ID, r.getTokenID().isPresent() ? r.getTokenID().get().toString() : null);
+			rev.put(Fields.REVOKE_TOKEN_HASH, r.getTokenHash().orNull());
+			revs.add(rev);
+		}
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put(Fields.REVOKE_SEQUENCE, feed.getSequence());
+		ret.put(Fields.REVOKE_RESET, feed.isReset());
+		ret.put(Fields.REVOCATIONS, revs);
+		return ret;
+	}
+
+	private static long parse(final String value, final String name)
+			throws IllegalParameterException {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalParameterException(name + " must be an integer");
+		}
+	}
+}
@@ -29,9 +29,11 @@ import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TokenName;
 import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.service.AuthAPIStaticConfig;
 import us.kbase.auth2.service.UserAgentParser;
 import us.kbase.auth2.service.common.Fields;
 import us.kbase.auth2.service.common.IncomingJSON;
@@ -47,13 +49,24 @@ public class Token {
 	@Inject
 	private UserAgentParser userAgentParser;
 	
+	@Inject
+	private AuthAPIStaticConfig cfg;
+	
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
 	public APIToken viewToken(
 			@HeaderParam(APIConstants.HEADER_TOKEN) final String token)
 			throws NoTokenProvidedException, InvalidTokenException, AuthStorageException {
 		final StoredToken ht = auth.getToken(getToken(token));
-		return new APIToken(ht, auth.getSuggestedTokenCacheTime());
+		return new APIToken(ht, auth.getSuggestedTokenCacheTime(), sign(ht));
+	}
+	
+	/* returns null if signed tokens are not enabled. The signed token from token creation or an
+	 * earlier lookup is reused, so a lookup doesn't usually pay for an RSA signature.
+	 */
+	private String sign(final StoredToken token) {
+		return cfg.getTokenSigner().isPresent() ?
+				cfg.getTokenSigner().get().getSignedToken(token) : null;
 	}
 	
 	private static class CreateToken extends IncomingJSON {
@@ -95,8 +108,9 @@ public class Token {
 		final TokenCreationContext tcc = getTokenContext(
 				userAgentParser, req, isIgnoreIPsInHeaders(auth), create.getCustomContext());
 		
-		return new NewAPIToken(auth.createToken(
-				getToken(token), new TokenName(create.name), TokenType.AGENT, tcc),
-				auth.getSuggestedTokenCacheTime());
+		final NewToken nt = auth.createToken(
+				getToken(token), new TokenName(create.name), TokenType.AGENT, tcc);
+		return new NewAPIToken(nt, auth.getSuggestedTokenCacheTime(),
+				sign(nt.getStoredToken()));
 	}
 }
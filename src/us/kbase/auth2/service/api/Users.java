@@ -3,10 +3,16 @@ package us.kbase.auth2.service.api;
 import static us.kbase.auth2.service.common.ServiceCommon.getToken;
 import static us.kbase.auth2.service.common.ServiceCommon.nullOrEmpty;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -16,7 +22,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
@@ -41,30 +52,63 @@ public class Users {
 
 	/* It's completely stupid, but to pass a list in a query param in Jersey you have to do
 	 * ?user=foo&user=bar&user=baz etc.
+	 * 
+	 * Services often look up the same set of users repeatedly, so the response includes a weak
+	 * ETag computed from its contents. If the client sends the ETag in an If-None-Match header
+	 * and the display names have not changed, a 304 with no body is returned.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public Map<String, String> getUsers(
+	public Response getUsers(
+			@Context final Request request,
 			@HeaderParam(APIConstants.HEADER_TOKEN) final String token,
 			@QueryParam(Fields.LIST) final String users)
 			throws MissingParameterException, IllegalParameterException, NoTokenProvidedException,
 			InvalidTokenException, AuthStorageException {
+		final Map<String, String> ret;
 		if (nullOrEmpty(users)) {
-			return Collections.emptyMap();
-		}
-		final String[] usersplt = users.split(",");
-		final Set<UserName> uns = new HashSet<>();
-		for (final String u: usersplt) {
-			try {
-				uns.add(new UserName(u.trim()));
-			} catch (MissingParameterException | IllegalParameterException e) {
-				throw new IllegalParameterException(ErrorType.ILLEGAL_USER_NAME, String.format(
-						"Illegal user name [%s]: %s", u, e.getMessage()));
+			ret = Collections.emptyMap();
+		} else {
+			final String[] usersplt = users.split(",");
+			final Set<UserName> uns = new HashSet<>();
+			for (final String u: usersplt) {
+				try {
+					uns.add(new UserName(u.trim()));
+				} catch (MissingParameterException | IllegalParameterException e) {
+					throw new IllegalParameterException(ErrorType.ILLEGAL_USER_NAME,
+							String.format("Illegal user name [%s]: %s", u, e.getMessage()));
+				}
 			}
+			final Map<UserName, DisplayName> dns = auth.getUserDisplayNames(
+					getToken(token), uns);
+			ret = dns.entrySet().stream().collect(
+					Collectors.toMap(e -> e.getKey().getName(), e -> e.getValue().getName()));
+		}
+		final EntityTag etag = getETag(ret);
+		final ResponseBuilder notModified = request.evaluatePreconditions(etag);
+		if (notModified != null) {
+			return notModified.build();
+		}
+		return Response.ok(ret).tag(etag).build();
+	}
+	
+	private static EntityTag getETag(final Map<String, String> users) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("This should be impossible", e);
+		}
+		// sort so the tag doesn't depend on map ordering. Separate the names with null
+		// characters, which can't appear in user or display names.
+		for (final Entry<String, String> e: new TreeMap<>(users).entrySet()) {
+			digest.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(e.getValue().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
 		}
-		final Map<UserName, DisplayName> dns = auth.getUserDisplayNames(getToken(token), uns);
-		return dns.entrySet().stream().collect(
-				Collectors.toMap(e -> e.getKey().getName(), e -> e.getValue().getName()));
+		return new EntityTag(Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(digest.digest()), true);
 	}
 	
 	@GET
@@ -24,6 +24,82 @@ public class Fields {
 	/** The Git commit from which the service was built. */
 	public static final String GIT_HASH = "gitcommithash";
 	
+	/* readiness */
+	
+	/** Whether the service or a service component is ready to serve requests. */
+	public static final String READY = "ready";
+	/** The service components and whether each is ready. */
+	public static final String COMPONENTS = "components";
+	/** The time, in milliseconds, each service component took to start. */
+	public static final String STARTUP_MS = "startupms";
+	
+	/* health */
+	
+	/** Whether the service is healthy. */
+	public static final String HEALTHY = "healthy";
+	/** The storage system health. */
+	public static final String STORAGE = "storage";
+	/** The round trip time, in milliseconds, to some component. */
+	public static final String PING_MS = "pingms";
+	/** The age, in milliseconds, of the cached configuration. */
+	public static final String CONFIG_AGE_MS = "configagems";
+	/** The status of the identity providers. */
+	public static final String IDENTITY_PROVIDERS = "identityproviders";
+	/** Whether the last call to a component succeeded. */
+	public static final String OK = "ok";
+	/** The time, in milliseconds since the epoch, of the last successful call to a component. */
+	public static final String LAST_SUCCESS = "lastsuccess";
+	/** The time, in milliseconds since the epoch, of the last failed call to a component. */
+	public static final String LAST_FAILURE = "lastfailure";
+	/** JVM statistics. */
+	public static final String JVM = "jvm";
+	/** The amount of heap memory in use, in bytes. */
+	public static final String HEAP_USED = "heapused";
+	/** The maximum amount of heap memory, in bytes. */
+	public static final String HEAP_MAX = "heapmax";
+	/** The number of live threads. */
+	public static final String THREADS = "threads";
+	/** The peak number of live threads. */
+	public static final String PEAK_THREADS = "peakthreads";
+	/** The status of the user agent parser. */
+	public static final String USER_AGENT_PARSER = "useragentparser";
+	/** Statistics for the background task executor. */
+	public static final String BACKGROUND_TASKS = "backgroundtasks";
+	/** Cache statistics. */
+	public static final String CACHES = "caches";
+	/** The number of cache hits. */
+	public static final String HITS = "hits";
+	/** The number of cache misses. */
+	public static final String MISSES = "misses";
+	/** The ratio of cache hits to requests. */
+	public static final String HIT_RATIO = "hitratio";
+	
+	/* signed token keys */
+	
+	/** The list of keys with which signed tokens can be verified. */
+	public static final String KEYS = "keys";
+	
+	/* token revocation feed */
+	
+	/** Get revocation events after this sequence number. */
+	public static final String REVOKE_AFTER = "after";
+	/** The maximum number of revocation events to return. */
+	public static final String REVOKE_LIMIT = "limit";
+	/** The maximum time to wait for a revocation event in seconds. */
+	public static final String REVOKE_WAIT = "wait";
+	/** The sequence number of a revocation event, or of the last event returned. */
+	public static final String REVOKE_SEQUENCE = "sequence";
+	/** Whether the client has missed revocation events and must clear its token cache. */
+	public static final String REVOKE_RESET = "reset";
+	/** The list of revocation events. */
+	public static final String REVOCATIONS = "revocations";
+	/** The time of a revocation event. */
+	public static final String REVOKE_TIME = "time";
+	/** The scope of a revocation event - a single token, a user's tokens, or all tokens. */
+	public static final String REVOKE_SCOPE = "scope";
+	/** The hash of a revoked token. */
+	public static final String REVOKE_TOKEN_HASH = "hash";
+	
 	/* login */
 	
 	/** Whether the user's token should be set as a session token or not. */
@@ -172,11 +248,38 @@ public class Fields {
 	public static final String CUSTOM_CONTEXT = "customcontext";
 	/** The user's current token. */
 	public static final String CURRENT = "current";
+	/** The maximum number of tokens to list. */
+	public static final String TOKEN_LIMIT = "limit";
+	/** A comma separated list of the types of tokens to list. */
+	public static final String TOKEN_TYPES = "types";
+	/** List tokens after this position in the token list. */
+	public static final String TOKEN_AFTER = "after";
+	/** Whether there are more tokens after the listed tokens. */
+	public static final String TOKENS_MORE = "more";
+	
+	/* admin jobs */
+	
+	/** A list of admin jobs. */
+	public static final String JOBS = "jobs";
+	/** The type of an admin job. */
+	public static final String JOB_TYPE = "type";
+	/** The target of an admin job, e.g. the policy ID to remove. */
+	public static final String JOB_TARGET = "target";
+	/** The admin that started an admin job. */
+	public static final String JOB_ADMIN = "admin";
+	/** The number of records an admin job has processed. */
+	public static final String JOB_PROCESSED = "processed";
+	/** The number of records an admin job has matched. */
+	public static final String JOB_MATCHED = "matched";
+	/** When an admin job was completed. */
+	public static final String JOB_COMPLETED = "completed";
 	
 	/* urls */
 	
 	/** A url for a user. */
 	public static final String URL_USER = "userurl";
+	/** A url for the next page of a list. */
+	public static final String URL_NEXT = "nexturl";
 	/** A url for performing a reset. */
 	public static final String URL_RESET = "reseturl";
 	/** A url for revoking a token(s). */
@@ -189,6 +292,8 @@ public class Fields {
 	public static final String URL_POLICY = "policyurl";
 	/** A url for performing a search. */
 	public static final String URL_SEARCH = "searchurl";
+	/** A url for viewing admin jobs. */
+	public static final String URL_JOBS = "jobsurl";
 	/** A url for creating an entity. */
 	public static final String URL_CREATE = "createurl";
 	/** A url for accessing a role. */
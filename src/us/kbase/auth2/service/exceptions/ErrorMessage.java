@@ -20,8 +20,10 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 
 import us.kbase.auth2.lib.exceptions.AuthException;
 import us.kbase.auth2.lib.exceptions.AuthenticationException;
+import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.NoDataException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
+import us.kbase.auth2.lib.storage.exceptions.UnsupportedStorageOperationException;
 
 @JsonInclude(Include.NON_NULL)
 public class ErrorMessage {
@@ -88,6 +90,11 @@ public class ErrorMessage {
 			appcode = null;
 			apperror = null;
 			status = Response.Status.BAD_REQUEST;
+		} else if (ex instanceof UnsupportedStorageOperationException) {
+			// e.g. a request for user details from a server that only validates tokens
+			appcode = ErrorType.UNSUPPORTED_OP.getErrorCode();
+			apperror = ErrorType.UNSUPPORTED_OP.getError();
+			status = Response.Status.BAD_REQUEST;
 		} else {
 			appcode = null;
 			apperror = null;
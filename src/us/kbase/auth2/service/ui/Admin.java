@@ -2,8 +2,10 @@ package us.kbase.auth2.service.ui;
 
 import static us.kbase.auth2.service.common.ServiceCommon.getToken;
 import static us.kbase.auth2.service.common.ServiceCommon.nullOrEmpty;
+import static us.kbase.auth2.service.ui.UIUtils.getNextTokensURL;
 import static us.kbase.auth2.service.ui.UIUtils.getRolesFromForm;
 import static us.kbase.auth2.service.ui.UIUtils.getTokenFromCookie;
+import static us.kbase.auth2.service.ui.UIUtils.getTokenListSpecBuilder;
 import static us.kbase.auth2.service.ui.UIUtils.relativize;
 import static us.kbase.auth2.service.ui.UIUtils.removeLoginCookie;
 
@@ -33,6 +35,7 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -47,6 +50,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
+import us.kbase.auth2.lib.AdminJob;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
@@ -79,6 +83,7 @@ import us.kbase.auth2.lib.exceptions.UserExistsException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenPage;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.service.AuthAPIStaticConfig;
 import us.kbase.auth2.service.AuthExternalConfig;
@@ -117,6 +122,7 @@ public class Admin {
 		ret.put(Fields.URL_TOKEN, relativize(uriInfo, UIPaths.ADMIN_ROOT_TOKEN));
 		ret.put(Fields.URL_POLICY, relativize(uriInfo, UIPaths.ADMIN_ROOT_POLICY_ID));
 		ret.put(Fields.URL_SEARCH, relativize(uriInfo, UIPaths.ADMIN_ROOT_SEARCH));
+		ret.put(Fields.URL_JOBS, relativize(uriInfo, UIPaths.ADMIN_ROOT_JOBS));
 		ret.put(Fields.CUSTOM_ROLES, CustomRoles.customRolesToList(
 				auth.getCustomRoles(getTokenFromCookie(headers, cfg.getTokenCookieName()), true)));
 		return ret;
@@ -139,6 +145,30 @@ public class Admin {
 		return Response.ok().cookie(removeLoginCookie(cfg.getTokenCookieName())).build();
 	}
 	
+	@GET
+	@Path(UIPaths.ADMIN_JOBS)
+	@Template(name = "/adminjobs")
+	public Map<String, Object> getAdminJobs(@Context final HttpHeaders headers)
+			throws NoTokenProvidedException, InvalidTokenException, UnauthorizedException,
+			AuthStorageException {
+		final List<Map<String, Object>> jobs = new LinkedList<>();
+		for (final AdminJob j: auth.getAdminJobs(
+				getTokenFromCookie(headers, cfg.getTokenCookieName()))) {
+			final Map<String, Object> job = new HashMap<>();
+			job.put(Fields.ID, j.getID().toString());
+			job.put(Fields.JOB_TYPE, j.getType().getDescription());
+			job.put(Fields.JOB_TARGET, j.getTarget().orNull());
+			job.put(Fields.JOB_ADMIN, j.getAdmin().getName());
+			job.put(Fields.CREATED, j.getCreated().toEpochMilli());
+			job.put(Fields.JOB_MATCHED, j.getMatched());
+			job.put(Fields.JOB_PROCESSED, j.getProcessed());
+			job.put(Fields.JOB_COMPLETED, j.getCompleted().isPresent() ?
+					j.getCompleted().get().toEpochMilli() : null);
+			jobs.add(job);
+		}
+		return ImmutableMap.of(Fields.JOBS, jobs);
+	}
+	
 	@POST
 	@Path(UIPaths.ADMIN_TOKEN)
 	@Template(name = "/admintoken")
@@ -326,19 +356,25 @@ public class Admin {
 	public Map<String, Object> getUserTokens(
 			@Context final HttpHeaders headers,
 			@Context final UriInfo uriInfo,
-			@PathParam(UIPaths.USER) final String user)
+			@PathParam(UIPaths.USER) final String user,
+			@QueryParam(Fields.TOKEN_LIMIT) final String limit,
+			@QueryParam(Fields.TOKEN_TYPES) final String types,
+			@QueryParam(Fields.TOKEN_AFTER) final String after)
 			throws InvalidTokenException, UnauthorizedException, NoTokenProvidedException,
 			MissingParameterException, IllegalParameterException, AuthStorageException {
 		
-		final Set<StoredToken> tokens = auth.getTokens(
-				getTokenFromCookie(headers, cfg.getTokenCookieName()), new UserName(user));
-		final List<UIToken> uitokens = tokens.stream()
+		final TokenPage page = auth.getTokens(
+				getTokenFromCookie(headers, cfg.getTokenCookieName()), new UserName(user),
+				getTokenListSpecBuilder(limit, types, after).build());
+		final List<UIToken> uitokens = page.getTokens().stream()
 				.map(t -> new UIToken(t)).collect(Collectors.toList());
 		final String urlPrefix = UIPaths.ADMIN_ROOT_USER + SEP + user + SEP +
 				UIPaths.ADMIN_TOKENS + SEP;
 		final Map<String, Object> ret = new HashMap<>();
 		ret.put(Fields.USER, user);
 		ret.put(Fields.TOKENS, uitokens);
+		ret.put(Fields.TOKENS_MORE, page.hasMore());
+		ret.put(Fields.URL_NEXT, getNextTokensURL(uriInfo, page));
 		ret.put(Fields.URL_REVOKE, relativize(uriInfo, urlPrefix +
 				UIPaths.ADMIN_USER_TOKENS_REVOKE + SEP));
 		ret.put(Fields.URL_REVOKE_ALL, relativize(uriInfo, urlPrefix + UIPaths.ADMIN_REVOKE_ALL));
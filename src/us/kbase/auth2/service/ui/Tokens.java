@@ -5,7 +5,9 @@ import static us.kbase.auth2.service.common.ServiceCommon.getToken;
 import static us.kbase.auth2.service.common.ServiceCommon.getTokenContext;
 import static us.kbase.auth2.service.common.ServiceCommon.isIgnoreIPsInHeaders;
 import static us.kbase.auth2.service.ui.UIUtils.removeLoginCookie;
+import static us.kbase.auth2.service.ui.UIUtils.getNextTokensURL;
 import static us.kbase.auth2.service.ui.UIUtils.getTokenFromCookie;
+import static us.kbase.auth2.service.ui.UIUtils.getTokenListSpecBuilder;
 import static us.kbase.auth2.service.ui.UIUtils.relativize;
 
 import java.util.Collections;
@@ -26,6 +28,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -48,8 +51,10 @@ import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
-import us.kbase.auth2.lib.token.TokenSet;
+import us.kbase.auth2.lib.token.TokenPage;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.service.AuthAPIStaticConfig;
@@ -77,11 +82,15 @@ public class Tokens {
 	@Template(name = "/tokens")
 	public Map<String, Object> getTokensHTML(
 			@Context final HttpHeaders headers,
-			@Context final UriInfo uriInfo)
+			@Context final UriInfo uriInfo,
+			@QueryParam(Fields.TOKEN_LIMIT) final String limit,
+			@QueryParam(Fields.TOKEN_TYPES) final String types,
+			@QueryParam(Fields.TOKEN_AFTER) final String after)
 			throws AuthStorageException, InvalidTokenException,
-			NoTokenProvidedException, UnauthorizedException {
+			NoTokenProvidedException, UnauthorizedException, IllegalParameterException {
 		final Map<String, Object> t = getTokens(
-				getTokenFromCookie(headers, cfg.getTokenCookieName()), uriInfo);
+				getTokenFromCookie(headers, cfg.getTokenCookieName()), uriInfo,
+				getTokenListSpecBuilder(limit, types, after));
 		return t;
 	}
 	
@@ -89,10 +98,14 @@ public class Tokens {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Map<String, Object> getTokensJSON(
 			@HeaderParam(UIConstants.HEADER_TOKEN) final String headerToken,
-			@Context final UriInfo uriInfo)
+			@Context final UriInfo uriInfo,
+			@QueryParam(Fields.TOKEN_LIMIT) final String limit,
+			@QueryParam(Fields.TOKEN_TYPES) final String types,
+			@QueryParam(Fields.TOKEN_AFTER) final String after)
 			throws AuthStorageException, InvalidTokenException,
-			NoTokenProvidedException, UnauthorizedException {
-		return getTokens(getToken(headerToken), uriInfo);
+			NoTokenProvidedException, UnauthorizedException, IllegalParameterException {
+		return getTokens(getToken(headerToken), uriInfo,
+				getTokenListSpecBuilder(limit, types, after));
 	}
 	
 	@POST
@@ -210,17 +223,28 @@ public class Tokens {
 				Fields.TOKEN_SERVICE.equals(tokenType) ? TokenType.SERV : TokenType.DEV, tcc));
 	}
 
-	private Map<String, Object> getTokens(final IncomingToken token, final UriInfo uriInfo)
+	/* Users with many tokens, like service accounts with many agent tokens, would make the list
+	 * of all tokens very large, so the tokens are listed a page at a time.
+	 */
+	private Map<String, Object> getTokens(
+			final IncomingToken token,
+			final UriInfo uriInfo,
+			final TokenListSpec.Builder spec)
 			throws AuthStorageException, NoTokenProvidedException,
 			InvalidTokenException, UnauthorizedException {
 		final AuthUser au = auth.getUser(token);
-		final TokenSet ts = auth.getTokens(token);
+		final StoredToken current = auth.getToken(token);
+		// the current token is shown separately, so leave it out of the pages
+		final TokenPage page = auth.getTokens(token,
+				spec.withExcludedID(current.getId()).build());
 		final Map<String, Object> ret = new HashMap<>();
-		ret.put(Fields.CURRENT, new UIToken(ts.getCurrentToken()));
+		ret.put(Fields.CURRENT, new UIToken(current));
 		
-		final List<UIToken> ats = ts.getTokens().stream()
+		final List<UIToken> ats = page.getTokens().stream()
 				.map(t -> new UIToken(t)).collect(Collectors.toList());
 		ret.put(Fields.TOKENS, ats);
+		ret.put(Fields.TOKENS_MORE, page.hasMore());
+		ret.put(Fields.URL_NEXT, getNextTokensURL(uriInfo, page));
 		ret.put(Fields.TOKEN_DEV, Role.DEV_TOKEN.isSatisfiedBy(au.getRoles()));
 		ret.put(Fields.TOKEN_SERVICE, Role.SERV_TOKEN.isSatisfiedBy(au.getRoles()));
 		ret.put(Fields.USER, au.getUserName().getName());
@@ -71,6 +71,9 @@ public class UIPaths {
 	public static final String ADMIN_SEARCH = "search";
 	public static final String ADMIN_ROOT_SEARCH = ADMIN_ROOT + SEP + ADMIN_SEARCH;
 	
+	public static final String ADMIN_JOBS = "jobs";
+	public static final String ADMIN_ROOT_JOBS = ADMIN_ROOT + SEP + ADMIN_JOBS;
+	
 	public static final String ADMIN_TOKEN = TOKEN;
 	public static final String ADMIN_ROOT_TOKEN = ADMIN_ROOT + SEP + TOKEN;
 	public static final String ADMIN_TOKENS = TOKENS;
@@ -15,6 +15,7 @@ public class UIToken extends ExternalToken {
 	private final String agentver;
 	private final String device;
 	private final String ip;
+	private final Long lastused;
 
 	public UIToken(final StoredToken st) {
 		super(st);
@@ -25,6 +26,7 @@ public class UIToken extends ExternalToken {
 		agentver = ctx.getAgentVersion().isPresent() ? ctx.getAgentVersion().get() : null;
 		device = ctx.getDevice().isPresent() ? ctx.getDevice().get() : null;
 		ip = ctx.getIpAddress().isPresent() ? ctx.getIpAddress().get().getHostAddress() : null;
+		lastused = st.getLastUsed().isPresent() ? st.getLastUsed().get().toEpochMilli() : null;
 	}
 
 	public String getOs() {
@@ -50,4 +52,8 @@ public class UIToken extends ExternalToken {
 	public String getIp() {
 		return ip;
 	}
+
+	public Long getLastused() {
+		return lastused;
+	}
 }
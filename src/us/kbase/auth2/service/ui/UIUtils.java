@@ -13,6 +13,7 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.HttpHeaders;
@@ -29,15 +30,20 @@ import us.kbase.auth2.lib.config.ConfigAction.State;
 import us.kbase.auth2.lib.exceptions.AuthenticationException;
 import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.NewToken;
+import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.service.AuthExternalConfig;
 import us.kbase.auth2.service.AuthExternalConfig.AuthExternalConfigMapper;
+import us.kbase.auth2.service.common.Fields;
 
 public class UIUtils {
 
@@ -210,6 +216,86 @@ public class UIUtils {
 		return roles;
 	}
 	
+	/** Start building a token list specification from query parameters.
+	 * @param limit the maximum number of tokens to list, or null or whitespace to list all the
+	 * tokens.
+	 * @param types a comma separated list of token type IDs or descriptions to list, or null or
+	 * whitespace to list all types.
+	 * @param after the position in the list after which to start listing, as returned by
+	 * {@link #getTokenListPosition(StoredToken)}, or null or whitespace to start at the
+	 * beginning.
+	 * @return a builder for the token list specification.
+	 * @throws IllegalParameterException if any of the parameters are illegal.
+	 */
+	public static TokenListSpec.Builder getTokenListSpecBuilder(
+			final String limit,
+			final String types,
+			final String after)
+			throws IllegalParameterException {
+		final TokenListSpec.Builder b = TokenListSpec.getBuilder();
+		if (!nullOrEmpty(limit)) {
+			try {
+				b.withLimit(Integer.parseInt(limit.trim()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalParameterException(Fields.TOKEN_LIMIT +
+						" must be an integer between 1 and " + TokenListSpec.MAX_LIMIT);
+			}
+		}
+		if (!nullOrEmpty(types)) {
+			for (final String t: types.split(",")) {
+				b.withTokenType(getTokenType(t.trim()));
+			}
+		}
+		if (!nullOrEmpty(after)) {
+			final String[] pos = after.trim().split("_", 2);
+			try {
+				if (pos.length != 2) {
+					throw new IllegalArgumentException();
+				}
+				b.withStartAfter(Instant.ofEpochMilli(Long.parseLong(pos[0])),
+						UUID.fromString(pos[1]));
+			} catch (IllegalArgumentException e) { // includes NumberFormatException
+				throw new IllegalParameterException("Illegal token list position: " + after);
+			}
+		}
+		return b;
+	}
+	
+	private static TokenType getTokenType(final String type) throws IllegalParameterException {
+		for (final TokenType tt: TokenType.values()) {
+			if (tt.getID().equalsIgnoreCase(type) || tt.getDescription().equalsIgnoreCase(type)) {
+				return tt;
+			}
+		}
+		throw new IllegalParameterException("Illegal token type: " + type);
+	}
+	
+	/** Get the position of a token in a token list, which can be passed to
+	 * {@link #getTokenListSpecBuilder(String, String, String)} to list the tokens after the token.
+	 * @param token the token.
+	 * @return the position of the token.
+	 */
+	public static String getTokenListPosition(final StoredToken token) {
+		nonNull(token, "token");
+		return token.getExpirationDate().toEpochMilli() + "_" + token.getId();
+	}
+	
+	/** Get a url for the next page of a token list, relative to the current url. Any other
+	 * query parameters are preserved.
+	 * @param current the current url.
+	 * @param page the current page of the token list.
+	 * @return the url, or null if there are no more tokens.
+	 */
+	public static String getNextTokensURL(final UriInfo current, final TokenPage page) {
+		nonNull(current, "current");
+		nonNull(page, "page");
+		if (!page.getNextStart().isPresent()) {
+			return null;
+		}
+		return "?" + current.getRequestUriBuilder().replaceQueryParam(Fields.TOKEN_AFTER,
+				getTokenListPosition(page.getNextStart().get())).build().getRawQuery();
+	}
+	
 	/** A selector for a configured URL from an Authentication instance.
 	 * @author gaprice@lbl.gov
 	 *
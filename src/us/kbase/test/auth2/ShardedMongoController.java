@@ -0,0 +1,212 @@
+package us.kbase.test.auth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+
+/** Starts a local sharded MongoDB cluster for testing: a single member config server replica
+ * set, a number of single member shard replica sets, and a mongos router. Requires MongoDB
+ * 3.2 or later and a mongos executable in the same directory as the mongod executable.
+ *
+ * Clients should connect to the mongos port.
+ */
+public class ShardedMongoController {
+
+	private static final String CONFIG_SET = "cfg";
+	private static final String SHARD_SET = "shard";
+	private static final long START_TIMEOUT_MS = 60000;
+
+	private final Path tempDir;
+	private final List<Process> processes = new LinkedList<>();
+	private final int mongosPort;
+
+	/** Start a sharded cluster.
+	 * @param mongoExe the path to the mongod executable.
+	 * @param rootTempDir the directory in which to create the cluster's temporary directory.
+	 * @param useWiredTiger true to use the wired tiger storage engine.
+	 * @param shards the number of shards to create.
+	 * @throws Exception if the cluster could not be started.
+	 */
+	public ShardedMongoController(
+			final Path mongoExe,
+			final Path rootTempDir,
+			final boolean useWiredTiger,
+			final int shards)
+			throws Exception {
+		final Path mongos = mongoExe.resolveSibling("mongos");
+		if (!Files.isExecutable(mongos)) {
+			throw new IllegalArgumentException("No mongos executable at " + mongos);
+		}
+		Files.createDirectories(rootTempDir);
+		tempDir = Files.createTempDirectory(rootTempDir, "ShardedMongoController-");
+		try {
+			final int cfgPort = startReplicaSet(
+					mongoExe, useWiredTiger, CONFIG_SET, "--configsvr");
+			final List<String> shardHosts = new ArrayList<>();
+			for (int i = 0; i < shards; i++) {
+				final String set = SHARD_SET + i;
+				shardHosts.add(set + "/localhost:" +
+						startReplicaSet(mongoExe, useWiredTiger, set, "--shardsvr"));
+			}
+			mongosPort = TestCommon.findFreePort();
+			start("mongos", Arrays.asList(mongos.toString(),
+					"--port", "" + mongosPort,
+					"--bind_ip", "localhost",
+					"--configdb", CONFIG_SET + "/localhost:" + cfgPort));
+			try (final MongoClient mc = waitForServer(mongosPort)) {
+				final MongoDatabase admin = mc.getDatabase("admin");
+				for (final String host: shardHosts) {
+					admin.runCommand(new Document("addShard", host));
+				}
+			}
+		} catch (Exception e) {
+			destroy(true);
+			throw e;
+		}
+	}
+
+	private int startReplicaSet(
+			final Path mongoExe,
+			final boolean useWiredTiger,
+			final String name,
+			final String role)
+			throws Exception {
+		final int port = TestCommon.findFreePort();
+		final Path data = Files.createDirectory(tempDir.resolve(name));
+		final List<String> cmd = new ArrayList<>(Arrays.asList(mongoExe.toString(),
+				role,
+				"--replSet", name,
+				"--port", "" + port,
+				"--bind_ip", "localhost",
+				"--dbpath", data.toString()));
+		// config server replica sets require wired tiger
+		if (useWiredTiger || role.equals("--configsvr")) {
+			cmd.addAll(Arrays.asList("--storageEngine", "wiredTiger"));
+		}
+		start(name, cmd);
+		try (final MongoClient mc = waitForServer(port)) {
+			final MongoDatabase admin = mc.getDatabase("admin");
+			final Document member = new Document("_id", 0).append("host", "localhost:" + port);
+			final Document cfg = new Document("_id", name)
+					.append("members", Arrays.asList(member));
+			if (role.equals("--configsvr")) {
+				cfg.append("configsvr", true);
+			}
+			admin.runCommand(new Document("replSetInitiate", cfg));
+			waitFor(() -> admin.runCommand(new Document("isMaster", 1)).getBoolean("ismaster"),
+					"Replica set " + name + " did not elect a primary");
+		}
+		return port;
+	}
+
+	private void start(final String name, final List<String> cmd) throws IOException {
+		processes.add(new ProcessBuilder(cmd)
+				.redirectErrorStream(true)
+				.redirectOutput(tempDir.resolve(name + ".log").toFile())
+				.start());
+	}
+
+	private interface Check {
+		boolean check() throws Exception;
+	}
+
+	private void waitFor(final Check check, final String error) throws Exception {
+		final long end = System.currentTimeMillis() + START_TIMEOUT_MS;
+		while (System.currentTimeMillis() < end) {
+			try {
+				if (check.check()) {
+					return;
+				}
+			} catch (MongoException e) {
+				// not ready yet
+			}
+			Thread.sleep(200);
+		}
+		throw new IllegalStateException(error + " within " + START_TIMEOUT_MS + " ms");
+	}
+
+	private MongoClient waitForServer(final int port) throws Exception {
+		final MongoClient mc = new MongoClient("localhost:" + port);
+		try {
+			waitFor(() -> mc.getDatabase("admin").runCommand(new Document("ping", 1)) != null,
+					"Server on port " + port + " did not start");
+		} catch (Exception e) {
+			mc.close();
+			throw e;
+		}
+		return mc;
+	}
+
+	/** Get the port of the mongos router.
+	 * @return the port.
+	 */
+	public int getServerPort() {
+		return mongosPort;
+	}
+
+	/** Shard collections in a database.
+	 * @param client a client connected to the mongos router.
+	 * @param db the name of the database.
+	 * @param shardKeys the shard keys, keyed by collection name.
+	 */
+	public void shardCollections(
+			final MongoClient client,
+			final String db,
+			final Map<String, Document> shardKeys) {
+		final MongoDatabase admin = client.getDatabase("admin");
+		try {
+			admin.runCommand(new Document("enableSharding", db));
+		} catch (MongoException e) {
+			// sharding is already enabled for the database
+		}
+		for (final Entry<String, Document> e: shardKeys.entrySet()) {
+			admin.runCommand(new Document("shardCollection", db + "." + e.getKey())
+					.append("key", e.getValue()));
+		}
+	}
+
+	/** Stop the cluster.
+	 * @param deleteTempFiles true to delete the cluster's data and log files.
+	 * @throws IOException if the temporary files could not be deleted.
+	 */
+	public void destroy(final boolean deleteTempFiles) throws IOException {
+		// stop the router first, then the shards, then the config servers
+		for (int i = processes.size() - 1; i >= 0; i--) {
+			final Process p = processes.get(i);
+			p.destroy();
+			try {
+				if (!p.waitFor(10, TimeUnit.SECONDS)) {
+					p.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				p.destroyForcibly();
+			}
+		}
+		processes.clear();
+		if (deleteTempFiles && Files.exists(tempDir)) {
+			// delete the directory contents before the directories
+			try (final Stream<Path> paths = Files.walk(tempDir)) {
+				for (final Path p: paths.sorted(Comparator.reverseOrder())
+						.collect(Collectors.toList())) {
+					Files.delete(p);
+				}
+			}
+		}
+	}
+}
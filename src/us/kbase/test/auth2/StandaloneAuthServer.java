@@ -4,6 +4,7 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.servlet.ServletContainer;
 
 import us.kbase.auth2.kbase.KBaseAuthConfig;
@@ -13,15 +14,28 @@ public class StandaloneAuthServer {
 
 	private Integer port = null;
 	private Server server;
+	private Integer maxThreads = null;
 	
 	public StandaloneAuthServer(final String configClass) throws Exception {
 		
 		AuthenticationService.setConfig(configClass);
 	}
 	
+	// call before start(). null for the Jetty default.
+	public void setMaxThreads(final Integer maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+	
 	// pass 0 for random port
 	public void start(final int port) throws Exception {
-		server = new Server(port);
+		if (maxThreads == null) {
+			server = new Server();
+		} else {
+			server = new Server(new QueuedThreadPool(maxThreads));
+		}
+		final ServerConnector connector = new ServerConnector(server);
+		connector.setPort(port);
+		server.addConnector(connector);
 
 		final ServletContextHandler context = new ServletContextHandler();
 		context.setContextPath("/");
@@ -29,6 +43,7 @@ public class StandaloneAuthServer {
 
 		final ServletHolder jerseyServlet = context.addServlet(ServletContainer.class, "/*");
 		jerseyServlet.setInitOrder(1);
+		jerseyServlet.setAsyncSupported(true);
 		jerseyServlet.setInitParameter("javax.ws.rs.Application",
 				"us.kbase.auth2.service.AuthenticationService");
 		server.start();
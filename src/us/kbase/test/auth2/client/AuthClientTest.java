@@ -0,0 +1,254 @@
+package us.kbase.test.auth2.client;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.client.AuthClient;
+import us.kbase.auth2.kbase.KBaseAuthConfig;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.AuthException;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.test.auth2.MongoStorageTestManager;
+import us.kbase.test.auth2.StandaloneAuthServer;
+import us.kbase.test.auth2.StandaloneAuthServer.ServerThread;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.service.ServiceTestUtils;
+
+public class AuthClientTest {
+
+	private static final String DB_NAME = "test_auth_client";
+	private static final String COOKIE_NAME = "login-cookie";
+
+	private static MongoStorageTestManager manager = null;
+	private static StandaloneAuthServer server = null;
+	private static String host = null;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		TestCommon.stfuLoggers();
+		manager = new MongoStorageTestManager(DB_NAME);
+		final Path cfgfile = ServiceTestUtils.generateTempConfigFile(manager, DB_NAME, COOKIE_NAME);
+		TestCommon.getenv().put("KB_DEPLOYMENT_CONFIG", cfgfile.toString());
+		server = new StandaloneAuthServer(KBaseAuthConfig.class.getName());
+		new ServerThread(server).start();
+		System.out.println("Main thread waiting for server to start up");
+		while (server.getPort() == null) {
+			Thread.sleep(1000);
+		}
+		host = "http://localhost:" + server.getPort();
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (manager != null) {
+			manager.destroy();
+		}
+	}
+
+	@Before
+	public void beforeTest() throws Exception {
+		ServiceTestUtils.resetServer(manager, host, COOKIE_NAME);
+	}
+
+	private AuthClient client() throws Exception {
+		return AuthClient.getBuilder(new URL(host)).build();
+	}
+
+	private StoredToken storeToken(final String user, final String token) throws Exception {
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.AGENT, UUID.randomUUID(), new UserName(user))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(1000000000000000L))
+				.withTokenName(new TokenName("bar"))
+				.withContext(TokenCreationContext.getBuilder()
+						.withCustomContext("whee", "whoo").build())
+				.build();
+		manager.storage.storeToken(st, IncomingToken.hash(token));
+		return st;
+	}
+
+	private void createUser(final String user, final String display) throws Exception {
+		manager.storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName(user), new DisplayName(display), Instant.ofEpochMilli(10000))
+				.withEmailAddress(new EmailAddress("f@g.com")).build(),
+				new PasswordHashAndSalt("foobarbazbing".getBytes(), "zz".getBytes()));
+	}
+
+	@Test
+	public void validateTokenCached() throws Exception {
+		final StoredToken st = storeToken("foo", "foobarbaz");
+		final AuthClient cli = client();
+
+		final StoredToken expected = StoredToken.getBuilder(
+				TokenType.AGENT, st.getId(), new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(1000000000000000L))
+				.withTokenName(new TokenName("bar"))
+				.withContext(TokenCreationContext.getBuilder()
+						.withCustomContext("whee", "whoo").build())
+				.build();
+		assertThat("incorrect token", cli.validateToken(new IncomingToken("foobarbaz")),
+				is(expected));
+
+		// the token is cached, so deleting it doesn't affect the client
+		manager.storage.deleteToken(new UserName("foo"), st.getId());
+		assertThat("incorrect token", cli.validateToken(new IncomingToken("foobarbaz")),
+				is(expected));
+		assertThat("incorrect loads", cli.getTokenCacheStats().loadCount(), is(1L));
+		assertThat("incorrect hits", cli.getTokenCacheStats().hitCount(), is(1L));
+
+		cli.clearTokenCache();
+		failValidateToken(cli, "foobarbaz", new InvalidTokenException());
+	}
+
+	@Test
+	public void validateTokenConcurrent() throws Exception {
+		final StoredToken st = storeToken("foo", "foobarbaz");
+		final AuthClient cli = client();
+		final int threads = 20;
+		final ExecutorService exe = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<StoredToken>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(exe.submit(() -> {
+				start.await();
+				return cli.validateToken(new IncomingToken("foobarbaz"));
+			}));
+		}
+		start.countDown();
+		for (final Future<StoredToken> f: results) {
+			assertThat("incorrect token id", f.get().getId(), is(st.getId()));
+		}
+		exe.shutdown();
+		// all the lookups were served by one request
+		assertThat("incorrect loads", cli.getTokenCacheStats().loadCount(), is(1L));
+	}
+
+	@Test
+	public void validateTokenFailBadToken() throws Exception {
+		final AuthClient cli = client();
+		failValidateToken(cli, "foobarbaz", new InvalidTokenException());
+		// failures are not cached
+		storeToken("foo", "foobarbaz");
+		assertThat("incorrect user", cli.validateToken(new IncomingToken("foobarbaz"))
+				.getUserName(), is(new UserName("foo")));
+	}
+
+	private void failValidateToken(
+			final AuthClient cli,
+			final String token,
+			final Exception expected) {
+		try {
+			cli.validateToken(new IncomingToken(token));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getMe() throws Exception {
+		createUser("foo", "bar");
+		storeToken("foo", "foobarbaz");
+
+		final AuthUser u = client().getMe(new IncomingToken("foobarbaz"));
+
+		assertThat("incorrect user", u, is(AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.ofEpochMilli(10000))
+				.withEmailAddress(new EmailAddress("f@g.com")).build()));
+	}
+
+	@Test
+	public void getMeFailDisabled() throws Exception {
+		createUser("foo", "bar");
+		storeToken("foo", "foobarbaz");
+		manager.storage.disableAccount(new UserName("foo"), new UserName("baz"), "reason");
+
+		try {
+			client().getMe(new IncomingToken("foobarbaz"));
+			fail("expected exception");
+		} catch (AuthException got) {
+			assertThat("incorrect error", got.getErr(), is(ErrorType.DISABLED));
+		}
+	}
+
+	@Test
+	public void getDisplayNamesBatched() throws Exception {
+		createUser("foo", "bar");
+		createUser("baz", "bat");
+		createUser("whee", "whoo");
+		storeToken("foo", "foobarbaz");
+		final AuthClient cli = AuthClient.getBuilder(new URL(host)).withUserBatchSize(2).build();
+
+		final Map<UserName, DisplayName> names = cli.getDisplayNames(
+				new IncomingToken("foobarbaz"), set(new UserName("foo"), new UserName("baz"),
+						new UserName("whee"), new UserName("nouser")));
+
+		assertThat("incorrect names", names, is(ImmutableMap.of(
+				new UserName("foo"), new DisplayName("bar"),
+				new UserName("baz"), new DisplayName("bat"),
+				new UserName("whee"), new DisplayName("whoo"))));
+	}
+
+	@Test
+	public void buildFail() throws Exception {
+		failBuild(() -> AuthClient.getBuilder(null), new NullPointerException("url"));
+		failBuild(() -> AuthClient.getBuilder(new URL("ftp://foo.com")),
+				new IllegalArgumentException("url must be an http or https URL"));
+		failBuild(() -> AuthClient.getBuilder(new URL(host)).withTokenCacheSize(-1),
+				new IllegalArgumentException("size must be at least 0"));
+		failBuild(() -> AuthClient.getBuilder(new URL(host)).withMaxConnections(0),
+				new IllegalArgumentException("maxConnections must be at least 1"));
+		failBuild(() -> AuthClient.getBuilder(new URL(host)).withTimeouts(0, 1),
+				new IllegalArgumentException("timeouts must be at least 1"));
+		failBuild(() -> AuthClient.getBuilder(new URL(host)).withUserBatchSize(0),
+				new IllegalArgumentException("batchSize must be at least 1"));
+	}
+
+	private interface BuilderCall {
+		Object call() throws Exception;
+	}
+
+	private void failBuild(final BuilderCall call, final Exception expected) {
+		try {
+			call.call();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
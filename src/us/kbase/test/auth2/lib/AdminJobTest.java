@@ -0,0 +1,188 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.test.auth2.TestCommon;
+
+public class AdminJobTest {
+
+	private static final Instant NOW = Instant.now();
+	private static final UUID ID = UUID.randomUUID();
+
+	@Test
+	public void equals() {
+		EqualsVerifier.forClass(AdminJob.class).usingGetClass().verify();
+	}
+
+	@Test
+	public void jobTypeGetType() {
+		assertThat("incorrect type", AdminJobType.getType("RevokeTokens"),
+				is(AdminJobType.REVOKE_ALL_TOKENS));
+		assertThat("incorrect type", AdminJobType.getType("ResetPwds"),
+				is(AdminJobType.FORCE_RESET_PASSWORDS));
+		assertThat("incorrect type", AdminJobType.getType("DelCustRole"),
+				is(AdminJobType.DELETE_CUSTOM_ROLE));
+		assertThat("incorrect type", AdminJobType.getType("RemPolicyID"),
+				is(AdminJobType.REMOVE_POLICY_ID));
+	}
+
+	@Test
+	public void jobTypeGetTypeFail() {
+		try {
+			AdminJobType.getType("foo");
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("Invalid admin job type id: foo"));
+		}
+	}
+
+	@Test
+	public void jobTypeFields() {
+		assertThat("incorrect description", AdminJobType.REVOKE_ALL_TOKENS.getDescription(),
+				is("Revoke all tokens"));
+		assertThat("incorrect target", AdminJobType.REVOKE_ALL_TOKENS.requiresTarget(),
+				is(false));
+		assertThat("incorrect target", AdminJobType.FORCE_RESET_PASSWORDS.requiresTarget(),
+				is(false));
+		assertThat("incorrect target", AdminJobType.DELETE_CUSTOM_ROLE.requiresTarget(),
+				is(true));
+		assertThat("incorrect target", AdminJobType.REMOVE_POLICY_ID.requiresTarget(),
+				is(true));
+	}
+
+	@Test
+	public void buildMinimal() throws Exception {
+		final AdminJob j = AdminJob.getBuilder(
+				ID, AdminJobType.REVOKE_ALL_TOKENS, new UserName("foo"), NOW).build();
+
+		assertThat("incorrect id", j.getID(), is(ID));
+		assertThat("incorrect type", j.getType(), is(AdminJobType.REVOKE_ALL_TOKENS));
+		assertThat("incorrect target", j.getTarget(), is(Optional.absent()));
+		assertThat("incorrect admin", j.getAdmin(), is(new UserName("foo")));
+		assertThat("incorrect created", j.getCreated(), is(NOW));
+		assertThat("incorrect matched", j.getMatched(), is(0L));
+		assertThat("incorrect processed", j.getProcessed(), is(0L));
+		assertThat("incorrect completed", j.getCompleted(), is(Optional.absent()));
+		assertThat("incorrect complete", j.isComplete(), is(false));
+	}
+
+	@Test
+	public void buildMaximal() throws Exception {
+		final AdminJob j = AdminJob.getBuilder(
+				ID, AdminJobType.REMOVE_POLICY_ID, new UserName("foo"), NOW)
+				.withTarget("pid")
+				.withMatched(56)
+				.withProcessed(42)
+				.withCompleted(NOW.plusSeconds(10))
+				.build();
+
+		assertThat("incorrect id", j.getID(), is(ID));
+		assertThat("incorrect type", j.getType(), is(AdminJobType.REMOVE_POLICY_ID));
+		assertThat("incorrect target", j.getTarget(), is(Optional.of("pid")));
+		assertThat("incorrect admin", j.getAdmin(), is(new UserName("foo")));
+		assertThat("incorrect created", j.getCreated(), is(NOW));
+		assertThat("incorrect matched", j.getMatched(), is(56L));
+		assertThat("incorrect processed", j.getProcessed(), is(42L));
+		assertThat("incorrect completed", j.getCompleted(),
+				is(Optional.of(NOW.plusSeconds(10))));
+		assertThat("incorrect complete", j.isComplete(), is(true));
+	}
+
+	@Test
+	public void getBuilderFail() throws Exception {
+		final UserName u = new UserName("foo");
+		final AdminJobType t = AdminJobType.FORCE_RESET_PASSWORDS;
+		failGetBuilder(null, t, u, NOW, new NullPointerException("id"));
+		failGetBuilder(ID, null, u, NOW, new NullPointerException("type"));
+		failGetBuilder(ID, t, null, NOW, new NullPointerException("admin"));
+		failGetBuilder(ID, t, u, null, new NullPointerException("created"));
+	}
+
+	private void failGetBuilder(
+			final UUID id,
+			final AdminJobType type,
+			final UserName admin,
+			final Instant created,
+			final Exception e) {
+		try {
+			AdminJob.getBuilder(id, type, admin, created);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void builderFail() throws Exception {
+		final AdminJob.Builder b = AdminJob.getBuilder(
+				ID, AdminJobType.DELETE_CUSTOM_ROLE, new UserName("foo"), NOW);
+		try {
+			b.withTarget(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"Missing argument: target"));
+		}
+		try {
+			b.withTarget("   \t  ");
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"Missing argument: target"));
+		}
+		try {
+			b.withMatched(-1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"matched must be >= 0"));
+		}
+		try {
+			b.withProcessed(-1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"processed must be >= 0"));
+		}
+		try {
+			b.withCompleted(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("completed"));
+		}
+	}
+
+	@Test
+	public void buildFailTarget() throws Exception {
+		try {
+			AdminJob.getBuilder(ID, AdminJobType.DELETE_CUSTOM_ROLE, new UserName("foo"), NOW)
+					.build();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalStateException(
+					"Job type Delete custom role requires a target"));
+		}
+		try {
+			AdminJob.getBuilder(ID, AdminJobType.REVOKE_ALL_TOKENS, new UserName("foo"), NOW)
+					.withTarget("foo").build();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalStateException(
+					"Job type Revoke all tokens does not accept a target"));
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.exceptions.UnauthorizedException;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.AuthenticationTester.TestMocks;
+
+public class AuthenticationAdminJobTest {
+
+	/* Tests admin job listing and background processing. Job creation is tested along with the
+	 * operations that create the jobs.
+	 */
+
+	private static final Instant NOW = Instant.ofEpochMilli(20000);
+
+	private static AdminJob.Builder job(final UUID id) throws Exception {
+		return AdminJob.getBuilder(id, AdminJobType.REMOVE_POLICY_ID, new UserName("admin"), NOW)
+				.withTarget("foo");
+	}
+
+	private static IncomingToken setUpAdmin(
+			final TestMocks testauth,
+			final UserName adminName,
+			final Role adminRole)
+			throws Exception {
+		final IncomingToken token = new IncomingToken("foobar");
+		when(testauth.storageMock.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), adminName)
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		when(testauth.storageMock.getUser(adminName)).thenReturn(AuthUser.getBuilder(
+				adminName, new DisplayName("foobar"), Instant.now())
+				.withRole(adminRole).build());
+		return token;
+	}
+
+	@Test
+	public void getAdminJobs() throws Exception {
+		getAdminJobs(new UserName("admin"), Role.ADMIN);
+		getAdminJobs(new UserName("admin"), Role.CREATE_ADMIN);
+		getAdminJobs(UserName.ROOT, Role.ROOT);
+	}
+
+	private void getAdminJobs(final UserName adminName, final Role adminRole) throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		final IncomingToken token = setUpAdmin(testauth, adminName, adminRole);
+		final List<AdminJob> jobs = Arrays.asList(
+				job(UUID.randomUUID()).build(),
+				job(UUID.randomUUID()).withProcessed(3).withCompleted(NOW).build());
+		when(storage.getAdminJobs(false)).thenReturn(jobs);
+
+		assertThat("incorrect jobs", auth.getAdminJobs(token), is(jobs));
+	}
+
+	@Test
+	public void getAdminJobsFailRole() throws Exception {
+		for (final Role r: Arrays.asList(Role.DEV_TOKEN, Role.SERV_TOKEN)) {
+			final TestMocks testauth = initTestMocks();
+			final IncomingToken token = setUpAdmin(testauth, new UserName("foo"), r);
+			failGetAdminJobs(testauth.auth, token,
+					new UnauthorizedException(ErrorType.UNAUTHORIZED));
+		}
+	}
+
+	@Test
+	public void getAdminJobsFailBadToken() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final IncomingToken token = new IncomingToken("foo");
+
+		when(testauth.storageMock.getToken(token.getHashedToken()))
+				.thenThrow(new NoSuchTokenException("foo"));
+
+		failGetAdminJobs(testauth.auth, null, new NullPointerException("token"));
+		failGetAdminJobs(testauth.auth, token, new InvalidTokenException());
+	}
+
+	private void failGetAdminJobs(
+			final Authentication auth,
+			final IncomingToken token,
+			final Exception e) {
+		try {
+			auth.getAdminJobs(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void processJobInBatches() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+
+		final IncomingToken token = setUpAdmin(testauth, new UserName("admin"), Role.ADMIN);
+		final UUID id = UUID.randomUUID();
+		when(testauth.randGenMock.randomUUID()).thenReturn(id);
+		when(testauth.clockMock.instant()).thenReturn(NOW);
+
+		final AdminJob job = auth.removePolicyID(token, new PolicyID("foo"));
+		final AdminJob batch1 = job(id).withProcessed(1000).build();
+		final AdminJob batch2 = job(id).withProcessed(1500).withCompleted(NOW).build();
+		when(storage.processAdminJobBatch(job, 1000)).thenReturn(batch1);
+		when(storage.processAdminJobBatch(batch1, 1000)).thenReturn(batch2);
+
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).execute(task.capture());
+		task.getValue().run();
+
+		// the next batch is rate limited
+		verify(executor).schedule(task.capture(), eq(1000L), eq(TimeUnit.MILLISECONDS));
+		task.getValue().run();
+
+		verify(storage).processAdminJobBatch(batch1, 1000);
+		// the job is complete, so no further batches
+		verify(executor, times(1)).schedule(
+				any(Runnable.class), any(Long.class), any(TimeUnit.class));
+
+		// the job is no longer running, so the sweep may restart it
+		final ArgumentCaptor<Runnable> sweep = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				sweep.capture(), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+		when(storage.getAdminJobs(true)).thenReturn(Arrays.asList(batch1));
+		sweep.getValue().run();
+		verify(executor, times(2)).execute(any(Runnable.class));
+	}
+
+	@Test
+	public void sweepResumesJobs() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		final ArgumentCaptor<Runnable> sweep = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				sweep.capture(), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+
+		final AdminJob job1 = job(UUID.randomUUID()).build();
+		final AdminJob job2 = job(UUID.randomUUID()).withProcessed(6000).build();
+		when(storage.getAdminJobs(true)).thenReturn(Arrays.asList(job1, job2));
+		sweep.getValue().run();
+
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(2)).execute(task.capture());
+
+		// jobs that are already running aren't started again
+		sweep.getValue().run();
+		verify(executor, times(2)).execute(any(Runnable.class));
+
+		when(storage.processAdminJobBatch(job1, 1000)).thenReturn(
+				job(job1.getID()).withProcessed(1).withCompleted(NOW).build());
+		when(storage.processAdminJobBatch(job2, 1000)).thenReturn(
+				job(job2.getID()).withProcessed(6001).withCompleted(NOW).build());
+		task.getAllValues().get(0).run();
+		task.getAllValues().get(1).run();
+		verify(executor, never()).schedule(
+				any(Runnable.class), any(Long.class), any(TimeUnit.class));
+	}
+
+	@Test
+	public void processJobFail() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		final ArgumentCaptor<Runnable> sweep = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				sweep.capture(), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+
+		final AdminJob job = job(UUID.randomUUID()).build();
+		when(storage.getAdminJobs(true)).thenThrow(new AuthStorageException("foo"))
+				.thenReturn(Arrays.asList(job));
+
+		// failures are logged and retried on the next sweep
+		sweep.getValue().run();
+		verify(executor, never()).execute(any(Runnable.class));
+
+		sweep.getValue().run();
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).execute(task.capture());
+
+		when(storage.processAdminJobBatch(job, 1000)).thenThrow(new AuthStorageException("bar"));
+		task.getValue().run();
+		verify(executor, never()).schedule(
+				any(Runnable.class), any(Long.class), any(TimeUnit.class));
+
+		// the failed job is no longer running, so the next sweep restarts it
+		sweep.getValue().run();
+		verify(executor, times(2)).execute(any(Runnable.class));
+	}
+
+	@Test
+	public void completeJobIsNotStarted() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		final ArgumentCaptor<Runnable> sweep = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				sweep.capture(), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+
+		when(storage.getAdminJobs(true)).thenReturn(Collections.emptyList())
+				.thenReturn(Arrays.asList(job(UUID.randomUUID()).withCompleted(NOW).build()));
+		sweep.getValue().run();
+		sweep.getValue().run();
+
+		verify(executor, never()).execute(any(Runnable.class));
+	}
+}
@@ -287,7 +287,7 @@ public class AuthenticationCreateLocalUserTest {
 		failCreateLocalUser(auth, token, new UserName("foo"), new DisplayName("bar"),
 				new EmailAddress("f@g.com"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("admin"));
+		verify(storage).addTokenRevocation(new UserName("admin"));
 	}
 	
 	@Test
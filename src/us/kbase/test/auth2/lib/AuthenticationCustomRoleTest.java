@@ -3,6 +3,7 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -18,6 +19,8 @@ import java.util.UUID;
 
 import org.junit.Test;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
@@ -152,7 +155,7 @@ public class AuthenticationCustomRoleTest {
 		
 		failCreateRole(auth, token, new CustomRole("a", "b"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 
 	private void successCreateRole(final UserName adminName, final Role adminRole)
@@ -319,7 +322,7 @@ public class AuthenticationCustomRoleTest {
 		
 		failDeleteRole(auth, token, "foo", new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 	
 	private void successDeleteRole(final UserName adminName, final Role adminRole)
@@ -341,9 +344,17 @@ public class AuthenticationCustomRoleTest {
 		
 		when(storage.getUser(adminName)).thenReturn(u, (AuthUser) null);
 		
-		auth.deleteCustomRole(token, "someRole");
+		final UUID id = UUID.randomUUID();
+		when(testauth.randGenMock.randomUUID()).thenReturn(id, (UUID) null);
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(20000), (Instant) null);
+		
+		final AdminJob job = auth.deleteCustomRole(token, "someRole");
 
-		verify(storage).deleteCustomRole("someRole");
+		final AdminJob expected = AdminJob.getBuilder(id, AdminJobType.DELETE_CUSTOM_ROLE,
+				adminName, Instant.ofEpochMilli(20000)).withTarget("someRole").build();
+		assertThat("incorrect job", job, is(expected));
+		verify(storage).deleteCustomRole("someRole", expected);
+		verify(testauth.executorMock).execute(any(Runnable.class));
 	}
 	
 	private void failDeleteRole(
@@ -498,7 +509,7 @@ public class AuthenticationCustomRoleTest {
 		
 		failGetCustomRoles(auth, token, true, new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 
 	private void succeedGetCustomRoles(final UserName un, final Role r, final boolean forceAdmin)
@@ -681,7 +692,7 @@ public class AuthenticationCustomRoleTest {
 		failUpdateCustomRole(auth, token, new UserName("bar"), set("foo"), set("bar"),
 				new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 	
 	@Test
@@ -1,17 +1,24 @@
 package us.kbase.test.auth2.lib;
 
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import static us.kbase.test.auth2.TestCommon.set;
 import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
 
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
@@ -27,8 +34,10 @@ import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.test.auth2.TestCommon;
@@ -162,7 +171,7 @@ public class AuthenticationDisableUserTest {
 		
 		failDisableUser(auth, token, new UserName("foo"), "r", new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
@@ -189,7 +198,145 @@ public class AuthenticationDisableUserTest {
 		failDisableUser(auth, token, new UserName("foo"), "foo is suxxor",
 				new NoSuchUserException("foo"));
 		
+		verify(storage, never()).addTokenRevocation(new UserName("foo"));
+	}
+
+	@Test
+	public void disableUserRevokesTokensInBackground() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("baz"))
+						.withLifeTime(Instant.now(), Instant.now()).build())
+				.thenReturn(null);
+		
+		when(storage.getUser(new UserName("baz"))).thenReturn(AuthUser.getBuilder(
+				new UserName("baz"), new DisplayName("foo"), Instant.now())
+				.withRole(Role.ADMIN).build())
+				.thenReturn(null);
+		
+		auth.disableAccount(token, new UserName("foo"), "foo is suxxor");
+		
+		verify(storage).addTokenRevocation(new UserName("foo"));
+		verify(storage, never()).deleteTokens(new UserName("foo"));
+		
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).execute(task.capture());
+		
+		when(storage.getTokenRevocations()).thenReturn(set(new UserName("foo")));
+		
+		task.getValue().run();
+		
 		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).removeTokenRevocation(new UserName("foo"));
+	}
+	
+	@Test
+	public void disabledUserTokenRevocationQueuedOnce() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		
+		when(storage.getUser(new UserName("foo"))).thenReturn(AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("f"), Instant.now())
+				.withUserDisabledState(
+						new UserDisabledState("f", new UserName("b"), Instant.now())).build());
+		
+		failGetUser(auth, token, new DisabledUserException());
+		failGetUser(auth, token, new DisabledUserException());
+		
+		// repeated requests for a disabled user should not cause repeated writes
+		verify(storage, times(1)).addTokenRevocation(new UserName("foo"));
+		
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).execute(task.capture());
+		when(storage.getTokenRevocations()).thenReturn(set(new UserName("foo")));
+		task.getValue().run();
+		
+		// the revocation is complete, so a new request should queue another revocation
+		failGetUser(auth, token, new DisabledUserException());
+		
+		verify(storage, times(2)).addTokenRevocation(new UserName("foo"));
+	}
+	
+	@Test
+	public void disabledUserTokenRevocationFailQueue() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		
+		when(storage.getUser(new UserName("foo"))).thenReturn(AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("f"), Instant.now())
+				.withUserDisabledState(
+						new UserDisabledState("f", new UserName("b"), Instant.now())).build());
+		
+		doThrow(new AuthStorageException("foo")).doNothing()
+				.when(storage).addTokenRevocation(new UserName("foo"));
+		
+		failGetUser(auth, token, new AuthStorageException("foo"));
+		verify(executor, never()).execute(any(Runnable.class));
+		
+		// the failed revocation should not prevent the revocation from being queued again
+		failGetUser(auth, token, new DisabledUserException());
+		
+		verify(storage, times(2)).addTokenRevocation(new UserName("foo"));
+		verify(executor).execute(any(Runnable.class));
+	}
+	
+	@Test
+	public void tokenRevocationSweep() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				task.capture(), eq(60000L), eq(60000L), eq(TimeUnit.MILLISECONDS));
+		
+		when(storage.getTokenRevocations()).thenReturn(
+				set(new UserName("foo"), new UserName("bar")));
+		doThrow(new AuthStorageException("foo")).when(storage).deleteTokens(new UserName("bar"));
+		
+		// failures are logged and retried on the next sweep
+		task.getValue().run();
+		
+		verify(storage).removeTokenRevocation(new UserName("foo"));
+		verify(storage, never()).removeTokenRevocation(new UserName("bar"));
+		
+		when(storage.getTokenRevocations()).thenThrow(new AuthStorageException("whee"));
+		
+		task.getValue().run();
+	}
+	
+	private void failGetUser(
+			final Authentication auth,
+			final IncomingToken token,
+			final Exception e) {
+		try {
+			auth.getUser(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
 	}
 
 	private void disableUser(final UserName adminName, final UserName userName, final Role role)
@@ -212,8 +359,10 @@ public class AuthenticationDisableUserTest {
 		
 		auth.disableAccount(token, userName, "foo is suxxor");
 		
-		verify(storage, times(2)).deleteTokens(userName);
 		verify(storage).disableAccount(userName, adminName, "foo is suxxor");
+		verify(storage).addTokenRevocation(userName);
+		verify(storage).addTokenRevocationEvent(TokenRevocation.user(userName));
+		verify(storage, never()).deleteTokens(userName);
 	}
 	
 	public void failDisableUser(
@@ -354,7 +503,7 @@ public class AuthenticationDisableUserTest {
 		
 		failEnableUser(auth, token, new UserName("foo"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
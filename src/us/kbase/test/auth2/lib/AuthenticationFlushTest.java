@@ -0,0 +1,107 @@
+package us.kbase.test.auth2.lib;
+
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.AuthenticationTester.TestMocks;
+
+public class AuthenticationFlushTest {
+
+	@Test
+	public void flush() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		auth.flush();
+
+		verify(storage).flush();
+	}
+
+	@Test
+	public void flushFail() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		doThrow(new AuthStorageException("foo")).when(storage).flush();
+
+		try {
+			auth.flush();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("foo"));
+		}
+	}
+
+	@Test
+	public void scheduledFlush() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(
+				task.capture(), eq(10000L), eq(10000L), eq(TimeUnit.MILLISECONDS));
+
+		task.getValue().run();
+		verify(storage).flush();
+
+		// failures must not propagate, or the executor would cancel the scheduled flush
+		doThrow(new AuthStorageException("foo")).doThrow(new IllegalStateException("bar"))
+				.when(storage).flush();
+		task.getValue().run();
+		task.getValue().run();
+		verify(storage, times(3)).flush();
+	}
+
+	@Test
+	public void close() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+
+		auth.close();
+
+		final InOrder order = inOrder(executor, storage);
+		order.verify(executor).shutdown();
+		order.verify(executor).awaitTermination(30000L, TimeUnit.MILLISECONDS);
+		order.verify(storage).flush();
+	}
+
+	@Test
+	public void closeFail() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+		final Authentication auth = testauth.auth;
+
+		doThrow(new AuthStorageException("foo")).when(storage).flush();
+
+		try {
+			auth.close();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("foo"));
+		}
+		verify(executor).shutdown();
+	}
+}
@@ -115,6 +115,10 @@ public class AuthenticationGetUserDisplayNamesTest {
 		when(storage.getToken(token.getHashedToken())).thenThrow(new NoSuchTokenException("foo"));
 		
 		failGetDisplayNamesSet(auth, token, Collections.emptySet(), new InvalidTokenException());
+		failGetDisplayNamesSet(auth, token, set(new UserName("foo")),
+				new InvalidTokenException());
+		// nothing is read for an unauthenticated request
+		verify(storage, never()).getUserDisplayNames(set(new UserName("foo")));
 	}
 	
 	@Test
@@ -422,9 +426,9 @@ public class AuthenticationGetUserDisplayNamesTest {
 			assertThat("incorrect display names", got, is(expected));
 		} catch (Throwable th) {
 			if (user.isDisabled()) {
-				verify(storage).deleteTokens(user.getUserName());
+				verify(storage).addTokenRevocation(user.getUserName());
 			} else {
-				verify(storage, never()).deleteTokens(user.getUserName());
+				verify(storage, never()).addTokenRevocation(user.getUserName());
 			}
 			throw th;
 		}
@@ -115,9 +115,9 @@ public class AuthenticationGetUserTest {
 			assertThat("incorrect user", got, is(user));
 		} catch (Throwable th) {
 			if (user.isDisabled()) {
-				verify(storage).deleteTokens(user.getUserName());
+				verify(storage).addTokenRevocation(user.getUserName());
 			} else {
-				verify(storage, never()).deleteTokens(user.getUserName());
+				verify(storage, never()).addTokenRevocation(user.getUserName());
 			}
 			throw th;
 		}
@@ -210,6 +210,8 @@ public class AuthenticationGetUserTest {
 		when(storage.getToken(token.getHashedToken())).thenThrow(new NoSuchTokenException("foo"));
 		
 		failGetOtherUser(auth, token, new UserName("foo"), new InvalidTokenException());
+		// nothing is read for an unauthenticated request
+		verify(storage, never()).getUser(new UserName("foo"));
 	}
 	
 	@Test
@@ -253,9 +255,9 @@ public class AuthenticationGetUserTest {
 			assertThat("incorrect user", vu, is(new ViewableUser(user, includeEmail)));
 		} catch (Throwable th) {
 			if (user.isDisabled() && tokenName.equals(user.getUserName())) {
-				verify(storage).deleteTokens(user.getUserName());
+				verify(storage).addTokenRevocation(user.getUserName());
 			} else {
-				verify(storage, never()).deleteTokens(user.getUserName());
+				verify(storage, never()).addTokenRevocation(user.getUserName());
 			}
 			throw th;
 		}
@@ -495,9 +497,9 @@ public class AuthenticationGetUserTest {
 			assertThat("incorrect user", gotUser, is(user));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			} else {
-				verify(storage, never()).deleteTokens(admin.getUserName());
+				verify(storage, never()).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -0,0 +1,165 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.anySet;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.config.AuthConfig;
+import us.kbase.auth2.lib.config.AuthConfig.ProviderConfig;
+import us.kbase.auth2.lib.config.AuthConfigSet;
+import us.kbase.auth2.lib.config.CollectingExternalConfig;
+import us.kbase.auth2.lib.config.CollectingExternalConfig.CollectingExternalConfigMapper;
+import us.kbase.auth2.lib.exceptions.IdentityRetrievalException;
+import us.kbase.auth2.lib.identity.IdentityProvider;
+import us.kbase.auth2.lib.identity.IdentityProviderStatus;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.AuthenticationTester.TestMocks;
+
+public class AuthenticationHealthTest {
+
+	/* Tests the methods used to report the health of the service. */
+
+	private static final TokenCreationContext CTX = TokenCreationContext.getBuilder().build();
+
+	@Test
+	public void pingStorage() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		assertThat("incorrect ping", auth.pingStorage().isNegative(), is(false));
+		verify(storage).ping();
+	}
+
+	@Test
+	public void pingStorageFail() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		doThrow(new AuthStorageException("foo")).when(storage).ping();
+		try {
+			auth.pingStorage();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("foo"));
+		}
+	}
+
+	@Test
+	public void configUpdateTime() throws Exception {
+		final Instant start = Instant.now();
+		final TestMocks testauth = initTestMocks();
+		final Authentication auth = testauth.auth;
+
+		final Instant loaded = auth.getConfigUpdateTime();
+		assertThat("incorrect load time", loaded.isBefore(start), is(false));
+		assertThat("incorrect load time", loaded.isAfter(Instant.now()), is(false));
+	}
+
+	@Test
+	public void backgroundTaskStatsNotAvailable() throws Exception {
+		// the mock executor is not a thread pool
+		final TestMocks testauth = initTestMocks();
+		assertThat("incorrect stats", testauth.auth.getBackgroundTaskStats(),
+				is(Collections.emptyMap()));
+	}
+
+	@Test
+	public void storageCacheStats() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final CacheStats stats = new CacheStats(3, 4, 0, 0, 0, 0);
+		when(testauth.storageMock.getCacheStats()).thenReturn(ImmutableMap.of("foo", stats));
+
+		assertThat("incorrect stats", testauth.auth.getStorageCacheStats(),
+				is(ImmutableMap.of("foo", stats)));
+	}
+
+	@Test
+	public void identityProviderStatus() throws Exception {
+		final IdentityProvider idp1 = mock(IdentityProvider.class);
+		final IdentityProvider idp2 = mock(IdentityProvider.class);
+		when(idp1.getProviderName()).thenReturn("prov1");
+		when(idp2.getProviderName()).thenReturn("prov2");
+
+		final TestMocks testauth = initTestMocks(set(idp2, idp1));
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+
+		assertThat("incorrect status", auth.getIdentityProviderStatus(), is(
+				Arrays.asList(new IdentityProviderStatus("prov1"),
+						new IdentityProviderStatus("prov2"))));
+
+		AuthenticationTester.setConfigUpdateInterval(auth, -1);
+		final Map<String, ProviderConfig> providers = ImmutableMap.of(
+				"prov1", new ProviderConfig(true, false, false),
+				"prov2", new ProviderConfig(true, false, false));
+		when(storage.getConfig(isA(CollectingExternalConfigMapper.class)))
+				.thenReturn(new AuthConfigSet<CollectingExternalConfig>(
+						new AuthConfig(true, providers, null),
+						new CollectingExternalConfig(Collections.emptyMap())));
+
+		when(idp1.getIdentities("foobar", false))
+				.thenThrow(new IdentityRetrievalException("foo"));
+		try {
+			auth.login("prov1", "foobar", CTX);
+			fail("expected exception");
+		} catch (IdentityRetrievalException e) {
+			// expected
+		}
+
+		List<IdentityProviderStatus> status = auth.getIdentityProviderStatus();
+		assertThat("incorrect ok", status.get(0).isOK(), is(false));
+		assertThat("incorrect success", status.get(0).getLastSuccess().isPresent(), is(false));
+		assertThat("incorrect failure", status.get(0).getLastFailure().isPresent(), is(true));
+		assertThat("incorrect error", status.get(0).getLastError().get().contains("foo"),
+				is(true));
+		assertThat("incorrect status", status.get(1), is(new IdentityProviderStatus("prov2")));
+
+		// the provider call succeeds, but the login fails later
+		final RemoteIdentity ri = new RemoteIdentity(new RemoteIdentityID("prov1", "id1"),
+				new RemoteIdentityDetails("user1", "full1", "e1@g.com"));
+		when(idp1.getIdentities("foobaz", false)).thenReturn(set(ri));
+		when(storage.getUsers(anySet()))
+				.thenThrow(new AuthStorageException("bar"));
+		try {
+			auth.login("prov1", "foobaz", CTX);
+			fail("expected exception");
+		} catch (AuthStorageException e) {
+			// expected
+		}
+
+		status = auth.getIdentityProviderStatus();
+		assertThat("incorrect ok", status.get(0).isOK(), is(true));
+		assertThat("incorrect success", status.get(0).getLastSuccess().isPresent(), is(true));
+		assertThat("incorrect failure", status.get(0).getLastFailure().isPresent(), is(true));
+		assertThat("incorrect status", status.get(1), is(new IdentityProviderStatus("prov2")));
+	}
+}
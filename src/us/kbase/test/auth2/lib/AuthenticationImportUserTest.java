@@ -1,5 +1,7 @@
 package us.kbase.test.auth2.lib;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
@@ -9,9 +11,15 @@ import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -23,6 +31,7 @@ import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.test.auth2.TestCommon;
 import us.kbase.test.auth2.lib.AuthenticationTester.TestMocks;
@@ -190,4 +199,97 @@ public class AuthenticationImportUserTest {
 		}
 	}
 
+	@Test
+	public void importUsers() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Clock clock = testauth.clockMock;
+		final Authentication auth = testauth.auth;
+		
+		final RemoteIdentity ri2 = new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+				new RemoteIdentityDetails("user2", "full\nname", "bademail"));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+		
+		when(storage.createUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("foo"), new DisplayName("full"),
+						Instant.ofEpochMilli(10000), REMOTE_ID)
+						.withEmailAddress(new EmailAddress("e@g.com"))
+						.build(),
+				NewUser.getBuilder(new UserName("bar"), new DisplayName("unknown"),
+						Instant.ofEpochMilli(10000), ri2)
+						.withEmailAddress(EmailAddress.UNKNOWN)
+						.build())))
+				.thenReturn(ImmutableMap.of(
+						new UserName("foo"), CreateUserResult.CREATED,
+						new UserName("bar"), CreateUserResult.IDENTITY_LINKED));
+		
+		final Map<UserName, CreateUserResult> res = auth.importUsers(ImmutableMap.of(
+				new UserName("foo"), REMOTE_ID,
+				new UserName("bar"), ri2));
+		
+		assertThat("incorrect results", res, is(ImmutableMap.of(
+				new UserName("foo"), CreateUserResult.CREATED,
+				new UserName("bar"), CreateUserResult.IDENTITY_LINKED)));
+	}
+	
+	@Test
+	public void importUsersEmpty() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		when(storage.createUsers(Collections.emptyList())).thenReturn(Collections.emptyMap());
+		
+		assertThat("incorrect results", auth.importUsers(Collections.emptyMap()),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void importUsersFailNulls() throws Exception {
+		final Authentication auth = initTestMocks().auth;
+		
+		failImportUsers(auth, null, new NullPointerException("users"));
+		
+		final Map<UserName, RemoteIdentity> nullkey = new HashMap<>();
+		nullkey.put(null, REMOTE_ID);
+		failImportUsers(auth, nullkey, new NullPointerException("userName"));
+		
+		final Map<UserName, RemoteIdentity> nullvalue = new HashMap<>();
+		nullvalue.put(new UserName("foo"), null);
+		failImportUsers(auth, nullvalue, new NullPointerException("remoteIdentity"));
+	}
+	
+	@Test
+	public void importUsersFailNoSuchRole() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Clock clock = testauth.clockMock;
+		final Authentication auth = testauth.auth;
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+		
+		when(storage.createUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("foo"), new DisplayName("full"),
+						Instant.ofEpochMilli(10000), REMOTE_ID)
+						.withEmailAddress(new EmailAddress("e@g.com"))
+						.build())))
+				.thenThrow(new NoSuchRoleException("foo"));
+		
+		failImportUsers(auth, ImmutableMap.of(new UserName("foo"), REMOTE_ID),
+				new RuntimeException("didn't supply any roles"));
+	}
+	
+	private void failImportUsers(
+			final Authentication auth,
+			final Map<UserName, RemoteIdentity> users,
+			final Exception e) {
+		try {
+			auth.importUsers(users);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
 }
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anySet;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -22,7 +23,6 @@ import java.util.UUID;
 
 import org.junit.Test;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
@@ -113,7 +113,8 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("Prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent()).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		final LinkToken lt = auth.link(token, "prov", "authcode");
 		
@@ -164,7 +165,8 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("Prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent()).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		doThrow(new IdentityLinkedException("foo"))
 				.when(storage).link(new UserName("baz"), storageRemoteID);
@@ -227,7 +229,8 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent()).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		when(rand.randomUUID()).thenReturn(tokenID).thenReturn(null);
@@ -244,7 +247,8 @@ public class AuthenticationLinkTest {
 						.getHashedToken(),
 				set(storageRemoteID));
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 	}
 	
 	@Test
@@ -289,8 +293,11 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
@@ -308,7 +315,8 @@ public class AuthenticationLinkTest {
 						.getHashedToken(),
 				Collections.emptySet());
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 	}
 	
 	@Test
@@ -362,13 +370,11 @@ public class AuthenticationLinkTest {
 		final RemoteIdentity storageRemoteID4 = new RemoteIdentity(
 				new RemoteIdentityID("prov", "id4"),
 				new RemoteIdentityDetails("user4", "full4", "f4@g.com"));
-		
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID4)).thenReturn(Optional.absent())
+		when(storage.getUsers(set(storageRemoteID2, storageRemoteID3, storageRemoteID4)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID2,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
@@ -386,7 +392,8 @@ public class AuthenticationLinkTest {
 						.getHashedToken(),
 				set(storageRemoteID3, storageRemoteID4));
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 	}
 	
 	@Test
@@ -633,7 +640,7 @@ public class AuthenticationLinkTest {
 						new UserDisabledState("f", new UserName("b"), Instant.now())).build());
 		failLinkWithToken(auth, token, "prov", "foo", new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
@@ -746,7 +753,8 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("Prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent()).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		doThrow(new NoSuchUserException("baz"))
 				.when(storage).link(new UserName("baz"), storageRemoteID);
@@ -796,7 +804,8 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("Prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent()).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		doThrow(new LinkFailedException("doodoo"))
 				.when(storage).link(new UserName("baz"), storageRemoteID);
@@ -907,13 +916,11 @@ public class AuthenticationLinkTest {
 		final RemoteIdentity storageRemoteID4 = new RemoteIdentity(
 				new RemoteIdentityID("prov", "id4"),
 				new RemoteIdentityDetails("user4", "full4", "f4@g.com"));
-		
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID4)).thenReturn(Optional.absent())
+		when(storage.getUsers(set(storageRemoteID2, storageRemoteID3, storageRemoteID4)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID2,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
@@ -1101,13 +1108,11 @@ public class AuthenticationLinkTest {
 		final RemoteIdentity storageRemoteID4 = new RemoteIdentity(
 				new RemoteIdentityID("prov", "id4"),
 				new RemoteIdentityDetails("user4", "full4", "f4@g.com"));
-		
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID4)).thenReturn(Optional.absent())
+		when(storage.getUsers(set(storageRemoteID2, storageRemoteID3, storageRemoteID4)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID2,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
 		final LinkIdentities li = auth.getLinkState(userToken, tempToken);
@@ -1220,7 +1225,7 @@ public class AuthenticationLinkTest {
 		
 		failGetLinkState(auth, token, new IncomingToken("bar"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
@@ -1351,8 +1356,11 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "f2@g.com"));
 
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
+		when(storage.getUsers(set(storageRemoteID2)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID2,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
 		failGetLinkState(auth, userToken, tempToken,
@@ -1518,7 +1526,7 @@ public class AuthenticationLinkTest {
 		failLinkIdentity(auth, token, new IncomingToken("bar"), "foo",
 				new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
@@ -1804,25 +1812,66 @@ public class AuthenticationLinkTest {
 		final RemoteIdentity storageRemoteID4 = new RemoteIdentity(
 				new RemoteIdentityID("prov", "id4"),
 				new RemoteIdentityDetails("user4", "full4", "f4@g.com"));
-		
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(AuthUser.getBuilder(
-				new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID4)).thenReturn(Optional.absent())
+		when(storage.getUsers(set(storageRemoteID2, storageRemoteID3, storageRemoteID4)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID2,
+						AuthUser.getBuilder(
+							new UserName("someuser"), new DisplayName("a"), Instant.now()).build()))
 				.thenReturn(null);
 		
+		// id3 was linked to another user after filtering, so the bulk link fails
+		doThrow(new IdentityLinkedException("id3")).when(storage)
+				.link(new UserName("baz"), set(storageRemoteID3, storageRemoteID4));
 		doThrow(new IdentityLinkedException("foo")).when(storage)
 				.link(new UserName("baz"), storageRemoteID3);
 		
 		auth.linkAll(userToken, tempToken);
 		
+		verify(storage).link(new UserName("baz"), set(storageRemoteID3, storageRemoteID4));
 		verify(storage).link(new UserName("baz"), new RemoteIdentity(
 				new RemoteIdentityID("prov", "id4"),
 				new RemoteIdentityDetails("user4", "full4", "f4@g.com")));
 	}
 	
+	@Test
+	public void linkAllBulk() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken userToken = new IncomingToken("user");
+		final IncomingToken tempToken = new IncomingToken("temp");
+		
+		when(storage.getToken(userToken.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("baz"))
+						.withLifeTime(Instant.now(), Instant.now()).build())
+				.thenReturn(null);
+		
+		when(storage.getUser(new UserName("baz"))).thenReturn(AuthUser.getBuilder(
+				new UserName("baz"), new DisplayName("foo"), Instant.ofEpochMilli(10000))
+				.withIdentity(REMOTE).build()).thenReturn(null);
+		
+		final RemoteIdentity storageRemoteID3 = new RemoteIdentity(
+				new RemoteIdentityID("prov", "id3"),
+				new RemoteIdentityDetails("user3", "full3", "f3@g.com"));
+		final RemoteIdentity storageRemoteID4 = new RemoteIdentity(
+				new RemoteIdentityID("prov", "id4"),
+				new RemoteIdentityDetails("user4", "full4", "f4@g.com"));
+		
+		when(storage.getTemporaryIdentities(tempToken.getHashedToken())).thenReturn(
+				new TemporaryIdentities(UUID.randomUUID(), NOW, NOW,
+						set(storageRemoteID3, storageRemoteID4)))
+				.thenReturn(null);
+		
+		when(storage.getUsers(set(storageRemoteID3, storageRemoteID4)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
+		
+		auth.linkAll(userToken, tempToken);
+		
+		verify(storage).link(new UserName("baz"), set(storageRemoteID3, storageRemoteID4));
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+	}
+	
 	@Test
 	public void linkAllFailNullsAndEmpties() throws Exception {
 		final TestMocks testauth = initTestMocks();
@@ -1923,7 +1972,7 @@ public class AuthenticationLinkTest {
 		
 		failLinkAll(auth, token, new IncomingToken("bar"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
@@ -1999,10 +2048,10 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("prov", "id3"),
 				new RemoteIdentityDetails("user3", "full3", "f3@g.com"));
 		
-		when(storage.getUser(storageRemote3)).thenReturn(Optional.absent());
+		when(storage.getUsers(set(storageRemote3))).thenReturn(Collections.emptyMap());
 
 		doThrow(new NoSuchUserException("baz")).when(storage).link(new UserName("baz"),
-				storageRemote3);
+				set(storageRemote3));
 		
 		failLinkAll(auth, userToken, tempToken,
 				new AuthStorageException("User magically disappeared from database: baz"));
@@ -2092,10 +2141,10 @@ public class AuthenticationLinkTest {
 				new RemoteIdentityID("prov", "id3"),
 				new RemoteIdentityDetails("user3", "full3", "f3@g.com"));
 		
-		when(storage.getUser(storageRemote3)).thenReturn(Optional.absent());
+		when(storage.getUsers(set(storageRemote3))).thenReturn(Collections.emptyMap());
 
 		doThrow(new LinkFailedException("foobar"))
-				.when(storage).link(new UserName("baz"), storageRemote3);
+				.when(storage).link(new UserName("baz"), set(storageRemote3));
 		
 		failLinkAll(auth, userToken, tempToken, new RuntimeException(
 						"Programming error: this method should not be called on a local user"));
@@ -2225,7 +2274,7 @@ public class AuthenticationLinkTest {
 		
 		failUnlink(auth, token, "foo", new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	@Test
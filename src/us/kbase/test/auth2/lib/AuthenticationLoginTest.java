@@ -5,6 +5,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anySet;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -126,7 +127,8 @@ public class AuthenticationLoginTest {
 				.withRole(userRole)
 				.withIdentity(storageRemoteID).build();
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.of(user)).thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(ImmutableMap.of(storageRemoteID, user)).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -212,8 +214,8 @@ public class AuthenticationLoginTest {
 			user.withUserDisabledState(new UserDisabledState(
 					"d", new UserName("baz"), Instant.ofEpochMilli(5000)));
 		}
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.of(user.build()))
-				.thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(ImmutableMap.of(storageRemoteID, user.build())).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -267,8 +269,8 @@ public class AuthenticationLoginTest {
 				new RemoteIdentityID("prov", "id1"),
 				new RemoteIdentityDetails("user1", "full1", "f@g.com"));
 		
-		when(storage.getUser(storageRemoteID)).thenReturn(Optional.absent())
-				.thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -328,14 +330,11 @@ public class AuthenticationLoginTest {
 				new RemoteIdentityID("prov", "id2"),
 				new RemoteIdentityDetails("user2", "full2", "e@g.com"));
 		
-		when(storage.getUser(storageRemoteID1)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		
 		final AuthUser user = AuthUser.getBuilder(new UserName("foo"),
 				new DisplayName("bar"), Instant.ofEpochMilli(10000L))
 				.withIdentity(storageRemoteID2).build();
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(user))
-				.thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID1, storageRemoteID2)))
+				.thenReturn(ImmutableMap.of(storageRemoteID2, user)).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -406,19 +405,20 @@ public class AuthenticationLoginTest {
 				new DisplayName("bar"), Instant.ofEpochMilli(10000L))
 				.withIdentity(storageRemoteID1)
 				.withIdentity(storageRemoteID2).build();
-		when(storage.getUser(storageRemoteID1)).thenReturn(Optional.of(user))
-			.thenReturn(null);
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.of(
-				AuthUser.getBuilderWithoutIdentities(user)
-				.withIdentity(storageRemoteID1).withIdentity(storageRemoteID2).build()))
-				.thenReturn(null);
 		
 		final AuthUser user2 = AuthUser.getBuilder(new UserName("foo2"),
 				new DisplayName("bar2"), Instant.ofEpochMilli(50000L))
 				.withIdentity(storageRemoteID3).build();
 		
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.of(user2))
-			.thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID1, storageRemoteID2, storageRemoteID3)))
+				.thenReturn(ImmutableMap.of(
+						storageRemoteID1,
+						user,
+						storageRemoteID2,
+						AuthUser.getBuilderWithoutIdentities(user)
+							.withIdentity(storageRemoteID1).withIdentity(storageRemoteID2).build(),
+						storageRemoteID3,
+						user2)).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -484,13 +484,8 @@ public class AuthenticationLoginTest {
 				new RemoteIdentityID("prov", "id3"),
 				new RemoteIdentityDetails("user3", "full3", "d@g.com"));
 		
-		
-		when(storage.getUser(storageRemoteID1)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID2)).thenReturn(Optional.absent())
-				.thenReturn(null);
-		when(storage.getUser(storageRemoteID3)).thenReturn(Optional.absent())
-				.thenReturn(null);
+		when(storage.getUsers(set(storageRemoteID1, storageRemoteID2, storageRemoteID3)))
+				.thenReturn(Collections.emptyMap()).thenReturn(null);
 		
 		final UUID tokenID = UUID.randomUUID();
 		
@@ -673,9 +668,10 @@ public class AuthenticationLoginTest {
 						new AuthConfig(true, null, null),
 						new CollectingExternalConfig(Collections.emptyMap())));
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		final LoginState got = auth.getLoginState(token);
 		
@@ -711,13 +707,12 @@ public class AuthenticationLoginTest {
 						new AuthConfig(false, null, null),
 						new CollectingExternalConfig(Collections.emptyMap())));
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		final LoginState got = auth.getLoginState(token);
 		
@@ -758,9 +753,13 @@ public class AuthenticationLoginTest {
 				.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
 						new RemoteIdentityDetails("user1", "full1", "f@g.com"))).build();
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.of(user));
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")))))
+				.thenReturn(ImmutableMap.of(
+						new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+								new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+						user));
 		
 		final LoginState got = auth.getLoginState(token);
 		
@@ -809,13 +808,18 @@ public class AuthenticationLoginTest {
 				.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
 						new RemoteIdentityDetails("user2", "full2", "e@g.com"))).build();
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.of(user1));
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.of(user2));
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(ImmutableMap.of(
+						new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+								new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+						user1,
+						new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+								new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+						user2));
 		
 		
 		final LoginState got = auth.getLoginState(token);
@@ -870,13 +874,15 @@ public class AuthenticationLoginTest {
 				.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
 						new RemoteIdentityDetails("user1", "full1", "f@g.com"))).build();
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.of(user));
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(ImmutableMap.of(
+						new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+								new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+						user));
 		
 		
 		final LoginState got = auth.getLoginState(token);
@@ -1030,7 +1036,8 @@ public class AuthenticationLoginTest {
 				.withPolicyID(new PolicyID("pid1"), Instant.ofEpochMilli(10000))
 				.withPolicyID(new PolicyID("pid2"), Instant.ofEpochMilli(10000)).build());
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 		
 		verify(storage).storeToken(StoredToken.getBuilder(
 				TokenType.LOGIN, tokenID, new UserName("foo"))
@@ -1093,7 +1100,8 @@ public class AuthenticationLoginTest {
 				.withPolicyID(new PolicyID("pid1"), Instant.ofEpochMilli(10000))
 				.withPolicyID(new PolicyID("pid2"), Instant.ofEpochMilli(10000)).build());
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 		
 		verify(storage).storeToken(StoredToken.getBuilder(
 				TokenType.LOGIN, tokenID, new UserName("foo"))
@@ -1150,26 +1158,33 @@ public class AuthenticationLoginTest {
 									new RemoteIdentityDetails("user5", "full5", "b@g.com")))))
 				.thenReturn(null);
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
-				new RemoteIdentityDetails("user3", "full3", "d@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
-				new RemoteIdentityDetails("user4", "full4", "c@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
-				new RemoteIdentityDetails("user5", "full5", "b@g.com"))))
-				.thenReturn(Optional.of(NewUser.getBuilder(
-						new UserName("baz"), new DisplayName("bar"), Instant.ofEpochMilli(700000),
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+						new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+						new RemoteIdentityDetails("user4", "full4", "c@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
+						new RemoteIdentityDetails("user5", "full5", "b@g.com")))))
+				.thenReturn(ImmutableMap.of(
 						new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
-						new RemoteIdentityDetails("user5", "full5", "b@g.com"))).build()));
+								new RemoteIdentityDetails("user5", "full5", "b@g.com")),
+						NewUser.getBuilder(new UserName("baz"), new DisplayName("bar"),
+								Instant.ofEpochMilli(700000),
+								new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
+										new RemoteIdentityDetails("user5", "full5", "b@g.com")))
+							.build()));
 		
 		//the identity was linked after identity filtering. Code should just ignore this.
+		doThrow(new IdentityLinkedException("id3")).when(storage).link(
+				new UserName("foo"), set(
+					new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+							new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+							new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+							new RemoteIdentityDetails("user4", "full4", "c@g.com"))));
 		doThrow(new IdentityLinkedException("foo")).when(storage).link(
 				new UserName("foo"), new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
 				new RemoteIdentityDetails("user3", "full3", "d@g.com")));
@@ -1190,6 +1205,14 @@ public class AuthenticationLoginTest {
 						new RemoteIdentityDetails("user1", "full1", "f@g.com")))
 				.withEmailAddress(new EmailAddress("f@g.com")).build());
 		
+		verify(storage).link(new UserName("foo"), set(
+					new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+							new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+							new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+							new RemoteIdentityDetails("user4", "full4", "c@g.com"))));
+		
 		verify(storage, never()).link(new UserName("foo"), new RemoteIdentity(
 				new RemoteIdentityID("prov", "id1"),
 				new RemoteIdentityDetails("user1", "full1", "f@g.com")));
@@ -1612,17 +1635,16 @@ public class AuthenticationLoginTest {
 		
 		when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000L)).thenReturn(null);
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		doThrow(new NoSuchUserException("baz")).when(storage).link(
-				new UserName("baz"), new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-						new RemoteIdentityDetails("user2", "full2", "e@g.com")));
+				new UserName("baz"), set(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com"))));
 		
 		final String id = "ef0518c79af70ed979907969c6d0a0f7";
 		final UserName u = new UserName("baz");
@@ -1661,17 +1683,16 @@ public class AuthenticationLoginTest {
 		
 		when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000L)).thenReturn(null);
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
-				new RemoteIdentityDetails("user1", "full1", "f@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+						new RemoteIdentityDetails("user1", "full1", "f@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		doThrow(new LinkFailedException("local")).when(storage).link(
-				new UserName("baz"), new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-						new RemoteIdentityDetails("user2", "full2", "e@g.com")));
+				new UserName("baz"), set(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com"))));
 		
 		final String id = "ef0518c79af70ed979907969c6d0a0f7";
 		final UserName u = new UserName("baz");
@@ -1798,7 +1819,8 @@ public class AuthenticationLoginTest {
 		verify(storage).addPolicyIDs(new UserName("foo"),
 				set(new PolicyID("pid1"), new PolicyID("pid2")));
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 		
 		verify(storage).storeToken(StoredToken.getBuilder(
 				TokenType.LOGIN, tokenID, new UserName("foo"))
@@ -1862,7 +1884,8 @@ public class AuthenticationLoginTest {
 		
 		verify(storage, never()).addPolicyIDs(any(), any());
 		
-		verify(storage, never()).link(any(), any());
+		verify(storage, never()).link(any(), any(RemoteIdentity.class));
+		verify(storage, never()).link(any(), anySet());
 		
 		verify(storage).storeToken(StoredToken.getBuilder(
 				TokenType.LOGIN, tokenID, new UserName("foo"))
@@ -1917,27 +1940,34 @@ public class AuthenticationLoginTest {
 						.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
 								new RemoteIdentityDetails("user1", "full1", "f@g.com")))
 						.build()));
-
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
-				new RemoteIdentityDetails("user3", "full3", "d@g.com"))))
-				.thenReturn(Optional.absent());
-		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
-				new RemoteIdentityDetails("user4", "full4", "c@g.com"))))
-				.thenReturn(Optional.absent());
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
-				new RemoteIdentityDetails("user5", "full5", "b@g.com"))))
-				.thenReturn(Optional.of(NewUser.getBuilder(
-						new UserName("baz"), new DisplayName("bar"), Instant.ofEpochMilli(700000),
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+						new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+						new RemoteIdentityDetails("user4", "full4", "c@g.com")),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
+						new RemoteIdentityDetails("user5", "full5", "b@g.com")))))
+				.thenReturn(ImmutableMap.of(
 						new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
-						new RemoteIdentityDetails("user5", "full5", "b@g.com"))).build()));
+								new RemoteIdentityDetails("user5", "full5", "b@g.com")),
+						NewUser.getBuilder(new UserName("baz"), new DisplayName("bar"),
+								Instant.ofEpochMilli(700000),
+								new RemoteIdentity(new RemoteIdentityID("prov", "id5"),
+										new RemoteIdentityDetails("user5", "full5", "b@g.com")))
+							.build()));
 		
 		//the identity was linked after identity filtering. Code should just ignore this.
+		doThrow(new IdentityLinkedException("id3")).when(storage).link(
+				new UserName("foo"), set(
+					new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+							new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+							new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+							new RemoteIdentityDetails("user4", "full4", "c@g.com"))));
 		doThrow(new IdentityLinkedException("foo")).when(storage).link(
 				new UserName("foo"), new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
 				new RemoteIdentityDetails("user3", "full3", "d@g.com")));
@@ -1958,6 +1988,14 @@ public class AuthenticationLoginTest {
 		
 		verify(storage, never()).addPolicyIDs(any(), any());
 		
+		verify(storage).link(new UserName("foo"), set(
+					new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+							new RemoteIdentityDetails("user2", "full2", "e@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+							new RemoteIdentityDetails("user3", "full3", "d@g.com")),
+					new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+							new RemoteIdentityDetails("user4", "full4", "c@g.com"))));
+		
 		verify(storage, never()).link(new UserName("foo"), new RemoteIdentity(
 				new RemoteIdentityID("prov", "id1"),
 				new RemoteIdentityDetails("user1", "full1", "f@g.com")));
@@ -2261,9 +2299,10 @@ public class AuthenticationLoginTest {
 					.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
 							new RemoteIdentityDetails("user1", "full1", "f@g.com"))).build()));
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-					.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		when(storage.getConfig(isA(CollectingExternalConfigMapper.class)))
 				.thenReturn(new AuthConfigSet<CollectingExternalConfig>(
@@ -2271,8 +2310,9 @@ public class AuthenticationLoginTest {
 						new CollectingExternalConfig(Collections.emptyMap())));
 		
 		doThrow(new NoSuchUserException("foo")).when(storage)
-				.link(new UserName("foo"), new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-						new RemoteIdentityDetails("user2", "full2", "e@g.com")));
+				.link(new UserName("foo"), set(new RemoteIdentity(
+						new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com"))));
 		
 		failCompleteLogin(auth, t, id, pids, CTX, l, new AuthStorageException(
 				"User magically disappeared from database: foo"));
@@ -2307,9 +2347,10 @@ public class AuthenticationLoginTest {
 					.withIdentity(new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
 							new RemoteIdentityDetails("user1", "full1", "f@g.com"))).build()));
 		
-		when(storage.getUser(new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-				new RemoteIdentityDetails("user2", "full2", "e@g.com"))))
-					.thenReturn(Optional.absent());
+		when(storage.getUsers(set(
+				new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com")))))
+				.thenReturn(Collections.emptyMap());
 		
 		when(storage.getConfig(isA(CollectingExternalConfigMapper.class)))
 				.thenReturn(new AuthConfigSet<CollectingExternalConfig>(
@@ -2317,8 +2358,9 @@ public class AuthenticationLoginTest {
 						new CollectingExternalConfig(Collections.emptyMap())));
 		
 		doThrow(new LinkFailedException("foo")).when(storage)
-				.link(new UserName("foo"), new RemoteIdentity(new RemoteIdentityID("prov", "id2"),
-						new RemoteIdentityDetails("user2", "full2", "e@g.com")));
+				.link(new UserName("foo"), set(new RemoteIdentity(
+						new RemoteIdentityID("prov", "id2"),
+						new RemoteIdentityDetails("user2", "full2", "e@g.com"))));
 		
 		failCompleteLogin(auth, t, id, pids, CTX, l, new RuntimeException(
 				"Programming error: this method should not be called on a local user"));
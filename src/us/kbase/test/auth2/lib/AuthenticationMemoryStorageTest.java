@@ -0,0 +1,183 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+import static us.kbase.test.auth2.lib.AuthenticationTester.TEST_EXTERNAL_CONFIG;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.LocalLoginResult;
+import us.kbase.auth2.lib.Password;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.config.AuthConfigUpdate;
+import us.kbase.auth2.lib.config.ExternalConfig;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.storage.memory.MemoryStorage;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.NewToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.test.auth2.TestCommon;
+
+/* Runs the authentication library against an in memory storage system rather than mocks, so
+ * that whole flows, from creating accounts to revoking tokens, are tested without MongoDB.
+ */
+public class AuthenticationMemoryStorageTest {
+
+	private static final TokenCreationContext CTX = TokenCreationContext.getBuilder().build();
+
+	private Authentication auth;
+	private IncomingToken admin;
+
+	@Before
+	public void setUp() throws Exception {
+		auth = new Authentication(new MemoryStorage(), set(), TEST_EXTERNAL_CONFIG);
+		auth.createRoot(new Password("foobarwhoowhee".toCharArray()));
+		final IncomingToken root = login(UserName.ROOT, "foobarwhoowhee");
+		final Password temp = auth.createLocalUser(root, new UserName("admin"),
+				new DisplayName("Admin"), new EmailAddress("admin@g.com"));
+		auth.updateRoles(root, new UserName("admin"), set(Role.CREATE_ADMIN), set());
+		admin = changePasswordAndLogin(new UserName("admin"), temp, "foobarwhoowhee2");
+		auth.updateRoles(admin, new UserName("admin"), set(Role.ADMIN), set());
+		auth.updateConfig(admin, AuthConfigUpdate.<ExternalConfig>getBuilder()
+				.withLoginAllowed(true).build());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		auth.close();
+	}
+
+	private IncomingToken login(final UserName userName, final String pwd) throws Exception {
+		final LocalLoginResult res = auth.localLogin(
+				userName, new Password(pwd.toCharArray()), CTX);
+		assertThat("password reset required", res.isPwdResetRequired(), is(false));
+		return new IncomingToken(res.getToken().get().getToken());
+	}
+
+	private IncomingToken changePasswordAndLogin(
+			final UserName userName,
+			final Password temp,
+			final String pwd)
+			throws Exception {
+		final Password tempcopy = new Password(temp.getPassword());
+		assertThat("password reset not required", auth.localLogin(userName, temp, CTX)
+				.isPwdResetRequired(), is(true));
+		auth.localPasswordChange(userName, tempcopy, new Password(pwd.toCharArray()));
+		return login(userName, pwd);
+	}
+
+	private IncomingToken createUser(final String name, final String display) throws Exception {
+		final Password temp = auth.createLocalUser(admin, new UserName(name),
+				new DisplayName(display), new EmailAddress(name + "@g.com"));
+		return changePasswordAndLogin(new UserName(name), temp, name + "barwhoowhee");
+	}
+
+	private void failGetToken(final IncomingToken token) throws Exception {
+		try {
+			auth.getToken(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new InvalidTokenException());
+		}
+	}
+
+	// the last used dates of the tokens change as they're used, so compare the IDs
+	private Set<UUID> getTokenIDs(final IncomingToken token) throws Exception {
+		return auth.getTokens(token).getTokens().stream().map(t -> t.getId())
+				.collect(Collectors.toSet());
+	}
+
+	@Test
+	public void createAndRevokeTokens() throws Exception {
+		final IncomingToken login = createUser("foo", "Foo Bar");
+		final NewToken agent = auth.createToken(
+				login, new TokenName("agent"), TokenType.AGENT, CTX);
+		final IncomingToken agentToken = new IncomingToken(agent.getToken());
+
+		final StoredToken st = auth.getToken(agentToken);
+		assertThat("incorrect token", st, is(agent.getStoredToken()));
+		assertThat("incorrect user", st.getUserName(), is(new UserName("foo")));
+		assertThat("incorrect type", st.getTokenType(), is(TokenType.AGENT));
+		assertThat("incorrect current token", auth.getTokens(login).getCurrentToken().getId(),
+				is(auth.getToken(login).getId()));
+		assertThat("incorrect tokens", getTokenIDs(login), is(set(st.getId())));
+
+		auth.revokeToken(login, st.getId());
+		failGetToken(agentToken);
+		assertThat("incorrect tokens", getTokenIDs(login), is(Collections.emptySet()));
+
+		auth.revokeToken(login);
+		failGetToken(login);
+	}
+
+	@Test
+	public void revokeAllTokensForUser() throws Exception {
+		final IncomingToken login1 = createUser("foo", "Foo Bar");
+		final IncomingToken login2 = login(new UserName("foo"), "foobarwhoowhee");
+		final IncomingToken other = createUser("bar", "Bar Baz");
+
+		auth.revokeAllTokens(admin, new UserName("foo"));
+
+		failGetToken(login1);
+		failGetToken(login2);
+		assertThat("incorrect user", auth.getToken(other).getUserName(),
+				is(new UserName("bar")));
+	}
+
+	@Test
+	public void usersAndCustomRoles() throws Exception {
+		final IncomingToken foo = createUser("foo", "Foo Bar");
+		createUser("bar", "Bar Baz");
+		auth.setCustomRole(admin, new CustomRole("role1", "a role"));
+		auth.updateCustomRoles(admin, new UserName("foo"), set("role1"), set());
+
+		final AuthUser u = auth.getUserAsAdmin(admin, new UserName("foo"));
+		assertThat("incorrect display name", u.getDisplayName(), is(new DisplayName("Foo Bar")));
+		assertThat("incorrect custom roles", u.getCustomRoles(), is(set("role1")));
+		assertThat("incorrect user", auth.getUser(foo), is(u));
+
+		final Map<UserName, DisplayName> expected = new HashMap<>();
+		expected.put(new UserName("foo"), new DisplayName("Foo Bar"));
+		assertThat("incorrect display names", auth.getUserDisplayNames(
+				foo, set(new UserName("foo"), new UserName("nouser"))), is(expected));
+		assertThat("incorrect search", auth.getUserDisplayNames(admin, UserSearchSpec
+				.getBuilder().withSearchOnCustomRole("role1").build()), is(expected));
+		expected.put(new UserName("bar"), new DisplayName("Bar Baz"));
+		assertThat("incorrect search", auth.getUserDisplayNames(foo, UserSearchSpec
+				.getBuilder().withSearchPrefix("ba").build()), is(expected));
+	}
+
+	@Test
+	public void disableAccount() throws Exception {
+		final IncomingToken foo = createUser("foo", "Foo Bar");
+
+		auth.disableAccount(admin, new UserName("foo"), "bad user");
+
+		final AuthUser u = auth.getUserAsAdmin(admin, new UserName("foo"));
+		assertThat("user not disabled", u.isDisabled(), is(true));
+		assertThat("incorrect reason", u.getReasonForDisabled().get(), is("bad user"));
+		failGetToken(foo);
+	}
+}
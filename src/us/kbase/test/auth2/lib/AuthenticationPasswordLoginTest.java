@@ -28,6 +28,8 @@ import org.junit.Test;
 import com.google.common.base.Optional;
 
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -1132,7 +1134,7 @@ public class AuthenticationPasswordLoginTest {
 					eq(user.getUserName()), any(PasswordHashAndSalt.class), eq(true));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -1425,7 +1427,7 @@ public class AuthenticationPasswordLoginTest {
 			verify(storage).forcePasswordReset(user.getUserName());
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -1577,12 +1579,20 @@ public class AuthenticationPasswordLoginTest {
 		when(storage.getToken(t.getHashedToken())).thenReturn(token, (StoredToken) null);
 		
 		when(storage.getUser(admin.getUserName())).thenReturn(admin, (AuthUser) null);
+		final UUID id = UUID.randomUUID();
+		when(testauth.randGenMock.randomUUID()).thenReturn(id, (UUID) null);
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(20000), (Instant) null);
 		try {
-			auth.forceResetAllPasswords(t);
-			verify(storage).forcePasswordReset();
+			final AdminJob job = auth.forceResetAllPasswords(t);
+			
+			final AdminJob expected = AdminJob.getBuilder(id, AdminJobType.FORCE_RESET_PASSWORDS,
+					admin.getUserName(), Instant.ofEpochMilli(20000)).build();
+			assertThat("incorrect job", job, is(expected));
+			verify(storage).storeAdminJob(expected);
+			verify(testauth.executorMock).execute(any(Runnable.class));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
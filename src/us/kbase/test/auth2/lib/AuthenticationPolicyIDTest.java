@@ -1,6 +1,9 @@
 package us.kbase.test.auth2.lib;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -12,6 +15,8 @@ import java.util.UUID;
 
 import org.junit.Test;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PolicyID;
@@ -143,7 +148,7 @@ public class AuthenticationPolicyIDTest {
 		
 		failRemovePolicyID(auth, token, new PolicyID("fOO"), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 
 	private void removePolicyID(final UserName adminName, final Role adminRole) throws Exception {
@@ -164,9 +169,17 @@ public class AuthenticationPolicyIDTest {
 		
 		when(storage.getUser(adminName)).thenReturn(u, (AuthUser) null);
 		
-		auth.removePolicyID(token, new PolicyID("foo"));
+		final UUID id = UUID.randomUUID();
+		when(testauth.randGenMock.randomUUID()).thenReturn(id, (UUID) null);
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(20000), (Instant) null);
 		
-		verify(storage).removePolicyID(new PolicyID("foo"));
+		final AdminJob job = auth.removePolicyID(token, new PolicyID("foo"));
+		
+		final AdminJob expected = AdminJob.getBuilder(id, AdminJobType.REMOVE_POLICY_ID,
+				adminName, Instant.ofEpochMilli(20000)).withTarget("foo").build();
+		assertThat("incorrect job", job, is(expected));
+		verify(storage).storeAdminJob(expected);
+		verify(testauth.executorMock).execute(any(Runnable.class));
 	}
 	
 	private void failRemovePolicyID(
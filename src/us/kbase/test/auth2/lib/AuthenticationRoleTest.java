@@ -155,7 +155,7 @@ public class AuthenticationRoleTest {
 			
 		failRemoveRoles(auth, token, set(Role.ADMIN), new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 	
 	@Test
@@ -402,7 +402,7 @@ public class AuthenticationRoleTest {
 		failUpdateRoles(auth, token, new UserName("foo"), set(Role.DEV_TOKEN),
 				set(Role.SERV_TOKEN), new DisabledUserException());
 			
-		verify(storage).deleteTokens(new UserName("baz"));
+		verify(storage).addTokenRevocation(new UserName("baz"));
 	}
 	
 	@Test
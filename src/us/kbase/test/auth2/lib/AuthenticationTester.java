@@ -17,6 +17,7 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -64,16 +65,19 @@ public class AuthenticationTester {
 		final RandomDataGenerator randGenMock;
 		final Authentication auth;
 		final Clock clockMock;
+		final ScheduledExecutorService executorMock;
 		
 		public TestMocks(
 				final AuthStorage storageMock,
 				final RandomDataGenerator randGenMock,
 				final Authentication auth, // not a mock
-				final Clock clockMock) {
+				final Clock clockMock,
+				final ScheduledExecutorService executorMock) {
 			this.storageMock = storageMock;
 			this.randGenMock = randGenMock;
 			this.auth = auth;
 			this.clockMock = clockMock;
+			this.executorMock = executorMock;
 		}
 	}
 	
@@ -85,6 +89,7 @@ public class AuthenticationTester {
 		final AuthStorage storage = mock(AuthStorage.class);
 		final RandomDataGenerator randGen = mock(RandomDataGenerator.class);
 		final Clock clock = mock(Clock.class);
+		final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
 		
 		final AuthConfig ac =  new AuthConfig(AuthConfig.DEFAULT_LOGIN_ALLOWED, null,
 				AuthConfig.DEFAULT_TOKEN_LIFETIMES_MS);
@@ -94,12 +99,12 @@ public class AuthenticationTester {
 		
 		final Constructor<Authentication> c = Authentication.class.getDeclaredConstructor(
 				AuthStorage.class, Set.class, ExternalConfig.class,
-				RandomDataGenerator.class, Clock.class);
+				RandomDataGenerator.class, Clock.class, ScheduledExecutorService.class);
 		c.setAccessible(true);
 		final Authentication instance = c.newInstance(storage, providers,
-				TEST_EXTERNAL_CONFIG, randGen, clock);
+				TEST_EXTERNAL_CONFIG, randGen, clock, executor);
 		reset(storage);
-		return new TestMocks(storage, randGen, instance, clock);
+		return new TestMocks(storage, randGen, instance, clock, executor);
 	}
 	
 	public static void setConfigUpdateInterval(final Authentication auth, final int millis)
@@ -285,7 +290,7 @@ public class AuthenticationTester {
 		
 		failExecute(ao, auth, "disabled user test", new DisabledUserException());
 		
-		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocation(new UserName("foo"));
 	}
 	
 	private static void testUnauthorizedRole(final AuthOperation ao, final Role r)
@@ -0,0 +1,300 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.token.TokenRevocationFeed;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.AuthenticationTester.TestMocks;
+
+public class AuthenticationTokenRevocationFeedTest {
+
+	private static final IncomingToken TOKEN;
+	static {
+		try {
+			TOKEN = new IncomingToken("foobar");
+		} catch (Exception e) {
+			throw new RuntimeException("Fix your tests, dummy", e);
+		}
+	}
+
+	private static TokenRevocationEvent event(final long seq) throws Exception {
+		return new TokenRevocationEvent(seq, Instant.ofEpochMilli(seq * 1000),
+				TokenRevocation.user(new UserName("u" + seq)));
+	}
+
+	private static TestMocks initMocksWithToken() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		when(testauth.storageMock.getToken(TOKEN.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.AGENT, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				(StoredToken) null);
+		return testauth;
+	}
+
+	@Test
+	public void getRevocations() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationEvents(2, 100))
+				.thenReturn(Arrays.asList(event(3), event(4)));
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, 2, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Arrays.asList(event(3), event(4))));
+		assertThat("incorrect sequence", feed.getSequence(), is(4L));
+		assertThat("incorrect reset", feed.isReset(), is(false));
+	}
+
+	@Test
+	public void getRevocationsStopAtGap() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationEvents(2, 100))
+				.thenReturn(Arrays.asList(event(3), event(4), event(6)));
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, 2, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Arrays.asList(event(3), event(4))));
+		assertThat("incorrect sequence", feed.getSequence(), is(4L));
+		assertThat("incorrect reset", feed.isReset(), is(false));
+	}
+
+	@Test
+	public void getRevocationsMissedEvents() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationEvents(2, 100))
+				.thenReturn(Arrays.asList(event(5), event(6)));
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, 2, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Arrays.asList(event(5), event(6))));
+		assertThat("incorrect sequence", feed.getSequence(), is(6L));
+		assertThat("incorrect reset", feed.isReset(), is(true));
+	}
+
+	@Test
+	public void getRevocationsStart() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationSequence()).thenReturn(42L);
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, -1, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Collections.emptyList()));
+		assertThat("incorrect sequence", feed.getSequence(), is(42L));
+		assertThat("incorrect reset", feed.isReset(), is(false));
+	}
+
+	@Test
+	public void getRevocationsNoEvents() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationEvents(5, 100))
+				.thenReturn(Collections.emptyList());
+		when(testauth.storageMock.getTokenRevocationSequence()).thenReturn(5L);
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, 5, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Collections.emptyList()));
+		assertThat("incorrect sequence", feed.getSequence(), is(5L));
+		assertThat("incorrect reset", feed.isReset(), is(false));
+	}
+
+	@Test
+	public void getRevocationsAheadOfFeed() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+
+		when(testauth.storageMock.getTokenRevocationEvents(7, 100))
+				.thenReturn(Collections.emptyList());
+		when(testauth.storageMock.getTokenRevocationSequence()).thenReturn(5L);
+
+		final TokenRevocationFeed feed = testauth.auth.getTokenRevocations(TOKEN, 7, 100, 0)
+				.get();
+
+		assertThat("incorrect events", feed.getEvents(), is(Collections.emptyList()));
+		assertThat("incorrect sequence", feed.getSequence(), is(5L));
+		assertThat("incorrect reset", feed.isReset(), is(true));
+	}
+
+	@Test
+	public void getRevocationsWaitTimeout() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		when(testauth.storageMock.getTokenRevocationEvents(5, 100))
+				.thenReturn(Collections.emptyList());
+		when(testauth.storageMock.getTokenRevocationSequence()).thenReturn(5L);
+		final ScheduledFuture<?> timeoutFuture = mock(ScheduledFuture.class);
+		doReturn(timeoutFuture).when(executor).schedule(
+				any(Runnable.class), eq(200L), eq(TimeUnit.MILLISECONDS));
+
+		final CompletableFuture<TokenRevocationFeed> feed =
+				testauth.auth.getTokenRevocations(TOKEN, 5, 100, 200);
+		assertThat("did not wait", feed.isDone(), is(false));
+
+		final ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).schedule(timeout.capture(), eq(200L), eq(TimeUnit.MILLISECONDS));
+		timeout.getValue().run();
+
+		assertThat("incorrect events", feed.get().getEvents(), is(Collections.emptyList()));
+		assertThat("incorrect sequence", feed.get().getSequence(), is(5L));
+		verify(testauth.storageMock).getTokenRevocationEvents(5, 100);
+	}
+
+	@Test
+	public void getRevocationsWaitForEvent() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+		final AuthStorage storage = testauth.storageMock;
+		final ScheduledExecutorService executor = testauth.executorMock;
+
+		final ArgumentCaptor<Runnable> poll = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor).scheduleWithFixedDelay(poll.capture(), eq(1000L),
+				eq(1000L), eq(TimeUnit.MILLISECONDS));
+
+		when(storage.getTokenRevocationEvents(5, 100))
+				.thenReturn(Collections.emptyList())
+				.thenReturn(Arrays.asList(event(6)));
+		when(storage.getTokenRevocationSequence()).thenReturn(6L);
+		final ScheduledFuture<?> timeoutFuture = mock(ScheduledFuture.class);
+		doReturn(timeoutFuture).when(executor).schedule(
+				any(Runnable.class), eq(10000L), eq(TimeUnit.MILLISECONDS));
+
+		final CompletableFuture<TokenRevocationFeed> feed =
+				testauth.auth.getTokenRevocations(TOKEN, 5, 100, 10000);
+		assertThat("did not wait", feed.isDone(), is(false));
+
+		// simulate the background poll noticing an event published by another instance
+		poll.getValue().run();
+
+		assertThat("incorrect events", feed.get().getEvents(), is(Arrays.asList(event(6))));
+		assertThat("incorrect sequence", feed.get().getSequence(), is(6L));
+		assertThat("incorrect reset", feed.get().isReset(), is(false));
+		verify(timeoutFuture, timeout(5000)).cancel(false);
+	}
+
+	@Test
+	public void getRevocationsPublishWakesWaiters() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+		final AuthStorage storage = testauth.storageMock;
+
+		when(storage.getTokenRevocationEvents(5, 100))
+				.thenReturn(Collections.emptyList())
+				.thenReturn(Arrays.asList(event(6)));
+		when(storage.getTokenRevocationSequence()).thenReturn(6L);
+		doReturn(mock(ScheduledFuture.class)).when(testauth.executorMock).schedule(
+				any(Runnable.class), eq(10000L), eq(TimeUnit.MILLISECONDS));
+
+		final CompletableFuture<TokenRevocationFeed> feed =
+				testauth.auth.getTokenRevocations(TOKEN, 5, 100, 10000);
+		assertThat("did not wait", feed.isDone(), is(false));
+
+		// a revocation made on this instance doesn't wait for the next background poll
+		when(storage.getToken(TOKEN.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		testauth.auth.revokeTokens(TOKEN);
+
+		assertThat("incorrect events", feed.get().getEvents(), is(Arrays.asList(event(6))));
+	}
+
+	@Test
+	public void publishFailFailsRevocation() throws Exception {
+		final TestMocks testauth = initMocksWithToken();
+		final AuthStorage storage = testauth.storageMock;
+
+		when(storage.getToken(TOKEN.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		when(storage.addTokenRevocationEvent(TokenRevocation.user(new UserName("foo"))))
+				.thenThrow(new AuthStorageException("whoops"));
+
+		try {
+			testauth.auth.revokeTokens(TOKEN);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("whoops"));
+		}
+		// the tokens must not be revoked without an event in the feed
+		verify(storage, never()).deleteTokens(new UserName("foo"));
+	}
+
+	@Test
+	public void getRevocationsFailBadArgs() throws Exception {
+		final Authentication auth = initMocksWithToken().auth;
+
+		failGetRevocations(auth, TOKEN, 0, 0, new IllegalArgumentException(
+				"limit must be between 1 and 10000"));
+		failGetRevocations(auth, TOKEN, 10001, 0, new IllegalArgumentException(
+				"limit must be between 1 and 10000"));
+		failGetRevocations(auth, TOKEN, 1, -1, new IllegalArgumentException(
+				"maxWaitMillis must be between 0 and 60000"));
+		failGetRevocations(auth, TOKEN, 1, 60001, new IllegalArgumentException(
+				"maxWaitMillis must be between 0 and 60000"));
+		failGetRevocations(auth, null, 1, 0, new NullPointerException("token"));
+	}
+
+	@Test
+	public void getRevocationsFailBadToken() throws Exception {
+		final TestMocks testauth = initTestMocks();
+
+		when(testauth.storageMock.getToken(TOKEN.getHashedToken()))
+				.thenThrow(new NoSuchTokenException("foo"));
+
+		failGetRevocations(testauth.auth, TOKEN, 1, 0, new InvalidTokenException());
+	}
+
+	private void failGetRevocations(
+			final Authentication auth,
+			final IncomingToken token,
+			final int limit,
+			final long maxWait,
+			final Exception expected) {
+		try {
+			auth.getTokenRevocations(token, 0, limit, maxWait);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
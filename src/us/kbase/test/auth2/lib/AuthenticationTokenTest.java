@@ -3,8 +3,9 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isA;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -13,16 +14,20 @@ import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import com.google.common.base.Optional;
 
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -45,7 +50,10 @@ import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.token.TokenSet;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
@@ -305,6 +313,145 @@ public class AuthenticationTokenTest {
 				ErrorType.UNAUTHORIZED, "Service tokens are not allowed for this operation"));
 	}
 	
+	@Test
+	public void getTokenPage() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		final TokenListSpec spec = TokenListSpec.getBuilder().withLimit(2).build();
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				(StoredToken) null);
+		
+		when(storage.getTokens(new UserName("foo"), spec)).thenReturn(
+				new TokenPage(Arrays.asList(TOKEN1, TOKEN2), true));
+		
+		assertThat("incorrect page", auth.getTokens(t, spec),
+				is(new TokenPage(Arrays.asList(TOKEN1, TOKEN2), true)));
+	}
+	
+	@Test
+	public void getTokenPageFailNulls() throws Exception {
+		final Authentication auth = initTestMocks().auth;
+		final TokenListSpec spec = TokenListSpec.getBuilder().build();
+		
+		failGetTokenPage(auth, null, spec, new NullPointerException("token"));
+		failGetTokenPage(auth, new IncomingToken("foo"), null, new NullPointerException("spec"));
+	}
+	
+	@Test
+	public void getTokenPageFailBadTokenType() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.AGENT, UUID.randomUUID(), new UserName("bar"))
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				(StoredToken) null);
+		
+		failGetTokenPage(auth, token, TokenListSpec.getBuilder().build(),
+				new UnauthorizedException(ErrorType.UNAUTHORIZED,
+						"Agent tokens are not allowed for this operation"));
+	}
+	
+	private void failGetTokenPage(
+			final Authentication auth,
+			final IncomingToken token,
+			final TokenListSpec spec,
+			final Exception e) {
+		try {
+			auth.getTokens(token, spec);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void getTokenPageUser() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final AuthUser admin = AuthUser.getBuilder(
+				new UserName("admin"), new DisplayName("bar"), Instant.now())
+				.withEmailAddress(new EmailAddress("f@g.com"))
+				.withRole(Role.ADMIN).build();
+		final IncomingToken t = new IncomingToken("foobarbaz");
+		final TokenListSpec spec = TokenListSpec.getBuilder().withTokenType(TokenType.LOGIN)
+				.build();
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), admin.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				(StoredToken) null);
+		
+		when(storage.getUser(admin.getUserName())).thenReturn(admin, (AuthUser) null);
+		
+		when(storage.getTokens(new UserName("foo"), spec)).thenReturn(
+				new TokenPage(Arrays.asList(TOKEN1), false));
+		
+		assertThat("incorrect page", auth.getTokens(t, new UserName("foo"), spec),
+				is(new TokenPage(Arrays.asList(TOKEN1), false)));
+	}
+	
+	@Test
+	public void getTokenPageUserFailNonAdmin() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("admin"), new DisplayName("bar"), Instant.now())
+				.withEmailAddress(new EmailAddress("f@g.com"))
+				.withRole(Role.DEV_TOKEN).build();
+		final IncomingToken t = new IncomingToken("foobarbaz");
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				(StoredToken) null);
+		
+		when(storage.getUser(user.getUserName())).thenReturn(user, (AuthUser) null);
+		
+		failGetTokenPageUser(auth, t, new UserName("foo"), TokenListSpec.getBuilder().build(),
+				new UnauthorizedException(ErrorType.UNAUTHORIZED));
+	}
+	
+	@Test
+	public void getTokenPageUserFailNulls() throws Exception {
+		final Authentication auth = initTestMocks().auth;
+		final TokenListSpec spec = TokenListSpec.getBuilder().build();
+		
+		failGetTokenPageUser(auth, null, new UserName("foo"), spec,
+				new NullPointerException("token"));
+		failGetTokenPageUser(auth, new IncomingToken("foo"), null, spec,
+				new NullPointerException("userName"));
+		failGetTokenPageUser(auth, new IncomingToken("foo"), new UserName("foo"), null,
+				new NullPointerException("spec"));
+	}
+	
+	private void failGetTokenPageUser(
+			final Authentication auth,
+			final IncomingToken token,
+			final UserName name,
+			final TokenListSpec spec,
+			final Exception e) {
+		try {
+			auth.getTokens(token, name, spec);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void forceResetAllPasswordsFailCatastrophicNoUser() throws Exception {
 		final TestMocks testauth = initTestMocks();
@@ -345,7 +492,7 @@ public class AuthenticationTokenTest {
 			assertThat("incorrect tokens", tokens, is(set(TOKEN1, TOKEN2)));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -403,6 +550,8 @@ public class AuthenticationTokenTest {
 		final Optional<StoredToken> res = auth.revokeToken(t);
 		
 		verify(storage).deleteToken(new UserName("foo"), id);
+		verify(storage).addTokenRevocationEvent(TokenRevocation.token(
+				new UserName("foo"), id, t.getHashedToken().getTokenHash()));
 		
 		assertThat("incorrect token", res, is(Optional.of(ht)));
 	}
@@ -447,10 +596,15 @@ public class AuthenticationTokenTest {
 				.withLifeTime(Instant.now(), Instant.now()).build();
 		
 		when(storage.getToken(t.getHashedToken())).thenReturn(ht, (StoredToken) null);
+		when(storage.getTokenHash(new UserName("foo"), target)).thenReturn("hash");
 		
 		auth.revokeToken(t, target);
 		
-		verify(storage).deleteToken(new UserName("foo"), target);
+		// the event is published first so that a revocation is never missing from the feed
+		final InOrder order = inOrder(storage);
+		order.verify(storage).addTokenRevocationEvent(
+				TokenRevocation.token(new UserName("foo"), target, "hash"));
+		order.verify(storage).deleteToken(new UserName("foo"), target);
 	}
 	
 	@Test
@@ -506,8 +660,8 @@ public class AuthenticationTokenTest {
 		
 		when(storage.getToken(t.getHashedToken())).thenReturn(ht, (StoredToken) null);
 		
-		doThrow(new NoSuchTokenException(target.toString()))
-			.when(storage).deleteToken(new UserName("foo"), target);
+		when(storage.getTokenHash(new UserName("foo"), target))
+				.thenThrow(new NoSuchTokenException(target.toString()));
 		
 		failRevokeToken(auth, t, target, new NoSuchTokenException(target.toString()));
 	}
@@ -679,8 +833,8 @@ public class AuthenticationTokenTest {
 		
 		when(storage.getUser(new UserName("foo"))).thenReturn(admin);
 		
-		doThrow(new NoSuchTokenException(target.toString()))
-				.when(storage).deleteToken(new UserName("bar"), target);
+		when(storage.getTokenHash(new UserName("bar"), target))
+				.thenThrow(new NoSuchTokenException(target.toString()));
 		
 		failRevokeTokenAdmin(auth, t, new UserName("bar"), target,
 				new NoSuchTokenException(target.toString()));
@@ -701,14 +855,18 @@ public class AuthenticationTokenTest {
 		when(storage.getToken(t.getHashedToken())).thenReturn(ht, (StoredToken) null);
 		
 		when(storage.getUser(admin.getUserName())).thenReturn(admin);
+		when(storage.getTokenHash(new UserName("whee"), target)).thenReturn("hash");
 		
 		try {
 			auth.revokeToken(t, new UserName("whee"), target);
 		
-			verify(storage).deleteToken(new UserName("whee"), target);
+			final InOrder order = inOrder(storage);
+			order.verify(storage).addTokenRevocationEvent(
+					TokenRevocation.token(new UserName("whee"), target, "hash"));
+			order.verify(storage).deleteToken(new UserName("whee"), target);
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -755,6 +913,7 @@ public class AuthenticationTokenTest {
 		auth.revokeTokens(t);
 		
 		verify(storage).deleteTokens(new UserName("foo"));
+		verify(storage).addTokenRevocationEvent(TokenRevocation.user(new UserName("foo")));
 	}
 	
 	@Test
@@ -943,13 +1102,22 @@ public class AuthenticationTokenTest {
 		
 		when(storage.getUser(admin.getUserName())).thenReturn(admin);
 		
-		try {
-			auth.revokeAllTokens(t);
+		final UUID id = UUID.randomUUID();
+		when(testauth.randGenMock.randomUUID()).thenReturn(id, (UUID) null);
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(20000), (Instant) null);
 		
-			verify(storage).deleteTokens();
+		try {
+			final AdminJob job = auth.revokeAllTokens(t);
+			
+			final AdminJob expected = AdminJob.getBuilder(id, AdminJobType.REVOKE_ALL_TOKENS,
+					admin.getUserName(), Instant.ofEpochMilli(20000)).build();
+			assertThat("incorrect job", job, is(expected));
+			verify(storage).storeAdminJob(expected);
+			verify(storage).addTokenRevocationEvent(TokenRevocation.all());
+			verify(testauth.executorMock).execute(any(Runnable.class));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -1115,9 +1283,10 @@ public class AuthenticationTokenTest {
 			auth.revokeAllTokens(t, new UserName("whee"));
 		
 			verify(storage).deleteTokens(new UserName("whee"));
+			verify(storage).addTokenRevocationEvent(TokenRevocation.user(new UserName("whee")));
 		} catch (Throwable th) {
 			if (admin.isDisabled()) {
-				verify(storage).deleteTokens(admin.getUserName());
+				verify(storage).addTokenRevocation(admin.getUserName());
 			}
 			throw th;
 		}
@@ -1410,7 +1579,7 @@ public class AuthenticationTokenTest {
 			assertThat("incorrect token", nt, is(expected));
 		} catch (Throwable th) {
 			if (user.isDisabled()) {
-				verify(storage).deleteTokens(user.getUserName());
+				verify(storage).addTokenRevocation(user.getUserName());
 			}
 			throw th;
 		}
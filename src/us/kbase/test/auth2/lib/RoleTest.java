@@ -91,6 +91,30 @@ public class RoleTest {
 		assertThat("incorrect canGrant()", Role.DEV_TOKEN.canGrant(), is(Collections.emptySet()));
 	}
 	
+	@Test
+	public void includedAndCanGrantShared() throws Exception {
+		for (final Role r: Role.values()) {
+			assertThat("included() not shared", r.included() == r.included(), is(true));
+			assertThat("canGrant() not shared", r.canGrant() == r.canGrant(), is(true));
+		}
+	}
+	
+	@Test
+	public void immutableIncludedAndCanGrant() throws Exception {
+		try {
+			Role.ADMIN.included().add(Role.ROOT);
+			fail("expected exception");
+		} catch (UnsupportedOperationException e) {
+			// test passed
+		}
+		try {
+			Role.DEV_TOKEN.canGrant().add(Role.ROOT);
+			fail("expected exception");
+		} catch (UnsupportedOperationException e) {
+			// test passed
+		}
+	}
+	
 	@Test
 	public void isAdmin() throws Exception {
 		assertThat("incorrect isAdmin()", Role.isAdmin(set(Role.ROOT)), is(true));
@@ -0,0 +1,98 @@
+package us.kbase.test.auth2.lib.identity;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.auth2.lib.identity.IdentityProviderStatus;
+import us.kbase.test.auth2.TestCommon;
+
+public class IdentityProviderStatusTest {
+
+	@Test
+	public void equals() {
+		EqualsVerifier.forClass(IdentityProviderStatus.class).usingGetClass().verify();
+	}
+
+	@Test
+	public void construct() {
+		final IdentityProviderStatus s = new IdentityProviderStatus("prov");
+		assertThat("incorrect name", s.getProviderName(), is("prov"));
+		assertThat("incorrect success", s.getLastSuccess(), is(Optional.absent()));
+		assertThat("incorrect failure", s.getLastFailure(), is(Optional.absent()));
+		assertThat("incorrect error", s.getLastError(), is(Optional.absent()));
+		assertThat("incorrect ok", s.isOK(), is(true));
+	}
+
+	@Test
+	public void successAndFailure() {
+		final IdentityProviderStatus s = new IdentityProviderStatus("prov")
+				.withSuccess(Instant.ofEpochMilli(10000));
+		assertThat("incorrect success", s.getLastSuccess(),
+				is(Optional.of(Instant.ofEpochMilli(10000))));
+		assertThat("incorrect ok", s.isOK(), is(true));
+
+		final IdentityProviderStatus f = s.withFailure(Instant.ofEpochMilli(20000), "foo");
+		assertThat("incorrect success", f.getLastSuccess(),
+				is(Optional.of(Instant.ofEpochMilli(10000))));
+		assertThat("incorrect failure", f.getLastFailure(),
+				is(Optional.of(Instant.ofEpochMilli(20000))));
+		assertThat("incorrect error", f.getLastError(), is(Optional.of("foo")));
+		assertThat("incorrect ok", f.isOK(), is(false));
+
+		final IdentityProviderStatus s2 = f.withSuccess(Instant.ofEpochMilli(30000));
+		assertThat("incorrect error", s2.getLastError(), is(Optional.of("foo")));
+		assertThat("incorrect ok", s2.isOK(), is(true));
+
+		final IdentityProviderStatus f2 = new IdentityProviderStatus("prov")
+				.withFailure(Instant.ofEpochMilli(20000), null);
+		assertThat("incorrect error", f2.getLastError(), is(Optional.absent()));
+		assertThat("incorrect ok", f2.isOK(), is(false));
+	}
+
+	@Test
+	public void sameTime() {
+		// the most recent call wins even if the calls completed in the same clock tick
+		final Instant t = Instant.ofEpochMilli(10000);
+		final IdentityProviderStatus f = new IdentityProviderStatus("prov")
+				.withFailure(t, "foo");
+		assertThat("incorrect ok", f.isOK(), is(false));
+		assertThat("incorrect ok", f.withSuccess(t).isOK(), is(true));
+		assertThat("incorrect ok", f.withSuccess(t).withFailure(t, "bar").isOK(), is(false));
+	}
+
+	@Test
+	public void constructFail() {
+		failConstruct(null, new IllegalArgumentException("Missing argument: providerName"));
+		failConstruct("  \t ", new IllegalArgumentException("Missing argument: providerName"));
+		final IdentityProviderStatus s = new IdentityProviderStatus("prov");
+		try {
+			s.withSuccess(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("time"));
+		}
+		try {
+			s.withFailure(null, "foo");
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("time"));
+		}
+	}
+
+	private void failConstruct(final String name, final Exception e) {
+		try {
+			new IdentityProviderStatus(name);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package us.kbase.test.auth2.lib.storage;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.storage.AsyncAuthStorage;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.test.auth2.TestCommon;
+
+public class AsyncAuthStorageTest {
+
+	private static final Instant NOW = Instant.now();
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, r -> r.run(), new NullPointerException("storage"));
+		failConstruct(mock(AuthStorage.class), null, new NullPointerException("executor"));
+	}
+
+	private void failConstruct(
+			final AuthStorage storage,
+			final Executor executor,
+			final Exception expected) {
+		try {
+			new AsyncAuthStorage(storage, executor);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getUser() throws Exception {
+		final AuthStorage storage = mock(AuthStorage.class);
+		final AsyncAuthStorage as = new AsyncAuthStorage(storage, r -> r.run());
+		final AuthUser u = AuthUser.getBuilder(new UserName("foo"), new DisplayName("bar"), NOW)
+				.build();
+
+		when(storage.getUser(new UserName("foo"))).thenReturn(u);
+		when(storage.getUser(new UserName("baz"))).thenThrow(
+				new NoSuchUserException("baz"), new AuthStorageException("whoops"),
+				new IllegalStateException("oh noes"));
+
+		assertThat("incorrect user", AsyncAuthStorage.get(
+				as.getUser(new UserName("foo")), NoSuchUserException.class), is(u));
+
+		failGet(as.getUser(new UserName("baz")), new NoSuchUserException("baz"));
+		failGet(as.getUser(new UserName("baz")), new AuthStorageException("whoops"));
+		failGet(as.getUser(new UserName("baz")), new IllegalStateException("oh noes"));
+		try {
+			as.getUser(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+	}
+
+	private void failGet(final CompletableFuture<?> future, final Exception expected) {
+		try {
+			AsyncAuthStorage.get(future, NoSuchUserException.class);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void getFailNulls() throws Exception {
+		try {
+			AsyncAuthStorage.get(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("future"));
+		}
+		try {
+			AsyncAuthStorage.get(new CompletableFuture<>(), null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("exceptionClass"));
+		}
+	}
+
+	@Test
+	public void getFailCancelled() throws Exception {
+		final CompletableFuture<String> f = new CompletableFuture<>();
+		f.cancel(false);
+		try {
+			AsyncAuthStorage.get(f);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new RuntimeException("Storage operation was cancelled"));
+		}
+	}
+
+	@Test
+	public void concurrentReads() throws Exception {
+		/* each read blocks until the other has started, so the reads only complete if they
+		 * run concurrently.
+		 */
+		final AuthStorage storage = mock(AuthStorage.class);
+		final ExecutorService exe = Executors.newFixedThreadPool(2);
+		try {
+			final AsyncAuthStorage as = new AsyncAuthStorage(storage, exe);
+			final AuthUser u1 = AuthUser.getBuilder(
+					new UserName("foo"), new DisplayName("bar"), NOW).build();
+			final AuthUser u2 = AuthUser.getBuilder(
+					new UserName("baz"), new DisplayName("bat"), NOW).build();
+			final CountDownLatch latch = new CountDownLatch(2);
+
+			when(storage.getUser(new UserName("foo"))).thenAnswer(inv -> {
+				latch.countDown();
+				latch.await(10, TimeUnit.SECONDS);
+				return u1;
+			});
+			when(storage.getUser(new UserName("baz"))).thenAnswer(inv -> {
+				latch.countDown();
+				latch.await(10, TimeUnit.SECONDS);
+				return u2;
+			});
+
+			final CompletableFuture<AuthUser> f1 = as.getUser(new UserName("foo"));
+			final CompletableFuture<AuthUser> f2 = as.getUser(new UserName("baz"));
+
+			assertThat("incorrect user",
+					AsyncAuthStorage.get(f1, NoSuchUserException.class), is(u1));
+			assertThat("incorrect user",
+					AsyncAuthStorage.get(f2, NoSuchUserException.class), is(u2));
+			assertThat("reads were not concurrent", latch.getCount(), is(0L));
+		} finally {
+			exe.shutdownNow();
+		}
+	}
+}
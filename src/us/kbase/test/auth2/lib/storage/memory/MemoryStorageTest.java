@@ -0,0 +1,820 @@
+package us.kbase.test.auth2.lib.storage.memory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.LocalLoginResult;
+import us.kbase.auth2.lib.Password;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.TemporaryIdentities;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.UserUpdate;
+import us.kbase.auth2.lib.config.AuthConfig;
+import us.kbase.auth2.lib.config.AuthConfig.ProviderConfig;
+import us.kbase.auth2.lib.config.AuthConfig.TokenLifetimeType;
+import us.kbase.auth2.lib.config.AuthConfigSet;
+import us.kbase.auth2.lib.config.AuthConfigUpdate;
+import us.kbase.auth2.lib.config.AuthConfigUpdate.ProviderUpdate;
+import us.kbase.auth2.lib.config.ConfigAction.State;
+import us.kbase.auth2.lib.config.ConfigItem;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.IdentityLinkedException;
+import us.kbase.auth2.lib.exceptions.LinkFailedException;
+import us.kbase.auth2.lib.exceptions.NoSuchIdentityException;
+import us.kbase.auth2.lib.exceptions.NoSuchLocalUserException;
+import us.kbase.auth2.lib.exceptions.NoSuchRoleException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.exceptions.UnLinkFailedException;
+import us.kbase.auth2.lib.exceptions.UserExistsException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.memory.MemoryStorage;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.config.TestExternalConfig;
+import us.kbase.test.auth2.lib.config.TestExternalConfig.TestExternalConfigMapper;
+
+public class MemoryStorageTest {
+
+	private static final Instant NOW = Instant.ofEpochMilli(10000);
+
+	private static final RemoteIdentity REMOTE1 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "id1"),
+			new RemoteIdentityDetails("user1", "full1", "email1"));
+
+	private static final RemoteIdentity REMOTE2 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "id2"),
+			new RemoteIdentityDetails("user2", "full2", "email2"));
+
+	private MemoryStorage storage;
+	private Clock clock;
+
+	@Before
+	public void setUp() throws Exception {
+		clock = mock(Clock.class);
+		when(clock.instant()).thenAnswer(inv -> Instant.now());
+		final Constructor<MemoryStorage> con = MemoryStorage.class.getDeclaredConstructor(
+				Clock.class);
+		con.setAccessible(true);
+		storage = con.newInstance(clock);
+	}
+
+	private NewUser newUser(final String name, final String displayName, final RemoteIdentity ri)
+			throws Exception {
+		return NewUser.getBuilder(new UserName(name), new DisplayName(displayName), NOW, ri)
+				.build();
+	}
+
+	private StoredToken token(final UUID id, final String user, final Instant created)
+			throws Exception {
+		return StoredToken.getBuilder(TokenType.LOGIN, id, new UserName(user))
+				.withLifeTime(created, Instant.now().plusSeconds(60)).build();
+	}
+
+	private PasswordHashAndSalt creds() {
+		return new PasswordHashAndSalt("foobarbazbat".getBytes(), new byte[] {1, 2});
+	}
+
+	@Test
+	public void createAndGetUser() throws Exception {
+		storage.setCustomRole(new CustomRole("cr", "desc"));
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar baz"), NOW, REMOTE1)
+				.withEmailAddress(new EmailAddress("f@g.com"))
+				.withRole(Role.ADMIN)
+				.withCustomRole("cr")
+				.withPolicyID(new PolicyID("pid"), NOW)
+				.build());
+
+		final AuthUser expected = AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar baz"), NOW)
+				.withEmailAddress(new EmailAddress("f@g.com"))
+				.withRole(Role.ADMIN)
+				.withCustomRole("cr")
+				.withPolicyID(new PolicyID("pid"), NOW)
+				.withIdentity(REMOTE1)
+				.build();
+		assertThat("incorrect user", storage.getUser(new UserName("foo")), is(expected));
+		assertThat("incorrect user", storage.getUser(REMOTE1), is(Optional.of(expected)));
+		assertThat("incorrect user", storage.getUser(REMOTE2), is(Optional.absent()));
+	}
+
+	@Test
+	public void createUserFail() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		failCreateUser(newUser("foo", "bar", REMOTE2), new UserExistsException("foo"));
+		failCreateUser(newUser("baz", "bar", REMOTE1), new IdentityLinkedException(
+				REMOTE1.getRemoteID().getID()));
+		failCreateUser(NewUser.getBuilder(new UserName("baz"), new DisplayName("bar"), NOW,
+				REMOTE2).withCustomRole("cr").build(), new NoSuchRoleException("cr"));
+		// nothing was created by the failed calls
+		assertThat("incorrect user", storage.getUser(REMOTE2), is(Optional.absent()));
+	}
+
+	private void failCreateUser(final NewUser user, final Exception expected) {
+		try {
+			storage.createUser(user);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void createUsers() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		final Map<UserName, CreateUserResult> res = storage.createUsers(Arrays.asList(
+				newUser("foo", "bar", REMOTE2),
+				newUser("baz", "bar", REMOTE1),
+				newUser("bat", "bar", REMOTE2)));
+		assertThat("incorrect results", res, is(ImmutableMap.of(
+				new UserName("foo"), CreateUserResult.USER_EXISTS,
+				new UserName("baz"), CreateUserResult.IDENTITY_LINKED,
+				new UserName("bat"), CreateUserResult.CREATED)));
+		assertThat("incorrect user", storage.getUser(REMOTE2).get().getUserName(),
+				is(new UserName("bat")));
+	}
+
+	@Test
+	public void localUserAndPassword() throws Exception {
+		final byte[] pwd = "foobarbazbat".getBytes();
+		final byte[] salt = new byte[] {4, 5};
+		final PasswordHashAndSalt creds = new PasswordHashAndSalt(pwd, salt);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("local"), new DisplayName("d"), NOW).withForceReset(true).build(),
+				creds);
+		creds.clear(); // the storage must have copied the credentials
+
+		final PasswordHashAndSalt got = storage.getPasswordHashAndSalt(new UserName("local"));
+		assertThat("incorrect hash", got.getPasswordHash(), is("foobarbazbat".getBytes()));
+		assertThat("incorrect salt", got.getSalt(), is(new byte[] {4, 5}));
+		assertThat("incorrect reset", storage.getLocalUser(new UserName("local"))
+				.isPwdResetRequired(), is(true));
+
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+		storage.changePassword(new UserName("local"),
+				new PasswordHashAndSalt("bazbatfoobar".getBytes(), new byte[] {6, 7}), false);
+		final LocalUser lu = storage.getLocalUser(new UserName("local"));
+		assertThat("incorrect reset", lu.isPwdResetRequired(), is(false));
+		assertThat("incorrect reset date", lu.getLastPwdReset(),
+				is(Optional.of(Instant.ofEpochMilli(20000))));
+
+		storage.createUser(newUser("std", "bar", REMOTE1));
+		try {
+			storage.getLocalUser(new UserName("std"));
+			fail("expected exception");
+		} catch (Exception got2) {
+			TestCommon.assertExceptionCorrect(got2, new NoSuchLocalUserException("std"));
+		}
+		try {
+			storage.forcePasswordReset(new UserName("std"));
+			fail("expected exception");
+		} catch (Exception got2) {
+			TestCommon.assertExceptionCorrect(got2, new NoSuchLocalUserException("std"));
+		}
+	}
+
+	@Test
+	public void disableAndLastLogin() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+		storage.disableAccount(new UserName("foo"), new UserName("admin"), "reason");
+		storage.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(40000));
+		storage.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(30000));
+
+		final AuthUser u = storage.getUser(new UserName("foo"));
+		assertThat("incorrect disabled", u.isDisabled(), is(true));
+		assertThat("incorrect reason", u.getReasonForDisabled(), is(Optional.of("reason")));
+		assertThat("incorrect last login", u.getLastLogin(),
+				is(Optional.of(Instant.ofEpochMilli(40000))));
+		assertThat("incorrect display names", storage.getUserDisplayNames(
+				set(new UserName("foo"))), is(Collections.emptyMap()));
+
+		storage.enableAccount(new UserName("foo"), new UserName("admin"));
+		assertThat("incorrect display names", storage.getUserDisplayNames(
+				set(new UserName("foo"), new UserName("bar"))),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("bar"))));
+		try {
+			storage.setLastLogin(new UserName("bar"), Instant.ofEpochMilli(40000));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchUserException("bar"));
+		}
+	}
+
+	@Test
+	public void search() throws Exception {
+		storage.setCustomRole(new CustomRole("cr", "desc"));
+		storage.createUser(newUser("alpha", "zed ann", REMOTE1));
+		storage.createUser(NewUser.getBuilder(new UserName("beta"), new DisplayName("al bo"),
+				NOW, REMOTE2).withRole(Role.ADMIN).withCustomRole("cr").build());
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("gamma"), new DisplayName("cy"), NOW).withRole(Role.ADMIN).build(),
+				creds());
+
+		final DisplayName a = new DisplayName("zed ann");
+		final DisplayName b = new DisplayName("al bo");
+		final DisplayName g = new DisplayName("cy");
+
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchPrefix("Al").build(), -1), is(ImmutableMap.of(
+						new UserName("alpha"), a, new UserName("beta"), b)));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchPrefix("al").withSearchOnUserName(true).build(), -1),
+				is(ImmutableMap.of(new UserName("alpha"), a)));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchPrefix("al").withSearchOnDisplayName(true).build(), -1),
+				is(ImmutableMap.of(new UserName("beta"), b)));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnRole(Role.ADMIN).build(), -1),
+				is(ImmutableMap.of(new UserName("beta"), b, new UserName("gamma"), g)));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnCustomRole("cr").build(), -1),
+				is(ImmutableMap.of(new UserName("beta"), b)));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnCustomRole("nope").build(), -1), is(Collections.emptyMap()));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.build(), 2), is(ImmutableMap.of(new UserName("alpha"), a,
+						new UserName("beta"), b)));
+
+		// display name index is updated
+		storage.updateUser(new UserName("gamma"), UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("alfred")).build());
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchPrefix("al").withSearchOnDisplayName(true).build(), -1),
+				is(ImmutableMap.of(new UserName("beta"), b,
+						new UserName("gamma"), new DisplayName("alfred"))));
+
+		// disabled users are excluded
+		when(clock.instant()).thenReturn(NOW);
+		storage.disableAccount(new UserName("beta"), new UserName("admin"), "r");
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnRole(Role.ADMIN).build(), -1),
+				is(ImmutableMap.of(new UserName("gamma"), new DisplayName("alfred"))));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnRole(Role.ADMIN).withIncludeDisabled(true).build(), -1),
+				is(ImmutableMap.of(new UserName("beta"), b,
+						new UserName("gamma"), new DisplayName("alfred"))));
+	}
+
+	@Test
+	public void getUsersByRemoteIdentity() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		final RemoteIdentity remote1new = new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+				new RemoteIdentityDetails("user1new", "full1", "email1"));
+		final RemoteIdentity remote3 = new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+				new RemoteIdentityDetails("user3", "full3", "email3"));
+
+		final Map<RemoteIdentity, AuthUser> users = storage.getUsers(set(remote1new, remote3));
+
+		assertThat("incorrect users", users.keySet(), is(set(remote1new)));
+		assertThat("incorrect identities", users.get(remote1new).getIdentities(),
+				is(set(remote1new)));
+		assertThat("incorrect identities", storage.getUser(new UserName("foo"))
+				.getIdentities(), is(set(remote1new)));
+		assertThat("incorrect users", storage.getUsers(Collections.emptySet()),
+				is(Collections.emptyMap()));
+	}
+
+	@Test
+	public void linkSet() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		storage.createUser(newUser("baz", "bar", REMOTE2));
+		final RemoteIdentity remote1new = new RemoteIdentity(new RemoteIdentityID("prov", "id1"),
+				new RemoteIdentityDetails("user1new", "full1", "email1"));
+		final RemoteIdentity remote3 = new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+				new RemoteIdentityDetails("user3", "full3", "email3"));
+		final RemoteIdentity remote4 = new RemoteIdentity(new RemoteIdentityID("prov", "id4"),
+				new RemoteIdentityDetails("user4", "full4", "email4"));
+
+		storage.link(new UserName("foo"), set(remote1new, remote3));
+		assertThat("incorrect identities", storage.getUser(new UserName("foo"))
+				.getIdentities(), is(set(remote1new, remote3)));
+
+		// all or nothing
+		try {
+			storage.link(new UserName("foo"), set(remote4, REMOTE2));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IdentityLinkedException(
+					REMOTE2.getRemoteID().getID()));
+		}
+		assertThat("incorrect user", storage.getUser(remote4), is(Optional.absent()));
+	}
+
+	@Test
+	public void linkAndUnlink() throws Exception {
+		storage.createUser(newUser("foo", "bar", REMOTE1));
+		storage.createUser(newUser("baz", "bar", REMOTE2));
+		final RemoteIdentity remote3 = new RemoteIdentity(new RemoteIdentityID("prov", "id3"),
+				new RemoteIdentityDetails("user3", "full3", "email3"));
+		storage.link(new UserName("foo"), remote3);
+		assertThat("incorrect user", storage.getUser(remote3).get().getUserName(),
+				is(new UserName("foo")));
+		try {
+			storage.link(new UserName("foo"), REMOTE2);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IdentityLinkedException(
+					REMOTE2.getRemoteID().getID()));
+		}
+
+		// updated details are stored
+		final RemoteIdentity remote3new = new RemoteIdentity(
+				new RemoteIdentityID("prov", "id3"),
+				new RemoteIdentityDetails("user3new", "full3", "email3"));
+		assertThat("incorrect identities", storage.getUser(remote3new).get().getIdentities(),
+				is(set(REMOTE1, remote3new)));
+		assertThat("incorrect identities", storage.getUser(new UserName("foo"))
+				.getIdentities(), is(set(REMOTE1, remote3new)));
+
+		storage.unlink(new UserName("foo"), remote3.getRemoteID().getID());
+		assertThat("incorrect user", storage.getUser(remote3), is(Optional.absent()));
+		failUnlink("foo", REMOTE1.getRemoteID().getID(),
+				new UnLinkFailedException("The user has only one associated identity"));
+		storage.link(new UserName("foo"), remote3);
+		failUnlink("foo", REMOTE2.getRemoteID().getID(), new NoSuchIdentityException(
+				"The user is not linked to identity " + REMOTE2.getRemoteID().getID()));
+
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("local"), new DisplayName("d"), NOW).build(),
+				creds());
+		try {
+			storage.link(new UserName("local"), REMOTE1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new LinkFailedException("Cannot link identities to a local user"));
+		}
+	}
+
+	private void failUnlink(final String user, final String id, final Exception expected) {
+		try {
+			storage.unlink(new UserName(user), id);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void tokens() throws Exception {
+		final UUID id1 = UUID.randomUUID();
+		final UUID id2 = UUID.randomUUID();
+		final StoredToken t1 = token(id1, "foo", Instant.now());
+		final StoredToken t2 = token(id2, "foo", Instant.now());
+		storage.storeToken(t1, IncomingToken.hash("t1"));
+		storage.storeToken(t2, IncomingToken.hash("t2"));
+
+		try {
+			storage.storeToken(t1, IncomingToken.hash("t3"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(String.format(
+					"Token ID %s already exists in the database", id1)));
+		}
+		final UUID id3 = UUID.randomUUID();
+		try {
+			storage.storeToken(token(id3, "foo", Instant.now()), IncomingToken.hash("t1"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(String.format(
+					"Token hash for token ID %s already exists in the database", id3)));
+		}
+
+		assertThat("incorrect token", storage.getToken(
+				new IncomingToken("t1").getHashedToken()), is(t1));
+		// the first use is recorded
+		assertThat("incorrect last used", storage.getToken(
+				new IncomingToken("t1").getHashedToken()).getLastUsed().isPresent(), is(true));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")).size(), is(2));
+
+		assertThat("incorrect hash", storage.getTokenHash(new UserName("foo"), id1),
+				is(IncomingToken.hash("t1")));
+		storage.deleteToken(new UserName("foo"), id1);
+		try {
+			storage.getTokenHash(new UserName("foo"), id1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException(
+					String.format("No token %s for user foo exists", id1)));
+		}
+		try {
+			storage.getToken(new IncomingToken("t1").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		try {
+			storage.deleteToken(new UserName("bar"), id2);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException(
+					String.format("No token %s for user bar exists", id2)));
+		}
+		storage.deleteTokens(new UserName("foo"));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")),
+				is(Collections.emptySet()));
+	}
+
+	@Test
+	public void tokenPages() throws Exception {
+		final Instant now = Instant.now();
+		final UUID ida = UUID.randomUUID();
+		final UUID idb = UUID.randomUUID();
+		// tokens with the same expiration date are ordered by ID
+		final UUID id1 = ida.toString().compareTo(idb.toString()) < 0 ? ida : idb;
+		final UUID id2 = id1 == ida ? idb : ida;
+		final UUID id3 = UUID.randomUUID();
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id3, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(20)).build(), IncomingToken.hash("t3"));
+		storage.storeToken(StoredToken.getBuilder(TokenType.AGENT, id2, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withContext(TokenCreationContext.getBuilder().withNullableDevice("d")
+						.withCustomContext("k", "v").build())
+				.build(), IncomingToken.hash("t2"));
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id1, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(10)).build(), IncomingToken.hash("t1"));
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(),
+				new UserName("bar")).withLifeTime(now, now.plusSeconds(5)).build(),
+				IncomingToken.hash("t4"));
+		
+		final StoredToken t1 = StoredToken.getBuilder(TokenType.LOGIN, id1, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(10)).build();
+		// the custom context is not included in token lists
+		final StoredToken t2 = StoredToken.getBuilder(TokenType.AGENT, id2, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withContext(TokenCreationContext.getBuilder().withNullableDevice("d").build())
+				.build();
+		final StoredToken t3 = StoredToken.getBuilder(TokenType.LOGIN, id3, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(20)).build();
+		
+		final TokenPage p1 = storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().withLimit(2).build());
+		assertThat("incorrect page", p1, is(new TokenPage(Arrays.asList(t1, t2), true)));
+		
+		assertThat("incorrect page", storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().withLimit(2)
+						.withStartAfter(now.plusSeconds(10), id2).build()),
+				is(new TokenPage(Arrays.asList(t3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().withStartAfter(now.plusSeconds(10), id1).build()),
+				is(new TokenPage(Arrays.asList(t2, t3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().withTokenType(TokenType.LOGIN).build()),
+				is(new TokenPage(Arrays.asList(t1, t3), false)));
+		// the excluded token doesn't count towards the limit
+		assertThat("incorrect page", storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().withLimit(2).withExcludedID(id2).build()),
+				is(new TokenPage(Arrays.asList(t1, t3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("baz"),
+				TokenListSpec.getBuilder().build()),
+				is(new TokenPage(Collections.emptyList(), false)));
+	}
+
+	@Test
+	public void expiredTokensRemovedOnFlush() throws Exception {
+		final Instant now = Instant.ofEpochMilli(100000);
+		when(clock.instant()).thenReturn(now);
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(),
+				new UserName("foo")).withLifeTime(now.minusSeconds(20), now.minusSeconds(10))
+				.build(), IncomingToken.hash("t1"));
+		storage.storeIdentitiesTemporarily(new TemporaryToken(UUID.randomUUID(), "t2",
+				now.minusSeconds(20), 1000).getHashedToken(), set(REMOTE1));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")),
+				is(Collections.emptySet()));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo"),
+				TokenListSpec.getBuilder().build()).getTokens(), is(Collections.emptyList()));
+		try {
+			storage.getToken(new IncomingToken("t1").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		try {
+			storage.getTemporaryIdentities(new IncomingToken("t2").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+
+		storage.flush();
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")),
+				is(Collections.emptySet()));
+	}
+
+	@Test
+	public void temporaryIdentities() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final TemporaryToken t = new TemporaryToken(id, "t", Instant.now(), 60000);
+		storage.storeIdentitiesTemporarily(t.getHashedToken(), set(REMOTE1, REMOTE2));
+		assertThat("incorrect ids", storage.getTemporaryIdentities(
+				new IncomingToken("t").getHashedToken()), is(new TemporaryIdentities(
+						id, t.getCreationDate(), t.getExpirationDate(), set(REMOTE1, REMOTE2))));
+		try {
+			storage.storeErrorTemporarily(t.getHashedToken(), "err", ErrorType.ID_RETRIEVAL_FAILED);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(String.format(
+					"Temporary token ID %s already exists in the database", id)));
+		}
+		storage.deleteTemporaryIdentities(new IncomingToken("t").getHashedToken());
+		storage.storeErrorTemporarily(t.getHashedToken(), "err", ErrorType.ID_RETRIEVAL_FAILED);
+		assertThat("incorrect ids", storage.getTemporaryIdentities(
+				new IncomingToken("t").getHashedToken()).getError(), is(Optional.of("err")));
+	}
+
+	@Test
+	public void revokeAllTokensJob() throws Exception {
+		final Instant now = Instant.now();
+		storage.storeToken(token(UUID.randomUUID(), "foo", now.minusSeconds(10)),
+				IncomingToken.hash("t1"));
+		storage.storeToken(token(UUID.randomUUID(), "bar", now.minusSeconds(10)),
+				IncomingToken.hash("t2"));
+		storage.storeToken(token(UUID.randomUUID(), "bar", now.plusSeconds(10)),
+				IncomingToken.hash("t3"));
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(), AdminJobType.REVOKE_ALL_TOKENS,
+				new UserName("admin"), now).build();
+		storage.storeAdminJob(job);
+
+		// revoked immediately, before the job runs
+		try {
+			storage.getToken(new IncomingToken("t1").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")),
+				is(Collections.emptySet()));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().build()).getTokens().size(), is(1));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Arrays.asList(job)));
+
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		final AdminJob complete = completeAdminJob(job, 1);
+		assertThat("incorrect job", complete, is(AdminJob.getBuilder(job.getID(),
+				AdminJobType.REVOKE_ALL_TOKENS, new UserName("admin"), now)
+				.withMatched(2).withProcessed(2).withCompleted(Instant.ofEpochMilli(50000))
+				.build()));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("foo")),
+				is(Collections.emptySet()));
+		assertThat("incorrect tokens", storage.getTokens(new UserName("bar")).size(), is(1));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Collections.emptyList()));
+	}
+
+	@Test
+	public void tokenRevocationQueue() throws Exception {
+		final Instant now = Instant.now();
+		storage.storeToken(token(UUID.randomUUID(), "foo", now), IncomingToken.hash("t1"));
+		storage.storeToken(token(UUID.randomUUID(), "bar", now), IncomingToken.hash("t2"));
+		storage.addTokenRevocation(new UserName("foo"));
+		storage.addTokenRevocation(new UserName("foo"));
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(set(new UserName("foo"))));
+
+		// revoked immediately, before the queue is processed
+		try {
+			storage.getToken(new IncomingToken("t1").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		assertThat("incorrect user", storage.getToken(new IncomingToken("t2").getHashedToken())
+				.getUserName(), is(new UserName("bar")));
+
+		storage.deleteTokens(new UserName("foo"));
+		storage.removeTokenRevocation(new UserName("foo"));
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(Collections.emptySet()));
+	}
+
+	@Test
+	public void tokenRevocationFeed() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final TokenRevocation r1 = TokenRevocation.token(new UserName("foo"), id, "hash");
+		final TokenRevocation r2 = TokenRevocation.user(new UserName("bar"));
+		final TokenRevocation r3 = TokenRevocation.all();
+		assertThat("incorrect sequence", storage.getTokenRevocationSequence(), is(0L));
+
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000),
+				Instant.ofEpochMilli(30000));
+		assertThat("incorrect event", storage.addTokenRevocationEvent(r1),
+				is(new TokenRevocationEvent(1, Instant.ofEpochMilli(10000), r1)));
+		storage.addTokenRevocationEvent(r2);
+		storage.addTokenRevocationEvent(r3);
+		assertThat("incorrect sequence", storage.getTokenRevocationSequence(), is(3L));
+		assertThat("incorrect events", storage.getTokenRevocationEvents(0, 2), is(Arrays.asList(
+				new TokenRevocationEvent(1, Instant.ofEpochMilli(10000), r1),
+				new TokenRevocationEvent(2, Instant.ofEpochMilli(20000), r2))));
+		assertThat("incorrect events", storage.getTokenRevocationEvents(2, 10), is(Arrays.asList(
+				new TokenRevocationEvent(3, Instant.ofEpochMilli(30000), r3))));
+		assertThat("incorrect events", storage.getTokenRevocationEvents(3, 10),
+				is(Collections.emptyList()));
+
+		// the most recent event is never deleted
+		storage.deleteTokenRevocationEvents(Instant.ofEpochMilli(40000));
+		assertThat("incorrect events", storage.getTokenRevocationEvents(0, 10), is(Arrays.asList(
+				new TokenRevocationEvent(3, Instant.ofEpochMilli(30000), r3))));
+		assertThat("incorrect sequence", storage.getTokenRevocationSequence(), is(3L));
+		try {
+			storage.getTokenRevocationEvents(0, 0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("limit must be at least 1"));
+		}
+	}
+
+	@Test
+	public void forceResetJob() throws Exception {
+		for (final String name: Arrays.asList("l1", "l2", "l3")) {
+			storage.createLocalUser(LocalUser.getLocalUserBuilder(new UserName(name),
+					new DisplayName("d"), NOW).withForceReset(name.equals("l2")).build(),
+					creds());
+		}
+		storage.createUser(newUser("std", "d", REMOTE1));
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"), NOW).build();
+		storage.storeAdminJob(job);
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		final AdminJob complete = completeAdminJob(job, 2);
+		assertThat("incorrect matched", complete.getMatched(), is(3L));
+		assertThat("incorrect processed", complete.getProcessed(), is(2L));
+		for (final String name: Arrays.asList("l1", "l2", "l3")) {
+			assertThat("incorrect reset", storage.getLocalUser(new UserName(name))
+					.isPwdResetRequired(), is(true));
+		}
+	}
+
+	@Test
+	public void forceResetJobAppliesBeforeProcessing() throws Exception {
+		for (final String name: Arrays.asList("l1", "l2")) {
+			storage.createLocalUser(LocalUser.getLocalUserBuilder(new UserName(name),
+					new DisplayName("d"), NOW).build(), creds());
+		}
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"),
+				Instant.ofEpochMilli(20000)).build();
+		storage.storeAdminJob(job);
+
+		// required immediately, before the job runs
+		assertThat("incorrect reset", storage.getLocalUser(new UserName("l1"))
+				.isPwdResetRequired(), is(true));
+
+		// users that set their password after the job started are not affected
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		storage.changePassword(new UserName("l1"), creds(), false);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(new UserName("l3"),
+				new DisplayName("d"), Instant.ofEpochMilli(30000)).build(), creds());
+		for (final String name: Arrays.asList("l1", "l3")) {
+			assertThat("incorrect reset", storage.getLocalUser(new UserName(name))
+					.isPwdResetRequired(), is(false));
+		}
+
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		final AdminJob complete = completeAdminJob(job, 10);
+		assertThat("incorrect matched", complete.getMatched(), is(1L));
+		assertThat("incorrect processed", complete.getProcessed(), is(1L));
+		assertThat("incorrect reset", storage.getLocalUser(new UserName("l1"))
+				.isPwdResetRequired(), is(false));
+		assertThat("incorrect reset", storage.getLocalUser(new UserName("l2"))
+				.isPwdResetRequired(), is(true));
+		assertThat("incorrect reset", storage.getLocalUser(new UserName("l3"))
+				.isPwdResetRequired(), is(false));
+	}
+
+	@Test
+	public void deleteCustomRoleJob() throws Exception {
+		storage.setCustomRole(new CustomRole("cr", "desc"));
+		storage.setCustomRole(new CustomRole("cr2", "desc"));
+		storage.createUser(NewUser.getBuilder(new UserName("foo"), new DisplayName("d"), NOW,
+				REMOTE1).withCustomRole("cr").withCustomRole("cr2").build());
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.DELETE_CUSTOM_ROLE, new UserName("admin"), NOW)
+				.withTarget("cr").build();
+		storage.deleteCustomRole("cr", job);
+
+		// the role is removed from users immediately
+		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("cr2")));
+		assertThat("incorrect roles", storage.getCustomRoles(),
+				is(set(new CustomRole("cr2", "desc"))));
+
+		// a new role with the same name is not given to the user
+		storage.setCustomRole(new CustomRole("cr", "desc"));
+		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("cr2")));
+
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		final AdminJob complete = completeAdminJob(job, 10);
+		assertThat("incorrect processed", complete.getProcessed(), is(1L));
+		assertThat("incorrect users", storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnCustomRole("cr").build(), -1), is(Collections.emptyMap()));
+	}
+
+	private AdminJob completeAdminJob(final AdminJob job, final int batchSize) throws Exception {
+		AdminJob j = job;
+		while (!j.isComplete()) {
+			j = storage.processAdminJobBatch(j, batchSize);
+		}
+		return j;
+	}
+
+	@Test
+	public void config() throws Exception {
+		storage.updateConfig(AuthConfigUpdate.getBuilder()
+				.withLoginAllowed(true)
+				.withProviderUpdate("prov1", new ProviderUpdate(false, true, false))
+				.withTokenLifeTime(TokenLifetimeType.DEV, 200000L)
+				.withExternalConfig(new TestExternalConfig<>(ConfigItem.set("foo")))
+				.build(), false);
+		// no overwrite
+		storage.updateConfig(AuthConfigUpdate.getBuilder()
+				.withLoginAllowed(false)
+				.withProviderUpdate("prov1", new ProviderUpdate(true, true, true))
+				.withProviderUpdate("prov2", new ProviderUpdate(true, false, true))
+				.withTokenLifeTime(TokenLifetimeType.DEV, 400000L)
+				.withTokenLifeTime(TokenLifetimeType.LOGIN, 600000L)
+				.withExternalConfig(new TestExternalConfig<>(ConfigItem.set("bar")))
+				.build(), false);
+
+		AuthConfigSet<TestExternalConfig<State>> res = storage.getConfig(
+				new TestExternalConfigMapper());
+		assertThat("incorrect config", res.getCfg(), is(new AuthConfig(true,
+				ImmutableMap.of(
+						"prov1", new ProviderConfig(false, true, false),
+						"prov2", new ProviderConfig(true, false, true)),
+				ImmutableMap.of(
+						TokenLifetimeType.DEV, 200000L,
+						TokenLifetimeType.LOGIN, 600000L))));
+		assertThat("incorrect external config", res.getExtcfg().aThing,
+				is(ConfigItem.state("foo")));
+
+		storage.updateConfig(AuthConfigUpdate.getBuilder()
+				.withLoginAllowed(false)
+				.withExternalConfig(new TestExternalConfig<>(ConfigItem.remove()))
+				.build(), true);
+		res = storage.getConfig(new TestExternalConfigMapper());
+		assertThat("incorrect login", res.getCfg().isLoginAllowed(), is(false));
+		assertThat("incorrect external config", res.getExtcfg().aThing, is((Object) null));
+	}
+
+	@Test
+	public void authenticationInProcess() throws Exception {
+		// the library can run without a database
+		final Authentication auth = new Authentication(new MemoryStorage(), set(),
+				new TestExternalConfig<>(ConfigItem.set("foo")));
+		auth.createRoot(new Password("foobarbazbat".toCharArray()));
+		final LocalLoginResult res = auth.localLogin(UserName.ROOT,
+				new Password("foobarbazbat".toCharArray()),
+				TokenCreationContext.getBuilder().build());
+		final String token = res.getToken().get().getToken();
+		assertThat("incorrect user", auth.getToken(new IncomingToken(token)).getUserName(),
+				is(UserName.ROOT));
+		final List<AdminJob> jobs = auth.getAdminJobs(new IncomingToken(token));
+		assertThat("incorrect jobs", jobs, is(Collections.emptyList()));
+	}
+}
@@ -0,0 +1,99 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.test.auth2.TestCommon;
+
+public class MongoStorageAdminJobTest extends MongoStorageTester {
+
+	private static AdminJob.Builder job(final AdminJobType type, final Instant created) {
+		return AdminJob.getBuilder(UUID.randomUUID(), type, UserName.ROOT, created);
+	}
+
+	@Test
+	public void storeAndGetJobs() throws Exception {
+		final AdminJob j1 = job(AdminJobType.REVOKE_ALL_TOKENS, Instant.ofEpochMilli(10000))
+				.build();
+		final AdminJob j2 = job(AdminJobType.REMOVE_POLICY_ID, Instant.ofEpochMilli(30000))
+				.withTarget("foo").build();
+		final AdminJob j3 = job(AdminJobType.FORCE_RESET_PASSWORDS, Instant.ofEpochMilli(20000))
+				.withProcessed(6).withCompleted(Instant.ofEpochMilli(25000)).build();
+		storage.storeAdminJob(j1);
+		storage.storeAdminJob(j2);
+		storage.storeAdminJob(j3);
+
+		assertThat("incorrect jobs", storage.getAdminJobs(false), is(Arrays.asList(j2, j3, j1)));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Arrays.asList(j2, j1)));
+	}
+
+	@Test
+	public void getNoJobs() throws Exception {
+		assertThat("incorrect jobs", storage.getAdminJobs(false), is(Collections.emptyList()));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Collections.emptyList()));
+	}
+
+	@Test
+	public void processEmptyJob() throws Exception {
+		final AdminJob j = job(AdminJobType.REMOVE_POLICY_ID, Instant.ofEpochMilli(10000))
+				.withTarget("foo").build();
+		storage.storeAdminJob(j);
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(40000));
+
+		final AdminJob expected = job(AdminJobType.REMOVE_POLICY_ID, Instant.ofEpochMilli(10000))
+				.withTarget("foo").withCompleted(Instant.ofEpochMilli(40000)).build();
+		final AdminJob got = storage.processAdminJobBatch(j, 1);
+		assertThat("incorrect job", got.getCompleted(), is(expected.getCompleted()));
+		assertThat("incorrect processed", got.getProcessed(), is(0L));
+
+		// complete jobs are returned unchanged
+		assertThat("incorrect job", storage.processAdminJobBatch(j, 1), is(got));
+	}
+
+	@Test
+	public void storeJobFail() throws Exception {
+		failStoreJob(null, new NullPointerException("job"));
+		failStoreJob(job(AdminJobType.DELETE_CUSTOM_ROLE, Instant.now()).withTarget("foo")
+				.build(), new IllegalArgumentException(
+						"Custom role deletion jobs must be stored when the role is deleted"));
+	}
+
+	private void failStoreJob(final AdminJob job, final Exception e) {
+		try {
+			storage.storeAdminJob(job);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void processJobFail() throws Exception {
+		final AdminJob j = job(AdminJobType.REVOKE_ALL_TOKENS, Instant.now()).build();
+		failProcessJob(null, 1, new NullPointerException("job"));
+		failProcessJob(j, 0, new IllegalArgumentException("batchSize must be at least 1"));
+		failProcessJob(j, 1, new AuthStorageException("No admin job with ID " + j.getID()));
+	}
+
+	private void failProcessJob(final AdminJob job, final int batchSize, final Exception e) {
+		try {
+			storage.processAdminJobBatch(job, batchSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+}
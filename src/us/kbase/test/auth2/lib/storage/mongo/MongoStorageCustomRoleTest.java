@@ -3,16 +3,22 @@ package us.kbase.test.auth2.lib.storage.mongo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
 
 import static us.kbase.test.auth2.TestCommon.set;
 
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 import org.bson.Document;
 import org.junit.Test;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.UserName;
@@ -24,6 +30,7 @@ import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.test.auth2.TestCommon;
 
@@ -56,9 +63,37 @@ public class MongoStorageCustomRoleTest extends MongoStorageTester {
 	public void deleteCustomRole() throws Exception {
 		storage.setCustomRole(new CustomRole("foo", "bar"));
 		storage.setCustomRole(new CustomRole("foo1", "bar1"));
-		storage.deleteCustomRole("foo");
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user"), new DisplayName("bar"), NOW, REMOTE).build());
+		storage.updateCustomRoles(new UserName("user"), set("foo", "foo1"),
+				Collections.emptySet());
+		
+		final AdminJob job = deleteJob("foo");
+		storage.deleteCustomRole("foo", job);
 		assertThat("incorrect custom roles", storage.getCustomRoles(),
 				is(set(new CustomRole("foo1", "bar1"))));
+		assertThat("incorrect db roles", getCustomRoleIDs("user").size(), is(2));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Arrays.asList(job)));
+		
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(40000));
+		assertThat("incorrect job", completeAdminJob(job, 1), is(AdminJob.getBuilder(
+				job.getID(), AdminJobType.DELETE_CUSTOM_ROLE, UserName.ROOT, NOW)
+				.withTarget("foo").withMatched(1).withProcessed(1)
+				.withCompleted(Instant.ofEpochMilli(40000))
+				.build()));
+		assertThat("incorrect db roles", getCustomRoleIDs("user").size(), is(1));
+		assertThat("incorrect roles", storage.getUser(new UserName("user")).getCustomRoles(),
+				is(set("foo1")));
+	}
+	
+	private AdminJob deleteJob(final String roleId) {
+		return AdminJob.getBuilder(UUID.randomUUID(), AdminJobType.DELETE_CUSTOM_ROLE,
+				UserName.ROOT, NOW).withTarget(roleId).build();
+	}
+	
+	private List<?> getCustomRoleIDs(final String user) {
+		return (List<?>) db.getCollection("users").find(new Document("user", user)).first()
+				.get("custrls");
 	}
 	
 	@Test
@@ -86,11 +121,30 @@ public class MongoStorageCustomRoleTest extends MongoStorageTester {
 	@Test
 	public void deleteRoleFailNoSuchRole() {
 		failDeleteRole("foo", new NoSuchRoleException("foo"));
+		assertThat("job stored", db.getCollection("adminjobs").count(), is(0L));
+	}
+	
+	@Test
+	public void deleteRoleFailBadJob() throws Exception {
+		storage.setCustomRole(new CustomRole("foo", "bar"));
+		failDeleteRole("foo", null, new NullPointerException("job"));
+		failDeleteRole("foo", deleteJob("bar"), new IllegalArgumentException(
+				"Job is not a deletion job for role foo"));
+		failDeleteRole("foo", AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REMOVE_POLICY_ID, new UserName("admin"), NOW).withTarget("foo")
+				.build(),
+				new IllegalArgumentException("Job is not a deletion job for role foo"));
+		assertThat("incorrect custom roles", storage.getCustomRoles(),
+				is(set(new CustomRole("foo", "bar"))));
 	}
 	
 	private void failDeleteRole(final String roleId, final Exception e) {
+		failDeleteRole(roleId, deleteJob("foo"), e);
+	}
+	
+	private void failDeleteRole(final String roleId, final AdminJob job, final Exception e) {
 		try {
-			storage.deleteCustomRole(roleId);
+			storage.deleteCustomRole(roleId, job);
 			fail("expected exception");
 		} catch (Exception got) {
 			TestCommon.assertExceptionCorrect(got, e);
@@ -231,9 +285,45 @@ public class MongoStorageCustomRoleTest extends MongoStorageTester {
 		
 		//out of band deletion, should never happen under normal conditions
 		db.getCollection("cust_roles").deleteOne(new Document("id", "foo"));
+		// the roles are cached in memory, so simulate a restart to pick up the deletion
+		storage = new MongoStorage(db);
 		
+		/* the roles were loaded before the user was fetched, so the missing role might be
+		 * new rather than deleted and isn't removed. Reloads are limited to one per second.
+		 */
+		for (int i = 0; i < 3; i++) {
+			assertThat("incorrect roles", storage.getUser(new UserName("foo"))
+					.getCustomRoles(), is(set("bar")));
+			assertThat("incorrect db roles", getCustomRoleIDs("foo").size(), is(2));
+		}
+		
+		Thread.sleep(1100);
 		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
 				is(set("bar")));
+		assertThat("incorrect db roles", getCustomRoleIDs("foo").size(), is(1));
+	}
+	
+	@Test
+	public void roleCreatedByOtherInstance() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE).build());
+		storage.setCustomRole(new CustomRole("foo", "bleah"));
+		
+		final MongoStorage other = new MongoStorage(db);
+		other.setCustomRole(new CustomRole("bar", "bleah"));
+		other.updateCustomRoles(new UserName("foo"), set("foo", "bar"), Collections.emptySet());
+		
+		// the roles were loaded less than a second ago, so the new role isn't seen yet
+		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("foo")));
+		assertThat("incorrect db roles", getCustomRoleIDs("foo").size(), is(2));
+		
+		Thread.sleep(1100);
+		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("foo", "bar")));
+		storage.updateCustomRoles(new UserName("foo"), Collections.emptySet(), set("bar"));
+		assertThat("incorrect roles", other.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("foo")));
 	}
 	
 	@Test
@@ -14,14 +14,19 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import org.bson.Document;
 import org.junit.Test;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.Role;
 import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.UserSearchSpec;
 import us.kbase.auth2.lib.UserSearchSpec.Builder;
+import us.kbase.auth2.lib.UserUpdate;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
@@ -100,6 +105,89 @@ public class MongoStorageGetDisplayNamesTest extends MongoStorageTester{
 				is(expected));
 	}
 	
+	@Test
+	public void getNamesFromListCached() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("whee"), new DisplayName("whoo"), NOW, REMOTE2).build());
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(set(
+				new UserName("foo"), new UserName("wugga"))),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("bar"))));
+		
+		// change the display name behind the storage instance's back
+		db.getCollection("users").updateOne(new Document("user", "foo"),
+				new Document("$set", new Document("display", "baz")));
+		// users that weren't found aren't cached
+		storage.createUser(NewUser.getBuilder(
+				new UserName("wugga"), new DisplayName("wonk"), NOW, REMOTE3).build());
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(set(
+				new UserName("foo"), new UserName("whee"), new UserName("wugga"))),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("bar"),
+						new UserName("whee"), new DisplayName("whoo"),
+						new UserName("wugga"), new DisplayName("wonk"))));
+		
+		storage.clearCaches();
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(set(
+				new UserName("foo"))),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("baz"))));
+	}
+	
+	@Test
+	public void getNamesFromListCacheStats() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		
+		storage.getUserDisplayNames(set(new UserName("foo"), new UserName("whee")));
+		storage.getUserDisplayNames(set(new UserName("foo")));
+		
+		final CacheStats stats = storage.getCacheStats().get("displaynames");
+		assertThat("incorrect hits", stats.hitCount(), is(1L));
+		assertThat("incorrect misses", stats.missCount(), is(2L));
+	}
+	
+	@Test
+	public void getNamesFromListCacheInvalidatedOnUpdate() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("whee"), new DisplayName("whoo"), NOW, REMOTE2).build());
+		final Set<UserName> users = set(new UserName("foo"), new UserName("whee"));
+		storage.getUserDisplayNames(users);
+		
+		storage.updateUser(new UserName("foo"), UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("baz")).build());
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(users),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("baz"),
+						new UserName("whee"), new DisplayName("whoo"))));
+	}
+	
+	@Test
+	public void getNamesFromListCacheInvalidatedOnDisable() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("whee"), new DisplayName("whoo"), NOW, REMOTE2).build());
+		final Set<UserName> users = set(new UserName("foo"), new UserName("whee"));
+		storage.getUserDisplayNames(users);
+		when(mockClock.instant()).thenReturn(Instant.now());
+		
+		storage.disableAccount(new UserName("whee"), new UserName("admin"), "they suck");
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(users),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("bar"))));
+		
+		storage.enableAccount(new UserName("whee"), new UserName("admin"));
+		
+		assertThat("incorrect users found", storage.getUserDisplayNames(users),
+				is(ImmutableMap.of(new UserName("foo"), new DisplayName("bar"),
+						new UserName("whee"), new DisplayName("whoo"))));
+	}
+	
 	@Test
 	public void getNamesListFailNull() throws Exception {
 		failGetNamesFromList(null, new NullPointerException("users"));
@@ -9,9 +9,14 @@ import static us.kbase.test.auth2.TestCommon.set;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.UserName;
@@ -187,7 +192,8 @@ public class MongoStorageLinkTest extends MongoStorageTester {
 		storage.createUser(NewUser.getBuilder(
 				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
 		failLink(null, REMOTE1, new NullPointerException("userName"));
-		failLink(new UserName("foo"), null, new NullPointerException("remoteID"));
+		failLink(new UserName("foo"), (RemoteIdentity) null,
+				new NullPointerException("remoteID"));
 	}
 	
 	@Test
@@ -234,6 +240,121 @@ public class MongoStorageLinkTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void linkSet() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		storage.link(new UserName("foo"), set(REMOTE2, REMOTE3));
+		assertThat("incorrect identities", storage.getUser(new UserName("foo")).getIdentities(),
+				is(set(REMOTE1, REMOTE2, REMOTE3)));
+		
+		storage.link(new UserName("foo"), Collections.emptySet()); // noop
+		assertThat("incorrect identities", storage.getUser(new UserName("foo")).getIdentities(),
+				is(set(REMOTE1, REMOTE2, REMOTE3)));
+	}
+	
+	@Test
+	public void linkSetAndUpdateIdentity() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		final RemoteIdentity ri = new RemoteIdentity(
+				new RemoteIdentityID("prov", "bar1"),
+				new RemoteIdentityDetails("user10", "full10", "email10"));
+		storage.link(new UserName("foo"), set(ri, REMOTE2));
+		
+		final RemoteIdentity expected = new RemoteIdentity(
+				new RemoteIdentityID("prov", "bar1"),
+				new RemoteIdentityDetails("user10", "full10", "email10"));
+		
+		assertThat("incorrect identities", storage.getUser(new UserName("foo")).getIdentities(),
+				is(set(expected, REMOTE2)));
+	}
+	
+	@Test
+	public void linkSetReflectionAddIDFail() throws Exception {
+		/* This tests the case where one of the ids to be linked is added after pulling the user
+		 * but before the target ids are linked. The link should therefore fail.
+		 */
+		final Method m = MongoStorage.class.getDeclaredMethod(
+				"addIdentities", AuthUser.class, Map.class);
+		m.setAccessible(true);
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		final AuthUser au = storage.getUser(new UserName("foo"));
+		storage.link(new UserName("foo"), REMOTE2);
+		
+		final boolean p = (boolean) m.invoke(storage, au, ImmutableMap.of(
+				REMOTE2.getRemoteID().getID(), REMOTE2,
+				REMOTE3.getRemoteID().getID(), REMOTE3));
+		assertThat("expected failed link", p, is(false));
+		assertThat("incorrect identities", storage.getUser(new UserName("foo")).getIdentities(),
+				is(set(REMOTE1, REMOTE2)));
+	}
+	
+	@Test
+	public void linkSetFailNulls() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		failLink(null, set(REMOTE2), new NullPointerException("userName"));
+		failLink(new UserName("foo"), (Set<RemoteIdentity>) null,
+				new NullPointerException("remoteIDs"));
+		failLink(new UserName("foo"), set(REMOTE2, null),
+				new NullPointerException("Null remote identity in set"));
+	}
+	
+	@Test
+	public void linkSetFailDuplicateID() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE1).build());
+		final RemoteIdentity ri = new RemoteIdentity(REMOTE2.getRemoteID(),
+				new RemoteIdentityDetails("user10", "full10", "email10"));
+		failLink(new UserName("foo"), set(REMOTE2, ri), new IllegalArgumentException(
+				"Duplicate remote identity ID in set: " + REMOTE2.getRemoteID().getID()));
+	}
+	
+	@Test
+	public void linkSetFailNoUser() throws Exception {
+		failLink(new UserName("foo1"), set(REMOTE2), new NoSuchUserException("foo1"));
+	}
+	
+	@Test
+	public void linkSetFailLocalUser() throws Exception {
+		final byte[] pwd = "foobarbaz2".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "whee".getBytes(StandardCharsets.UTF_8);
+		final LocalUser nlu = LocalUser.getLocalUserBuilder(
+				new UserName("local"), new DisplayName("bar"), NOW).build();
+				
+		storage.createLocalUser(nlu, new PasswordHashAndSalt(pwd, salt));
+		failLink(new UserName("local"), set(REMOTE2),
+				new LinkFailedException("Cannot link identities to a local user"));
+	}
+	
+	@Test
+	public void linkSetFailAlreadyLinked() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE2).build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo2"), new DisplayName("bar"), NOW, REMOTE1).build());
+		
+		failLink(new UserName("foo2"), set(REMOTE2, REMOTE3),
+				new IdentityLinkedException(REMOTE2.getRemoteID().getID()));
+		// none of the identities are linked
+		assertThat("incorrect identities", storage.getUser(new UserName("foo2")).getIdentities(),
+				is(set(REMOTE1)));
+	}
+	
+	private void failLink(
+			final UserName name,
+			final Set<RemoteIdentity> ids,
+			final Exception e) {
+		try {
+			storage.link(name, ids);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void unlinkFailInput() throws Exception {
 		failUnlink(null, "foobar", new NullPointerException("userName"));
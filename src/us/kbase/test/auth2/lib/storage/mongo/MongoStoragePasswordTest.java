@@ -7,12 +7,16 @@ import static org.mockito.Mockito.when;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
 
 import org.bson.Document;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.UserName;
@@ -22,6 +26,7 @@ import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.storage.mongo.Fields;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.test.auth2.TestCommon;
@@ -83,7 +88,14 @@ public class MongoStoragePasswordTest extends MongoStorageTester {
 		storage.createUser(NewUser.getBuilder(
 				new UserName("foo3"), new DisplayName("bar"), NOW, REMOTE).build());
 		
-		storage.forcePasswordReset();
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"), NOW).build();
+		storage.storeAdminJob(job);
+		assertThat("incorrect job", completeAdminJob(job, 1), is(AdminJob.getBuilder(
+				job.getID(), AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"), NOW)
+				.withMatched(2).withProcessed(2)
+				.withCompleted(Instant.ofEpochMilli(30000)).build()));
 		final Document stduser = db.getCollection("users")
 				.find(new Document(Fields.USER_NAME, "foo3")).first();
 		assertThat("field set on std user", stduser.containsKey(Fields.USER_RESET_PWD), is(false));
@@ -93,6 +105,48 @@ public class MongoStoragePasswordTest extends MongoStorageTester {
 				storage.getLocalUser(new UserName("foo2")).isPwdResetRequired(), is(true));
 	}
 	
+	@Test
+	public void resetAllBeforeProcessing() throws Exception {
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		for (final String name: Arrays.asList("foo", "foo2")) {
+			storage.createLocalUser(LocalUser.getLocalUserBuilder(
+					new UserName(name), new DisplayName("bar"), Instant.ofEpochMilli(10000))
+					.build(), new PasswordHashAndSalt(passwordHash, salt));
+		}
+		final MongoStorage other = otherInstance();
+		assertThat("unexpected forced password reset",
+				other.getLocalUser(new UserName("foo")).isPwdResetRequired(), is(false));
+		
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"),
+				Instant.ofEpochMilli(20000)).build();
+		storage.storeAdminJob(job);
+		assertThat("expected forced password reset",
+				storage.getLocalUser(new UserName("foo")).isPwdResetRequired(), is(true));
+		// the other instance picks up the job within about a second
+		Thread.sleep(1100);
+		assertThat("expected forced password reset",
+				other.getLocalUser(new UserName("foo")).isPwdResetRequired(), is(true));
+		
+		// a user that sets their password after the job started is not affected
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		storage.changePassword(new UserName("foo"), new PasswordHashAndSalt(
+				"foobarbaz2".getBytes(StandardCharsets.UTF_8), salt), false);
+		assertThat("unexpected forced password reset",
+				storage.getLocalUser(new UserName("foo")).isPwdResetRequired(), is(false));
+		
+		assertThat("incorrect job", completeAdminJob(job, 1), is(AdminJob.getBuilder(
+				job.getID(), AdminJobType.FORCE_RESET_PASSWORDS, new UserName("admin"),
+				Instant.ofEpochMilli(20000))
+				.withMatched(1).withProcessed(1)
+				.withCompleted(Instant.ofEpochMilli(30000)).build()));
+		assertThat("unexpected forced password reset",
+				storage.getLocalUser(new UserName("foo")).isPwdResetRequired(), is(false));
+		assertThat("expected forced password reset",
+				storage.getLocalUser(new UserName("foo2")).isPwdResetRequired(), is(true));
+	}
+	
 	@Test
 	public void changePassword() throws Exception {
 		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
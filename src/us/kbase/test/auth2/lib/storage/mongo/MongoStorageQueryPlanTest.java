@@ -0,0 +1,487 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.PolicyID;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.UserUpdate;
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotWriter;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TemporaryHashedToken;
+import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.MongoStorageTestManager;
+import us.kbase.test.auth2.TestCommon;
+
+/* Captures the query shape of every filter MongoStorage sends to the database while running a
+ * workload over a seeded database and runs explain() on each shape. Fails if any query
+ * does a collection scan or examines far more documents than it returns, so that queries
+ * that are missing an index are caught here rather than under production load.
+ *
+ * Queries with an empty filter are deliberate reads of an entire collection and are not
+ * checked. If a new storage method is added, add a call to it to the workload.
+ *
+ * The hinted admin job batch queries are also checked for the index their winning plan uses.
+ */
+public class MongoStorageQueryPlanTest {
+
+	private static final String DB_NAME = "test_mongostorage_plans";
+
+	private static final int USERS = 200;
+	private static final int LOCAL_USERS = 20;
+
+	// a query fails if it examines more than this many documents per document returned...
+	private static final int EXAMINED_RATIO = 10;
+	// ...and more than this many documents in total
+	private static final int MIN_EXAMINED = 50;
+
+	/* Query shapes that are known to examine many documents, keyed by collection and a top
+	 * level field in the filter, with the reason the plan is acceptable.
+	 */
+	private static final Map<String, String> EXPECTED_SCANS = new LinkedHashMap<>();
+
+	/* The index the winning plan of each admin job batch query must use, keyed by collection
+	 * and the first field in the filter. Without a hint the planner may walk the _id index,
+	 * which provides the batch sort order, and filter the entire collection.
+	 */
+	private static final Map<String, String> ADMIN_JOB_INDEXES = new LinkedHashMap<>();
+	static {
+		ADMIN_JOB_INDEXES.put("tokens.create", "create_1"); // revoke all tokens
+		ADMIN_JOB_INDEXES.put("users.lcl", "lcl_1__id_1"); // force reset passwords
+		ADMIN_JOB_INDEXES.put("users.custrls", "custrls_1__id_1"); // delete custom role
+		ADMIN_JOB_INDEXES.put("users.policyids.id", "policyids.id_1__id_1"); // remove policy
+	}
+
+	private static MongoStorageTestManager manager;
+	private static MongoClient client;
+	private static MongoDatabase db;
+	private static QueryCapture capture;
+
+	private static class Query {
+
+		private final String command;
+		private final String collection;
+		private final BsonDocument filter;
+		private final BsonDocument sort;
+		private final BsonDocument hint;
+
+		private Query(
+				final String command,
+				final String collection,
+				final BsonDocument filter,
+				final BsonDocument sort,
+				final BsonDocument hint) {
+			this.command = command;
+			this.collection = collection;
+			this.filter = filter;
+			this.sort = sort;
+			this.hint = hint;
+		}
+
+		private String getShape() {
+			return collection + " " + shape(filter) + (sort == null ? "" : " sort " + sort) +
+					(hint == null ? "" : " hint " + hint);
+		}
+	}
+
+	// replaces the values in a filter with ? so that queries that differ only in values match
+	private static String shape(final BsonValue value) {
+		if (value.isDocument()) {
+			final List<String> fields = new LinkedList<>();
+			for (final Entry<String, BsonValue> e: value.asDocument().entrySet()) {
+				fields.add(e.getKey() + ": " + shape(e.getValue()));
+			}
+			return "{" + String.join(", ", fields) + "}";
+		}
+		return "?";
+	}
+
+	private static class QueryCapture implements CommandListener {
+
+		private final List<Query> queries = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void commandStarted(final CommandStartedEvent event) {
+			if (!event.getDatabaseName().equals(DB_NAME)) {
+				return;
+			}
+			final BsonDocument c = event.getCommand();
+			final String name = event.getCommandName();
+			switch (name) {
+				case "find":
+					add(name, c, c.getDocument("filter", null), c.getDocument("sort", null),
+							c.getDocument("hint", null));
+					break;
+				case "count":
+					add(name, c, c.getDocument("query", null), null, null);
+					break;
+				case "findAndModify":
+				case "findandmodify":
+					add(name, c, c.getDocument("query", null), c.getDocument("sort", null),
+							null);
+					break;
+				case "update":
+					for (final BsonValue u: c.getArray("updates")) {
+						add(name, c, u.asDocument().getDocument("q"), null, null);
+					}
+					break;
+				case "delete":
+					for (final BsonValue d: c.getArray("deletes")) {
+						add(name, c, d.asDocument().getDocument("q"), null, null);
+					}
+					break;
+				default:
+					// inserts and other commands don't have a query
+			}
+		}
+
+		private void add(
+				final String command,
+				final BsonDocument cmd,
+				final BsonDocument filter,
+				final BsonDocument sort,
+				final BsonDocument hint) {
+			queries.add(new Query(command, cmd.getString(command).getValue(),
+					filter == null ? new BsonDocument() : filter, sort, hint));
+		}
+
+		@Override
+		public void commandSucceeded(final CommandSucceededEvent event) {}
+
+		@Override
+		public void commandFailed(final CommandFailedEvent event) {}
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		manager = new MongoStorageTestManager(DB_NAME);
+		capture = new QueryCapture();
+		client = new MongoClient(new ServerAddress("localhost", manager.mongo.getServerPort()),
+				MongoClientOptions.builder().addCommandListener(capture).build());
+		db = client.getDatabase(DB_NAME);
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+		if (client != null) {
+			client.close();
+		}
+		if (manager != null) {
+			manager.destroy();
+		}
+	}
+
+	private static RemoteIdentity remote(final String id) {
+		return new RemoteIdentity(new RemoteIdentityID("prov", id),
+				new RemoteIdentityDetails("user" + id, "full" + id, "e" + id + "@g.com"));
+	}
+
+	private static StoredToken token(final UserName user) {
+		return StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user)
+				.withLifeTime(Instant.now(), Instant.now().plusSeconds(3600)).build();
+	}
+
+	@Test
+	public void queryPlans() throws Exception {
+		final MongoStorage storage = new MongoStorage(db);
+		workload(storage);
+
+		final Map<String, Query> shapes = new LinkedHashMap<>();
+		for (final Query q: capture.queries) {
+			shapes.putIfAbsent(q.getShape(), q);
+		}
+		assertThat("no queries captured", shapes.isEmpty(), is(false));
+		final List<String> failures = new LinkedList<>();
+		for (final Query q: shapes.values()) {
+			if (q.filter.isEmpty() || isExpectedScan(q)) {
+				continue;
+			}
+			final String failure = checkPlan(q);
+			if (failure != null) {
+				failures.add(failure);
+			}
+		}
+		if (!failures.isEmpty()) {
+			fail(String.format("%s of %s query shapes have poor query plans:\n%s",
+					failures.size(), shapes.size(), String.join("\n", failures)));
+		}
+		checkAdminJobPlans(shapes.values());
+	}
+
+	private void checkAdminJobPlans(final Collection<Query> queries) {
+		final Map<String, String> indexes = new LinkedHashMap<>();
+		for (final Query q: queries) {
+			if (q.hint != null) {
+				final String key = q.collection + "." + q.filter.keySet().iterator().next();
+				final Document plan = explain(q).get("queryPlanner", Document.class)
+						.get("winningPlan", Document.class);
+				assertThat("blocking sort for " + q.getShape(), hasStage(plan, "SORT"),
+						is(false));
+				indexes.put(key, getIndexName(plan));
+			}
+		}
+		assertThat("incorrect admin job indexes", indexes, is(ADMIN_JOB_INDEXES));
+	}
+
+	private String getIndexName(final Document plan) {
+		if ("IXSCAN".equals(plan.getString("stage"))) {
+			return plan.getString("indexName");
+		}
+		final Document input = (Document) plan.get("inputStage");
+		return input == null ? null : getIndexName(input);
+	}
+
+	private boolean isExpectedScan(final Query q) {
+		for (final String field: q.filter.keySet()) {
+			if (EXPECTED_SCANS.containsKey(q.collection + "." + field)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String checkPlan(final Query q) {
+		final Document explain = explain(q);
+		final Document plan = (Document) ((Document) explain.get("queryPlanner"))
+				.get("winningPlan");
+		final Document stats = (Document) explain.get("executionStats");
+		final long examined = ((Number) stats.get("totalDocsExamined")).longValue();
+		final long returned = ((Number) stats.get("nReturned")).longValue();
+		final String desc = String.format("%s on %s: examined %s, returned %s",
+				q.command, q.getShape(), examined, returned);
+		if (hasStage(plan, "COLLSCAN")) {
+			return "COLLSCAN " + desc;
+		}
+		if (examined > MIN_EXAMINED && examined > EXAMINED_RATIO * Math.max(returned, 1)) {
+			return "Unselective " + desc;
+		}
+		return null;
+	}
+
+	private Document explain(final Query q) {
+		final BsonDocument find = new BsonDocument("find", new BsonString(q.collection))
+				.append("filter", q.filter);
+		if (q.sort != null) {
+			find.append("sort", q.sort);
+		}
+		if (q.hint != null) {
+			find.append("hint", q.hint);
+		}
+		return db.runCommand(new BsonDocument("explain", find)
+				.append("verbosity", new BsonString("executionStats")));
+	}
+
+	private boolean hasStage(final Document plan, final String stage) {
+		if (stage.equals(plan.getString("stage"))) {
+			return true;
+		}
+		final Document input = (Document) plan.get("inputStage");
+		if (input != null && hasStage(input, stage)) {
+			return true;
+		}
+		@SuppressWarnings("unchecked")
+		final List<Document> inputs = (List<Document>) plan.get("inputStages");
+		if (inputs != null) {
+			for (final Document i: inputs) {
+				if (hasStage(i, stage)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/* Exercises every MongoStorage method that queries the database over enough data that
+	 * an unindexed query examines many more documents than it returns.
+	 */
+	private void workload(final MongoStorage storage) throws Exception {
+		final Instant now = Instant.now();
+		final PasswordHashAndSalt creds = new PasswordHashAndSalt(
+				"foobarbazbing".getBytes(), "aa".getBytes());
+		storage.setCustomRole(new CustomRole("role1", "desc1"));
+		storage.setCustomRole(new CustomRole("role2", "desc2"));
+		for (int i = 0; i < USERS; i++) {
+			final UserName user = new UserName("user" + i);
+			storage.createUser(NewUser.getBuilder(
+					user, new DisplayName("disp " + i), now, remote("id" + i)).build());
+			if (i % 10 == 0) {
+				storage.updateRoles(user, set(Role.DEV_TOKEN), Collections.emptySet());
+				storage.updateCustomRoles(user, set("role1"), Collections.emptySet());
+				storage.addPolicyIDs(user, set(new PolicyID("policy")));
+				for (int j = 0; j < 5; j++) {
+					storage.storeToken(token(user), "hash" + i + "_" + j);
+				}
+			}
+		}
+		for (int i = 0; i < LOCAL_USERS; i++) {
+			storage.createLocalUser(LocalUser.getLocalUserBuilder(new UserName("local" + i),
+					new DisplayName("local " + i), now)
+					.withEmailAddress(new EmailAddress("f@g.com")).build(), creds);
+		}
+		storage.createUsers(set(NewUser.getBuilder(
+				new UserName("bulk"), new DisplayName("bulk"), now, remote("bulk")).build()));
+
+		// users
+		final UserName user = new UserName("user10");
+		final UserName local = new UserName("local1");
+		storage.getUser(user);
+		storage.getLocalUser(local);
+		storage.getPasswordHashAndSalt(local);
+		storage.changePassword(local, creds, false);
+		storage.forcePasswordReset(local);
+		storage.updateUser(user, UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("new disp")).build());
+		storage.setLastLogin(user, now);
+		storage.flush();
+		storage.disableAccount(new UserName("user11"), UserName.ROOT, "reason");
+		storage.enableAccount(new UserName("user11"), UserName.ROOT);
+		storage.updateRoles(user, Collections.emptySet(), set(Role.DEV_TOKEN));
+		storage.updateCustomRoles(user, set("role2"), set("role1"));
+		storage.getCustomRoles();
+		storage.getUserDisplayNames(set(user, new UserName("user12"), new UserName("nouser")));
+		storage.getUserDisplayNames(UserSearchSpec.getBuilder().withSearchPrefix("disp 1")
+				.withSearchOnDisplayName(true).build(), 100);
+		storage.getUserDisplayNames(UserSearchSpec.getBuilder().withSearchPrefix("user1")
+				.withSearchOnUserName(true).withSearchOnDisplayName(true).build(), 100);
+		storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnRole(Role.DEV_TOKEN).build(), -1);
+		storage.getUserDisplayNames(UserSearchSpec.getBuilder()
+				.withSearchOnCustomRole("role1").build(), -1);
+		// the search used to find an available user name
+		final UserSearchSpec.Builder regex = UserSearchSpec.getBuilder();
+		final Method withRegex = UserSearchSpec.Builder.class.getDeclaredMethod(
+				"withSearchRegex", String.class);
+		withRegex.setAccessible(true);
+		withRegex.invoke(regex, "^\\Quser1\\E\\d*$");
+		storage.getUserDisplayNames(regex.withSearchOnUserName(true)
+				.withIncludeDisabled(true).build(), -1);
+
+		// identities
+		storage.getUser(remote("id20"));
+		storage.getUsers(set(remote("id20"), remote("id21"), remote("noid")));
+		storage.link(user, remote("link1"));
+		storage.link(user, set(remote("link2"), remote("link3")));
+		try {
+			storage.link(user, set(remote("link4"), remote("id21")));
+			fail("expected exception");
+		} catch (Exception e) {
+			// expected, finds the user that has the identity
+		}
+		storage.unlink(user, remote("link1").getRemoteID().getID());
+
+		// tokens
+		final IncomingToken incoming = new IncomingToken("sometoken");
+		storage.storeToken(token(user), incoming.getHashedToken().getTokenHash());
+		storage.getToken(incoming.getHashedToken());
+		storage.flush();
+		storage.getTokens(user);
+		final StoredToken first = storage.getTokens(user, TokenListSpec.getBuilder()
+				.withTokenType(TokenType.LOGIN).withLimit(1).build()).getTokens().get(0);
+		storage.getTokens(user, TokenListSpec.getBuilder()
+				.withStartAfter(first.getExpirationDate(), first.getId()).build());
+		final StoredToken del = token(user);
+		storage.storeToken(del, "todelete");
+		storage.deleteToken(user, del.getId());
+		storage.deleteTokens(new UserName("user20"));
+		final Path snapshot = Files.createTempFile(TestCommon.getTempDir(), "snapshot", null);
+		final TokenSnapshotWriter writer = new TokenSnapshotWriter(snapshot, 0);
+		storage.exportTokens(writer);
+		writer.abort();
+
+		// token revocations
+		storage.addTokenRevocation(user);
+		storage.getTokenRevocations();
+		storage.removeTokenRevocation(user);
+		for (int i = 0; i < 5; i++) {
+			storage.addTokenRevocationEvent(TokenRevocation.user(user));
+		}
+		storage.getTokenRevocationEvents(2, 100);
+		storage.getTokenRevocationSequence();
+		storage.deleteTokenRevocationEvents(now.minusSeconds(10));
+
+		// temporary identities
+		final TemporaryToken temp = new TemporaryToken(UUID.randomUUID(), "temp", now, 10000);
+		final TemporaryHashedToken htemp = temp.getHashedToken();
+		storage.storeIdentitiesTemporarily(htemp, set(remote("id30")));
+		storage.getTemporaryIdentities(new IncomingToken("temp").getHashedToken());
+		storage.deleteTemporaryIdentities(new IncomingToken("temp").getHashedToken());
+		storage.storeErrorTemporarily(new TemporaryToken(UUID.randomUUID(), "temperr", now,
+				10000).getHashedToken(), "error", ErrorType.ID_PROVIDER_ERROR);
+
+		// admin jobs
+		final AdminJob revoke = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REVOKE_ALL_TOKENS, UserName.ROOT, now).build();
+		final AdminJob reset = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.FORCE_RESET_PASSWORDS, UserName.ROOT, now).build();
+		final AdminJob policy = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REMOVE_POLICY_ID, UserName.ROOT, now).withTarget("policy").build();
+		final AdminJob role = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.DELETE_CUSTOM_ROLE, UserName.ROOT, now).withTarget("role1").build();
+		storage.storeAdminJob(revoke);
+		storage.storeAdminJob(reset);
+		storage.storeAdminJob(policy);
+		storage.deleteCustomRole("role1", role);
+		storage.getAdminJobs(true);
+		storage.getAdminJobs(false);
+		for (final AdminJob j: Arrays.asList(revoke, reset, policy, role)) {
+			AdminJob done = j;
+			while (!done.isComplete()) {
+				done = storage.processAdminJobBatch(done, 5);
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.ShardedMongoController;
+import us.kbase.test.auth2.TestCommon;
+
+/* Runs the token operations against a local two shard cluster with the collections sharded
+ * on the keys from MongoStorage.getShardKeys(), and checks the hot token queries are routed to
+ * a single shard.
+ */
+public class MongoStorageShardedTest {
+
+	private static final String DB_NAME = "test_mongostorage_sharded";
+
+	private static ShardedMongoController mongo;
+	private static MongoClient mc;
+	private static MongoDatabase db;
+	private MongoStorage storage;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		TestCommon.stfuLoggers();
+		mongo = new ShardedMongoController(TestCommon.getMongoExe(), TestCommon.getTempDir(),
+				TestCommon.useWiredTigerEngine(), 2);
+		System.out.println(String.format("Testing against sharded cluster with mongos on port %s",
+				mongo.getServerPort()));
+		mc = new MongoClient("localhost:" + mongo.getServerPort());
+		db = mc.getDatabase(DB_NAME);
+		mongo.shardCollections(mc, DB_NAME, MongoStorage.getShardKeys());
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+		if (mc != null) {
+			mc.close();
+		}
+		if (mongo != null) {
+			mongo.destroy(TestCommon.isDeleteTempFiles());
+		}
+	}
+
+	@Before
+	public void before() throws Exception {
+		db.getCollection("tokens").deleteMany(new Document());
+		db.getCollection("tokenids").deleteMany(new Document());
+		final Constructor<MongoStorage> con = MongoStorage.class.getDeclaredConstructor(
+				MongoDatabase.class, Clock.class);
+		con.setAccessible(true);
+		storage = con.newInstance(db, Clock.systemDefaultZone());
+	}
+
+	private StoredToken token(final UserName user) {
+		final Instant now = Instant.now();
+		return StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user)
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+	}
+
+	@Test
+	public void shardedCollections() throws Exception {
+		final Map<String, Document> keys = new HashMap<>();
+		for (final Document c: mc.getDatabase("config").getCollection("collections")
+				.find(new Document("_id", new Document("$regex", "^" + DB_NAME + "\\.")))) {
+			if (!c.getBoolean("dropped", false)) {
+				keys.put(c.getString("_id"), (Document) c.get("key"));
+			}
+		}
+		final Map<String, Document> expected = new HashMap<>();
+		expected.put(DB_NAME + ".tokens", new Document("token", "hashed"));
+		assertThat("incorrect shard keys", keys, is(expected));
+	}
+
+	@Test
+	public void storeGetListAndDelete() throws Exception {
+		final UserName user = new UserName("foo");
+		final Set<StoredToken> stored = new HashSet<>();
+		for (int i = 0; i < 20; i++) {
+			final StoredToken t = token(user);
+			storage.storeToken(t, new IncomingToken("tok" + i).getHashedToken().getTokenHash());
+			stored.add(t);
+		}
+		storage.storeToken(token(new UserName("bar")),
+				new IncomingToken("other").getHashedToken().getTokenHash());
+
+		final StoredToken t = storage.getToken(new IncomingToken("tok7").getHashedToken());
+		assertThat("incorrect token", stored.contains(t), is(true));
+		assertThat("incorrect tokens", storage.getTokens(user), is(stored));
+		assertThat("incorrect page size", storage.getTokens(user, TokenListSpec.getBuilder()
+				.withLimit(50).build()).getTokens().size(), is(20));
+
+		storage.deleteToken(user, t.getId());
+		try {
+			storage.getToken(new IncomingToken("tok7").getHashedToken());
+			fail("expected exception");
+		} catch (NoSuchTokenException e) {
+			// expected
+		}
+		stored.remove(t);
+		assertThat("incorrect tokens", storage.getTokens(user), is(stored));
+
+		storage.deleteTokens(user);
+		assertThat("incorrect tokens", storage.getTokens(user), is(set()));
+		assertThat("incorrect token count", db.getCollection("tokens").count(), is(1L));
+	}
+
+	@Test
+	public void tokenIDIndexNotUnique() throws Exception {
+		// a sharded collection can only enforce uniqueness on the shard key
+		Document idIndex = null;
+		for (final Document i: db.getCollection("tokens").listIndexes()) {
+			if ("id_1".equals(i.getString("name"))) {
+				idIndex = i;
+			}
+		}
+		assertThat("incorrect index", idIndex.get("key"), is(new Document("id", 1)));
+		assertThat("index is unique", idIndex.get("unique"), is((Object) null));
+	}
+	
+	@Test
+	public void storeFailDuplicateToken() throws Exception {
+		storage.storeToken(token(new UserName("foo")), "hash1");
+		final StoredToken t = token(new UserName("bar"));
+		try {
+			storage.storeToken(t, "hash1");
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(String.format(
+					"Token hash for token ID %s already exists in the database", t.getId())));
+		}
+	}
+
+	@Test
+	public void storeFailDuplicateTokenID() throws Exception {
+		// the ID index isn't unique, so the IDs are reserved in an unsharded collection
+		final StoredToken t = token(new UserName("foo"));
+		storage.storeToken(t, "hash1");
+		final StoredToken dupe = StoredToken.getBuilder(
+				TokenType.LOGIN, t.getId(), new UserName("bar"))
+				.withLifeTime(Instant.now(), 10000).build();
+		try {
+			storage.storeToken(dupe, "hash2");
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(String.format(
+					"Token ID %s already exists in the database", t.getId())));
+		}
+		assertThat("incorrect tokens", storage.getTokens(new UserName("bar")),
+				is(Collections.emptySet()));
+		assertThat("incorrect reservation", db.getCollection("tokenids").find(
+				new Document("_id", t.getId().toString())).first().getDate("expires"),
+				is(Date.from(t.getExpirationDate())));
+	}
+
+	@Test
+	public void flushLastUsed() throws Exception {
+		// the tokens are spread over both shards, and each update must be routed to one
+		final UserName user = new UserName("foo");
+		for (int i = 0; i < 20; i++) {
+			storage.storeToken(token(user),
+					new IncomingToken("tok" + i).getHashedToken().getTokenHash());
+		}
+		final Instant before = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+		for (int i = 0; i < 20; i++) {
+			storage.getToken(new IncomingToken("tok" + i).getHashedToken());
+		}
+		storage.flush();
+
+		// a new instance has no buffered dates, so the dates must come from the db
+		final MongoStorage fresh = new MongoStorage(db);
+		for (final StoredToken t: fresh.getTokens(user)) {
+			final Optional<Instant> lastUsed = t.getLastUsed();
+			assertThat("no last used date", lastUsed.isPresent(), is(true));
+			assertThat("incorrect last used date", lastUsed.get().isBefore(before), is(false));
+		}
+	}
+
+	@Test
+	public void getTokenTargetsOneShard() throws Exception {
+		storage.storeToken(token(new UserName("foo")), "hash1");
+		assertThat("incorrect plan", explainStage(new Document("token", "hash1")),
+				is("SINGLE_SHARD"));
+		// listing a user's tokens is a broadcast query
+		assertThat("incorrect plan", explainStage(new Document("user", "foo")),
+				is("SHARD_MERGE"));
+	}
+
+	private String explainStage(final Document filter) {
+		final Document explain = db.runCommand(new Document("explain",
+				new Document("find", "tokens").append("filter", filter)));
+		return ((Document) ((Document) explain.get("queryPlanner")).get("winningPlan"))
+				.getString("stage");
+	}
+}
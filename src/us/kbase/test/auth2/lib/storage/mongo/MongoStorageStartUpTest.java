@@ -19,6 +19,7 @@ import org.junit.Test;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
 
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
@@ -112,6 +113,66 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 				"schema. Aborting startup."));
 	}
 	
+	@Test
+	public void startUpDropsTokenUserIndex() throws Exception {
+		// older versions indexed tokens on the user alone
+		final MongoDatabase db = mc.getDatabase("startUpDropsTokenUserIndex");
+		db.getCollection("tokens").createIndex(new Document("user", 1));
+		
+		new MongoStorage(db);
+		
+		final Set<String> names = new HashSet<>();
+		for (final Document i: db.getCollection("tokens").listIndexes()) {
+			names.add(i.getString("name"));
+		}
+		assertThat("index not dropped", names.contains("user_1"), is(false));
+		assertThat("index missing", names.contains("user_1_expires_1_id_1"), is(true));
+		
+		// check startup works when the index is already gone
+		new MongoStorage(db);
+	}
+	
+	@Test
+	public void startUpDropsUserRoleAndPolicyIndexes() throws Exception {
+		// older versions indexed custom roles and policy IDs without the _id
+		final MongoDatabase db = mc.getDatabase("startUpDropsUserRoleAndPolicyIndexes");
+		db.getCollection("users").createIndex(new Document("custrls", 1),
+				new IndexOptions().sparse(true));
+		db.getCollection("users").createIndex(new Document("policyids.id", 1),
+				new IndexOptions().sparse(true));
+		
+		new MongoStorage(db);
+		
+		final Set<String> names = new HashSet<>();
+		for (final Document i: db.getCollection("users").listIndexes()) {
+			names.add(i.getString("name"));
+		}
+		assertThat("index not dropped", names.contains("custrls_1"), is(false));
+		assertThat("index not dropped", names.contains("policyids.id_1"), is(false));
+		assertThat("index missing", names.contains("custrls_1__id_1"), is(true));
+		assertThat("index missing", names.contains("policyids.id_1__id_1"), is(true));
+	}
+	
+	@Test
+	public void startUpFailTokenIDIndexConflict() throws Exception {
+		// the token ID index is unique unless the token collection is sharded
+		final MongoDatabase db = mc.getDatabase("startUpFailTokenIDIndexConflict");
+		db.getCollection("tokens").createIndex(new Document("id", 1));
+		
+		failMongoStart(db, new StorageInitException(
+				"Index id_1 on collection tokens exists with different options. " +
+				"Drop the index and restart the server, see the README"));
+		
+		// the index must not be altered
+		Document idIndex = null;
+		for (final Document i: db.getCollection("tokens").listIndexes()) {
+			if ("id_1".equals(i.getString("name"))) {
+				idIndex = i;
+			}
+		}
+		assertThat("index is unique", idIndex.get("unique"), is((Object) null));
+	}
+	
 	private void failMongoStart(final MongoDatabase db, final Exception exp)
 			throws Exception {
 		try {
@@ -132,12 +193,16 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 	public void checkCollectionNames() throws Exception {
 		final Set<String> names = new HashSet<>();
 		final Set<String> expected = set(
+				"adminjobs",
 				"config",
 				"config_app",
 				"config_ext",
 				"config_prov",
 				"cust_roles",
 				"temptokens",
+				"tokenids",
+				"tokenrevoke",
+				"tokenrevokefeed",
 				"tokens",
 				"users");
 		if (includeSystemIndexes) {
@@ -149,6 +214,27 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		assertThat("incorrect collection names", names, is(expected));
 	}
 	
+	@Test
+	public void indexesAdminJobs() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("adminjobs").listIndexes().forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("unique", true)
+						.append("key", new Document("id", 1))
+						.append("name", "id_1")
+						.append("ns", "test_mongostorage.adminjobs"),
+				new Document("v", indexVer)
+						.append("key", new Document("created", 1))
+						.append("name", "created_1")
+						.append("ns", "test_mongostorage.adminjobs"),
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.adminjobs")
+				)));
+	}
+	
 	@Test
 	public void indexesConfig() {
 		final Set<Document> indexes = new HashSet<>();
@@ -261,6 +347,62 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 				)));
 	}
 	
+	@Test
+	public void indexesTokenIDs() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("tokenids").listIndexes().forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("key", new Document("expires", 1))
+						.append("name", "expires_1")
+						.append("ns", "test_mongostorage.tokenids")
+						.append("expireAfterSeconds", 0L),
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.tokenids")
+				)));
+	}
+	
+	@Test
+	public void indexesTokenRevoke() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("tokenrevoke").listIndexes().forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("unique", true)
+						.append("key", new Document("user", 1))
+						.append("name", "user_1")
+						.append("ns", "test_mongostorage.tokenrevoke"),
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.tokenrevoke")
+				)));
+	}
+	
+	@Test
+	public void indexesTokenRevokeFeed() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("tokenrevokefeed").listIndexes()
+				.forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("unique", true)
+						.append("key", new Document("seq", 1))
+						.append("name", "seq_1")
+						.append("ns", "test_mongostorage.tokenrevokefeed"),
+				new Document("v", indexVer)
+						.append("key", new Document("time", 1))
+						.append("name", "time_1")
+						.append("ns", "test_mongostorage.tokenrevokefeed"),
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.tokenrevokefeed")
+				)));
+	}
+	
 	@Test
 	public void indexesTokens() {
 		final Set<Document> indexes = new HashSet<>();
@@ -271,6 +413,10 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 						.append("key", new Document("token", 1))
 						.append("name", "token_1")
 						.append("ns", "test_mongostorage.tokens"),
+				new Document("v", indexVer)
+						.append("key", new Document("create", 1))
+						.append("name", "create_1")
+						.append("ns", "test_mongostorage.tokens"),
 				new Document("v", indexVer)
 						.append("key", new Document("expires", 1))
 						.append("name", "expires_1")
@@ -281,8 +427,8 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 						.append("name", "_id_")
 						.append("ns", "test_mongostorage.tokens"),
 				new Document("v", indexVer)
-						.append("key", new Document("user", 1))
-						.append("name", "user_1")
+						.append("key", new Document("user", 1).append("expires", 1).append("id", 1))
+						.append("name", "user_1_expires_1_id_1")
 						.append("ns", "test_mongostorage.tokens"),
 				new Document("v", indexVer)
 						.append("unique", true)
@@ -298,10 +444,9 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		db.getCollection("users").listIndexes().forEach((Consumer<Document>) indexes::add);
 		assertThat("incorrect indexes", indexes, is(set(
 				new Document("v", indexVer)
-						.append("key", new Document("custrls", 1))
-						.append("name", "custrls_1")
-						.append("ns", "test_mongostorage.users")
-						.append("sparse", true),
+						.append("key", new Document("custrls", 1).append("_id", 1))
+						.append("name", "custrls_1__id_1")
+						.append("ns", "test_mongostorage.users"),
 				new Document("v", indexVer)
 						.append("key", new Document("dispcan", 1))
 						.append("name", "dispcan_1")
@@ -316,6 +461,14 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 						.append("name", "idents.id_1")
 						.append("ns", "test_mongostorage.users")
 						.append("sparse", true),
+				new Document("v", indexVer)
+						.append("key", new Document("lcl", 1).append("_id", 1))
+						.append("name", "lcl_1__id_1")
+						.append("ns", "test_mongostorage.users"),
+				new Document("v", indexVer)
+						.append("key", new Document("policyids.id", 1).append("_id", 1))
+						.append("name", "policyids.id_1__id_1")
+						.append("ns", "test_mongostorage.users"),
 				new Document("v", indexVer)
 						.append("key", new Document("roles", 1))
 						.append("name", "roles_1")
@@ -1,5 +1,6 @@
 package us.kbase.test.auth2.lib.storage.mongo;
 
+import java.lang.reflect.Constructor;
 import java.time.Clock;
 
 import org.junit.AfterClass;
@@ -10,6 +11,7 @@ import com.github.zafarkhaja.semver.Version;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
+import us.kbase.auth2.lib.AdminJob;
 import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.common.test.controllers.mongo.MongoController;
 import us.kbase.test.auth2.MongoStorageTestManager;
@@ -53,4 +55,25 @@ public class MongoStorageTester {
 		storage = manager.storage;
 		mockClock = manager.mockClock;
 	}
+	
+	/* Process a stored admin job until it's complete. The mock clock must be set up to return
+	 * the completion date.
+	 */
+	static AdminJob completeAdminJob(final AdminJob job, final int batchSize) throws Exception {
+		AdminJob j = job;
+		while (!j.isComplete()) {
+			j = storage.processAdminJobBatch(j, batchSize);
+		}
+		return j;
+	}
+	
+	/* Create another storage instance on the test database, as another server instance would.
+	 * The instance shares the mock clock.
+	 */
+	static MongoStorage otherInstance() throws Exception {
+		final Constructor<MongoStorage> con = MongoStorage.class.getDeclaredConstructor(
+				MongoDatabase.class, Clock.class);
+		con.setAccessible(true);
+		return con.newInstance(db, mockClock);
+	}
 }
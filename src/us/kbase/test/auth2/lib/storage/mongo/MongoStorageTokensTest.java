@@ -3,24 +3,35 @@ package us.kbase.test.auth2.lib.storage.mongo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
 
 import static us.kbase.test.auth2.TestCommon.set;
 
 import java.net.InetAddress;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.UUID;
 
 import org.bson.Document;
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenPage;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.test.auth2.TestCommon;
 
@@ -248,6 +259,144 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 				is(set(expected3, expected1)));
 	}
 	
+	@Test
+	public void getTokenPages() throws Exception {
+		final Instant now = Instant.now();
+		final UUID ida = UUID.randomUUID();
+		final UUID idb = UUID.randomUUID();
+		// tokens with the same expiration date are ordered by ID
+		final UUID id1 = ida.toString().compareTo(idb.toString()) < 0 ? ida : idb;
+		final UUID id2 = id1 == ida ? idb : ida;
+		final UUID id3 = UUID.randomUUID();
+		
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id3, new UserName("bar"))
+				.withLifeTime(now, 30000).build(), "3");
+		storage.storeToken(StoredToken.getBuilder(TokenType.AGENT, id2, new UserName("bar"))
+				.withLifeTime(now, 15000)
+				.withContext(TokenCreationContext.getBuilder()
+						.withNullableAgent("a", "av")
+						.withCustomContext("k1", "v1")
+						.build())
+				.withTokenName(new TokenName("foo")).build(), "2");
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id1, new UserName("bar"))
+				.withLifeTime(now, 15000).build(), "1");
+		storage.storeToken(StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar2"))
+				.withLifeTime(now, 10000).build(), "4");
+		
+		final StoredToken expected1 = StoredToken.getBuilder(
+				TokenType.LOGIN, id1, new UserName("bar"))
+				.withLifeTime(now, now.plusMillis(15000)).build();
+		// the custom context is not included in token lists
+		final StoredToken expected2 = StoredToken.getBuilder(
+				TokenType.AGENT, id2, new UserName("bar"))
+				.withLifeTime(now, now.plusMillis(15000))
+				.withContext(TokenCreationContext.getBuilder()
+						.withNullableAgent("a", "av").build())
+				.withTokenName(new TokenName("foo")).build();
+		final StoredToken expected3 = StoredToken.getBuilder(
+				TokenType.LOGIN, id3, new UserName("bar"))
+				.withLifeTime(now, now.plusMillis(30000)).build();
+		
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withLimit(2).build()),
+				is(new TokenPage(Arrays.asList(expected1, expected2), true)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withLimit(3).build()),
+				is(new TokenPage(Arrays.asList(expected1, expected2, expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withLimit(2)
+						.withStartAfter(now.plusMillis(15000), id2).build()),
+				is(new TokenPage(Arrays.asList(expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withStartAfter(now.plusMillis(15000), id1).build()),
+				is(new TokenPage(Arrays.asList(expected2, expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withTokenType(TokenType.LOGIN).build()),
+				is(new TokenPage(Arrays.asList(expected1, expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withTokenType(TokenType.LOGIN)
+						.withTokenType(TokenType.AGENT).withLimit(1)
+						.withStartAfter(now.plusMillis(15000), id1).build()),
+				is(new TokenPage(Arrays.asList(expected2), true)));
+		// the excluded token doesn't count towards the limit
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withLimit(2).withExcludedID(id2).build()),
+				is(new TokenPage(Arrays.asList(expected1, expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar"),
+				TokenListSpec.getBuilder().withExcludedID(id1)
+						.withStartAfter(now.plusMillis(15000), id1).build()),
+				is(new TokenPage(Arrays.asList(expected2, expected3), false)));
+		assertThat("incorrect page", storage.getTokens(new UserName("bar3"),
+				TokenListSpec.getBuilder().build()),
+				is(new TokenPage(Collections.emptyList(), false)));
+	}
+	
+	@Test
+	public void getTokenPagesFail() throws Exception {
+		failGetTokenPages(null, TokenListSpec.getBuilder().build(),
+				new NullPointerException("userName"));
+		failGetTokenPages(new UserName("bar"), null, new NullPointerException("spec"));
+	}
+	
+	private void failGetTokenPages(
+			final UserName name,
+			final TokenListSpec spec,
+			final Exception e) {
+		try {
+			storage.getTokens(name, spec);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void tokenLastUsedWriteBehind() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final Instant now = Instant.now();
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id, new UserName("bar"))
+				.withLifeTime(now, 1000000).build(), "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		
+		final Instant before = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+		// the returned token doesn't include the current use
+		final StoredToken st = storage.getToken(new IncomingToken("sometoken").getHashedToken());
+		final Instant after = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+		assertThat("incorrect last used", st.getLastUsed(), is(Optional.absent()));
+		
+		// not written to the db until flushed, but visible via the storage instance
+		assertThat("incorrect db last used", db.getCollection("tokens").find(
+				new Document("id", id.toString())).first().get("lastused"), is((Object) null));
+		final Instant lastUsed = storage.getTokens(new UserName("bar")).iterator().next()
+				.getLastUsed().get();
+		assertThat("last used not truncated", lastUsed.truncatedTo(ChronoUnit.MINUTES),
+				is(lastUsed));
+		assertThat("incorrect last used", !lastUsed.isBefore(before) && !lastUsed.isAfter(after),
+				is(true));
+		
+		storage.flush();
+		assertThat("incorrect db last used", db.getCollection("tokens").find(
+				new Document("id", id.toString())).first().getDate("lastused"),
+				is(Date.from(lastUsed)));
+		assertThat("incorrect last used",
+				storage.getToken(new IncomingToken("sometoken").getHashedToken()).getLastUsed(),
+				is(Optional.of(lastUsed)));
+	}
+	
+	@Test
+	public void tokenLastUsedDeletedToken() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final Instant now = Instant.now();
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id, new UserName("bar"))
+				.withLifeTime(now, 1000000).build(), "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		storage.getToken(new IncomingToken("sometoken").getHashedToken());
+		storage.deleteTokens(new UserName("bar"));
+		
+		// a pending update for a deleted token is silently dropped
+		storage.flush();
+		assertThat("token recreated", db.getCollection("tokens").count(), is(0L));
+	}
+	
 	@Test
 	public void getTokensFail() throws Exception {
 		try {
@@ -258,6 +407,34 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void getTokenHash() throws Exception {
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(Instant.now(), 10000).build();
+		storage.storeToken(ht, "hash");
+		
+		assertThat("incorrect hash", storage.getTokenHash(new UserName("bar"), ht.getId()),
+				is("hash"));
+		
+		failGetTokenHash(null, ht.getId(), new NullPointerException("userName"));
+		failGetTokenHash(new UserName("bar"), null, new NullPointerException("tokenId"));
+		final UUID id = UUID.randomUUID();
+		failGetTokenHash(new UserName("bar"), id, new NoSuchTokenException(
+				String.format("No token %s for user bar exists", id)));
+		failGetTokenHash(new UserName("bar1"), ht.getId(), new NoSuchTokenException(
+				String.format("No token %s for user bar1 exists", ht.getId())));
+	}
+	
+	private void failGetTokenHash(final UserName name, final UUID id, final Exception e) {
+		try {
+			storage.getTokenHash(name, id);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void deleteToken() throws Exception {
 		final UUID id = UUID.randomUUID();
@@ -381,14 +558,132 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
 				.withLifeTime(now, 100000).build();
 		
-		storage.storeToken(ht, "1");
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
 		storage.storeToken(ht2, "2");
 		storage.storeToken(ht3, "3");
 		
-		storage.deleteTokens();
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		final AdminJob job = AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REVOKE_ALL_TOKENS, new UserName("admin"), now).build();
+		storage.storeAdminJob(job);
+		
+		// the tokens are revoked before the job deletes them
+		try {
+			storage.getToken(new IncomingToken("sometoken").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		// a token created after the job is unaffected
+		final StoredToken ht4 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now.plusMillis(1), 100000).build();
+		storage.storeToken(ht4, "4");
+		
+		assertThat("incorrect job", completeAdminJob(job, 2), is(AdminJob.getBuilder(
+				job.getID(), AdminJobType.REVOKE_ALL_TOKENS, new UserName("admin"), now)
+				.withMatched(3).withProcessed(3)
+				.withCompleted(Instant.ofEpochMilli(30000)).build()));
 		assertThat("tokens remaining", storage.getTokens(new UserName("bar")),
-				is(Collections.emptySet()));
+				is(set(ht4)));
 		assertThat("tokens remaining", storage.getTokens(new UserName("bar2")),
 				is(Collections.emptySet()));
 	}
+	
+	@Test
+	public void revokeAllTokensJobOtherInstance() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 100000).build();
+		storage.storeToken(ht, IncomingToken.hash("t1"));
+		final MongoStorage other = otherInstance();
+		assertThat("incorrect token", other.getToken(new IncomingToken("t1").getHashedToken()),
+				is(ht));
+		
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		storage.storeAdminJob(AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REVOKE_ALL_TOKENS, new UserName("admin"), now).build());
+		
+		// the other instance picks up the job within about a second
+		Thread.sleep(1100);
+		try {
+			other.getToken(new IncomingToken("t1").getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+	
+	@Test
+	public void tokenRevocationQueueRevokesTokens() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 100000).build();
+		final StoredToken ht2 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(now, 100000).build();
+		storage.storeToken(ht, IncomingToken.hash("t1"));
+		storage.storeToken(ht2, IncomingToken.hash("t2"));
+		final MongoStorage other = otherInstance();
+		assertThat("incorrect token", other.getToken(new IncomingToken("t1").getHashedToken()),
+				is(ht));
+		
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+		storage.addTokenRevocation(new UserName("bar"));
+		
+		// the tokens are revoked before the queue is processed
+		failGetToken(storage, "t1");
+		// the other instance picks up the revocation within about a second
+		Thread.sleep(1100);
+		failGetToken(other, "t1");
+		assertThat("incorrect token", other.getToken(new IncomingToken("t2").getHashedToken()),
+				is(ht2));
+	}
+	
+	private void failGetToken(final MongoStorage storage, final String token) {
+		try {
+			storage.getToken(new IncomingToken(token).getHashedToken());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+	
+	@Test
+	public void tokenRevocationQueue() throws Exception {
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(Collections.emptySet()));
+		
+		storage.addTokenRevocation(new UserName("foo"));
+		storage.addTokenRevocation(new UserName("bar"));
+		storage.addTokenRevocation(new UserName("foo"));
+		
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(set(new UserName("foo"), new UserName("bar"))));
+		assertThat("incorrect revocation count", db.getCollection("tokenrevoke").count(), is(2L));
+		
+		storage.removeTokenRevocation(new UserName("foo"));
+		storage.removeTokenRevocation(new UserName("baz"));
+		
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(set(new UserName("bar"))));
+	}
+	
+	@Test
+	public void tokenRevocationQueueFailNulls() throws Exception {
+		try {
+			storage.addTokenRevocation(null);
+			fail("expected exception");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("userName"));
+		}
+		try {
+			storage.removeTokenRevocation(null);
+			fail("expected exception");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("userName"));
+		}
+	}
 }
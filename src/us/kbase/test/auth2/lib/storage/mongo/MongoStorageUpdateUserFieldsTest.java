@@ -10,13 +10,18 @@ import static us.kbase.test.auth2.TestCommon.set;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Set;
+import java.util.UUID;
 
+import org.bson.Document;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.PolicyID;
@@ -26,6 +31,7 @@ import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.test.auth2.TestCommon;
@@ -131,6 +137,37 @@ public class MongoStorageUpdateUserFieldsTest extends MongoStorageTester {
 		storage.setLastLogin(new UserName("user1"), d);
 		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
 				is(Optional.of(d)));
+		storage.flush();
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.of(d)));
+	}
+	
+	@Test
+	public void lastLoginWriteBehind() throws Exception {
+		final NewUser nu = NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+				.withEmailAddress(new EmailAddress("e@g1.com")).build();
+		storage.createUser(nu);
+		final Instant d1 = NOW.plus(Duration.ofHours(2));
+		final Instant d2 = NOW.plus(Duration.ofHours(3));
+		storage.setLastLogin(new UserName("user1"), d2);
+		storage.setLastLogin(new UserName("user1"), d1);
+		
+		// not written to the db until flushed, but visible via the storage instance
+		assertThat("incorrect db login date", db.getCollection("users").find(
+				new Document("user", "user1")).first().get("login"), is((Object) null));
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.of(d2)));
+		
+		storage.flush();
+		assertThat("incorrect db login date", db.getCollection("users").find(
+				new Document("user", "user1")).first().getDate("login"), is(Date.from(d2)));
+		
+		// an older login date doesn't overwrite a newer one
+		storage.setLastLogin(new UserName("user1"), d1);
+		storage.flush();
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.of(d2)));
 	}
 	
 	@Test
@@ -140,8 +177,11 @@ public class MongoStorageUpdateUserFieldsTest extends MongoStorageTester {
 	}
 	
 	@Test
-	public void lastLoginFailNoSuchUser() throws Exception {
-		failLastLogin(new UserName("foo"), Instant.now(), new NoSuchUserException("foo"));
+	public void lastLoginNoSuchUser() throws Exception {
+		// last login updates are buffered, so a missing user is silently ignored on flush
+		storage.setLastLogin(new UserName("foo"), Instant.now());
+		storage.flush();
+		assertThat("user created", db.getCollection("users").count(), is(0L));
 	}
 	
 	private void failLastLogin(final UserName name, final Instant d, final Exception e) {
@@ -253,7 +293,10 @@ public class MongoStorageUpdateUserFieldsTest extends MongoStorageTester {
 				.build();
 		storage.createUser(nu2);
 		
-		storage.removePolicyID(new PolicyID("foo"));
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		assertThat("incorrect job", removePolicyID("foo"), is(policyJob("foo")
+				.withMatched(2).withProcessed(2)
+				.withCompleted(Instant.ofEpochMilli(50000)).build()));
 
 		assertThat("incorrect policyIDs", storage.getUser(new UserName("user1")).getPolicyIDs(),
 				is(ImmutableMap.of(new PolicyID("bar"), Instant.ofEpochMilli(30000))));
@@ -277,7 +320,9 @@ public class MongoStorageUpdateUserFieldsTest extends MongoStorageTester {
 				.build();
 		storage.createUser(nu2);
 		
-		storage.removePolicyID(new PolicyID("bat"));
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+		assertThat("incorrect job", removePolicyID("bat"), is(policyJob("bat")
+				.withCompleted(Instant.ofEpochMilli(50000)).build()));
 
 		assertThat("incorrect policyIDs", storage.getUser(new UserName("user1")).getPolicyIDs(),
 				is(ImmutableMap.of(new PolicyID("bar"), Instant.ofEpochMilli(30000),
@@ -287,13 +332,34 @@ public class MongoStorageUpdateUserFieldsTest extends MongoStorageTester {
 						new PolicyID("foo"), Instant.ofEpochMilli(35000))));
 	}
 	
+	private static final UUID POLICY_JOB_ID = UUID.randomUUID();
+	
+	private AdminJob.Builder policyJob(final String policyID) throws Exception {
+		return AdminJob.getBuilder(POLICY_JOB_ID, AdminJobType.REMOVE_POLICY_ID,
+				new UserName("admin"), NOW).withTarget(policyID);
+	}
+	
+	private AdminJob removePolicyID(final String policyID) throws Exception {
+		final AdminJob job = policyJob(policyID).build();
+		storage.storeAdminJob(job);
+		return completeAdminJob(job, 1);
+	}
+	
 	@Test
-	public void failRemovePolicyID() throws Exception {
+	public void failProcessAdminJob() throws Exception {
+		final AdminJob job = policyJob("foo").build();
+		failProcessAdminJob(null, 1, new NullPointerException("job"));
+		failProcessAdminJob(job, 0, new IllegalArgumentException("batchSize must be at least 1"));
+		failProcessAdminJob(job, 1, new AuthStorageException(
+				"No admin job with ID " + POLICY_JOB_ID));
+	}
+	
+	private void failProcessAdminJob(final AdminJob job, final int batchSize, final Exception e) {
 		try {
-			storage.removePolicyID(null);
+			storage.processAdminJobBatch(job, batchSize);
 			fail("expected exception");
 		} catch (Exception got) {
-			TestCommon.assertExceptionCorrect(got, new NullPointerException("policyID"));
+			TestCommon.assertExceptionCorrect(got, e);
 		}
 	}
 	
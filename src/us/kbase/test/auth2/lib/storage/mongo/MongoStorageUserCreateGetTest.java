@@ -8,7 +8,11 @@ import static us.kbase.test.auth2.TestCommon.set;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -33,6 +37,7 @@ import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.CreateUserResult;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
 import us.kbase.test.auth2.TestCommon;
@@ -377,6 +382,27 @@ public class MongoStorageUserCreateGetTest extends MongoStorageTester {
 		assertThat("incorrect is root", u.isRoot(), is(false));
 	}
 	
+	@Test
+	public void getUsersShareValues() throws Exception {
+		for (final String name: Arrays.asList("user1", "user2")) {
+			storage.createUser(NewUser.getBuilder(new UserName(name), new DisplayName("bar"),
+					NOW, name.equals("user1") ? REMOTE1 : REMOTE2)
+					.withRole(Role.DEV_TOKEN)
+					.withPolicyID(new PolicyID("foo"), Instant.ofEpochMilli(60000))
+					.build());
+		}
+		final AuthUser u1 = storage.getUser(new UserName("user1"));
+		final AuthUser u1again = storage.getUser(new UserName("user1"));
+		final AuthUser u2 = storage.getUser(new UserName("user2"));
+		
+		assertThat("user name not shared", u1.getUserName() == u1again.getUserName(), is(true));
+		assertThat("display name not shared", u1.getDisplayName() == u2.getDisplayName(),
+				is(true));
+		assertThat("policy ID not shared", u1.getPolicyIDs().keySet().iterator().next() ==
+				u2.getPolicyIDs().keySet().iterator().next(), is(true));
+		assertThat("roles not shared", u1.getRoles() == u2.getRoles(), is(true));
+	}
+	
 	@Test
 	public void getNullUser() {
 		failGetUser(null, new NullPointerException("userName"));
@@ -464,6 +490,85 @@ public class MongoStorageUserCreateGetTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void createUsers() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1).build());
+		
+		final RemoteIdentity ri3 = new RemoteIdentity(
+				new RemoteIdentityID("prov", "bar3"),
+				new RemoteIdentityDetails("user3", "full3", "email3"));
+		
+		final Map<UserName, CreateUserResult> res = storage.createUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("user1"), new DisplayName("bar1"), NOW, ri3)
+						.build(),
+				NewUser.getBuilder(new UserName("user2"), new DisplayName("bar2"), NOW, REMOTE1)
+						.build(),
+				NewUser.getBuilder(new UserName("user3"), new DisplayName("bar3"), NOW, REMOTE2)
+						.withEmailAddress(new EmailAddress("f@g.com"))
+						.build()));
+		
+		assertThat("incorrect results", res, is(ImmutableMap.of(
+				new UserName("user1"), CreateUserResult.USER_EXISTS,
+				new UserName("user2"), CreateUserResult.IDENTITY_LINKED,
+				new UserName("user3"), CreateUserResult.CREATED)));
+		
+		final AuthUser u = storage.getUser(new UserName("user3"));
+		assertThat("incorrect display name", u.getDisplayName(), is(new DisplayName("bar3")));
+		assertThat("incorrect email", u.getEmail(), is(new EmailAddress("f@g.com")));
+		assertThat("incorrect identities", u.getIdentities(), is(set(REMOTE2)));
+		assertThat("incorrect user for remote id", storage.getUser(REMOTE1).get().getUserName(),
+				is(new UserName("user1")));
+		failGetUser(new UserName("user2"), new NoSuchUserException("user2"));
+	}
+	
+	@Test
+	public void createUsersEmpty() throws Exception {
+		assertThat("incorrect results", storage.createUsers(Collections.emptyList()),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void createUsersFailNulls() throws Exception {
+		failCreateUsers(null, new NullPointerException("newUsers"));
+		failCreateUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+						.build(),
+				null),
+				new NullPointerException("null item in newUsers"));
+	}
+	
+	@Test
+	public void createUsersFailDuplicateName() throws Exception {
+		failCreateUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+						.build(),
+				NewUser.getBuilder(new UserName("user1"), new DisplayName("bar2"), NOW, REMOTE2)
+						.build()),
+				new IllegalArgumentException("Duplicate user name in newUsers: user1"));
+	}
+	
+	@Test
+	public void createUsersFailBadCustomRole() throws Exception {
+		failCreateUsers(Arrays.asList(
+				NewUser.getBuilder(new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+						.build(),
+				NewUser.getBuilder(new UserName("user2"), new DisplayName("bar2"), NOW, REMOTE2)
+						.withCustomRole("Idontexist")
+						.build()),
+				new NoSuchRoleException("Idontexist"));
+		failGetUser(new UserName("user1"), new NoSuchUserException("user1"));
+	}
+	
+	private void failCreateUsers(final Collection<NewUser> users, final Exception e) {
+		try {
+			storage.createUsers(users);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void getUserByRemoteIdMinimal() throws Exception {
 		storage.createUser(NewUser.getBuilder(
@@ -573,4 +678,49 @@ public class MongoStorageUserCreateGetTest extends MongoStorageTester {
 		assertThat("incorrect email", au.getEmail(), is(new EmailAddress("e@g1.com")));
 		// ok, thats enough
 	}
+	
+	@Test
+	public void getUsersByRemoteIdAndUpdate() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+				.build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user2"), new DisplayName("bar2"), NOW, REMOTE2)
+				.build());
+		
+		final RemoteIdentity ri2 = new RemoteIdentity(
+				new RemoteIdentityID("prov", "bar2"),
+				new RemoteIdentityDetails("user2new", "full2new", "email2new"));
+		final RemoteIdentity ri3 = new RemoteIdentity(
+				new RemoteIdentityID("prov", "bar3"),
+				new RemoteIdentityDetails("user3", "full3", "email3"));
+		
+		final Map<RemoteIdentity, AuthUser> users = storage.getUsers(set(REMOTE1, ri2, ri3));
+		assertThat("incorrect identities", users.keySet(), is(set(REMOTE1, ri2)));
+		assertThat("incorrect username", users.get(REMOTE1).getUserName(),
+				is(new UserName("user1")));
+		assertThat("incorrect username", users.get(ri2).getUserName(),
+				is(new UserName("user2")));
+		assertThat("incorrect identities", users.get(ri2).getIdentities(), is(set(ri2)));
+		// the updated details are stored
+		assertThat("incorrect identities", storage.getUser(new UserName("user2"))
+				.getIdentities(), is(set(ri2)));
+		assertThat("incorrect users", storage.getUsers(Collections.emptySet()),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void getUsersByRemoteIdFail() throws Exception {
+		failGetUsers(null, new NullPointerException("remoteIDs"));
+		failGetUsers(set(REMOTE1, null), new NullPointerException("Null remote identity in set"));
+	}
+	
+	private void failGetUsers(final Set<RemoteIdentity> remoteIDs, final Exception e) {
+		try {
+			storage.getUsers(remoteIDs);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
 }
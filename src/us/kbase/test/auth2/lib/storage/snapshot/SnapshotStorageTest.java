@@ -0,0 +1,314 @@
+package us.kbase.test.auth2.lib.storage.snapshot;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.AdminJob;
+import us.kbase.auth2.lib.AdminJobType;
+import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.config.ConfigItem;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.storage.exceptions.UnsupportedStorageOperationException;
+import us.kbase.auth2.lib.storage.memory.MemoryStorage;
+import us.kbase.auth2.lib.storage.snapshot.SnapshotStorage;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshot;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.lib.config.TestExternalConfig;
+
+public class SnapshotStorageTest {
+
+	/* Tests the read only storage with an in memory storage system as the primary storage
+	 * system. The memory storage system doesn't publish revocations to the feed, so the tests
+	 * add the events as the Authentication class would.
+	 */
+
+	private Path tempDir;
+	private Path snapshotFile;
+	private MemoryStorage primary;
+
+	@BeforeClass
+	public static void beforeClass() {
+		TestCommon.stfuLoggers();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Files.createDirectories(TestCommon.getTempDir());
+		tempDir = Files.createTempDirectory(TestCommon.getTempDir(), "SnapshotStorageTest");
+		snapshotFile = tempDir.resolve("snapshot");
+		primary = new MemoryStorage();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (tempDir != null && TestCommon.isDeleteTempFiles()) {
+			final List<Path> files = Files.walk(tempDir).sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList());
+			for (final Path p: files) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	private static StoredToken token(final UUID id, final String user, final Instant created)
+			throws Exception {
+		return StoredToken.getBuilder(TokenType.LOGIN, id, new UserName(user))
+				.withLifeTime(created, created.plusSeconds(3600)).build();
+	}
+
+	private StoredToken get(final SnapshotStorage storage, final String token)
+			throws Exception {
+		return storage.getToken(new IncomingToken(token).getHashedToken());
+	}
+
+	private void assertNoToken(final SnapshotStorage storage, final String token) {
+		try {
+			get(storage, token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+
+	@Test
+	public void snapshotAndRevocations() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id1 = UUID.randomUUID();
+		final UUID id2 = UUID.randomUUID();
+		final UUID id3 = UUID.randomUUID();
+		primary.storeToken(token(id1, "foo", now), IncomingToken.hash("t1"));
+		primary.storeToken(token(id2, "foo", now), IncomingToken.hash("t2"));
+		// revocations before the snapshot was written are skipped
+		primary.addTokenRevocationEvent(TokenRevocation.user(new UserName("baz")));
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary);
+		assertThat("incorrect sequence", storage.getSequence(), is(1L));
+		assertThat("incorrect snapshot size", TokenSnapshot.open(snapshotFile).size(), is(2));
+		assertThat("incorrect token", get(storage, "t1"), is(token(id1, "foo", now)));
+
+		// tokens created after the snapshot are read from the primary storage system
+		primary.storeToken(token(id3, "bar", now), IncomingToken.hash("t3"));
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "bar", now)));
+		assertNoToken(storage, "t5");
+
+		primary.deleteToken(new UserName("foo"), id1);
+		primary.addTokenRevocationEvent(TokenRevocation.token(
+				new UserName("foo"), id1, IncomingToken.hash("t1")));
+		primary.deleteTokens(new UserName("bar"));
+		primary.addTokenRevocationEvent(TokenRevocation.user(new UserName("bar")));
+		assertThat("incorrect token", get(storage, "t1"), is(token(id1, "foo", now)));
+		assertThat("incorrect applied", storage.update(), is(2));
+		assertNoToken(storage, "t1");
+		assertNoToken(storage, "t3");
+		assertThat("incorrect token", get(storage, "t2"), is(token(id2, "foo", now)));
+
+		// tokens created after a user's tokens are revoked are valid
+		final UUID id4 = UUID.randomUUID();
+		final Instant later = Instant.now().plusSeconds(1);
+		primary.storeToken(token(id4, "bar", later), IncomingToken.hash("t4"));
+		assertThat("incorrect token", get(storage, "t4"), is(token(id4, "bar", later)));
+
+		primary.storeAdminJob(AdminJob.getBuilder(UUID.randomUUID(),
+				AdminJobType.REVOKE_ALL_TOKENS, new UserName("admin"), Instant.now()).build());
+		primary.addTokenRevocationEvent(TokenRevocation.all());
+		storage.flush();
+		assertNoToken(storage, "t2");
+		assertThat("incorrect token", get(storage, "t4"), is(token(id4, "bar", later)));
+		assertThat("incorrect sequence", storage.getSequence(), is(4L));
+		assertThat("incorrect sequence", storage.getTokenRevocationSequence(), is(4L));
+	}
+
+	@Test
+	public void compaction() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id1 = UUID.randomUUID();
+		final UUID id3 = UUID.randomUUID();
+		primary.storeToken(token(id1, "foo", now), IncomingToken.hash("t1"));
+		primary.storeToken(StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(),
+				new UserName("foo")).withLifeTime(now, Instant.now().plusMillis(200)).build(),
+				IncomingToken.hash("t2"));
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary, 2);
+
+		primary.storeToken(token(id3, "bar", now), IncomingToken.hash("t3"));
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "bar", now)));
+		primary.deleteToken(new UserName("foo"), id1);
+		primary.addTokenRevocationEvent(TokenRevocation.token(
+				new UserName("foo"), id1, IncomingToken.hash("t1")));
+		Thread.sleep(300); // let t2 expire
+		storage.update();
+
+		// expired and revoked tokens are dropped from the new snapshot
+		final TokenSnapshot snapshot = TokenSnapshot.open(snapshotFile);
+		assertThat("incorrect sequence", snapshot.getSequence(), is(1L));
+		assertThat("incorrect size", snapshot.size(), is(1));
+		assertThat("incorrect token", snapshot.getToken(IncomingToken.hash("t3")),
+				is(Optional.of(token(id3, "bar", now))));
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "bar", now)));
+		assertNoToken(storage, "t1");
+		assertNoToken(storage, "t2");
+
+		// a restarted instance picks up from the new snapshot
+		final SnapshotStorage storage2 = new SnapshotStorage(snapshotFile, primary);
+		assertThat("incorrect sequence", storage2.getSequence(), is(1L));
+		assertThat("incorrect token", get(storage2, "t3"), is(token(id3, "bar", now)));
+	}
+
+	@Test
+	public void tokensInMemoryBounded() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary, 2);
+		final UUID id1 = UUID.randomUUID();
+		final UUID id2 = UUID.randomUUID();
+		final UUID id3 = UUID.randomUUID();
+		primary.storeToken(token(id1, "foo", now), IncomingToken.hash("t1"));
+		primary.storeToken(token(id2, "foo", now), IncomingToken.hash("t2"));
+		primary.storeToken(token(id3, "foo", now), IncomingToken.hash("t3"));
+		assertThat("incorrect token", get(storage, "t1"), is(token(id1, "foo", now)));
+		assertThat("incorrect token", get(storage, "t2"), is(token(id2, "foo", now)));
+		// the threshold is reached, so t3 is read from the primary storage system every time
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "foo", now)));
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "foo", now)));
+
+		storage.update();
+		assertThat("incorrect size", TokenSnapshot.open(snapshotFile).size(), is(2));
+		assertThat("incorrect token", get(storage, "t3"), is(token(id3, "foo", now)));
+	}
+
+	@Test
+	public void missingTokens() throws Exception {
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary);
+		assertNoToken(storage, "t1");
+		assertNoToken(storage, "t1");
+		assertThat("incorrect hits", storage.getCacheStats().get("missingtokens").hitCount(),
+				is(1L));
+
+		// missing tokens are not looked up again until the cache is cleared
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id = UUID.randomUUID();
+		primary.storeToken(token(id, "foo", now), IncomingToken.hash("t1"));
+		assertNoToken(storage, "t1");
+		storage.clearCaches();
+		assertThat("incorrect token", get(storage, "t1"), is(token(id, "foo", now)));
+	}
+
+	@Test
+	public void rewriteWhenFeedPruned() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id1 = UUID.randomUUID();
+		final UUID id2 = UUID.randomUUID();
+		primary.storeToken(token(id1, "foo", now), IncomingToken.hash("t1"));
+		primary.storeToken(token(id2, "bar", now), IncomingToken.hash("t2"));
+		new SnapshotStorage(snapshotFile, primary);
+
+		// the revocation of t1 is deleted from the feed before the next instance starts
+		primary.deleteToken(new UserName("foo"), id1);
+		primary.addTokenRevocationEvent(TokenRevocation.token(
+				new UserName("foo"), id1, IncomingToken.hash("t1")));
+		primary.addTokenRevocationEvent(TokenRevocation.user(new UserName("baz")));
+		primary.deleteTokenRevocationEvents(Instant.now().plusSeconds(1));
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary);
+		assertThat("incorrect sequence", storage.getSequence(), is(2L));
+		assertThat("incorrect snapshot size", TokenSnapshot.open(snapshotFile).size(), is(1));
+		assertNoToken(storage, "t1");
+		assertThat("incorrect token", get(storage, "t2"), is(token(id2, "bar", now)));
+	}
+
+	@Test
+	public void rewriteUnreadableSnapshot() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id = UUID.randomUUID();
+		primary.storeToken(token(id, "foo", now), IncomingToken.hash("t1"));
+		Files.write(snapshotFile, new byte[100]);
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary);
+		assertThat("incorrect snapshot size", TokenSnapshot.open(snapshotFile).size(), is(1));
+		assertThat("incorrect token", get(storage, "t1"), is(token(id, "foo", now)));
+	}
+
+	@Test
+	public void unsupported() throws Exception {
+		final SnapshotStorage storage = new SnapshotStorage(snapshotFile, primary);
+		assertThat("incorrect revocations", storage.getTokenRevocations(),
+				is(Collections.emptySet()));
+		assertThat("incorrect jobs", storage.getAdminJobs(true), is(Collections.emptyList()));
+		try {
+			storage.getUser(new UserName("foo"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new UnsupportedStorageOperationException(
+					"The token snapshot storage system only supports token lookups"));
+		}
+		try {
+			storage.deleteTokens(new UserName("foo"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new UnsupportedStorageOperationException(
+					"The token snapshot storage system only supports token lookups"));
+		}
+	}
+
+	@Test
+	public void authenticationGetUserUnsupported() throws Exception {
+		// the user lookups made by the legacy KBase and Globus user endpoints
+		final Instant now = Instant.now().minusSeconds(10);
+		primary.storeToken(token(UUID.randomUUID(), "foo", now), IncomingToken.hash("t1"));
+		final Authentication auth = new Authentication(
+				new SnapshotStorage(snapshotFile, primary), set(),
+				new TestExternalConfig<>(ConfigItem.set("foo")));
+		final Exception expected = new UnsupportedStorageOperationException(
+				"The token snapshot storage system only supports token lookups");
+		try {
+			auth.getUser(new IncomingToken("t1"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+		try {
+			auth.getUser(new IncomingToken("t1"), new UserName("bar"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void authenticationGetToken() throws Exception {
+		final Instant now = Instant.now().minusSeconds(10);
+		final UUID id = UUID.randomUUID();
+		primary.storeToken(token(id, "foo", now), IncomingToken.hash("t1"));
+		final Authentication auth = new Authentication(
+				new SnapshotStorage(snapshotFile, primary), set(),
+				new TestExternalConfig<>(ConfigItem.set("foo")));
+		assertThat("incorrect token", auth.getToken(new IncomingToken("t1")),
+				is(token(id, "foo", now)));
+		try {
+			auth.getToken(new IncomingToken("t2"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new InvalidTokenException());
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package us.kbase.test.auth2.lib.storage.snapshot;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshot;
+import us.kbase.auth2.lib.storage.snapshot.TokenSnapshotWriter;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.TestCommon;
+
+public class TokenSnapshotTest {
+
+	private static final Instant CREATED = Instant.ofEpochMilli(10000);
+	private static final Instant EXPIRES = Instant.ofEpochMilli(20000);
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		Files.createDirectories(TestCommon.getTempDir());
+		tempDir = Files.createTempDirectory(TestCommon.getTempDir(), "TokenSnapshotTest");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (tempDir != null && TestCommon.isDeleteTempFiles()) {
+			final List<Path> files = Files.walk(tempDir).sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList());
+			for (final Path p: files) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	private static StoredToken token(final TokenType type, final UUID id, final String user)
+			throws Exception {
+		return StoredToken.getBuilder(type, id, new UserName(user))
+				.withLifeTime(CREATED, EXPIRES).build();
+	}
+
+	@Test
+	public void writeAndRead() throws Exception {
+		final Path file = tempDir.resolve("snapshot");
+		final UUID id1 = UUID.randomUUID();
+		final UUID id2 = UUID.randomUUID();
+		final TokenSnapshotWriter w = new TokenSnapshotWriter(file, 42);
+		// names and contexts are not stored
+		w.add(StoredToken.getBuilder(TokenType.DEV, id1, new UserName("foo"))
+				.withLifeTime(CREATED, EXPIRES).withTokenName(new TokenName("name")).build(),
+				IncomingToken.hash("t1"));
+		w.add(token(TokenType.SERV, id2, "bar"), IncomingToken.hash("t2"));
+		assertThat("incorrect size", w.complete(), is(2));
+		assertThat("temp files left", Files.list(tempDir).collect(Collectors.toList()),
+				is(Arrays.asList(file)));
+
+		final TokenSnapshot s = TokenSnapshot.open(file);
+		assertThat("incorrect sequence", s.getSequence(), is(42L));
+		assertThat("incorrect size", s.size(), is(2));
+		assertThat("incorrect token", s.getToken(IncomingToken.hash("t1")),
+				is(Optional.of(token(TokenType.DEV, id1, "foo"))));
+		assertThat("incorrect token", s.getToken(IncomingToken.hash("t2")),
+				is(Optional.of(token(TokenType.SERV, id2, "bar"))));
+		assertThat("incorrect token", s.getToken(IncomingToken.hash("t3")),
+				is(Optional.absent()));
+
+		final Map<String, StoredToken> all = new HashMap<>();
+		s.forEach((h, t) -> all.put(h, t));
+		final Map<String, StoredToken> expected = new HashMap<>();
+		expected.put(IncomingToken.hash("t1"), token(TokenType.DEV, id1, "foo"));
+		expected.put(IncomingToken.hash("t2"), token(TokenType.SERV, id2, "bar"));
+		assertThat("incorrect tokens", all, is(expected));
+	}
+
+	@Test
+	public void writeEmptyAndReplace() throws Exception {
+		final Path file = tempDir.resolve("snapshot");
+		assertThat("incorrect size", new TokenSnapshotWriter(file, 0).complete(), is(0));
+		final TokenSnapshot s = TokenSnapshot.open(file);
+		assertThat("incorrect size", s.size(), is(0));
+		assertThat("incorrect token", s.getToken(IncomingToken.hash("t1")),
+				is(Optional.absent()));
+
+		// a duplicate hash replaces the earlier token
+		final UUID id = UUID.randomUUID();
+		final TokenSnapshotWriter w = new TokenSnapshotWriter(file, 1);
+		w.add(token(TokenType.LOGIN, UUID.randomUUID(), "foo"), IncomingToken.hash("t1"));
+		w.add(token(TokenType.AGENT, id, "bar"), IncomingToken.hash("t1"));
+		assertThat("incorrect size", w.complete(), is(1));
+		assertThat("incorrect token", TokenSnapshot.open(file).getToken(IncomingToken.hash("t1")),
+				is(Optional.of(token(TokenType.AGENT, id, "bar"))));
+		// the earlier mapping still works
+		assertThat("incorrect size", s.size(), is(0));
+	}
+
+	@Test
+	public void manyTokens() throws Exception {
+		final Path file = tempDir.resolve("snapshot");
+		final TokenSnapshotWriter w = new TokenSnapshotWriter(file, 1);
+		final int count = 50000;
+		final UUID[] ids = new UUID[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = UUID.randomUUID();
+			w.add(token(TokenType.LOGIN, ids[i], "user" + (i % 100)),
+					IncomingToken.hash("token" + i));
+		}
+		assertThat("incorrect size", w.complete(), is(count));
+		final TokenSnapshot s = TokenSnapshot.open(file);
+		for (int i = 0; i < count; i++) {
+			assertThat("incorrect token", s.getToken(IncomingToken.hash("token" + i)),
+					is(Optional.of(token(TokenType.LOGIN, ids[i], "user" + (i % 100)))));
+		}
+		assertThat("incorrect token", s.getToken(IncomingToken.hash("token" + count)),
+				is(Optional.absent()));
+	}
+
+	@Test
+	public void abort() throws Exception {
+		final Path file = tempDir.resolve("snapshot");
+		final TokenSnapshotWriter w = new TokenSnapshotWriter(file, 1);
+		w.add(token(TokenType.LOGIN, UUID.randomUUID(), "foo"), IncomingToken.hash("t1"));
+		w.abort();
+		assertThat("files left", Files.list(tempDir).count(), is(0L));
+		try {
+			w.add(token(TokenType.LOGIN, UUID.randomUUID(), "foo"), IncomingToken.hash("t2"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalStateException(
+					"The snapshot has already been completed or aborted"));
+		}
+	}
+
+	@Test
+	public void addFailBadHash() throws Exception {
+		final TokenSnapshotWriter w = new TokenSnapshotWriter(tempDir.resolve("snapshot"), 1);
+		final StoredToken t = token(TokenType.LOGIN, UUID.randomUUID(), "foo");
+		failAdd(w, t, null, new IllegalArgumentException("Missing argument: hash"));
+		failAdd(w, t, "foo", new IllegalArgumentException(
+				"hash is not a base 64 encoded SHA-256 hash"));
+		failAdd(w, t, "***", new IllegalArgumentException(
+				"hash is not a base 64 encoded SHA-256 hash"));
+		w.abort();
+	}
+
+	private void failAdd(
+			final TokenSnapshotWriter w,
+			final StoredToken t,
+			final String hash,
+			final Exception expected) {
+		try {
+			w.add(t, hash);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void openFailNotASnapshot() throws Exception {
+		final Path file = tempDir.resolve("snapshot");
+		Files.write(file, new byte[100]);
+		try {
+			TokenSnapshot.open(file);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IOException("Not a token snapshot file: " + file));
+		}
+	}
+}
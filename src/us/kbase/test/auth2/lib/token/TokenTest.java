@@ -8,6 +8,7 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -26,7 +27,11 @@ import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.StoredToken.OptionalsStep;
 import us.kbase.auth2.lib.token.TemporaryHashedToken;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenPage;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocationEvent;
 import us.kbase.auth2.lib.token.TokenSet;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.test.auth2.TestCommon;
@@ -65,11 +70,166 @@ public class TokenTest {
 		EqualsVerifier.forClass(NewToken.class).usingGetClass().verify();
 	}
 	
+	@Test
+	public void equalsTokenRevocation() {
+		EqualsVerifier.forClass(TokenRevocation.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void equalsTokenRevocationEvent() {
+		EqualsVerifier.forClass(TokenRevocationEvent.class).usingGetClass().verify();
+	}
+	
 	@Test
 	public void equalsTokenSet() {
 		EqualsVerifier.forClass(TokenSet.class).usingGetClass().verify();
 	}
 	
+	@Test
+	public void equalsTokenListSpec() {
+		EqualsVerifier.forClass(TokenListSpec.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void equalsTokenPage() {
+		EqualsVerifier.forClass(TokenPage.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void tokenListSpecDefaults() throws Exception {
+		final TokenListSpec spec = TokenListSpec.getBuilder().build();
+		assertThat("incorrect types", spec.getTokenTypes(), is(Collections.emptySet()));
+		assertThat("incorrect limit", spec.getLimit(), is(Optional.absent()));
+		assertThat("incorrect after exp", spec.getAfterExpiration(), is(Optional.absent()));
+		assertThat("incorrect after id", spec.getAfterID(), is(Optional.absent()));
+		assertThat("incorrect excluded id", spec.getExcludedID(), is(Optional.absent()));
+	}
+	
+	@Test
+	public void tokenListSpecMaximal() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final UUID exid = UUID.randomUUID();
+		final TokenListSpec spec = TokenListSpec.getBuilder()
+				.withTokenType(TokenType.AGENT)
+				.withTokenType(TokenType.SERV)
+				.withLimit(1000)
+				.withStartAfter(Instant.ofEpochMilli(10000), id)
+				.withExcludedID(exid)
+				.build();
+		assertThat("incorrect types", spec.getTokenTypes(),
+				is(new HashSet<>(Arrays.asList(TokenType.AGENT, TokenType.SERV))));
+		assertThat("incorrect limit", spec.getLimit(), is(Optional.of(1000)));
+		assertThat("incorrect after exp", spec.getAfterExpiration(),
+				is(Optional.of(Instant.ofEpochMilli(10000))));
+		assertThat("incorrect after id", spec.getAfterID(), is(Optional.of(id)));
+		assertThat("incorrect excluded id", spec.getExcludedID(), is(Optional.of(exid)));
+		
+		assertThat("incorrect limit", TokenListSpec.getBuilder().withLimit(1).build().getLimit(),
+				is(Optional.of(1)));
+	}
+	
+	@Test
+	public void tokenListSpecImmutable() throws Exception {
+		final TokenListSpec spec = TokenListSpec.getBuilder()
+				.withTokenType(TokenType.AGENT).build();
+		try {
+			spec.getTokenTypes().add(TokenType.LOGIN);
+			fail("expected exception");
+		} catch (UnsupportedOperationException e) {
+			// test passed
+		}
+	}
+	
+	@Test
+	public void tokenListSpecFail() throws Exception {
+		failTokenListSpecType(null, new NullPointerException("tokenType"));
+		failTokenListSpecLimit(0, new IllegalArgumentException(
+				"limit must be between 1 and 1000"));
+		failTokenListSpecLimit(1001, new IllegalArgumentException(
+				"limit must be between 1 and 1000"));
+		failTokenListSpecStart(null, UUID.randomUUID(), new NullPointerException("expiration"));
+		failTokenListSpecStart(Instant.now(), null, new NullPointerException("tokenID"));
+		try {
+			TokenListSpec.getBuilder().withExcludedID(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("tokenID"));
+		}
+	}
+	
+	private void failTokenListSpecType(final TokenType type, final Exception e) {
+		try {
+			TokenListSpec.getBuilder().withTokenType(type);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	private void failTokenListSpecLimit(final int limit, final Exception e) {
+		try {
+			TokenListSpec.getBuilder().withLimit(limit);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	private void failTokenListSpecStart(final Instant exp, final UUID id, final Exception e) {
+		try {
+			TokenListSpec.getBuilder().withStartAfter(exp, id);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void tokenPage() throws Exception {
+		final StoredToken t1 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(1000), 1000).build();
+		final StoredToken t2 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(1000), 2000).build();
+		
+		final TokenPage p = new TokenPage(Arrays.asList(t1, t2), true);
+		assertThat("incorrect tokens", p.getTokens(), is(Arrays.asList(t1, t2)));
+		assertThat("incorrect more", p.hasMore(), is(true));
+		assertThat("incorrect next", p.getNextStart(), is(Optional.of(t2)));
+		
+		final TokenPage last = new TokenPage(Arrays.asList(t1, t2), false);
+		assertThat("incorrect more", last.hasMore(), is(false));
+		assertThat("incorrect next", last.getNextStart(), is(Optional.absent()));
+		
+		final TokenPage empty = new TokenPage(Collections.emptyList(), false);
+		assertThat("incorrect tokens", empty.getTokens(), is(Collections.emptyList()));
+		assertThat("incorrect next", empty.getNextStart(), is(Optional.absent()));
+		
+		try {
+			p.getTokens().remove(0);
+			fail("expected exception");
+		} catch (UnsupportedOperationException e) {
+			// test passed
+		}
+	}
+	
+	@Test
+	public void tokenPageFail() throws Exception {
+		failTokenPage(null, new NullPointerException("tokens"));
+		failTokenPage(Arrays.asList((StoredToken) null), new NullPointerException(
+				"One of the tokens in the incoming list is null"));
+	}
+	
+	private void failTokenPage(final List<StoredToken> tokens, final Exception e) {
+		try {
+			new TokenPage(tokens, false);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void tokenTypeGetType() throws Exception {
 		assertThat("failed to get login token type", TokenType.getType("Login"),
@@ -187,6 +347,7 @@ public class TokenTest {
 				is(Instant.ofEpochMilli(5000)));
 		assertThat("incorrect context", ht.getContext(),
 				is(TokenCreationContext.getBuilder().build()));
+		assertThat("incorrect last used", ht.getLastUsed(), is(Optional.absent()));
 	}
 	
 	@Test
@@ -195,7 +356,8 @@ public class TokenTest {
 		final StoredToken ht2 = StoredToken.getBuilder(TokenType.DEV, id2, new UserName("whee2"))
 				.withLifeTime(Instant.ofEpochMilli(27000), Instant.ofEpochMilli(42000))
 				.withContext(TokenCreationContext.getBuilder().withNullableDevice("d").build())
-				.withTokenName(new TokenName("ugh")).build();
+				.withTokenName(new TokenName("ugh"))
+				.withLastUsed(Instant.ofEpochMilli(30000)).build();
 		assertThat("incorrect token type", ht2.getTokenType(), is(TokenType.DEV));
 		assertThat("incorrect token name", ht2.getTokenName(),
 				is(Optional.of(new TokenName("ugh"))));
@@ -207,6 +369,8 @@ public class TokenTest {
 				is(Instant.ofEpochMilli(42000)));
 		assertThat("incorrect context", ht2.getContext(),
 				is(TokenCreationContext.getBuilder().withNullableDevice("d").build()));
+		assertThat("incorrect last used", ht2.getLastUsed(),
+				is(Optional.of(Instant.ofEpochMilli(30000))));
 	}
 	
 	@Test
@@ -283,6 +447,13 @@ public class TokenTest {
 				new IllegalArgumentException("expires must be > created"));
 		failCreateStoredToken(TokenType.LOGIN, tn, id, u, c, e, null,
 				new NullPointerException("context"));
+		try {
+			StoredToken.getBuilder(TokenType.LOGIN, id, u).withLifeTime(c, e)
+					.withLastUsed(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("lastUsed"));
+		}
 	}
 	
 	private void failCreateStoredToken(
@@ -9,7 +9,10 @@ import static us.kbase.test.auth2.TestCommon.set;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -451,6 +454,59 @@ public class AuthUserTest {
 		}
 	}
 	
+	@Test
+	public void sharedRoleSets() throws Exception {
+		final AuthUser u1 = AuthUser.getBuilder(new UserName("u1"), new DisplayName("d"), NOW)
+				.withRole(Role.ADMIN).withRole(Role.DEV_TOKEN).build();
+		final AuthUser u2 = AuthUser.getBuilder(new UserName("u2"), new DisplayName("d"), NOW)
+				.withRole(Role.DEV_TOKEN).withRole(Role.ADMIN).build();
+		final AuthUser u3 = AuthUser.getBuilder(new UserName("u3"), new DisplayName("d"), NOW)
+				.withRole(Role.ADMIN).build();
+		
+		assertThat("roles not shared", u1.getRoles() == u2.getRoles(), is(true));
+		assertThat("grantable roles not shared",
+				u1.getGrantableRoles() == u2.getGrantableRoles(), is(true));
+		assertThat("roles shared", u1.getRoles() == u3.getRoles(), is(false));
+		assertThat("incorrect roles", u3.getRoles(), is(set(Role.ADMIN)));
+		// different role sets with the same grantable roles share the grantable roles
+		assertThat("grantable roles not shared",
+				u1.getGrantableRoles() == u3.getGrantableRoles(), is(true));
+	}
+	
+	/* Checks that a large result set of users with a few distinct role combinations and no
+	 * custom roles or policy IDs holds one copy of each distinct collection rather than one
+	 * copy per user, as measured by counting distinct instances.
+	 */
+	@Test
+	public void footprint() throws Exception {
+		final Role[][] combos = {{}, {Role.DEV_TOKEN}, {Role.SERV_TOKEN, Role.DEV_TOKEN},
+				{Role.ADMIN}};
+		final List<AuthUser> users = new LinkedList<>();
+		for (int i = 0; i < 10000; i++) {
+			final AuthUser.Builder b = AuthUser.getBuilder(
+					new UserName("u" + i), new DisplayName("d" + i), NOW);
+			for (final Role r: combos[i % combos.length]) {
+				b.withRole(r);
+			}
+			users.add(b.build());
+		}
+		final Set<Object> roles = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Set<Object> grantable = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Set<Object> customRoles = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Set<Object> policyIDs = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (final AuthUser u: users) {
+			roles.add(u.getRoles());
+			grantable.add(u.getGrantableRoles());
+			customRoles.add(u.getCustomRoles());
+			policyIDs.add(u.getPolicyIDs());
+		}
+		assertThat("incorrect role set count", roles.size(), is(4));
+		// empty for no roles and both token roles, token roles for admin
+		assertThat("incorrect grantable set count", grantable.size(), is(2));
+		assertThat("incorrect custom role set count", customRoles.size(), is(1));
+		assertThat("incorrect policy ID map count", policyIDs.size(), is(1));
+	}
+	
 	@Test
 	public void sortedCustomRoles() throws Exception {
 		final AuthUser u = AuthUser.getBuilder(new UserName("f"), new DisplayName("u"),
@@ -0,0 +1,806 @@
+package us.kbase.test.auth2.load;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.kbase.KBaseAuthConfig;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.IdentityProvider;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.memory.MemoryStorage;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.service.AuthenticationService;
+import us.kbase.test.auth2.MockIdentityProviderFactory;
+import us.kbase.test.auth2.MongoStorageTestManager;
+import us.kbase.test.auth2.StandaloneAuthServer;
+import us.kbase.test.auth2.StandaloneAuthServer.ServerThread;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.service.ServiceTestUtils;
+
+/** An end to end load generator for the authentication service.
+ *
+ * Starts a MongoDB instance and a {@link StandaloneAuthServer} as the service tests do, seeds
+ * the database with users and tokens, and then drives the server over HTTP with a weighted mix
+ * of operations. The throughput and latency percentiles of each operation are reported when the
+ * run is complete.
+ *
+ * The MongoDB executable and temporary directory are read from the test configuration file, as
+ * for the tests. The OAuth2 logins use the mock identity provider, so the server must run in
+ * the same JVM as the load generator.
+ *
+ * The server can instead be backed by a {@link MemoryStorage} instance, in which case MongoDB
+ * is not started. Comparing the two separates the server's own costs from the database's.
+ *
+ * By default each worker thread sends a request as soon as the previous request completes. If
+ * a target rate is set, requests are instead sent on a fixed schedule and latencies are measured
+ * from the time a request was scheduled to be sent, so that a server that falls behind the
+ * schedule is not hidden by the workers waiting for it.
+ *
+ * In scaling mode the mix is run repeatedly with 1, 2, 4, and so on up to the requested number
+ * of worker threads, and the throughput and latency at each concurrency level are reported. A
+ * server that serializes requests on a lock or a too small thread or connection pool shows up
+ * as throughput that stops increasing while latency climbs.
+ */
+public class AuthLoadGenerator {
+
+	private static final String NAME = "auth_load";
+	private static final String DB_NAME = "test_auth_load";
+	private static final String COOKIE_NAME = "login-cookie";
+	private static final String PROVIDER = "prov1";
+	private static final String STATE_COOKIE = "loginstatevar";
+
+	private static final String USER_PREFIX = "loaduser";
+	private static final String LOCAL_USER_PREFIX = "loadlocal";
+	private static final String PASSWORD_PREFIX = "loadpassword";
+	private static final String CODE_PREFIX = "loadcode";
+	private static final long TOKEN_LIFETIME_MS = 14 * 24 * 3600 * 1000L;
+	private static final int DISPLAY_NAMES_PER_REQUEST = 5;
+
+	/** The operations the load generator performs. */
+	public enum Operation {
+
+		/** Get the details of a token via the V2 API. */
+		INTROSPECT		("introspect", 30),
+		/** Get the user's own account via the V2 API. */
+		ME				("me", 15),
+		/** Get display names for a list of users via the V2 API. */
+		DISPLAY_NAMES	("displaynames", 15),
+		/** Search for users by a user or display name prefix via the V2 API. */
+		SEARCH			("search", 5),
+		/** Create an agent token via the V2 API. */
+		AGENT_TOKEN		("agenttoken", 3),
+		/** Log in with a local account via the UI. */
+		LOCAL_LOGIN		("locallogin", 3),
+		/** Log in with the mock OAuth2 identity provider via the UI. */
+		OAUTH_LOGIN		("oauthlogin", 4),
+		/** Get a token's user via the legacy KBase API. */
+		LEGACY_KBASE	("legacykbase", 10),
+		/** Get the details of a token via the legacy Globus API. */
+		GLOBUS_TOKEN	("globustoken", 10),
+		/** Get a user via the legacy Globus API. */
+		GLOBUS_USER		("globususer", 5);
+
+		private final String id;
+		private final int defaultWeight;
+
+		private Operation(final String id, final int defaultWeight) {
+			this.id = id;
+			this.defaultWeight = defaultWeight;
+		}
+
+		/** Get the ID of the operation, as used in operation mix specifications.
+		 * @return the ID.
+		 */
+		public String getID() {
+			return id;
+		}
+
+		/** Get the weight of the operation in the default operation mix.
+		 * @return the weight.
+		 */
+		public int getDefaultWeight() {
+			return defaultWeight;
+		}
+
+		/** Get an operation by its ID.
+		 * @param id the ID.
+		 * @return the operation.
+		 */
+		public static Operation getOperation(final String id) {
+			for (final Operation op: values()) {
+				if (op.id.equals(id)) {
+					return op;
+				}
+			}
+			throw new IllegalArgumentException("Invalid operation: " + id);
+		}
+	}
+
+	private final int userCount;
+	private final int localUserCount;
+	private final List<String> tokens = new ArrayList<>();
+	private final Map<Operation, Boolean> reportedErrors = new ConcurrentHashMap<>();
+	private MongoStorageTestManager manager;
+	private AuthStorage storage;
+	private StandaloneAuthServer server;
+	private Client cli;
+	private String host;
+
+	/** Create a load generator.
+	 * @param userCount the number of standard users to create.
+	 * @param localUserCount the number of local users to create.
+	 */
+	public AuthLoadGenerator(final int userCount, final int localUserCount) {
+		if (userCount < 1) {
+			throw new IllegalArgumentException("userCount must be at least 1");
+		}
+		if (localUserCount < 1) {
+			throw new IllegalArgumentException("localUserCount must be at least 1");
+		}
+		this.userCount = userCount;
+		this.localUserCount = localUserCount;
+	}
+
+	/** Start the database and the server, configure the server, and create the users and
+	 * tokens used by the load test.
+	 * @param maxConnections the maximum number of HTTP connections to keep open to the server.
+	 * Usually the number of worker threads.
+	 * @throws Exception if the server could not be started.
+	 */
+	public void start(final int maxConnections) throws Exception {
+		start(maxConnections, null);
+	}
+
+	/** Start the database and the server, configure the server, and create the users and
+	 * tokens used by the load test.
+	 * @param maxConnections the maximum number of HTTP connections to keep open to the server.
+	 * Usually the number of worker threads.
+	 * @param serverThreads the maximum size of the server's request thread pool, or null for
+	 * the Jetty default.
+	 * @throws Exception if the server could not be started.
+	 */
+	public void start(final int maxConnections, final Integer serverThreads) throws Exception {
+		start(maxConnections, serverThreads, false);
+	}
+
+	/** Start the database, unless the server is backed by memory, and the server, configure
+	 * the server, and create the users and tokens used by the load test.
+	 * @param maxConnections the maximum number of HTTP connections to keep open to the server.
+	 * Usually the number of worker threads.
+	 * @param serverThreads the maximum size of the server's request thread pool, or null for
+	 * the Jetty default.
+	 * @param inMemory true to back the server with an in memory storage system rather than
+	 * MongoDB.
+	 * @throws Exception if the server could not be started.
+	 */
+	public void start(
+			final int maxConnections,
+			final Integer serverThreads,
+			final boolean inMemory)
+			throws Exception {
+		// the JDK only keeps 5 idle connections per host by default, and any more are closed
+		// after each request, which measures connection setup rather than the server
+		System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+		cli = ClientBuilder.newClient().property(ClientProperties.FOLLOW_REDIRECTS, false);
+
+		TestCommon.stfuLoggers();
+		final Path cfgfile;
+		if (inMemory) {
+			storage = new MemoryStorage();
+			AuthenticationService.setStorage(storage);
+			// the server doesn't connect to MongoDB, but the configuration requires a host
+			cfgfile = ServiceTestUtils.generateTempConfigFile("localhost", DB_NAME, COOKIE_NAME);
+		} else {
+			manager = new MongoStorageTestManager(DB_NAME);
+			storage = manager.storage;
+			cfgfile = ServiceTestUtils.generateTempConfigFile(manager, DB_NAME, COOKIE_NAME);
+		}
+		TestCommon.getenv().put("KB_DEPLOYMENT_CONFIG", cfgfile.toString());
+		server = new StandaloneAuthServer(KBaseAuthConfig.class.getName());
+		server.setMaxThreads(serverThreads);
+		new ServerThread(server).start();
+		System.out.println("Waiting for server to start up");
+		while (server.getPort() == null) {
+			Thread.sleep(1000);
+		}
+		host = "http://localhost:" + server.getPort();
+
+		final IncomingToken admintoken = manager == null ?
+				ServiceTestUtils.getAdminToken(storage) : ServiceTestUtils.getAdminToken(manager);
+		ServiceTestUtils.enableLogin(host, admintoken);
+		ServiceTestUtils.enableProvider(host, COOKIE_NAME, admintoken, PROVIDER);
+		setUpIdentityProvider();
+		createUsers();
+	}
+
+	/* The mock records every invocation, so very long runs with a high rate of OAuth2 logins
+	 * will use a lot of memory.
+	 */
+	private void setUpIdentityProvider() throws Exception {
+		final IdentityProvider prov = MockIdentityProviderFactory.mocks.get(PROVIDER);
+		when(prov.getLoginURL(anyString(), eq(false))).thenAnswer(
+				inv -> new URL("https://login.prov1.com?state=" + inv.getArgument(0)));
+		when(prov.getIdentities(anyString(), eq(false))).thenAnswer(inv -> set(getIdentity(
+				Integer.parseInt(inv.<String>getArgument(0).substring(CODE_PREFIX.length())))));
+	}
+
+	private RemoteIdentity getIdentity(final int user) {
+		return new RemoteIdentity(new RemoteIdentityID(PROVIDER, "loadid" + user),
+				new RemoteIdentityDetails(USER_PREFIX + user, "Load User " + user,
+						"load" + user + "@example.com"));
+	}
+
+	private void createUsers() throws Exception {
+		System.out.println(String.format("Creating %s users and %s local users",
+				userCount, localUserCount));
+		final Instant now = Instant.now();
+		for (int i = 0; i < userCount; i++) {
+			final UserName name = new UserName(USER_PREFIX + i);
+			storage.createUser(NewUser.getBuilder(
+					name, new DisplayName("Load User " + i), now, getIdentity(i)).build());
+			final IncomingToken token = new IncomingToken("loadtoken" + UUID.randomUUID());
+			storage.storeToken(StoredToken.getBuilder(
+					TokenType.LOGIN, UUID.randomUUID(), name)
+					.withLifeTime(now, TOKEN_LIFETIME_MS).build(),
+					token.getHashedToken().getTokenHash());
+			tokens.add(token.getToken());
+		}
+		final PasswordCrypt crypt = new PasswordCrypt();
+		for (int i = 0; i < localUserCount; i++) {
+			final byte[] salt = new byte[8];
+			ThreadLocalRandom.current().nextBytes(salt);
+			storage.createLocalUser(LocalUser.getLocalUserBuilder(
+					new UserName(LOCAL_USER_PREFIX + i),
+					new DisplayName("Load Local User " + i), now).build(),
+					new PasswordHashAndSalt(crypt.getEncryptedPassword(
+							(PASSWORD_PREFIX + i).toCharArray(), salt), salt));
+		}
+	}
+
+	/** Stop the server and the database, if started.
+	 * @throws Exception if the server or database could not be stopped.
+	 */
+	public void stop() throws Exception {
+		if (cli != null) {
+			cli.close();
+		}
+		if (server != null) {
+			server.stop();
+		}
+		if (manager != null) {
+			manager.destroy();
+		}
+	}
+
+	/** Run a load test against the server.
+	 * @param mix the weights of the operations to perform. Operations are chosen at random in
+	 * proportion to their weights.
+	 * @param threads the number of worker threads.
+	 * @param rate the total number of operations to start per second, or 0 to start each
+	 * operation as soon as the worker's previous operation completes.
+	 * @param warmupSec the length of the warm up period, during which operations are not
+	 * recorded, in seconds.
+	 * @param durationSec the length of the measured period in seconds.
+	 * @return the recorded latencies for each operation in the mix.
+	 * @throws InterruptedException if the run is interrupted.
+	 */
+	public Map<Operation, LatencyRecorder> run(
+			final Map<Operation, Integer> mix,
+			final int threads,
+			final double rate,
+			final int warmupSec,
+			final int durationSec)
+			throws InterruptedException {
+		final Operation[] ops = new Operation[mix.size()];
+		final int[] cumulativeWeights = new int[mix.size()];
+		int total = 0;
+		int i = 0;
+		for (final Operation op: mix.keySet()) {
+			total += mix.get(op);
+			ops[i] = op;
+			cumulativeWeights[i++] = total;
+		}
+		if (total < 1) {
+			throw new IllegalArgumentException("At least one operation must have a weight");
+		}
+		final long intervalNanos = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+		final long start = System.nanoTime();
+		final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSec);
+		final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSec);
+
+		final List<Worker> workers = new LinkedList<>();
+		final ExecutorService exe = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			// stagger the schedules so the workers don't send requests in bursts
+			final Worker w = new Worker(ops, cumulativeWeights, intervalNanos,
+					start + intervalNanos * t / threads, measureStart, end);
+			workers.add(w);
+			exe.execute(w);
+		}
+		exe.shutdown();
+		exe.awaitTermination(warmupSec + durationSec + 600, TimeUnit.SECONDS);
+
+		final Map<Operation, LatencyRecorder> ret = new EnumMap<>(Operation.class);
+		for (final Operation op: ops) {
+			final List<LatencyRecorder> recs = new LinkedList<>();
+			for (final Worker w: workers) {
+				recs.add(w.recorders.get(op));
+			}
+			ret.put(op, LatencyRecorder.merge(recs));
+		}
+		return ret;
+	}
+
+	private class Worker implements Runnable {
+
+		private final Operation[] ops;
+		private final int[] cumulativeWeights;
+		private final long intervalNanos;
+		private final long start;
+		private final long measureStart;
+		private final long end;
+		private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+
+		private Worker(
+				final Operation[] ops,
+				final int[] cumulativeWeights,
+				final long intervalNanos,
+				final long start,
+				final long measureStart,
+				final long end) {
+			this.ops = ops;
+			this.cumulativeWeights = cumulativeWeights;
+			this.intervalNanos = intervalNanos;
+			this.start = start;
+			this.measureStart = measureStart;
+			this.end = end;
+			for (final Operation op: ops) {
+				recorders.put(op, new LatencyRecorder());
+			}
+		}
+
+		@Override
+		public void run() {
+			final ThreadLocalRandom rand = ThreadLocalRandom.current();
+			long next = start;
+			while (true) {
+				final long scheduled;
+				if (intervalNanos > 0) {
+					scheduled = next;
+					next += intervalNanos;
+					final long wait = scheduled - System.nanoTime();
+					if (wait > 0) {
+						try {
+							TimeUnit.NANOSECONDS.sleep(wait);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				} else {
+					scheduled = System.nanoTime();
+				}
+				if (scheduled >= end) {
+					return;
+				}
+				final Operation op = pick(rand);
+				boolean success = true;
+				try {
+					execute(op, rand);
+				} catch (Exception e) {
+					success = false;
+					reportError(op, e);
+				}
+				final long latency = System.nanoTime() - scheduled;
+				if (scheduled >= measureStart) {
+					if (success) {
+						recorders.get(op).record(latency);
+					} else {
+						recorders.get(op).recordError();
+					}
+				}
+			}
+		}
+
+		private Operation pick(final ThreadLocalRandom rand) {
+			final int r = rand.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+			for (int i = 0; i < cumulativeWeights.length; i++) {
+				if (r < cumulativeWeights[i]) {
+					return ops[i];
+				}
+			}
+			throw new IllegalStateException("unreachable");
+		}
+	}
+
+	// only report the first error for each operation so the output is readable
+	private void reportError(final Operation op, final Exception e) {
+		if (reportedErrors.putIfAbsent(op, true) == null) {
+			System.err.println(String.format("Operation %s failed: %s", op.getID(), e));
+		}
+	}
+
+	private void execute(final Operation op, final ThreadLocalRandom rand) {
+		final int user = rand.nextInt(userCount);
+		final String token = tokens.get(user);
+		switch (op) {
+			case INTROSPECT:
+				check(cli.target(host + "/api/V2/token").request()
+						.header("authorization", token).get(), 200);
+				break;
+			case ME:
+				check(cli.target(host + "/api/V2/me").request()
+						.header("authorization", token).get(), 200);
+				break;
+			case DISPLAY_NAMES:
+				final List<String> names = new LinkedList<>();
+				for (int i = 0; i < DISPLAY_NAMES_PER_REQUEST; i++) {
+					names.add(USER_PREFIX + rand.nextInt(userCount));
+				}
+				check(cli.target(host + "/api/V2/users")
+						.queryParam("list", String.join(",", names)).request()
+						.header("authorization", token).get(), 200);
+				break;
+			case SEARCH:
+				check(cli.target(host + "/api/V2/users/search/" + USER_PREFIX + rand.nextInt(10))
+						.request().header("authorization", token).get(), 200);
+				break;
+			case AGENT_TOKEN:
+				check(cli.target(host + "/api/V2/token").request()
+						.header("authorization", token)
+						.post(Entity.json(ImmutableMap.of("name", "load"))), 200);
+				break;
+			case LOCAL_LOGIN:
+				final int local = rand.nextInt(localUserCount);
+				final Form login = new Form();
+				login.param("user", LOCAL_USER_PREFIX + local);
+				login.param("pwd", PASSWORD_PREFIX + local);
+				check(cli.target(host + "/localaccount/login/result").request()
+						.post(Entity.form(login)), 303);
+				break;
+			case OAUTH_LOGIN:
+				oauthLogin(user);
+				break;
+			case LEGACY_KBASE:
+				final Form kbase = new Form();
+				kbase.param("token", token);
+				kbase.param("fields", "user_id,name,email");
+				check(cli.target(host + "/api/legacy/KBase/Sessions/Login").request()
+						.post(Entity.form(kbase)), 200);
+				break;
+			case GLOBUS_TOKEN:
+				check(cli.target(host + "/api/legacy/globus/goauth/token")
+						.queryParam("grant_type", "client_credentials").request()
+						.header("x-globus-goauthtoken", token).get(), 200);
+				break;
+			case GLOBUS_USER:
+				check(cli.target(host + "/api/legacy/globus/users/" +
+						USER_PREFIX + rand.nextInt(userCount)).request()
+						.header("x-globus-goauthtoken", token).get(), 200);
+				break;
+			default:
+				throw new IllegalStateException("Unexpected operation: " + op);
+		}
+	}
+
+	private void oauthLogin(final int user) {
+		final Form start = new Form();
+		start.param("provider", PROVIDER);
+		final Response sr = cli.target(host + "/login/start").request()
+				.post(Entity.entity(start, MediaType.APPLICATION_FORM_URLENCODED_TYPE));
+		check(sr, 303);
+		final NewCookie state = sr.getCookies().get(STATE_COOKIE);
+		if (state == null) {
+			throw new IllegalStateException("No login state cookie");
+		}
+		final Response cr = cli.target(host + "/login/complete/" + PROVIDER)
+				.queryParam("code", CODE_PREFIX + user)
+				.queryParam("state", state.getValue())
+				.request()
+				.cookie(STATE_COOKIE, state.getValue())
+				.get();
+		check(cr, 303);
+		if (!cr.getCookies().containsKey(COOKIE_NAME)) {
+			throw new IllegalStateException("Login did not complete for user " + user);
+		}
+	}
+
+	// always reads the entire response so the connection can be reused
+	private void check(final Response r, final int expectedStatus) {
+		try {
+			final String body = r.readEntity(String.class);
+			if (r.getStatus() != expectedStatus) {
+				throw new IllegalStateException(String.format(
+						"Expected status %s, got %s: %s", expectedStatus, r.getStatus(),
+						body.length() > 500 ? body.substring(0, 500) : body));
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	/** Parse an operation mix specification.
+	 * @param mix a comma separated list of operation=weight pairs, for example
+	 * introspect=10,me=5. Operations that are not listed are not performed.
+	 * @return the weights of the operations.
+	 */
+	public static Map<Operation, Integer> parseMix(final String mix) {
+		final Map<Operation, Integer> ret = new EnumMap<>(Operation.class);
+		for (final String pair: mix.split(",")) {
+			final String[] opAndWeight = pair.trim().split("=");
+			if (opAndWeight.length != 2) {
+				throw new IllegalArgumentException("Invalid operation weight: " + pair);
+			}
+			final int weight;
+			try {
+				weight = Integer.parseInt(opAndWeight[1].trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid operation weight: " + pair);
+			}
+			if (weight < 0) {
+				throw new IllegalArgumentException("Invalid operation weight: " + pair);
+			}
+			ret.put(Operation.getOperation(opAndWeight[0].trim()), weight);
+		}
+		return ret;
+	}
+
+	/** Get the default operation mix.
+	 * @return the weights of the operations.
+	 */
+	public static Map<Operation, Integer> getDefaultMix() {
+		final Map<Operation, Integer> ret = new EnumMap<>(Operation.class);
+		for (final Operation op: Operation.values()) {
+			ret.put(op, op.getDefaultWeight());
+		}
+		return ret;
+	}
+
+	/** Format a load test report.
+	 * @param results the recorded latencies for each operation.
+	 * @param durationSec the length of the measured period in seconds.
+	 * @return the report.
+	 */
+	public static String formatReport(
+			final Map<Operation, LatencyRecorder> results,
+			final int durationSec) {
+		final StringBuilder sb = new StringBuilder();
+		final String header = "%-13s %9s %7s %9s %9s %9s %9s %9s %9s\n";
+		final String row = "%-13s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f\n";
+		sb.append(String.format(header, "operation", "count", "errors", "ops/s",
+				"p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		final List<LatencyRecorder> all = new LinkedList<>();
+		for (final Operation op: results.keySet()) {
+			final LatencyRecorder r = results.get(op);
+			all.add(r);
+			sb.append(formatRow(row, op.getID(), r, durationSec));
+		}
+		sb.append(formatRow(row, "total", LatencyRecorder.merge(all), durationSec));
+		return sb.toString();
+	}
+
+	/** Get the concurrency levels for a scaling run - the powers of 2 less than the maximum
+	 * number of threads, followed by the maximum.
+	 * @param maxThreads the maximum number of threads.
+	 * @return the number of threads for each run, in ascending order.
+	 */
+	public static List<Integer> getScalingLevels(final int maxThreads) {
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("maxThreads must be at least 1");
+		}
+		final List<Integer> ret = new LinkedList<>();
+		for (int t = 1; t < maxThreads; t *= 2) {
+			ret.add(t);
+		}
+		ret.add(maxThreads);
+		return ret;
+	}
+
+	/** Format a scaling run report.
+	 * @param results the recorded latencies for each operation, mapped by the number of worker
+	 * threads. The reported speedup is relative to the first entry.
+	 * @param durationSec the length of each measured period in seconds.
+	 * @return the report.
+	 */
+	public static String formatScalingReport(
+			final Map<Integer, Map<Operation, LatencyRecorder>> results,
+			final int durationSec) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%7s %9s %7s %9s %9s %9s %9s %9s\n", "threads", "count",
+				"errors", "ops/s", "speedup", "p50 ms", "p99 ms", "p99.9 ms"));
+		Double baseline = null;
+		for (final Integer threads: results.keySet()) {
+			final LatencyRecorder r = LatencyRecorder.merge(
+					new LinkedList<>(results.get(threads).values()));
+			final double opsPerSec = (double) r.getCount() / durationSec;
+			if (baseline == null) {
+				baseline = opsPerSec;
+			}
+			sb.append(String.format("%7d %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f\n", threads,
+					r.getCount(), r.getErrors(), opsPerSec,
+					baseline > 0 ? opsPerSec / baseline : 0,
+					millis(r.getPercentile(50)), millis(r.getPercentile(99)),
+					millis(r.getPercentile(99.9))));
+		}
+		return sb.toString();
+	}
+
+	private static String formatRow(
+			final String format,
+			final String name,
+			final LatencyRecorder r,
+			final int durationSec) {
+		return String.format(format, name, r.getCount(), r.getErrors(),
+				(double) r.getCount() / durationSec,
+				millis(r.getPercentile(50)), millis(r.getPercentile(90)),
+				millis(r.getPercentile(99)), millis(r.getPercentile(99.9)),
+				millis(r.getMax()));
+	}
+
+	private static double millis(final long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static class Args {
+		@Parameter(names = {"-h", "--help"}, help = true,
+				description = "Display help.")
+		private boolean help;
+
+		@Parameter(names = {"-t", "--threads"},
+				description = "The number of worker threads.")
+		private int threads = 16;
+
+		@Parameter(names = {"-s", "--scaling"}, description =
+				"Run the mix at 1, 2, 4, and so on up to --threads worker threads, with a warm " +
+				"up before each run, and report the throughput and latency at each level. " +
+				"--rate is ignored.")
+		private boolean scaling;
+
+		@Parameter(names = {"-p", "--server-threads"}, description =
+				"The maximum size of the server's request thread pool. Defaults to the Jetty " +
+				"default.")
+		private Integer serverThreads;
+
+		@Parameter(names = {"--memory"}, description =
+				"Back the server with an in memory storage system rather than MongoDB, which " +
+				"measures the cost of the server without the database.")
+		private boolean memory;
+
+		@Parameter(names = {"-r", "--rate"}, description =
+				"The total number of operations to start per second. If 0, each worker " +
+				"starts an operation as soon as its previous operation completes.")
+		private double rate = 0;
+
+		@Parameter(names = {"-w", "--warmup"},
+				description = "The length of the unrecorded warm up period in seconds.")
+		private int warmup = 10;
+
+		@Parameter(names = {"-d", "--duration"},
+				description = "The length of the recorded period in seconds.")
+		private int duration = 60;
+
+		@Parameter(names = {"-u", "--users"},
+				description = "The number of standard users to create.")
+		private int users = 1000;
+
+		@Parameter(names = {"-l", "--local-users"},
+				description = "The number of local users to create.")
+		private int localUsers = 50;
+
+		@Parameter(names = {"-m", "--mix"}, description =
+				"A comma separated list of operation=weight pairs, for example " +
+				"introspect=10,me=5. Operations that are not listed are not performed. " +
+				"The operations are introspect, me, displaynames, search, agenttoken, " +
+				"locallogin, oauthlogin, legacykbase, globustoken, and globususer. " +
+				"The default mix is " +
+				"introspect=30,me=15,displaynames=15,search=5,agenttoken=3,locallogin=3," +
+				"oauthlogin=4,legacykbase=10,globustoken=10,globususer=5.")
+		private String mix;
+	}
+
+	/** Run a load test. Run with --help for the options.
+	 * @param args the command line arguments.
+	 * @throws Exception if the load test fails.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final Args a = new Args();
+		final JCommander jc = new JCommander(a);
+		jc.setProgramName(NAME);
+		try {
+			jc.parse(args);
+		} catch (ParameterException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		if (a.help) {
+			jc.usage();
+			return;
+		}
+		if (a.threads < 1 || a.warmup < 0 || a.duration < 1 || a.rate < 0 ||
+				(a.serverThreads != null && a.serverThreads < 1)) {
+			System.err.println("threads, server threads, and duration must be positive and " +
+					"warmup and rate must not be negative");
+			System.exit(1);
+		}
+		final Map<Operation, Integer> mix;
+		try {
+			mix = a.mix == null ? getDefaultMix() : parseMix(a.mix);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		final AuthLoadGenerator gen = new AuthLoadGenerator(a.users, a.localUsers);
+		int exit = 0;
+		try {
+			gen.start(a.threads, a.serverThreads, a.memory);
+			if (a.scaling) {
+				final Map<Integer, Map<Operation, LatencyRecorder>> results = new TreeMap<>();
+				for (final int threads: getScalingLevels(a.threads)) {
+					System.out.println(String.format(
+							"Running %s threads at full speed for %ss after a %ss warm up",
+							threads, a.duration, a.warmup));
+					results.put(threads, gen.run(mix, threads, 0, a.warmup, a.duration));
+				}
+				System.out.print(formatScalingReport(results, a.duration));
+			} else {
+				System.out.println(String.format(
+						"Running %s threads at %s for %ss after a %ss warm up", a.threads,
+						a.rate > 0 ? a.rate + " ops/s" : "full speed", a.duration, a.warmup));
+				final Map<Operation, LatencyRecorder> results = gen.run(
+						mix, a.threads, a.rate, a.warmup, a.duration);
+				System.out.print(formatReport(results, a.duration));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			exit = 1;
+		} finally {
+			gen.stop();
+		}
+		// the server and client may leave non-daemon threads running
+		System.exit(exit);
+	}
+}
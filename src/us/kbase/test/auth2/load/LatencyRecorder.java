@@ -0,0 +1,99 @@
+package us.kbase.test.auth2.load;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Records the latencies and errors of one operation for a load test.
+ *
+ * Every latency is kept so that the percentiles are exact. A recorder is not thread safe - each
+ * load generator worker records into its own recorders, which are merged when the run is
+ * complete.
+ */
+public class LatencyRecorder {
+
+	private long[] latencies = new long[1024];
+	private int count = 0;
+	private long errors = 0;
+	private boolean sorted = true;
+
+	/** Record the latency of a successful operation.
+	 * @param nanos the latency in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		latencies[count++] = nanos;
+		sorted = false;
+	}
+
+	/** Record a failed operation. */
+	public void recordError() {
+		errors++;
+	}
+
+	/** Get the number of successful operations.
+	 * @return the number of operations.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/** Get the number of failed operations.
+	 * @return the number of errors.
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** Get a latency percentile.
+	 * @param percentile the percentile, between 0 and 100.
+	 * @return the latency in nanoseconds, or 0 if no latencies have been recorded.
+	 */
+	public long getPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		sort();
+		// nearest rank
+		final int rank = (int) Math.ceil(percentile / 100 * count);
+		return latencies[Math.max(rank, 1) - 1];
+	}
+
+	/** Get the largest latency.
+	 * @return the latency in nanoseconds, or 0 if no latencies have been recorded.
+	 */
+	public long getMax() {
+		return getPercentile(100);
+	}
+
+	private void sort() {
+		if (!sorted) {
+			Arrays.sort(latencies, 0, count);
+			sorted = true;
+		}
+	}
+
+	/** Merge recorders into a single recorder.
+	 * @param recorders the recorders to merge.
+	 * @return a new recorder containing the latencies and errors of all the recorders.
+	 */
+	public static LatencyRecorder merge(final List<LatencyRecorder> recorders) {
+		final LatencyRecorder ret = new LatencyRecorder();
+		int total = 0;
+		for (final LatencyRecorder r: recorders) {
+			total += r.count;
+		}
+		ret.latencies = new long[Math.max(total, 1)];
+		for (final LatencyRecorder r: recorders) {
+			System.arraycopy(r.latencies, 0, ret.latencies, ret.count, r.count);
+			ret.count += r.count;
+			ret.errors += r.errors;
+		}
+		ret.sorted = ret.count == 0;
+		return ret;
+	}
+}
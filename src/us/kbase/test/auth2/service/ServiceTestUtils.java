@@ -10,6 +10,7 @@ import static org.mockito.Mockito.when;
 import static us.kbase.test.auth2.TestCommon.set;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -51,11 +52,13 @@ import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.exceptions.AuthException;
 import us.kbase.auth2.lib.identity.IdentityProvider;
+import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TokenName;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.service.AuthExternalConfig;
+import us.kbase.auth2.service.AuthenticationService;
 import us.kbase.common.test.RegexMatcher;
 import us.kbase.test.auth2.MockIdentityProviderFactory;
 import us.kbase.test.auth2.MongoStorageTestManager;
@@ -73,10 +76,19 @@ public class ServiceTestUtils {
 	 */
 	public static IncomingToken getAdminToken(final MongoStorageTestManager manager)
 			throws Exception {
-		final String rootpwd = "foobarwhoowhee";
 		when(manager.mockClock.instant()).thenReturn(Instant.now());
+		return getAdminToken(manager.storage);
+	}
+	
+	/** Set up a root account and an admin account and return a token for the admin.
+	 * @param storage the storage system that will be affected.
+	 * @return a new token for an admin called 'admin' with CREATE_ADMIN and ADMIN roles.
+	 * @throws Exception if bad things happen.
+	 */
+	public static IncomingToken getAdminToken(final AuthStorage storage) throws Exception {
+		final String rootpwd = "foobarwhoowhee";
 		final Authentication auth = new Authentication(
-				manager.storage, set(), AuthExternalConfig.SET_DEFAULT);
+				storage, set(), AuthExternalConfig.SET_DEFAULT);
 		auth.createRoot(new Password(rootpwd.toCharArray()));
 		final String roottoken = auth.localLogin(UserName.ROOT,
 				new Password(rootpwd.toCharArray()),
@@ -320,11 +332,33 @@ public class ServiceTestUtils {
 		assertThat("incorrect user", st.getUserName(), is(userName));
 	}
 	
+	/** Write any updates buffered by the running server, such as last login dates, to the
+	 * database.
+	 * @throws Exception if an exception occurs.
+	 */
+	public static void flushServer() throws Exception {
+		final Method method = AuthenticationService.class.getDeclaredMethod("flush");
+		method.setAccessible(true);
+		method.invoke(null);
+	}
+	
+	/** Discard any data cached by the running server, so that changes made directly to the
+	 * database are visible immediately.
+	 * @throws Exception if an exception occurs.
+	 */
+	public static void clearServerCaches() throws Exception {
+		final Method method = AuthenticationService.class.getDeclaredMethod("clearCaches");
+		method.setAccessible(true);
+		method.invoke(null);
+	}
+	
 	public static void resetServer(
 			final MongoStorageTestManager manager,
 			final String host,
 			final String cookieName)
 			throws Exception {
+		// write any buffered updates now so they don't leak into the next test's data
+		flushServer();
 		manager.reset(); // destroy any admins that already exist
 		//force a config reset
 		final IncomingToken admintoken = getAdminToken(manager);
@@ -334,6 +368,7 @@ public class ServiceTestUtils {
 		assertThat("unable to reset server config", r.getStatus(), is(204));
 		// destroy the users and config again
 		manager.reset();
+		clearServerCaches();
 		insertStandardConfig(manager);
 		
 		// This is very bad form but it takes too long to start the server up for every test
@@ -360,9 +395,17 @@ public class ServiceTestUtils {
 			final MongoStorageTestManager manager,
 			final String dbName,
 			final String cookieName) throws IOException {
+		return generateTempConfigFile(
+				"localhost:" + manager.mongo.getServerPort(), dbName, cookieName);
+	}
+	
+	public static Path generateTempConfigFile(
+			final String mongoHost,
+			final String dbName,
+			final String cookieName) throws IOException {
 		final Ini ini = new Ini();
 		final Section sec = ini.add("authserv2");
-		sec.add("mongo-host", "localhost:" + manager.mongo.getServerPort());
+		sec.add("mongo-host", mongoHost);
 		sec.add("mongo-db", dbName);
 		sec.add("token-cookie-name", cookieName);
 		// don't bother with logger name
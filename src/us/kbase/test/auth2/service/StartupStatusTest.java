@@ -0,0 +1,103 @@
+package us.kbase.test.auth2.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.service.StartupStatus;
+import us.kbase.test.auth2.TestCommon;
+
+public class StartupStatusTest {
+
+	@Test
+	public void empty() {
+		final StartupStatus s = new StartupStatus();
+		assertThat("incorrect ready", s.isReady(), is(true));
+		assertThat("incorrect readiness", s.getReadiness(), is(Collections.emptyMap()));
+		assertThat("incorrect times", s.getStartupMillis(), is(Collections.emptyMap()));
+	}
+
+	@Test
+	public void timeAndRegister() throws Exception {
+		final StartupStatus s = new StartupStatus();
+		final AtomicBoolean warm = new AtomicBoolean(false);
+		s.register("foo", () -> warm.get());
+		final String res = s.time("bar", () -> {
+			Thread.sleep(20);
+			return "baz";
+		});
+		assertThat("incorrect result", res, is("baz"));
+		assertThat("incorrect ready", s.isReady(), is(false));
+		assertThat("incorrect readiness", s.getReadiness(),
+				is(ImmutableMap.of("foo", false, "bar", true)));
+		assertThat("incorrect time", s.getStartupMillis().get("bar") >= 20, is(true));
+		assertThat("incorrect times", s.getStartupMillis().keySet(),
+				is(Collections.singleton("bar")));
+
+		warm.set(true);
+		assertThat("incorrect ready", s.isReady(), is(true));
+		assertThat("incorrect readiness", s.getReadiness(),
+				is(ImmutableMap.of("foo", true, "bar", true)));
+	}
+
+	@Test
+	public void timeFail() throws Exception {
+		final StartupStatus s = new StartupStatus();
+		try {
+			s.time("foo", () -> {
+				throw new IllegalStateException("whoops");
+			});
+			fail("expected exception");
+		} catch (IllegalStateException got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalStateException("whoops"));
+		}
+		assertThat("failed component recorded", s.getReadiness(), is(Collections.emptyMap()));
+
+		failTime(s, null, () -> "foo", new IllegalArgumentException("Missing argument: component"));
+		failTime(s, "  \t  ", () -> "foo",
+				new IllegalArgumentException("Missing argument: component"));
+		failTime(s, "foo", null, new NullPointerException("step"));
+	}
+
+	private void failTime(
+			final StartupStatus s,
+			final String component,
+			final StartupStatus.StartupStep<String, Exception> step,
+			final Exception e) {
+		try {
+			s.time(component, step);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void registerFail() throws Exception {
+		final StartupStatus s = new StartupStatus();
+		failRegister(s, null, () -> true, new IllegalArgumentException(
+				"Missing argument: component"));
+		failRegister(s, "foo", null, new NullPointerException("ready"));
+	}
+
+	private void failRegister(
+			final StartupStatus s,
+			final String component,
+			final BooleanSupplier ready,
+			final Exception e) {
+		try {
+			s.register(component, ready);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package us.kbase.test.auth2.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.service.UserAgentParser;
+import us.kbase.test.auth2.TestCommon;
+
+public class UserAgentParserTest {
+
+	private static final String CHROME = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+			"(KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36";
+
+	// building analyzers is slow, so share them
+	private static UserAgentParser PARSER;
+
+	@BeforeClass
+	public static void beforeClass() {
+		PARSER = new UserAgentParser(2, 10);
+	}
+
+	@Test
+	public void parse() throws Exception {
+		assertThat("incorrect ready", PARSER.isReady(), is(true));
+		final TokenCreationContext tcc = PARSER.getTokenContextFromUserAgent(CHROME).build();
+		assertThat("incorrect agent", tcc.getAgent(), is(Optional.of("Chrome")));
+		assertThat("incorrect os", tcc.getOS(), is(Optional.of("Linux")));
+
+		// cached
+		assertThat("incorrect context", PARSER.getTokenContextFromUserAgent(CHROME).build(),
+				is(tcc));
+	}
+
+	@Test
+	public void parseUnparseable() throws Exception {
+		// null and overly long strings aren't cached
+		final StringBuilder longUA = new StringBuilder();
+		while (longUA.length() <= 1000) {
+			longUA.append("here's some junk you can't parse ");
+		}
+		for (final String ua: new String[] {null, "", "here's some junk you can't parse",
+				longUA.toString()}) {
+			final TokenCreationContext tcc = PARSER.getTokenContextFromUserAgent(ua).build();
+			assertThat("incorrect context", PARSER.getTokenContextFromUserAgent(ua).build(),
+					is(tcc));
+		}
+	}
+
+	@Test
+	public void builderIsNotShared() throws Exception {
+		final TokenCreationContext tcc = PARSER.getTokenContextFromUserAgent(CHROME)
+				.withCustomContext("foo", "bar").build();
+		assertThat("incorrect custom context", tcc.getCustomContext().size(), is(1));
+		assertThat("context leaked into cache", PARSER.getTokenContextFromUserAgent(CHROME)
+				.build().getCustomContext().size(), is(0));
+	}
+
+	@Test
+	public void parseConcurrently() throws Exception {
+		final TokenCreationContext expected = PARSER.getTokenContextFromUserAgent(CHROME).build();
+		final ExecutorService exe = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<TokenCreationContext>> res = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				// mix of cache hits and misses, with more distinct strings than the cache holds
+				final String ua = i % 2 == 0 ? CHROME : CHROME + " foo" + (i % 20);
+				res.add(exe.submit(() -> PARSER.getTokenContextFromUserAgent(ua).build()));
+			}
+			for (int i = 0; i < 200; i += 2) {
+				assertThat("incorrect context", res.get(i).get(), is(expected));
+			}
+		} finally {
+			exe.shutdown();
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(0, 1, new IllegalArgumentException("analyzerCount must be at least 1"));
+		failConstruct(1, -1, new IllegalArgumentException("cacheSize must be at least 0"));
+		try {
+			new UserAgentParser(1, 1, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("builder"));
+		}
+	}
+
+	@Test
+	public void buildInBackground() throws Exception {
+		final List<Runnable> builds = new ArrayList<>();
+		final UserAgentParser p = new UserAgentParser(1, 1, r -> builds.add(r));
+		assertThat("incorrect ready", p.isReady(), is(false));
+		assertThat("incorrect build count", builds.size(), is(1));
+		builds.get(0).run();
+		assertThat("incorrect ready", p.isReady(), is(true));
+		assertThat("incorrect agent", p.getTokenContextFromUserAgent(CHROME).build().getAgent(),
+				is(Optional.of("Chrome")));
+	}
+
+	private UserAgentParser failingParser(final int analyzers, final Executor builder)
+			throws Exception {
+		final Constructor<UserAgentParser> con = UserAgentParser.class.getDeclaredConstructor(
+				int.class, int.class, Executor.class, Supplier.class);
+		con.setAccessible(true);
+		final Supplier<UserAgentAnalyzer> factory = () -> {
+			throw new OutOfMemoryError("no room");
+		};
+		return con.newInstance(analyzers, 10, builder, factory);
+	}
+
+	@Test
+	public void buildFailure() throws Exception {
+		final UserAgentParser p = failingParser(2, r -> r.run());
+		assertThat("incorrect ready", p.isReady(), is(false));
+		assertThat("incorrect error", p.getBuildError(),
+				is(Optional.of("OutOfMemoryError: no room")));
+		final TokenCreationContext tcc = p.getTokenContextFromUserAgent(CHROME).build();
+		assertThat("incorrect agent", tcc.getAgent(), is(Optional.absent()));
+		assertThat("incorrect os", tcc.getOS(), is(Optional.absent()));
+		assertThat("incorrect device", tcc.getDevice(), is(Optional.absent()));
+	}
+
+	@Test
+	public void buildFailureInBackground() throws Exception {
+		// parsing waits for the builds, and returns rather than hanging when they all fail
+		final List<Runnable> builds = new ArrayList<>();
+		final UserAgentParser p = failingParser(2, r -> builds.add(r));
+		final ExecutorService exe = Executors.newSingleThreadExecutor();
+		try {
+			final Future<TokenCreationContext> res = exe.submit(
+					() -> p.getTokenContextFromUserAgent(CHROME).build());
+			builds.get(0).run();
+			assertThat("incorrect error", p.getBuildError(), is(Optional.absent()));
+			assertThat("parse completed early", res.isDone(), is(false));
+			builds.get(1).run();
+			assertThat("incorrect agent", res.get(10, TimeUnit.SECONDS).getAgent(),
+					is(Optional.absent()));
+			assertThat("incorrect ready", p.isReady(), is(false));
+			assertThat("incorrect error", p.getBuildError(),
+					is(Optional.of("OutOfMemoryError: no room")));
+		} finally {
+			exe.shutdownNow();
+		}
+	}
+
+	private void failConstruct(final int analyzers, final int cacheSize, final Exception e) {
+		try {
+			new UserAgentParser(analyzers, cacheSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+}
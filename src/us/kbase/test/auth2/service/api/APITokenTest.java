@@ -28,6 +28,18 @@ public class APITokenTest {
 		
 		assertThat("incorrect id", t.getId(), is(id.toString()));
 		assertThat("incorrect cache time", t.getCachefor(), is(20000L));
+		assertThat("incorrect signed token", t.getSigned(), is((String) null));
+	}
+	
+	@Test
+	public void apiTokenConstructSigned() throws Exception {
+		final APIToken t = new APIToken(StoredToken.getBuilder(
+				TokenType.AGENT, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), 15000)
+				.build(),
+				20000L, "a.b.c");
+		
+		assertThat("incorrect signed token", t.getSigned(), is("a.b.c"));
 	}
 	
 	
@@ -44,6 +56,20 @@ public class APITokenTest {
 		assertThat("incorrect id", t.getId(), is(id.toString()));
 		assertThat("incorrect cache time", t.getCachefor(), is(20000L));
 		assertThat("incorrect token", t.getToken(), is("foobar"));
+		assertThat("incorrect signed token", t.getSigned(), is((String) null));
+	}
+	
+	@Test
+	public void newApiTokenConstructSigned() throws Exception {
+		final NewAPIToken t = new NewAPIToken(new NewToken(StoredToken.getBuilder(
+				TokenType.AGENT, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), 15000)
+				.build(),
+				"foobar"),
+				20000L, "a.b.c");
+		
+		assertThat("incorrect token", t.getToken(), is("foobar"));
+		assertThat("incorrect signed token", t.getSigned(), is("a.b.c"));
 	}
 	
 }
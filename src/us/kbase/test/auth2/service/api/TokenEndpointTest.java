@@ -8,6 +8,7 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -45,6 +46,7 @@ import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.test.auth2.MapBuilder;
@@ -172,6 +174,47 @@ public class TokenEndpointTest {
 		failRequestJSON(res, 401, "Unauthorized", new InvalidTokenException());
 	}
 	
+	@Test
+	public void getKeysNoSigner() throws Exception {
+		// the test config doesn't enable signed tokens
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/keys").build();
+		
+		final Response res = CLI.target(target).request().get();
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+		
+		assertThat("incorrect keys", response,
+				is(ImmutableMap.of("keys", Collections.emptyList())));
+	}
+	
+	@Test
+	public void getRevocations() throws Exception {
+		final NewToken nt = setUpUser();
+		manager.storage.addTokenRevocationEvent(TokenRevocation.user(new UserName("whoo")));
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/revocations")
+				.queryParam("after", 0).build();
+		
+		final Response res = CLI.target(target).request()
+				.header("authorization", nt.getToken()).get();
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+		
+		assertThat("incorrect sequence", response.get("sequence"), is(1));
+		assertThat("incorrect reset", response.get("reset"), is(false));
+		@SuppressWarnings("unchecked")
+		final List<Map<String, Object>> revs = (List<Map<String, Object>>)
+				response.get("revocations");
+		assertThat("incorrect revocation count", revs.size(), is(1));
+		assertThat("incorrect scope", revs.get(0).get("scope"), is("USER"));
+		assertThat("incorrect user", revs.get(0).get("user"), is("whoo"));
+	}
+	
 	@Test
 	public void createTokenNoCustomContext() throws Exception {
 		final NewToken nt = setUpUser();
@@ -42,6 +42,7 @@ import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.PolicyID;
 import us.kbase.auth2.lib.Role;
 import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserUpdate;
 import us.kbase.auth2.lib.exceptions.AuthException;
 import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.IllegalParameterException;
@@ -553,6 +554,44 @@ public class UserEndpointTest {
 		assertThat("incorrect users", response, is(expected));
 	}
 	
+	@Test
+	public void getUserListETag() throws Exception {
+		final IncomingToken token = setUpUsersForTesting();
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/users")
+				.queryParam("list", "baz,mua")
+				.build();
+		
+		final Response res = CLI.target(target).request()
+				.header("authorization", token.getToken())
+				.get();
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		final String etag = res.getHeaderString("etag");
+		assertThat("missing etag", etag.startsWith("W/\""), is(true));
+		
+		final Response notmod = CLI.target(target).request()
+				.header("authorization", token.getToken())
+				.header("if-none-match", etag)
+				.get();
+		
+		assertThat("incorrect response code", notmod.getStatus(), is(304));
+		
+		manager.storage.updateUser(new UserName("baz"), UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("fuzz")).build());
+		ServiceTestUtils.clearServerCaches();
+		
+		final Response changed = CLI.target(target).request()
+				.header("authorization", token.getToken())
+				.header("if-none-match", etag)
+				.get();
+		
+		assertThat("incorrect response code", changed.getStatus(), is(200));
+		assertThat("etag not changed", changed.getHeaderString("etag").equals(etag), is(false));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = changed.readEntity(Map.class);
+		assertThat("incorrect users", response, is(ImmutableMap.of("baz", "fuzz", "mua", "paz")));
+	}
+	
 	private IncomingToken setUpUsersForTesting() throws Exception {
 		final PasswordHashAndSalt creds = new PasswordHashAndSalt(
 				"foobarbazbing".getBytes(), "aa".getBytes());
@@ -0,0 +1,36 @@
+package us.kbase.test.auth2.service.exceptions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.exceptions.UnsupportedStorageOperationException;
+import us.kbase.auth2.service.exceptions.ErrorMessage;
+
+public class ErrorMessageTest {
+
+	@Test
+	public void storageFailure() throws Exception {
+		final ErrorMessage em = new ErrorMessage(
+				new AuthStorageException("whoops"), "callid", false);
+		assertThat("incorrect code", em.getHttpcode(), is(500));
+		assertThat("incorrect app code", em.getAppcode(), is(nullValue()));
+		assertThat("incorrect message", em.getMessage(), is("whoops"));
+	}
+
+	@Test
+	public void unsupportedStorageOperation() throws Exception {
+		final ErrorMessage em = new ErrorMessage(
+				new UnsupportedStorageOperationException("only tokens"), "callid", false);
+		assertThat("incorrect code", em.getHttpcode(), is(400));
+		assertThat("incorrect app code", em.getAppcode(),
+				is(ErrorType.UNSUPPORTED_OP.getErrorCode()));
+		assertThat("incorrect app error", em.getApperror(),
+				is(ErrorType.UNSUPPORTED_OP.getError()));
+		assertThat("incorrect message", em.getMessage(), is("only tokens"));
+	}
+}
@@ -1434,6 +1434,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckSessionToken(res);
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -1465,6 +1466,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, Collections.emptyMap(), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -1497,6 +1499,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckExtendedToken(res, ImmutableMap.of("a", "1", "b", "2"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("expected two identities", u.getIdentities(), is(set(REMOTE1, REMOTE3)));
@@ -1537,6 +1540,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, ImmutableMap.of("a", "1", "b", "2"), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("expected two identities", u.getIdentities(), is(set(REMOTE1, REMOTE3)));
@@ -1570,6 +1574,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckSessionToken(res);
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -1606,6 +1611,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, Collections.emptyMap(), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -1946,6 +1952,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckSessionToken(res);
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -1984,6 +1991,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, Collections.emptyMap(), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -2021,6 +2029,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckExtendedToken(res, ImmutableMap.of("a", "1", "b", "2"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("expected two identities", u.getIdentities(), is(set(REMOTE1, REMOTE2)));
@@ -2071,6 +2080,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, ImmutableMap.of("a", "1", "b", "2"), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("expected two identities", u.getIdentities(), is(set(REMOTE1, REMOTE2)));
@@ -2109,6 +2119,7 @@ public class LoginTest {
 		
 		loginPickOrCreateCheckSessionToken(res);
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -2155,6 +2166,7 @@ public class LoginTest {
 		final Map<String, Object> token = (Map<String, Object>) response.get("token");
 		checkLoginToken(token, Collections.emptyMap(), new UserName("u1"));
 		
+		ServiceTestUtils.flushServer();
 		final AuthUser u = manager.storage.getUser(new UserName("u1"));
 		TestCommon.assertCloseToNow(u.getLastLogin().get());
 		assertThat("only one identity", u.getIdentities(), is(set(REMOTE1)));
@@ -12,6 +12,7 @@ import java.net.URI;
 import java.net.URL;
 import java.nio.file.InvalidPathException;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
@@ -21,6 +22,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.junit.Test;
@@ -35,12 +37,15 @@ import us.kbase.auth2.lib.config.ConfigItem;
 import us.kbase.auth2.lib.exceptions.AuthException;
 import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenListSpec;
+import us.kbase.auth2.lib.token.TokenPage;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.service.AuthExternalConfig;
 import us.kbase.auth2.service.ui.UIUtils;
@@ -327,6 +332,76 @@ public class UIUtilsTest {
 		}
 	}
 	
+	@Test
+	public void getTokenListSpecDefaults() throws Exception {
+		assertThat("incorrect spec", UIUtils.getTokenListSpecBuilder(null, null, null).build(),
+				is(TokenListSpec.getBuilder().build()));
+		assertThat("incorrect spec",
+				UIUtils.getTokenListSpecBuilder("  \t ", "   ", "  \t  ").build(),
+				is(TokenListSpec.getBuilder().build()));
+	}
+	
+	@Test
+	public void getTokenListSpec() throws Exception {
+		final UUID id = UUID.randomUUID();
+		assertThat("incorrect spec", UIUtils.getTokenListSpecBuilder(
+				" 20 ", "login, developer,Serv", "  10000_" + id + "  ").build(),
+				is(TokenListSpec.getBuilder()
+						.withLimit(20)
+						.withTokenType(TokenType.LOGIN)
+						.withTokenType(TokenType.DEV)
+						.withTokenType(TokenType.SERV)
+						.withStartAfter(Instant.ofEpochMilli(10000), id)
+						.build()));
+	}
+	
+	@Test
+	public void getTokenListSpecFail() throws Exception {
+		final String limerr = "limit must be an integer between 1 and 1000";
+		failGetTokenListSpec("foo", null, null, new IllegalParameterException(limerr));
+		failGetTokenListSpec("0", null, null, new IllegalParameterException(limerr));
+		failGetTokenListSpec("1001", null, null, new IllegalParameterException(limerr));
+		failGetTokenListSpec(null, "Login,foo", null,
+				new IllegalParameterException("Illegal token type: foo"));
+		failGetTokenListSpec(null, null, "10000", new IllegalParameterException(
+				"Illegal token list position: 10000"));
+		final String id = "e1e9b1a1-3b63-4ee4-9b32-4a1f50a5e5c2";
+		failGetTokenListSpec(null, null, "foo_" + id, new IllegalParameterException(
+				"Illegal token list position: foo_" + id));
+		failGetTokenListSpec(null, null, "10000_foo", new IllegalParameterException(
+				"Illegal token list position: 10000_foo"));
+	}
+	
+	private void failGetTokenListSpec(
+			final String limit,
+			final String types,
+			final String after,
+			final Exception e) {
+		try {
+			UIUtils.getTokenListSpecBuilder(limit, types, after);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void getNextTokensURL() throws Exception {
+		final UriInfo info = mock(UriInfo.class);
+		when(info.getRequestUriBuilder()).thenReturn(
+				UriBuilder.fromUri("http://localhost/foo/tokens?limit=2&after=1_foo"));
+		final UUID id = UUID.randomUUID();
+		final StoredToken t = StoredToken.getBuilder(TokenType.LOGIN, id, new UserName("u"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000)).build();
+		
+		assertThat("incorrect url", UIUtils.getNextTokensURL(
+				info, new TokenPage(Arrays.asList(t), true)),
+				is("?limit=2&after=20000_" + id));
+		assertThat("incorrect url", UIUtils.getNextTokensURL(
+				info, new TokenPage(Arrays.asList(t), false)), is((String) null));
+		assertThat("incorrect position", UIUtils.getTokenListPosition(t), is("20000_" + id));
+	}
+	
 	@Test
 	public void getTokenFromCookie() throws Exception {
 		final HttpHeaders h = mock(HttpHeaders.class);